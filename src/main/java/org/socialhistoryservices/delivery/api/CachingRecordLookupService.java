@@ -0,0 +1,410 @@
+package org.socialhistoryservices.delivery.api;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Decorates a record lookup service with a bounded, in-process cache of the metadata record extractors by PID.
+ * Prevents the same PID from being fetched from the API again within a short period of time.
+ */
+public class CachingRecordLookupService implements RecordLookupService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingRecordLookupService.class);
+
+    private final RecordLookupService lookup;
+    private final String itemSeparator;
+    private final Cache<String, MetadataRecordExtractor> cache;
+    private final ConcurrentMap<String, CompletableFuture<MetadataRecordExtractor>> inFlight =
+            new ConcurrentHashMap<>();
+    private final Set<String> deferredRefreshes = ConcurrentHashMap.newKeySet();
+    private final long maximumSize;
+    private ExecutorService executor;
+    private CircuitBreaker circuitBreaker;
+    private Cache<String, PageChunk> searchCache;
+    private ExecutorService prefetchExecutor;
+
+    /**
+     * Creates a new caching record lookup service.
+     *
+     * @param lookup        The record lookup service to decorate.
+     * @param itemSeparator The separator between the parent PID and the item.
+     * @param maximumSize   The maximum number of PIDs to cache.
+     * @param expireAfter   The time after which a cached PID expires.
+     */
+    public CachingRecordLookupService(RecordLookupService lookup, String itemSeparator,
+                                      long maximumSize, Duration expireAfter) {
+        this.lookup = lookup;
+        this.itemSeparator = itemSeparator;
+        this.maximumSize = maximumSize;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfter)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Set the executor to continue lookups on which exceed the latency budget of the caller.
+     * The executor should reject lookups when saturated; these are then treated as not found in time.
+     *
+     * @param executor The executor to use.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Set the circuit breaker of the API. Lookups with a latency budget which fail while the circuit is open
+     * are deferred, and continued in the background on the executor once the circuit closes.
+     *
+     * @param circuitBreaker The circuit breaker of the API.
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        circuitBreaker.addCloseListener(this::refreshDeferred);
+    }
+
+    /**
+     * Enables the cache of the pages of search results by title.
+     *
+     * @param maximumSize The maximum number of pages to cache.
+     * @param expireAfter The time after which a cached page expires.
+     */
+    public void setSearchCache(long maximumSize, Duration expireAfter) {
+        this.searchCache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfter)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Set the executor to prefetch the next page of search results by title on.
+     *
+     * @param prefetchExecutor The executor to use.
+     */
+    public void setPrefetchExecutor(ExecutorService prefetchExecutor) {
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
+    /**
+     * Stops the executors; running lookups are interrupted.
+     */
+    public void shutdown() {
+        if (executor != null)
+            executor.shutdownNow();
+        if (prefetchExecutor != null)
+            prefetchExecutor.shutdownNow();
+    }
+
+    /**
+     * Publishes the statistics of the cache (hits, misses, evictions) to the given registry.
+     *
+     * @param meterRegistry The registry.
+     */
+    public void bindTo(MeterRegistry meterRegistry) {
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "recordLookup");
+        if (searchCache != null)
+            CaffeineCacheMetrics.monitor(meterRegistry, searchCache, "recordSearch");
+    }
+
+    /**
+     * Search for records with the specified title, from the cache if available.
+     * Once found, the next page of the search results is prefetched in the background,
+     * so that paging through the search results does not have to wait for the API.
+     *
+     * @param title The title to search for.
+     * @return A map of {pid,title} key-value pairs.
+     */
+    @Override
+    public PageChunk getRecordsByTitle(String title, int resultCountPerChunk, int resultStart) {
+        if ((searchCache == null) || (title == null))
+            return lookup.getRecordsByTitle(title, resultCountPerChunk, resultStart);
+
+        PageChunk pc = searchRecordsByTitle(title, resultCountPerChunk, resultStart);
+
+        int nextResultStart = resultStart + resultCountPerChunk;
+        if ((prefetchExecutor != null) && (nextResultStart <= pc.getTotalResultCount())
+                && (searchCache.getIfPresent(getSearchKey(title, resultCountPerChunk, nextResultStart)) == null)) {
+            LOGGER.debug(String.format("getRecordsByTitle(): Prefetching the results of %s starting at %d",
+                    title, nextResultStart));
+            prefetchExecutor.execute(() -> searchRecordsByTitle(title, resultCountPerChunk, nextResultStart));
+        }
+
+        return pc;
+    }
+
+    /**
+     * Search for records with the specified title, from the cache if available.
+     * Concurrent searches of the same page (e.g. a prefetch and a request) share a single search.
+     * Searches without results are not cached, as the API might have been down.
+     *
+     * @param title               The title to search for.
+     * @param resultCountPerChunk The number of results per page.
+     * @param resultStart         The position of the first result of the page.
+     * @return The page of search results.
+     */
+    private PageChunk searchRecordsByTitle(String title, int resultCountPerChunk, int resultStart) {
+        String key = getSearchKey(title, resultCountPerChunk, resultStart);
+        PageChunk pc = searchCache.get(key, k -> lookup.getRecordsByTitle(title, resultCountPerChunk, resultStart));
+        if (pc.getTotalResultCount() == 0)
+            searchCache.invalidate(key);
+        return pc;
+    }
+
+    /**
+     * Returns the key of a page of search results in the cache.
+     * Titles which only differ in case or whitespace share the same search results.
+     *
+     * @param title               The title to search for.
+     * @param resultCountPerChunk The number of results per page.
+     * @param resultStart         The position of the first result of the page.
+     * @return The key.
+     */
+    private static String getSearchKey(String title, int resultCountPerChunk, int resultStart) {
+        String normalizedTitle = title.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        return normalizedTitle + '\n' + resultCountPerChunk + '\n' + resultStart;
+    }
+
+    /**
+     * Maps a PID to a record metadata extractor, from the cache if available.
+     * Concurrent lookups of the same PID share a single lookup and its result.
+     * PIDs which are not found are not cached, as the API might have been down.
+     *
+     * @param pid The PID to lookup.
+     * @return The metadata extractor of the record, if found.
+     * @throws NoSuchPidException Thrown when the PID is not found.
+     */
+    @Override
+    public MetadataRecordExtractor getRecordExtractorByPid(String pid) throws NoSuchPidException {
+        MetadataRecordExtractor recordExtractor = cache.getIfPresent(pid);
+        if (recordExtractor != null)
+            return recordExtractor;
+
+        CompletableFuture<MetadataRecordExtractor> lookupInFlight = new CompletableFuture<>();
+        CompletableFuture<MetadataRecordExtractor> otherLookupInFlight = inFlight.putIfAbsent(pid, lookupInFlight);
+        if (otherLookupInFlight != null) {
+            LOGGER.debug(String.format("getRecordExtractorByPid(): Waiting for lookup in flight of PID %s", pid));
+            return await(otherLookupInFlight, null);
+        }
+
+        lookup(pid, lookupInFlight);
+        return await(lookupInFlight, null);
+    }
+
+    /**
+     * Maps a PID to a record metadata extractor, from the cache if available, but waits at most the given time
+     * for a lookup in the API. If the lookup takes longer, it continues in the background and its result
+     * is cached, so it is available to the next request. If the lookup fails because the circuit of the API
+     * is open, it is continued in the background once the circuit closes.
+     *
+     * @param pid     The PID to lookup.
+     * @param maxWait The maximum time to wait for a lookup in the API.
+     * @return The metadata extractor of the record, if found.
+     * @throws NoSuchPidException Thrown when the PID is not found, or not found in time.
+     */
+    @Override
+    public MetadataRecordExtractor getRecordExtractorByPid(String pid, Duration maxWait) throws NoSuchPidException {
+        MetadataRecordExtractor recordExtractor = cache.getIfPresent(pid);
+        if (recordExtractor != null)
+            return recordExtractor;
+
+        CompletableFuture<MetadataRecordExtractor> lookupInFlight = new CompletableFuture<>();
+        CompletableFuture<MetadataRecordExtractor> otherLookupInFlight = inFlight.putIfAbsent(pid, lookupInFlight);
+        if (otherLookupInFlight != null) {
+            lookupInFlight = otherLookupInFlight;
+        }
+        else if (executor == null) {
+            lookup(pid, lookupInFlight);
+        }
+        else if (!lookupInBackground(pid, lookupInFlight)) {
+            // The executor is saturated; rather than looking up on the calling thread,
+            // which would exceed the latency budget, treat it as a lookup which did not complete in time
+            LOGGER.debug(String.format("getRecordExtractorByPid(): Lookup of PID %s rejected, " +
+                    "the executor is saturated", pid));
+        }
+
+        try {
+            return await(lookupInFlight, maxWait);
+        }
+        catch (NoSuchPidException ex) {
+            if ((circuitBreaker != null) && circuitBreaker.isOpen())
+                deferRefresh(pid);
+            throw ex;
+        }
+    }
+
+    /**
+     * Looks up the PID on the executor.
+     *
+     * @param pid            The PID to lookup.
+     * @param lookupInFlight The lookup in flight to complete.
+     * @return Whether the lookup was accepted; if not, the lookup in flight is completed as not found.
+     */
+    private boolean lookupInBackground(String pid, CompletableFuture<MetadataRecordExtractor> lookupInFlight) {
+        try {
+            executor.execute(() -> {
+                lookup(pid, lookupInFlight);
+                refreshDeferred();
+            });
+            return true;
+        }
+        catch (RejectedExecutionException ex) {
+            inFlight.remove(pid, lookupInFlight);
+            lookupInFlight.completeExceptionally(new NoSuchPidException());
+            return false;
+        }
+    }
+
+    /**
+     * Defers the lookup of a PID rejected by the open circuit, up to the maximum size of the cache,
+     * so that its result is cached once the circuit closes, rather than when the PID is next requested.
+     *
+     * @param pid The PID to lookup.
+     */
+    private void deferRefresh(String pid) {
+        if ((executor != null) && (deferredRefreshes.size() < maximumSize) && deferredRefreshes.add(pid))
+            LOGGER.debug(String.format("deferRefresh(): Lookup of PID %s deferred until the circuit closes", pid));
+    }
+
+    /**
+     * Continues the deferred lookups on the executor while the circuit is closed, as far as the executor
+     * accepts them. Every completed lookup continues the remaining deferred lookups.
+     */
+    private void refreshDeferred() {
+        Iterator<String> pids = deferredRefreshes.iterator();
+        while (pids.hasNext() && (circuitBreaker != null) && !circuitBreaker.isOpen()) {
+            String pid = pids.next();
+            if (!deferredRefreshes.remove(pid) || (cache.getIfPresent(pid) != null))
+                continue;
+
+            CompletableFuture<MetadataRecordExtractor> lookupInFlight = new CompletableFuture<>();
+            if (inFlight.putIfAbsent(pid, lookupInFlight) != null)
+                continue;
+
+            if (!lookupInBackground(pid, lookupInFlight)) {
+                deferredRefreshes.add(pid);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Looks up the PID, caches the result and completes the lookup in flight.
+     * A lookup which fails while the circuit is open is deferred until the circuit closes.
+     *
+     * @param pid            The PID to lookup.
+     * @param lookupInFlight The lookup in flight to complete.
+     */
+    private void lookup(String pid, CompletableFuture<MetadataRecordExtractor> lookupInFlight) {
+        try {
+            // The previous lookup in flight may just have been completed
+            MetadataRecordExtractor recordExtractor = cache.getIfPresent(pid);
+            if (recordExtractor == null) {
+                recordExtractor = new SynchronizedMetadataRecordExtractor(lookup.getRecordExtractorByPid(pid));
+                cache.put(pid, recordExtractor);
+            }
+            inFlight.remove(pid, lookupInFlight);
+            lookupInFlight.complete(recordExtractor);
+        }
+        catch (Throwable t) {
+            // No longer in flight, so a deferred lookup is not skipped as being in flight once the circuit closes
+            inFlight.remove(pid, lookupInFlight);
+
+            // Decide on deferring the lookup before the waiting lookups are released,
+            // as by then the circuit may have changed for reasons unrelated to this lookup
+            if ((circuitBreaker != null) && circuitBreaker.isOpen())
+                deferRefresh(pid);
+
+            // Make sure the waiting lookups are released as well
+            lookupInFlight.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Maps multiple PIDs to record metadata extractors.
+     * Only the PIDs which are not in the cache are looked up, using a single batch lookup.
+     *
+     * @param pids The PIDs to lookup.
+     * @return A map of {pid,metadata extractor} key-value pairs. PIDs which are not found are left out.
+     */
+    @Override
+    public Map<String, MetadataRecordExtractor> getRecordExtractorsByPids(Collection<String> pids) {
+        Map<String, MetadataRecordExtractor> recordExtractors = new HashMap<>(cache.getAllPresent(pids));
+
+        List<String> missingPids = new ArrayList<>();
+        for (String pid : pids) {
+            if (!recordExtractors.containsKey(pid))
+                missingPids.add(pid);
+        }
+
+        if (!missingPids.isEmpty()) {
+            for (Map.Entry<String, MetadataRecordExtractor> entry :
+                    lookup.getRecordExtractorsByPids(missingPids).entrySet()) {
+                MetadataRecordExtractor recordExtractor = new SynchronizedMetadataRecordExtractor(entry.getValue());
+                cache.put(entry.getKey(), recordExtractor);
+                recordExtractors.put(entry.getKey(), recordExtractor);
+            }
+        }
+
+        return recordExtractors;
+    }
+
+    private static MetadataRecordExtractor await(CompletableFuture<MetadataRecordExtractor> lookupInFlight,
+                                                 Duration maxWait) throws NoSuchPidException {
+        try {
+            if (maxWait == null)
+                return lookupInFlight.get();
+            return lookupInFlight.get(maxWait.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException ex) {
+            LOGGER.debug("await(): Lookup exceeded the latency budget, continuing in the background");
+            throw new NoSuchPidException();
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof NoSuchPidException)
+                throw (NoSuchPidException) ex.getCause();
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            if (ex.getCause() instanceof Error)
+                throw (Error) ex.getCause();
+            throw new IllegalStateException(ex.getCause());
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new NoSuchPidException();
+        }
+    }
+
+    /**
+     * Removes the given PID from the cache, including the items of the PID.
+     *
+     * @param pid The PID to remove.
+     */
+    public void evict(String pid) {
+        LOGGER.debug(String.format("evict(): Purging PID %s from the cache", pid));
+        String itemPrefix = pid + itemSeparator;
+        cache.asMap().keySet().removeIf(key -> key.equals(pid) || key.startsWith(itemPrefix));
+    }
+
+    /**
+     * Removes all PIDs from the cache.
+     */
+    public void evictAll() {
+        cache.invalidateAll();
+    }
+}
@@ -0,0 +1,131 @@
+package org.socialhistoryservices.delivery.api;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Circuit breaker for calls to an external service.
+ * After a number of consecutive failures the circuit opens and calls are rejected directly, rather than waiting
+ * for the service to time out. After a while, a single trial call is permitted; if it succeeds, the circuit closes.
+ * Listeners can be notified when the circuit closes, to catch up on the calls rejected while it was open.
+ */
+public class CircuitBreaker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private int failures = 0;
+    private boolean open = false;
+    private boolean trialInProgress = false;
+    private long openedAt;
+    private final List<Runnable> closeListeners = new CopyOnWriteArrayList<>();
+
+    private Counter rejectedCounter;
+
+    /**
+     * Creates a new circuit breaker.
+     *
+     * @param name             The name of the external service.
+     * @param failureThreshold The number of consecutive failures after which the circuit opens.
+     * @param openDuration     The time the circuit stays open before a trial call is permitted.
+     */
+    public CircuitBreaker(String name, int failureThreshold, Duration openDuration) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * Publishes the state of the circuit and the number of rejected calls to the given registry.
+     *
+     * @param meterRegistry The registry.
+     */
+    public void bindTo(MeterRegistry meterRegistry) {
+        Gauge.builder("delivery.circuit.open", this, cb -> cb.isOpen() ? 1 : 0)
+                .tag("name", name)
+                .register(meterRegistry);
+        rejectedCounter = Counter.builder("delivery.circuit.rejected")
+                .tag("name", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Determines whether a call is permitted. If so, the outcome of the call must be reported.
+     *
+     * @return Whether the call is permitted.
+     */
+    public synchronized boolean allowRequest() {
+        if (!open)
+            return true;
+
+        if (!trialInProgress && (System.nanoTime() - openedAt >= openNanos)) {
+            trialInProgress = true;
+            return true;
+        }
+
+        if (rejectedCounter != null)
+            rejectedCounter.increment();
+        return false;
+    }
+
+    /**
+     * Adds a listener to run when the circuit closes, on the thread reporting the successful call.
+     *
+     * @param listener The listener.
+     */
+    public void addCloseListener(Runnable listener) {
+        closeListeners.add(listener);
+    }
+
+    /**
+     * Reports a successful call; closes the circuit.
+     */
+    public void recordSuccess() {
+        boolean closed;
+        synchronized (this) {
+            closed = open;
+            failures = 0;
+            open = false;
+            trialInProgress = false;
+        }
+
+        if (closed) {
+            LOGGER.info(String.format("recordSuccess(): Circuit of %s closed", name));
+            closeListeners.forEach(Runnable::run);
+        }
+    }
+
+    /**
+     * Reports a failed call; opens the circuit if the threshold is reached or the trial call failed.
+     */
+    public synchronized void recordFailure() {
+        failures++;
+        trialInProgress = false;
+
+        if (open || (failures >= failureThreshold)) {
+            if (!open)
+                LOGGER.warn(String.format("recordFailure(): Circuit of %s opened after %d failures", name, failures));
+
+            open = true;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * Whether the circuit is open, i.e. calls are rejected.
+     *
+     * @return Whether the circuit is open.
+     */
+    public synchronized boolean isOpen() {
+        return open;
+    }
+}
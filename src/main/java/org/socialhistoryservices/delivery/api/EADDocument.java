@@ -0,0 +1,458 @@
+package org.socialhistoryservices.delivery.api;
+
+import org.socialhistoryservices.delivery.record.util.Inventory;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.*;
+
+/**
+ * Compact, immutable representation of the parts of an EAD finding aid needed for a single record:
+ * the metadata of the archive, and either its inventory (for the archive itself)
+ * or the requested item with its container siblings (for an item of the archive).
+ * It is read from the DOM in a single pass, after which the DOM is no longer referenced.
+ */
+public final class EADDocument {
+    private static final String EAD_NAMESPACE = "urn:isbn:1-931666-22-9";
+    private static final Set<String> COMPONENTS = new HashSet<>(Arrays.asList(
+            "c01", "c02", "c03", "c04", "c05", "c06", "c07", "c08", "c09", "c10", "c11", "c12"));
+
+    private final String title;
+    private final String author;
+    private final String physicalDescription;
+    private final String unitId;
+    private final String accessRestrictType;
+    private final String accessRestrictText;
+    private final Inventory inventory;
+    private final Item item;
+    private final List<Item> containerItems;
+
+    private EADDocument(String title, String author, String physicalDescription, String unitId,
+                        String accessRestrictType, String accessRestrictText, Inventory inventory,
+                        Item item, List<Item> containerItems) {
+        this.title = title;
+        this.author = author;
+        this.physicalDescription = physicalDescription;
+        this.unitId = unitId;
+        this.accessRestrictType = accessRestrictType;
+        this.accessRestrictText = accessRestrictText;
+        this.inventory = inventory;
+        this.item = item;
+        this.containerItems = containerItems;
+    }
+
+    /**
+     * Reads the EAD finding aid for the archive itself (with its inventory), or for an item of the archive.
+     *
+     * @param ead  The EAD node.
+     * @param item The item, or null for the archive itself.
+     * @return The EAD document.
+     */
+    public static EADDocument read(Node ead, String item) {
+        Reader reader = new Reader(item);
+        reader.read(ead);
+        return reader.toDocument();
+    }
+
+    /**
+     * Returns the same EAD document for another item in the same container.
+     *
+     * @param containerItem The item in the same container.
+     * @return The EAD document for the given item.
+     */
+    public EADDocument forContainerItem(Item containerItem) {
+        return new EADDocument(title, author, physicalDescription, unitId, accessRestrictType,
+                accessRestrictText, null, containerItem, containerItems);
+    }
+
+    /**
+     * Returns the normalized title of the first unit.
+     *
+     * @return The title, or an empty string if not found.
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Returns the normalized name of the creator.
+     *
+     * @return The author, or an empty string if not found.
+     */
+    public String getAuthor() {
+        return author;
+    }
+
+    /**
+     * Returns the normalized extent of the physical description.
+     *
+     * @return The physical description, or an empty string if not found.
+     */
+    public String getPhysicalDescription() {
+        return physicalDescription;
+    }
+
+    /**
+     * Returns the id of the first unit, as found in the document.
+     *
+     * @return The unit id, or an empty string if not found.
+     */
+    public String getUnitId() {
+        return unitId;
+    }
+
+    /**
+     * Returns the type of the access restriction of the archive.
+     *
+     * @return The type in lower case, or null if the archive has no access restriction.
+     */
+    public String getAccessRestrictType() {
+        return accessRestrictType;
+    }
+
+    /**
+     * Returns the normalized first paragraph of the access restriction of the archive.
+     *
+     * @return The text of the access restriction, or null if the archive has no access restriction.
+     */
+    public String getAccessRestrictText() {
+        return accessRestrictText;
+    }
+
+    /**
+     * Returns the inventory of the archive.
+     *
+     * @return The inventory, or null if read for an item, or if the archive has no inventory.
+     */
+    public Inventory getInventory() {
+        return inventory;
+    }
+
+    /**
+     * Returns the requested item.
+     *
+     * @return The item, or null if read for the archive itself, or if the item was not found.
+     */
+    public Item getItem() {
+        return item;
+    }
+
+    /**
+     * Returns all items in the same container as the requested item, including the requested item.
+     *
+     * @return The items in the same container.
+     */
+    public List<Item> getContainerItems() {
+        return containerItems;
+    }
+
+    /**
+     * An item of the archive: a component with a single unit id.
+     */
+    public static final class Item {
+        private final String unitId;
+        private final String container;
+        private final String accessRestrictType;
+
+        private Item(String unitId, String container, String accessRestrictType) {
+            this.unitId = unitId;
+            this.container = container;
+            this.accessRestrictType = accessRestrictType;
+        }
+
+        /**
+         * Returns the unit id of the item.
+         *
+         * @return The unit id.
+         */
+        public String getUnitId() {
+            return unitId;
+        }
+
+        /**
+         * Returns the normalized name of the (first) box the item is stored in.
+         *
+         * @return The container, or an empty string if not found.
+         */
+        public String getContainer() {
+            return container;
+        }
+
+        /**
+         * Returns the type of the access restriction of the item.
+         *
+         * @return The type, or null if the item has no access restriction.
+         */
+        public String getAccessRestrictType() {
+            return accessRestrictType;
+        }
+    }
+
+    /**
+     * Reads the EAD document in a single walk over the DOM.
+     */
+    private static final class Reader {
+        private final String requestedItem;
+
+        private String title, author, physicalDescription, unitId;
+        private String accessRestrictType, accessRestrictText;
+        private boolean inArchdesc, archdescSeen;
+        private boolean inFirstDsc, dscSeen;
+        private int dscDepth;
+
+        // The root of the inventory, only read for the archive itself
+        private Inventory inventory;
+
+        // The components which are currently open, innermost first
+        private final Deque<Component> openComponents = new ArrayDeque<>();
+
+        // The component of the first unit id matching the requested item
+        private Component requestedComponent;
+        private Item item;
+
+        // The items per box, only read for an item
+        private final Map<String, Map<String, Item>> itemsPerContainer = new HashMap<>();
+
+        private Reader(String requestedItem) {
+            this.requestedItem = requestedItem;
+        }
+
+        private void read(Node node) {
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE)
+                    readElement((Element) child);
+            }
+        }
+
+        private void readElement(Element element) {
+            if (!EAD_NAMESPACE.equals(element.getNamespaceURI())) {
+                read(element);
+                return;
+            }
+
+            String name = element.getLocalName();
+            Component component = openComponents.peek();
+            switch (name) {
+                case "unittitle":
+                    if (title == null)
+                        title = normalize(element.getTextContent());
+                    break;
+                case "persname":
+                    if ((author == null) && isChildOf(element, "origination")
+                            && "Creator".equals(((Element) element.getParentNode()).getAttribute("label")))
+                        author = normalize(element.getTextContent());
+                    break;
+                case "extent":
+                    if ((physicalDescription == null) && isChildOf(element, "physdesc")
+                            && "Physical Description".equals(((Element) element.getParentNode()).getAttribute("label")))
+                        physicalDescription = normalize(element.getTextContent());
+                    break;
+                case "unitid":
+                    readUnitId(element, component);
+                    break;
+                case "container":
+                    if ((component != null) && "box".equals(element.getAttribute("type")))
+                        readContainer(normalize(element.getTextContent()));
+                    break;
+                case "accessrestrict":
+                    readAccessRestrict(element, component);
+                    break;
+                case "archdesc":
+                    if (!archdescSeen) {
+                        archdescSeen = true;
+                        inArchdesc = true;
+                        read(element);
+                        inArchdesc = false;
+                        return;
+                    }
+                    break;
+                case "dsc":
+                    boolean firstDsc = !dscSeen;
+                    if (firstDsc && (requestedItem == null)) {
+                        inventory = new Inventory();
+                        inventory.setChildren(new ArrayList<>());
+                    }
+
+                    dscSeen = true;
+                    inFirstDsc = firstDsc;
+                    dscDepth++;
+                    read(element);
+                    dscDepth--;
+                    inFirstDsc = false;
+                    return;
+            }
+
+            if (COMPONENTS.contains(name) && (dscDepth > 0)) {
+                readComponent(element, component);
+                return;
+            }
+
+            read(element);
+        }
+
+        private void readUnitId(Element element, Component component) {
+            String text = element.getTextContent();
+            if (unitId == null)
+                unitId = text;
+
+            for (Component openComponent : openComponents)
+                openComponent.unitIds++;
+
+            if ((component != null) && (component.unitId == null))
+                component.unitId = text;
+
+            if ((requestedItem != null) && (requestedComponent == null) && (component != null)
+                    && requestedItem.equals(normalize(text)))
+                requestedComponent = component;
+        }
+
+        private void readContainer(String container) {
+            boolean nearest = true;
+            for (Component openComponent : openComponents) {
+                if (openComponent.container == null)
+                    openComponent.container = container;
+                if (nearest)
+                    openComponent.containers.add(container);
+                nearest = false;
+            }
+        }
+
+        private void readAccessRestrict(Element element, Component component) {
+            if (inArchdesc && (accessRestrictType == null)) {
+                accessRestrictType = element.getAttribute("type").toLowerCase();
+                accessRestrictText = "";
+                for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    if ((child.getNodeType() == Node.ELEMENT_NODE) && "p".equals(child.getLocalName())) {
+                        accessRestrictText = normalize(child.getTextContent());
+                        break;
+                    }
+                }
+            }
+
+            for (Component openComponent : openComponents) {
+                if (openComponent.accessRestrictType == null)
+                    openComponent.accessRestrictType = element.getAttribute("type");
+            }
+        }
+
+        private void readComponent(Element element, Component parent) {
+            Component component = new Component();
+
+            // The inventory follows the nesting of the components directly below the first description
+            if ((inventory != null) && inFirstDsc) {
+                Node parentNode = element.getParentNode();
+                if ((parent != null) && (parentNode == parent.element) && (parent.inventory != null)) {
+                    component.inventory = createInventory(element);
+                    parent.inventory.getChildren().add(component.inventory);
+                }
+                else if ((parent == null) && "dsc".equals(parentNode.getLocalName())) {
+                    component.inventory = createInventory(element);
+                    inventory.getChildren().add(component.inventory);
+                }
+            }
+
+            component.element = element;
+            openComponents.push(component);
+            read(element);
+            openComponents.pop();
+            component.element = null;
+
+            // An item is only valid if it is a leaf item (has no children with items);
+            // a component with a single nested item refers to that item instead
+            if (component.unitIds == 1) {
+                Item componentItem = component.leafItem;
+                if (component.unitId != null) {
+                    componentItem = new Item(normalize(component.unitId),
+                            (component.container != null) ? component.container : "", component.accessRestrictType);
+                    if (component == requestedComponent)
+                        item = componentItem;
+                }
+
+                if (parent != null)
+                    parent.leafItem = componentItem;
+
+                if ((requestedItem != null) && (componentItem != null)) {
+                    for (String container : component.containers)
+                        itemsPerContainer.computeIfAbsent(container, c -> new LinkedHashMap<>())
+                                .putIfAbsent(componentItem.getUnitId(), componentItem);
+                }
+            }
+        }
+
+        private EADDocument toDocument() {
+            if (inventory != null) {
+                inventory.setUnitId(emptyToNull(unitId));
+                inventory.setTitle(emptyToNull(title));
+            }
+
+            List<Item> containerItems = Collections.emptyList();
+            if ((item != null) && !item.getContainer().isEmpty()) {
+                Map<String, Item> items = itemsPerContainer.get(item.getContainer());
+                if (items != null)
+                    containerItems = Collections.unmodifiableList(new ArrayList<>(items.values()));
+            }
+
+            return new EADDocument(nullToEmpty(title), nullToEmpty(author), nullToEmpty(physicalDescription),
+                    nullToEmpty(unitId), accessRestrictType, accessRestrictText, inventory, item, containerItems);
+        }
+
+        private static Inventory createInventory(Element element) {
+            Inventory inventory = new Inventory();
+            inventory.setChildren(new ArrayList<>());
+
+            Element did = getChild(element, "did");
+            if (did != null) {
+                Element unitId = getChild(did, "unitid");
+                Element unitTitle = getChild(did, "unittitle");
+                inventory.setUnitId((unitId != null) ? emptyToNull(unitId.getTextContent()) : null);
+                inventory.setTitle((unitTitle != null) ? emptyToNull(normalize(unitTitle.getTextContent())) : null);
+            }
+
+            return inventory;
+        }
+    }
+
+    /**
+     * A component (c01 - c12) which is being read.
+     */
+    private static final class Component {
+        private Element element;
+        private int unitIds;
+        private String unitId;
+        private String container;
+        private final List<String> containers = new ArrayList<>();
+        private String accessRestrictType;
+        private Inventory inventory;
+        private Item leafItem;
+    }
+
+    private static boolean isChildOf(Element element, String localName) {
+        Node parent = element.getParentNode();
+        return (parent != null) && (parent.getNodeType() == Node.ELEMENT_NODE)
+                && EAD_NAMESPACE.equals(parent.getNamespaceURI()) && localName.equals(parent.getLocalName());
+    }
+
+    private static Element getChild(Element element, String localName) {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if ((child.getNodeType() == Node.ELEMENT_NODE) && EAD_NAMESPACE.equals(child.getNamespaceURI())
+                    && localName.equals(child.getLocalName()))
+                return (Element) child;
+        }
+        return null;
+    }
+
+    /**
+     * Normalizes the whitespace of the given text, like the XPath function normalize-space().
+     */
+    private static String normalize(String text) {
+        return text.trim().replaceAll("[ \\t\\r\\n]+", " ");
+    }
+
+    private static String emptyToNull(String value) {
+        return ((value == null) || value.isEmpty()) ? null : value;
+    }
+
+    private static String nullToEmpty(String value) {
+        return (value != null) ? value : "";
+    }
+}
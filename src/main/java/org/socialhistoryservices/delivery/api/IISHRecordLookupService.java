@@ -2,14 +2,27 @@ package org.socialhistoryservices.delivery.api;
 
 import java.net.*;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
 
+import javax.xml.stream.XMLStreamException;
 import javax.xml.xpath.*;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,34 +38,36 @@ import org.socialhistoryservices.delivery.config.DeliveryProperties;
 public class IISHRecordLookupService implements RecordLookupService {
     private static final Logger LOGGER = LoggerFactory.getLogger(IISHRecordLookupService.class);
     private static final String SRW_SEARCH_PATH = "ns1:recordData/marc:record/";
+    private static final int MAX_PIDS_PER_SEARCH = 25;
 
     private static final XPathExpression xpSearch, xpAll, xpOAI, xpSearch245aTitle, xpSearch500aTitle,
             xpSearch600aTitle, xpSearch610aTitle, xpSearch650aTitle, xpSearch651aTitle, xpSearch245kTitle,
-            xpSearch245bSubTitle, xp856uUrl, xpSearchIdent, xpSearchMeta, xpNumberOfRecords;
+            xpSearch245bSubTitle, xp856uUrl, xpSearchIdent, xpSearchMeta, xpSearchRecordMeta, xpNumberOfRecords;
 
     private DeliveryProperties deliveryProperties;
+    private CloseableHttpClient httpClient;
+    private ExecutorService executor;
+    private CircuitBreaker circuitBreaker;
+    private MeterRegistry meterRegistry = Metrics.globalRegistry;
 
     static {
-        XPathFactory factory = XPathFactory.newInstance();
-        XPath xpath = factory.newXPath();
-        xpath.setNamespaceContext(new IISHNamespaceContext());
-
         try {
-            xpAll = xpath.compile("/srw:searchRetrieveResponse");
-            xpOAI = xpath.compile("//oai:record");
-            xpSearch = xpath.compile("//srw:record");
-            xpSearch245aTitle = XmlUtils.getXPathForMarc(xpath, "245", 'a', SRW_SEARCH_PATH);
-            xpSearch245bSubTitle = XmlUtils.getXPathForMarc(xpath, "245", 'b', SRW_SEARCH_PATH);
-            xpSearch500aTitle = XmlUtils.getXPathForMarc(xpath, "500", 'a', SRW_SEARCH_PATH);
-            xpSearch600aTitle = XmlUtils.getXPathForMarc(xpath, "600", 'a', SRW_SEARCH_PATH);
-            xpSearch610aTitle = XmlUtils.getXPathForMarc(xpath, "610", 'a', SRW_SEARCH_PATH);
-            xpSearch650aTitle = XmlUtils.getXPathForMarc(xpath, "650", 'a', SRW_SEARCH_PATH);
-            xpSearch651aTitle = XmlUtils.getXPathForMarc(xpath, "651", 'a', SRW_SEARCH_PATH);
-            xpSearch245kTitle = XmlUtils.getXPathForMarc(xpath, "245", 'k', SRW_SEARCH_PATH);
-            xp856uUrl = XmlUtils.getXPathForMarc(xpath, "856", 'u');
-            xpSearchIdent = xpath.compile("ns1:extraRecordData/extraData:extraData/iisg:identifier");
-            xpSearchMeta = xpath.compile("//marc:record");
-            xpNumberOfRecords = xpath.compile("//ns1:numberOfRecords");
+            xpAll = XmlUtils.compile("/srw:searchRetrieveResponse");
+            xpOAI = XmlUtils.compile("//oai:record");
+            xpSearch = XmlUtils.compile("//srw:record");
+            xpSearch245aTitle = XmlUtils.getXPathForMarc("245", 'a', SRW_SEARCH_PATH);
+            xpSearch245bSubTitle = XmlUtils.getXPathForMarc("245", 'b', SRW_SEARCH_PATH);
+            xpSearch500aTitle = XmlUtils.getXPathForMarc("500", 'a', SRW_SEARCH_PATH);
+            xpSearch600aTitle = XmlUtils.getXPathForMarc("600", 'a', SRW_SEARCH_PATH);
+            xpSearch610aTitle = XmlUtils.getXPathForMarc("610", 'a', SRW_SEARCH_PATH);
+            xpSearch650aTitle = XmlUtils.getXPathForMarc("650", 'a', SRW_SEARCH_PATH);
+            xpSearch651aTitle = XmlUtils.getXPathForMarc("651", 'a', SRW_SEARCH_PATH);
+            xpSearch245kTitle = XmlUtils.getXPathForMarc("245", 'k', SRW_SEARCH_PATH);
+            xp856uUrl = XmlUtils.getXPathForMarc("856", 'u');
+            xpSearchIdent = XmlUtils.compile("ns1:extraRecordData/extraData:extraData/iisg:identifier");
+            xpSearchMeta = XmlUtils.compile("//marc:record");
+            xpSearchRecordMeta = XmlUtils.compile("ns1:recordData/marc:record");
+            xpNumberOfRecords = XmlUtils.compile("//ns1:numberOfRecords");
         }
         catch (XPathExpressionException ex) {
             throw new RuntimeException(ex);
@@ -68,6 +83,51 @@ public class IISHRecordLookupService implements RecordLookupService {
         deliveryProperties = p;
     }
 
+    /**
+     * Set the (pooled) HTTP client to query the API with.
+     *
+     * @param httpClient The HTTP client to use.
+     */
+    public void setHttpClient(CloseableHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * Set the bounded executor to run independent API lookups concurrently on.
+     * Without an executor, all lookups run one after the other.
+     *
+     * @param executor The executor to use.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Set the circuit breaker to guard the calls to the API with.
+     *
+     * @param circuitBreaker The circuit breaker to use.
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Set the registry to publish the timings of the API lookups to.
+     *
+     * @param meterRegistry The registry to use.
+     */
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Stops the executor; running lookups are interrupted.
+     */
+    public void shutdown() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
     /**
      * Search for records with the specified title.
      *
@@ -84,7 +144,17 @@ public class IISHRecordLookupService implements RecordLookupService {
         String query = getQuery("marc.245+all+\"" + title + "\"", true);
         LOGGER.debug(String.format("getRecordsByTitle(title: %s, resultcountPerChunk: %d, resultStart: %d)",
                 title, resultCountPerChunk, resultStart));
-        Node out = doSearch(query, pc.getResultCountPerChunk(), pc.getResultStart());
+
+        if (deliveryProperties.isApiStreamingParser()) {
+            SRWResponse response = doSearch(query, pc.getResultCountPerChunk(), pc.getResultStart(),
+                    new SRWResponseHandler());
+            if (response != null)
+                addSearchResults(pc, response);
+            return pc;
+        }
+
+        Node out = doSearch(query, pc.getResultCountPerChunk(), pc.getResultStart(),
+                new XPathResponseHandler(xpAll));
 
         NodeList search;
         try {
@@ -129,6 +199,27 @@ public class IISHRecordLookupService implements RecordLookupService {
         return pc;
     }
 
+    /**
+     * Adds the records of a streamed search response to the page chunk.
+     *
+     * @param pc       The page chunk.
+     * @param response The search response.
+     */
+    private void addSearchResults(PageChunk pc, SRWResponse response) {
+        pc.setTotalResultCount(response.getNumberOfRecords());
+        for (SRWResponse.Record record : response.getRecords()) {
+            MARCRecord marc = record.getMarc();
+            if (marc == null)
+                continue;
+
+            String recSubTitle = " " + marc.getSubfieldValue("245", 'b').trim().replaceAll("[/:]$", "");
+
+            // Strip trailing slashes.
+            String recTitle = StreamingMARCMetadataRecordExtractor.getTitle(marc).trim().replaceAll("[/:]$", "");
+            if (!recTitle.isEmpty()) pc.getResults().put(record.getIdentifier(), recTitle + recSubTitle);
+        }
+    }
+
     /**
      * Maps a PID to a record metadata extractor.
      *
@@ -141,29 +232,282 @@ public class IISHRecordLookupService implements RecordLookupService {
         LOGGER.debug(String.format("getRecordExtractorByPid(%s)", pid));
 
         String[] parentPidAndItem = getParentPidAndItem(pid);
+        if (deliveryProperties.isApiStreamingParser())
+            return getStreamingRecordExtractorByPid(pid, parentPidAndItem);
+
         Node node = searchByPid(parentPidAndItem[0], true);
-        Node eadNode = getEADNode(node);
+        String eadUrl;
+        try {
+            eadUrl = xp856uUrl.evaluate(node);
+        }
+        catch (XPathExpressionException ex) {
+            LOGGER.debug("getRecordExtractorByPid(): Invalid XPath", ex);
+            throw new NoSuchPidException();
+        }
 
-        if (eadNode != null) {
-            Node archivalNode = (parentPidAndItem[1] == null)
-                    ? searchByPid(parentPidAndItem[0], false) : null;
+        if (isEADUrl(eadUrl)) {
+            // The EAD document and the archival record are independent, so look them up concurrently
+            long deadline = getLookupDeadline();
+            Future<Node> eadFuture = submit(() -> getEADNode(eadUrl));
+            Future<Node> archivalFuture = (parentPidAndItem[1] == null)
+                    ? submit(() -> searchByPid(parentPidAndItem[0], false)) : null;
 
-            return new EADMetadataRecordExtractor(parentPidAndItem[0], parentPidAndItem[1],
-                    deliveryProperties.getItemSeparator(), eadNode, archivalNode);
+            try {
+                Node eadNode = await(eadFuture, deadline);
+                if (eadNode != null) {
+                    Node archivalNode = (archivalFuture != null) ? await(archivalFuture, deadline) : null;
+                    return new EADMetadataRecordExtractor(parentPidAndItem[0], parentPidAndItem[1],
+                            deliveryProperties.getItemSeparator(), eadNode, archivalNode);
+                }
+            }
+            finally {
+                cancel(eadFuture, archivalFuture);
+            }
         }
 
         return new MARCMetadataRecordExtractor(pid, node);
     }
 
+    /**
+     * Maps a PID to a record metadata extractor, reading the SRW responses without building a DOM.
+     *
+     * @param pid              The PID to lookup.
+     * @param parentPidAndItem The parent PID and the item of the PID to lookup.
+     * @return The metadata extractor of the record, if found.
+     * @throws NoSuchPidException Thrown when the PID is not found.
+     */
+    private MetadataRecordExtractor getStreamingRecordExtractorByPid(String pid, String[] parentPidAndItem)
+            throws NoSuchPidException {
+        MARCRecord marc = searchMARCByPid(parentPidAndItem[0], true);
+        return getStreamingRecordExtractor(pid, parentPidAndItem, marc);
+    }
+
+    /**
+     * Maps multiple PIDs to record metadata extractors.
+     * The metadata of the PIDs (or of the parents of items) is searched for with a single query per
+     * {@value MAX_PIDS_PER_SEARCH} PIDs; the EAD document of an archive is fetched once for all its items.
+     *
+     * @param pids The PIDs to lookup.
+     * @return A map of {pid,metadata extractor} key-value pairs. PIDs which are not found are left out,
+     * as are the PIDs of an archive of which the EAD document could not be fetched; these are logged.
+     */
+    @Override
+    public Map<String, MetadataRecordExtractor> getRecordExtractorsByPids(Collection<String> pids) {
+        LOGGER.debug(String.format("getRecordExtractorsByPids(%s)", pids));
+
+        // Items are resolved using the metadata of their parent
+        Map<String, List<String>> pidsByParentPid = new LinkedHashMap<>();
+        for (String pid : pids) {
+            String parentPid = getParentPidAndItem(pid)[0];
+            pidsByParentPid.computeIfAbsent(parentPid, k -> new ArrayList<>()).add(pid);
+        }
+
+        Map<String, MetadataRecordExtractor> recordExtractors = new HashMap<>();
+        List<String> parentPids = new ArrayList<>(pidsByParentPid.keySet());
+        for (int i = 0; i < parentPids.size(); i += MAX_PIDS_PER_SEARCH) {
+            List<String> searchPids = parentPids.subList(i, Math.min(i + MAX_PIDS_PER_SEARCH, parentPids.size()));
+            if (deliveryProperties.isApiStreamingParser()) {
+                for (Map.Entry<String, MARCRecord> entry : searchMARCByPids(searchPids).entrySet()) {
+                    String parentPid = entry.getKey();
+                    MARCRecord marc = entry.getValue();
+                    addRecordExtractors(recordExtractors, parentPid, pidsByParentPid.get(parentPid),
+                            marc.getSubfieldValue("856", 'u'), () -> searchMARCByPid(parentPid, false),
+                            pid -> new StreamingMARCMetadataRecordExtractor(pid, marc),
+                            (item, ead, archival) -> new EADMetadataRecordExtractor(parentPid, item,
+                                    deliveryProperties.getItemSeparator(), ead, archival));
+                }
+            }
+            else {
+                for (Map.Entry<String, Node> entry : searchByPids(searchPids).entrySet()) {
+                    String parentPid = entry.getKey();
+                    Node node = entry.getValue();
+                    addRecordExtractors(recordExtractors, parentPid, pidsByParentPid.get(parentPid),
+                            XmlUtils.evaluate(xp856uUrl, node), () -> searchByPid(parentPid, false),
+                            pid -> new MARCMetadataRecordExtractor(pid, node),
+                            (item, ead, archival) -> new EADMetadataRecordExtractor(parentPid, item,
+                                    deliveryProperties.getItemSeparator(), ead, archival));
+                }
+            }
+        }
+
+        return recordExtractors;
+    }
+
+    /**
+     * Creates an EAD metadata extractor for an item (or the whole) of an archive.
+     */
+    private interface EADRecordExtractorFactory<T> {
+        MetadataRecordExtractor create(String item, Node ead, T archival);
+    }
+
+    /**
+     * Adds the record metadata extractors of the PIDs with the same parent.
+     * For an archive, the EAD document is fetched once for all PIDs; the archival record only
+     * if the archive itself is one of the PIDs. If the EAD document cannot be fetched,
+     * none of the PIDs is added.
+     *
+     * @param recordExtractors The map to add the metadata extractors to.
+     * @param parentPid        The PID of the parent.
+     * @param pids             The PIDs with this parent.
+     * @param eadUrl           The URL of the EAD document in the metadata of the parent, if any.
+     * @param archivalLookup   The lookup of the archival record of the parent.
+     * @param marcExtractor    Creates the metadata extractor of a PID without an EAD document.
+     * @param eadExtractor     Creates the metadata extractor of a PID with an EAD document.
+     */
+    private <T> void addRecordExtractors(Map<String, MetadataRecordExtractor> recordExtractors, String parentPid,
+                                         List<String> pids, String eadUrl, Lookup<T> archivalLookup,
+                                         Function<String, MetadataRecordExtractor> marcExtractor,
+                                         EADRecordExtractorFactory<T> eadExtractor) {
+        if ((eadUrl == null) || !isEADUrl(eadUrl)) {
+            for (String pid : pids)
+                recordExtractors.put(pid, marcExtractor.apply(pid));
+            return;
+        }
+
+        // The EAD document and the archival record are independent, so look them up concurrently
+        long deadline = getLookupDeadline();
+        Future<Node> eadFuture = submit(() -> getEADNode(eadUrl));
+        Future<T> archivalFuture = pids.contains(parentPid) ? submit(archivalLookup) : null;
+
+        try {
+            Node eadNode = await(eadFuture, deadline);
+            for (String pid : pids) {
+                if (eadNode == null) {
+                    recordExtractors.put(pid, marcExtractor.apply(pid));
+                    continue;
+                }
+
+                String item = getParentPidAndItem(pid)[1];
+                try {
+                    T archival = (item == null) ? await(archivalFuture, deadline) : null;
+                    recordExtractors.put(pid, eadExtractor.create(item, eadNode, archival));
+                }
+                catch (NoSuchPidException nspe) {
+                    LOGGER.debug(String.format("addRecordExtractors(): No archival metadata for %s", pid));
+                }
+            }
+        }
+        catch (NoSuchPidException nspe) {
+            // Left out, so that the PIDs fall back to a lookup of their own rather than to a wrong negative result
+            LOGGER.warn(String.format("addRecordExtractors(): No EAD for %s, leaving out %s", parentPid, pids));
+        }
+        finally {
+            cancel(eadFuture, archivalFuture);
+        }
+    }
+
+    /**
+     * Creates the record metadata extractor for the given MARC record of a PID (or of the parent of an item).
+     *
+     * @param pid              The PID to lookup.
+     * @param parentPidAndItem The parent PID and the item of the PID to lookup.
+     * @param marc             The MARC record of the (parent) PID.
+     * @return The metadata extractor of the record.
+     * @throws NoSuchPidException Thrown when the EAD or archival metadata could not be found.
+     */
+    private MetadataRecordExtractor getStreamingRecordExtractor(String pid, String[] parentPidAndItem,
+                                                                MARCRecord marc) throws NoSuchPidException {
+        String eadUrl = marc.getSubfieldValue("856", 'u');
+        if (isEADUrl(eadUrl)) {
+            // The EAD document and the archival record are independent, so look them up concurrently
+            long deadline = getLookupDeadline();
+            Future<Node> eadFuture = submit(() -> getEADNode(eadUrl));
+            Future<MARCRecord> archivalFuture = (parentPidAndItem[1] == null)
+                    ? submit(() -> searchMARCByPid(parentPidAndItem[0], false)) : null;
+
+            try {
+                Node eadNode = await(eadFuture, deadline);
+                if (eadNode != null) {
+                    MARCRecord archival = (archivalFuture != null) ? await(archivalFuture, deadline) : null;
+                    return new EADMetadataRecordExtractor(parentPidAndItem[0], parentPidAndItem[1],
+                            deliveryProperties.getItemSeparator(), eadNode, archival);
+                }
+            }
+            finally {
+                cancel(eadFuture, archivalFuture);
+            }
+        }
+
+        return new StreamingMARCMetadataRecordExtractor(pid, marc);
+    }
+
+    /**
+     * A lookup in the API, which can be run on the executor.
+     */
+    private interface Lookup<T> {
+        T lookup() throws NoSuchPidException;
+    }
+
+    /**
+     * Starts the given lookup on the executor, or runs it directly if there is no executor.
+     *
+     * @param lookup The lookup to run.
+     * @return The future result of the lookup.
+     */
+    private <T> Future<T> submit(Lookup<T> lookup) {
+        FutureTask<T> task = new FutureTask<>(lookup::lookup);
+        if (executor != null)
+            executor.execute(task);
+        else
+            task.run();
+        return task;
+    }
+
+    /**
+     * Waits for the result of a lookup, until the given deadline.
+     *
+     * @param future   The future result of the lookup.
+     * @param deadline The deadline, in terms of {@link System#nanoTime()}.
+     * @return The result of the lookup.
+     * @throws NoSuchPidException Thrown when the lookup failed or did not complete before the deadline.
+     */
+    private <T> T await(Future<T> future, long deadline) throws NoSuchPidException {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        catch (ExecutionException ex) {
+            if (ex.getCause() instanceof NoSuchPidException)
+                throw (NoSuchPidException) ex.getCause();
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            throw new IllegalStateException(ex.getCause());
+        }
+        catch (TimeoutException ex) {
+            LOGGER.debug("await(): API lookup timed out", ex);
+            throw new NoSuchPidException();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new NoSuchPidException();
+        }
+    }
+
+    private void cancel(Future<?>... futures) {
+        for (Future<?> future : futures) {
+            if (future != null)
+                future.cancel(true);
+        }
+    }
+
+    private long getLookupDeadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deliveryProperties.getApiLookupTimeout());
+    }
+
+    private Timer getLookupTimer(String leg) {
+        return meterRegistry.timer("delivery.api.lookup", "leg", leg);
+    }
+
     /**
      * Actually execute the search.
      *
      * @param query            The query to add to the search.
      * @param nrResultsPerPage The number of results to get per page.
      * @param resultStart      The result number to start the page with (1 <= resultStart <= result count).
-     * @return A list of nodes returned by the API service.
+     * @param responseHandler  The handler to parse the response with.
+     * @return The parsed response of the API service.
      */
-    private Node doSearch(String query, int nrResultsPerPage, int resultStart) {
+    private <T> T doSearch(String query, int nrResultsPerPage, int resultStart,
+                           ResponseHandler<T> responseHandler) {
         String search;
         search = "version=1.1";
         search += "&operation=searchRetrieve";
@@ -183,12 +527,9 @@ public class IISHRecordLookupService implements RecordLookupService {
             int apiPort = deliveryProperties.getApiPort();
 
             URI uri = new URI(apiProto, null, apiDomain, apiPort, apiBase, search, null);
-            URL req = uri.toURL();
-            LOGGER.debug(String.format("doSearch(): Querying SRW API: %s", req.toString()));
-            URLConnection conn = req.openConnection();
+            LOGGER.debug(String.format("doSearch(): Querying SRW API: %s", uri.toString()));
 
-            BufferedReader rdr = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-            return (Node) xpAll.evaluate(new InputSource(rdr), XPathConstants.NODE);
+            return execute(new HttpGet(uri), responseHandler);
         }
         catch (IOException ex) {
             LOGGER.debug("doSearch(): API Connect Failed", ex);
@@ -198,9 +539,39 @@ public class IISHRecordLookupService implements RecordLookupService {
             LOGGER.debug("doSearch(): Invalid URI syntax", ex);
             return null;
         }
-        catch (XPathExpressionException e) {
-            LOGGER.debug("doSearch(): Invalid XPath", e);
-            return null;
+    }
+
+    /**
+     * Executes the request, guarded by the circuit breaker.
+     *
+     * @param request         The request to execute.
+     * @param responseHandler The handler to parse the response with.
+     * @return The parsed response.
+     * @throws IOException Thrown when the request failed, or was rejected because the circuit is open.
+     */
+    private <T> T execute(HttpGet request, ResponseHandler<T> responseHandler) throws IOException {
+        if (circuitBreaker == null)
+            return httpClient.execute(request, responseHandler);
+
+        if (!circuitBreaker.allowRequest())
+            throw new IOException("Circuit open, the API is considered unavailable");
+
+        try {
+            T result = httpClient.execute(request, responseHandler);
+            circuitBreaker.recordSuccess();
+            return result;
+        }
+        catch (HttpResponseException ex) {
+            // The API did respond; only server errors indicate the API is unavailable
+            if (ex.getStatusCode() >= 500)
+                circuitBreaker.recordFailure();
+            else
+                circuitBreaker.recordSuccess();
+            throw ex;
+        }
+        catch (IOException | RuntimeException ex) {
+            circuitBreaker.recordFailure();
+            throw ex;
         }
     }
 
@@ -213,19 +584,9 @@ public class IISHRecordLookupService implements RecordLookupService {
      * @throws NoSuchPidException Thrown when the search returns nothing.
      */
     private Node searchByPid(String pid, boolean metadata) throws NoSuchPidException {
-        // If we do not search for metadata, then we need to strip the naming authority from the PID
-        if (!metadata) {
-            pid = pid.replace("10622/", "");
-        }
-
-        String encodedPid;
-        encodedPid = URLEncoder.encode(pid, StandardCharsets.UTF_8);
-
-        String query = metadata
-                ? getQuery("dc.identifier+=+\"" + encodedPid + "\"", true)
-                : getQuery("marc.852$j=+\"" + encodedPid + "\"", false);
-
-        Node all = doSearch(query, 1, 1);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        Node all = doSearch(getPidQuery(pid, metadata), 1, 1, new XPathResponseHandler(xpAll));
+        sample.stop(getLookupTimer(metadata ? "metadata" : "archival"));
         NodeList search;
         int resultCount;
 
@@ -247,6 +608,103 @@ public class IISHRecordLookupService implements RecordLookupService {
         return search.item(0);
     }
 
+    /**
+     * Search metadata by PID, reading the response without building a DOM.
+     *
+     * @param pid      The PID to search for.
+     * @param metadata Whether we want the metadata record.
+     * @return The main MARC record.
+     * @throws NoSuchPidException Thrown when the search returns nothing.
+     */
+    private MARCRecord searchMARCByPid(String pid, boolean metadata) throws NoSuchPidException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        SRWResponse response = doSearch(getPidQuery(pid, metadata), 1, 1, new SRWResponseHandler());
+        sample.stop(getLookupTimer(metadata ? "metadata" : "archival"));
+        if (response == null || response.getNumberOfRecords() == 0 || response.getRecords().isEmpty() ||
+                response.getRecords().get(0).getMarc() == null) {
+            LOGGER.debug("searchMARCByPid(): Zero results");
+            throw new NoSuchPidException();
+        }
+
+        return response.getRecords().get(0).getMarc();
+    }
+
+    /**
+     * Search metadata of multiple PIDs with a single query.
+     *
+     * @param pids The PIDs to search for.
+     * @return A map of {pid,MARC record} key-value pairs of the PIDs found.
+     */
+    private Map<String, MARCRecord> searchMARCByPids(List<String> pids) {
+        String query = getPidsQuery(pids);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        SRWResponse response = doSearch(query, pids.size(), 1, new SRWResponseHandler());
+        sample.stop(getLookupTimer("batch"));
+
+        Map<String, MARCRecord> records = new HashMap<>();
+        if (response != null) {
+            for (SRWResponse.Record record : response.getRecords()) {
+                if ((record.getMarc() != null) && pids.contains(record.getIdentifier()))
+                    records.putIfAbsent(record.getIdentifier(), record.getMarc());
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Search metadata of multiple PIDs with a single query, reading the response into a DOM.
+     *
+     * @param pids The PIDs to search for.
+     * @return A map of {pid,MARC record node} key-value pairs of the PIDs found.
+     */
+    private Map<String, Node> searchByPids(List<String> pids) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        Node all = doSearch(getPidsQuery(pids), pids.size(), 1, new XPathResponseHandler(xpAll));
+        sample.stop(getLookupTimer("batch"));
+
+        Map<String, Node> records = new HashMap<>();
+        if (all == null)
+            return records;
+
+        try {
+            NodeList search = (NodeList) xpSearch.evaluate(all, XPathConstants.NODESET);
+            for (int i = 0; i < search.getLength(); i++) {
+                String pid = xpSearchIdent.evaluate(search.item(i));
+                Node marc = (Node) xpSearchRecordMeta.evaluate(search.item(i), XPathConstants.NODE);
+                if ((marc != null) && pids.contains(pid))
+                    records.putIfAbsent(pid, marc);
+            }
+        }
+        catch (XPathExpressionException e) {
+            LOGGER.debug("searchByPids(): Invalid XPath", e);
+        }
+        return records;
+    }
+
+    private String getPidsQuery(List<String> pids) {
+        StringBuilder encodedPids = new StringBuilder();
+        for (String pid : pids) {
+            if (encodedPids.length() > 0)
+                encodedPids.append('+');
+            encodedPids.append(URLEncoder.encode(pid, StandardCharsets.UTF_8));
+        }
+        return getQuery("dc.identifier+any+\"" + encodedPids + "\"", true);
+    }
+
+    private String getPidQuery(String pid, boolean metadata) {
+        // If we do not search for metadata, then we need to strip the naming authority from the PID
+        if (!metadata) {
+            pid = pid.replace("10622/", "");
+        }
+
+        String encodedPid;
+        encodedPid = URLEncoder.encode(pid, StandardCharsets.UTF_8);
+
+        return metadata
+                ? getQuery("dc.identifier+=+\"" + encodedPid + "\"", true)
+                : getQuery("marc.852$j=+\"" + encodedPid + "\"", false);
+    }
+
     private String[] getParentPidAndItem(String pid) {
         String itemSeparator = deliveryProperties.getItemSeparator();
         if (pid.contains(itemSeparator)) {
@@ -295,34 +753,69 @@ public class IISHRecordLookupService implements RecordLookupService {
         return query;
     }
 
-    private Node getEADNode(Node node) throws NoSuchPidException {
-        try {
-            String url = xp856uUrl.evaluate(node);
-            if (url.endsWith("?locatt=view:ead")) {
-                URL eadUrl = new URL(url);
-                LOGGER.debug(String.format("getEADNode(): Querying EAD URL: %s", eadUrl.toString()));
-                HttpURLConnection conn = (HttpURLConnection) eadUrl.openConnection();
-
-                int status = conn.getResponseCode();
-                if (status == HttpURLConnection.HTTP_MOVED_TEMP || status == HttpURLConnection.HTTP_MOVED_PERM
-                        || status == HttpURLConnection.HTTP_SEE_OTHER) {
-                    url = conn.getHeaderField("Location");
-                    URL redirectUrl = new URL(url);
-                    conn = (HttpURLConnection) redirectUrl.openConnection();
-                }
+    private boolean isEADUrl(String url) {
+        return url.endsWith("?locatt=view:ead");
+    }
 
-                BufferedReader rdr = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-                return (Node) xpOAI.evaluate(new InputSource(rdr), XPathConstants.NODE);
-            }
-            return null;
+    private Node getEADNode(String url) throws NoSuchPidException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            // Redirects (i.e. from the handle server) are followed by the HTTP client
+            LOGGER.debug(String.format("getEADNode(): Querying EAD URL: %s", url));
+            return execute(new HttpGet(url), new XPathResponseHandler(xpOAI));
         }
-        catch (IOException ex) {
+        catch (IOException | IllegalArgumentException ex) {
             LOGGER.debug("getEADNode(): API Connect Failed", ex);
             throw new NoSuchPidException();
         }
-        catch (XPathExpressionException ex) {
-            LOGGER.debug("getEADNode(): Invalid XPath", ex);
-            throw new NoSuchPidException();
+        finally {
+            sample.stop(getLookupTimer("ead"));
+        }
+    }
+
+    /**
+     * Parses the response of the API and evaluates the given XPath expression on it.
+     * The response is always consumed, so the connection can be reused.
+     */
+    private static class XPathResponseHandler implements ResponseHandler<Node> {
+        private final XPathExpression expression;
+
+        XPathResponseHandler(XPathExpression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public Node handleResponse(HttpResponse httpResponse) throws IOException {
+            StatusLine statusLine = httpResponse.getStatusLine();
+            if (statusLine.getStatusCode() >= 300)
+                throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
+
+            try (InputStream inputStream = httpResponse.getEntity().getContent()) {
+                return (Node) expression.evaluate(new InputSource(inputStream), XPathConstants.NODE);
+            }
+            catch (XPathExpressionException e) {
+                throw new IOException("Invalid XPath", e);
+            }
+        }
+    }
+
+    /**
+     * Parses the SRW response of the API in a single streaming pass.
+     * The response is always consumed, so the connection can be reused.
+     */
+    private static class SRWResponseHandler implements ResponseHandler<SRWResponse> {
+        @Override
+        public SRWResponse handleResponse(HttpResponse httpResponse) throws IOException {
+            StatusLine statusLine = httpResponse.getStatusLine();
+            if (statusLine.getStatusCode() >= 300)
+                throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
+
+            try (InputStream inputStream = httpResponse.getEntity().getContent()) {
+                return SRWStreamParser.parse(inputStream);
+            }
+            catch (XMLStreamException e) {
+                throw new IOException("Invalid SRW response", e);
+            }
         }
     }
 }
@@ -27,33 +27,29 @@ public class MARCMetadataRecordExtractor implements MetadataRecordExtractor {
     private final Node marc;
 
     static {
-        XPathFactory factory = XPathFactory.newInstance();
-        XPath xpath = factory.newXPath();
-        xpath.setNamespaceContext(new IISHNamespaceContext());
-
         try {
-            xpAuthor = XmlUtils.getXPathForMarc(xpath, "100", 'a');
-            xpAltAuthor = XmlUtils.getXPathForMarc(xpath, "110", 'a');
-            xpAlt2Author = XmlUtils.getXPathForMarc(xpath, "700", 'a');
-            xpAlt3Author = XmlUtils.getXPathForMarc(xpath, "710", 'a');
-            xp245aTitle = XmlUtils.getXPathForMarc(xpath, "245", 'a');
-            xp500aTitle = XmlUtils.getXPathForMarc(xpath, "500", 'a');
-            xp600aTitle = XmlUtils.getXPathForMarc(xpath, "600", 'a');
-            xp610aTitle = XmlUtils.getXPathForMarc(xpath, "610", 'a');
-            xp650aTitle = XmlUtils.getXPathForMarc(xpath, "650", 'a');
-            xp651aTitle = XmlUtils.getXPathForMarc(xpath, "651", 'a');
-            xp245kTitle = XmlUtils.getXPathForMarc(xpath, "245", 'k');
-            xp245bSubTitle = XmlUtils.getXPathForMarc(xpath, "245", 'b');
-            xpYear = XmlUtils.getXPathForMarc(xpath, "260", 'c');
-            xpPhysicalDescription = XmlUtils.getXPathForMarc(xpath, "300", 'a');
-            xpGenres = XmlUtils.getXPathForMarc(xpath, "655", 'a');
-            xpShelvingLocations = XmlUtils.getXPathForMarc(xpath, "852", 'c');
-            xpSignatures = XmlUtils.getXPathForMarc(xpath, "852", 'j');
-            xpBarcodes = XmlUtils.getXPathForMarc(xpath, "852", 'p');
-            xpSerialNumbers = XmlUtils.getXPathForMarc(xpath, "866", 'a');
-            xpLeader = xpath.compile("marc:leader");
-            xp540bCopyright = XmlUtils.getXPathForMarc(xpath, "540", 'b');
-            xp542mAccess = XmlUtils.getXPathForMarc(xpath, "542", 'm');
+            xpAuthor = XmlUtils.getXPathForMarc("100", 'a');
+            xpAltAuthor = XmlUtils.getXPathForMarc("110", 'a');
+            xpAlt2Author = XmlUtils.getXPathForMarc("700", 'a');
+            xpAlt3Author = XmlUtils.getXPathForMarc("710", 'a');
+            xp245aTitle = XmlUtils.getXPathForMarc("245", 'a');
+            xp500aTitle = XmlUtils.getXPathForMarc("500", 'a');
+            xp600aTitle = XmlUtils.getXPathForMarc("600", 'a');
+            xp610aTitle = XmlUtils.getXPathForMarc("610", 'a');
+            xp650aTitle = XmlUtils.getXPathForMarc("650", 'a');
+            xp651aTitle = XmlUtils.getXPathForMarc("651", 'a');
+            xp245kTitle = XmlUtils.getXPathForMarc("245", 'k');
+            xp245bSubTitle = XmlUtils.getXPathForMarc("245", 'b');
+            xpYear = XmlUtils.getXPathForMarc("260", 'c');
+            xpPhysicalDescription = XmlUtils.getXPathForMarc("300", 'a');
+            xpGenres = XmlUtils.getXPathForMarc("655", 'a');
+            xpShelvingLocations = XmlUtils.getXPathForMarc("852", 'c');
+            xpSignatures = XmlUtils.getXPathForMarc("852", 'j');
+            xpBarcodes = XmlUtils.getXPathForMarc("852", 'p');
+            xpSerialNumbers = XmlUtils.getXPathForMarc("866", 'a');
+            xpLeader = XmlUtils.compile("marc:leader");
+            xp540bCopyright = XmlUtils.getXPathForMarc("540", 'b');
+            xp542mAccess = XmlUtils.getXPathForMarc("542", 'm');
         }
         catch (XPathExpressionException ex) {
             throw new RuntimeException(ex);
@@ -199,7 +195,7 @@ public class MARCMetadataRecordExtractor implements MetadataRecordExtractor {
         }
     }
 
-    private ExternalRecordInfo.MaterialType leaderToMaterialType(String leader, String titleForm) {
+    static ExternalRecordInfo.MaterialType leaderToMaterialType(String leader, String titleForm) {
         String format = leader.substring(6, 8);
         String coll = titleForm.trim().toLowerCase();
 
@@ -248,22 +244,28 @@ public class MARCMetadataRecordExtractor implements MetadataRecordExtractor {
 
     private String evaluateGenres() {
         try {
-            Set<String> genres = new HashSet<>();
+            List<String> genres = new ArrayList<>();
             NodeList nodeList = (NodeList) xpGenres.evaluate(marc, XPathConstants.NODESET);
-            for (int i = 0; i < nodeList.getLength(); i++) {
-                String genre = nodeList.item(i).getTextContent();
-                genre = genre.toLowerCase().trim();
-                if (genre.endsWith("."))
-                    genre = genre.substring(0, genre.length() - 1).trim();
-                genres.add(genre);
-            }
-            return (!genres.isEmpty()) ? StringUtils.collectionToDelimitedString(genres, ",") : null;
+            for (int i = 0; i < nodeList.getLength(); i++)
+                genres.add(nodeList.item(i).getTextContent());
+            return genresToString(genres);
         }
         catch (XPathExpressionException e) {
             return null;
         }
     }
 
+    static String genresToString(List<String> values) {
+        Set<String> genres = new HashSet<>();
+        for (String genre : values) {
+            genre = genre.toLowerCase().trim();
+            if (genre.endsWith("."))
+                genre = genre.substring(0, genre.length() - 1).trim();
+            genres.add(genre);
+        }
+        return (!genres.isEmpty()) ? StringUtils.collectionToDelimitedString(genres, ",") : null;
+    }
+
     private String evaluateTitle() {
         try {
             String title = xp245aTitle.evaluate(marc);
@@ -323,26 +325,28 @@ public class MARCMetadataRecordExtractor implements MetadataRecordExtractor {
      */
     private ExternalRecordInfo.PublicationStatus evaluatePublicationStatus() {
         try {
-            String status = xp542mAccess.evaluate(marc);
-
-            ExternalRecordInfo.PublicationStatus publicationStatus = ExternalRecordInfo.PublicationStatus.UNKNOWN;
-            if (status.trim().equalsIgnoreCase("irsh"))
-                publicationStatus = ExternalRecordInfo.PublicationStatus.IRSH;
-            if (status.trim().equalsIgnoreCase("open"))
-                publicationStatus = ExternalRecordInfo.PublicationStatus.OPEN;
-            if (status.trim().equalsIgnoreCase("restricted"))
-                publicationStatus = ExternalRecordInfo.PublicationStatus.RESTRICTED;
-            if (status.trim().equalsIgnoreCase("minimal"))
-                publicationStatus = ExternalRecordInfo.PublicationStatus.MINIMAL;
-            if (status.trim().equalsIgnoreCase("pictoright"))
-                publicationStatus = ExternalRecordInfo.PublicationStatus.PICTORIGHT;
-            if (status.trim().equalsIgnoreCase("closed"))
-                publicationStatus = ExternalRecordInfo.PublicationStatus.CLOSED;
-
-            return publicationStatus;
+            return toPublicationStatus(xp542mAccess.evaluate(marc));
         }
         catch (XPathExpressionException ex) {
             return ExternalRecordInfo.PublicationStatus.UNKNOWN;
         }
     }
+
+    static ExternalRecordInfo.PublicationStatus toPublicationStatus(String status) {
+        ExternalRecordInfo.PublicationStatus publicationStatus = ExternalRecordInfo.PublicationStatus.UNKNOWN;
+        if (status.trim().equalsIgnoreCase("irsh"))
+            publicationStatus = ExternalRecordInfo.PublicationStatus.IRSH;
+        if (status.trim().equalsIgnoreCase("open"))
+            publicationStatus = ExternalRecordInfo.PublicationStatus.OPEN;
+        if (status.trim().equalsIgnoreCase("restricted"))
+            publicationStatus = ExternalRecordInfo.PublicationStatus.RESTRICTED;
+        if (status.trim().equalsIgnoreCase("minimal"))
+            publicationStatus = ExternalRecordInfo.PublicationStatus.MINIMAL;
+        if (status.trim().equalsIgnoreCase("pictoright"))
+            publicationStatus = ExternalRecordInfo.PublicationStatus.PICTORIGHT;
+        if (status.trim().equalsIgnoreCase("closed"))
+            publicationStatus = ExternalRecordInfo.PublicationStatus.CLOSED;
+
+        return publicationStatus;
+    }
 }
@@ -0,0 +1,128 @@
+package org.socialhistoryservices.delivery.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compact, immutable representation of a MARCXML record, as read by the {@link SRWStreamParser}.
+ * Only the leader and the data fields with their subfields are retained.
+ */
+public final class MARCRecord {
+    private final String leader;
+    private final List<DataField> dataFields;
+
+    public MARCRecord(String leader, List<DataField> dataFields) {
+        this.leader = (leader != null) ? leader : "";
+        this.dataFields = Collections.unmodifiableList(dataFields);
+    }
+
+    /**
+     * Returns the leader of the record.
+     *
+     * @return The leader, or an empty string if not present.
+     */
+    public String getLeader() {
+        return leader;
+    }
+
+    /**
+     * Returns all data fields of the record.
+     *
+     * @return The data fields in document order.
+     */
+    public List<DataField> getDataFields() {
+        return dataFields;
+    }
+
+    /**
+     * Returns all data fields with the given tag.
+     *
+     * @param tag The tag.
+     * @return The data fields in document order.
+     */
+    public List<DataField> getDataFields(String tag) {
+        List<DataField> fields = new ArrayList<>();
+        for (DataField dataField : dataFields) {
+            if (dataField.getTag().equals(tag))
+                fields.add(dataField);
+        }
+        return fields;
+    }
+
+    /**
+     * Returns the values of all subfields with the given code of all data fields with the given tag.
+     *
+     * @param tag  The tag.
+     * @param code The code.
+     * @return The values in document order.
+     */
+    public List<String> getSubfieldValues(String tag, char code) {
+        List<String> values = new ArrayList<>();
+        for (DataField dataField : dataFields) {
+            if (dataField.getTag().equals(tag))
+                dataField.addSubfieldValues(code, values);
+        }
+        return values;
+    }
+
+    /**
+     * Returns the value of the first subfield with the given code of the data fields with the given tag.
+     *
+     * @param tag  The tag.
+     * @param code The code.
+     * @return The value, or an empty string if not found.
+     */
+    public String getSubfieldValue(String tag, char code) {
+        for (DataField dataField : dataFields) {
+            if (dataField.getTag().equals(tag)) {
+                String value = dataField.getSubfieldValue(code);
+                if (value != null)
+                    return value;
+            }
+        }
+        return "";
+    }
+
+    /**
+     * A data field with its subfields.
+     */
+    public static final class DataField {
+        private final String tag;
+        private final char[] codes;
+        private final String[] values;
+
+        public DataField(String tag, List<Character> codes, List<String> values) {
+            this.tag = tag;
+            this.codes = new char[codes.size()];
+            this.values = values.toArray(new String[0]);
+            for (int i = 0; i < this.codes.length; i++)
+                this.codes[i] = codes.get(i);
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        /**
+         * Returns the value of the first subfield with the given code.
+         *
+         * @param code The code.
+         * @return The value, or null if not found.
+         */
+        public String getSubfieldValue(char code) {
+            for (int i = 0; i < codes.length; i++) {
+                if (codes[i] == code)
+                    return values[i];
+            }
+            return null;
+        }
+
+        private void addSubfieldValues(char code, List<String> to) {
+            for (int i = 0; i < codes.length; i++) {
+                if (codes[i] == code)
+                    to.add(values[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.socialhistoryservices.delivery.api;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the files and their PIDs from a METS document in a single streaming (StAX) pass.
+ * Rather than searching the document for every file pointer, the file groups, the file PIDs and the
+ * file pointers per page are indexed while reading, after which the files per group are resolved in linear time.
+ */
+public class METSStreamParser {
+    private static final Pattern HANDLE_PID_PATTERN = Pattern.compile("^http://hdl.handle.net/10622/(.*?)\\?locatt=.*$");
+
+    private static final XMLInputFactory factory;
+
+    static {
+        // Elements and attributes are matched by their qualified names, as they appear in the document
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Parses the METS document for the files and their PIDs.
+     *
+     * @param inputStream The stream with the METS document.
+     * @return A map with the uses and their file PIDs, in the order of the pages.
+     * @throws XMLStreamException Thrown when the document could not be parsed.
+     */
+    public static Map<String, List<String>> parse(InputStream inputStream) throws XMLStreamException {
+        XMLStreamReader reader = factory.createXMLStreamReader(inputStream);
+        try {
+            Map<String, Set<String>> fileIdsPerGroup = new TreeMap<>();
+            Map<String, String> pidPerFileId = new HashMap<>();
+            Map<Integer, Set<String>> fileIdsPerPage = new TreeMap<>();
+
+            // The elements which are currently open, and may receive file ids, PIDs or file pointers
+            Deque<ElementType> openElements = new ArrayDeque<>();
+            Deque<Set<String>> openGroups = new ArrayDeque<>();
+            Deque<OpenFile> openFiles = new ArrayDeque<>();
+            Deque<Set<String>> openPages = new ArrayDeque<>();
+            int openPhysicalStructMaps = 0;
+
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    ElementType type = ElementType.OTHER;
+                    switch (reader.getLocalName()) {
+                        case "fileGrp":
+                            Set<String> groupFileIds = new LinkedHashSet<>();
+                            fileIdsPerGroup.put(getAttribute(reader, "USE"), groupFileIds);
+                            openGroups.push(groupFileIds);
+                            type = ElementType.FILE_GROUP;
+                            break;
+                        case "file":
+                            String fileId = getAttribute(reader, "ID");
+                            for (Set<String> openGroupFileIds : openGroups)
+                                openGroupFileIds.add(fileId);
+                            openFiles.push(new OpenFile(fileId));
+                            pidPerFileId.putIfAbsent(fileId, null);
+                            type = ElementType.FILE;
+                            break;
+                        case "FLocat":
+                            // Only the first location of a file determines its PID,
+                            // and only the first file with an id and a PID determines the PID of that id
+                            for (OpenFile openFile : openFiles) {
+                                if (!openFile.located) {
+                                    openFile.located = true;
+                                    if (pidPerFileId.get(openFile.id) == null) {
+                                        String url = getAttribute(reader, "xlink:href");
+                                        pidPerFileId.put(openFile.id, getPidFromUrl(url));
+                                    }
+                                }
+                            }
+                            break;
+                        case "structMap":
+                            if (getAttribute(reader, "TYPE").equals("physical")) {
+                                openPhysicalStructMaps++;
+                                type = ElementType.PHYSICAL_STRUCT_MAP;
+                            }
+                            break;
+                        case "div":
+                            if ((openPhysicalStructMaps > 0) && getAttribute(reader, "TYPE").equals("page")) {
+                                Set<String> pageFileIds = new LinkedHashSet<>();
+                                fileIdsPerPage.put(Integer.parseInt(getAttribute(reader, "ORDER")), pageFileIds);
+                                openPages.push(pageFileIds);
+                                type = ElementType.PAGE;
+                            }
+                            break;
+                        case "fptr":
+                            String pointerFileId = getAttribute(reader, "FILEID");
+                            for (Set<String> openPageFileIds : openPages)
+                                openPageFileIds.add(pointerFileId);
+                            break;
+                    }
+                    openElements.push(type);
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT) {
+                    switch (openElements.pop()) {
+                        case FILE_GROUP:
+                            openGroups.pop();
+                            break;
+                        case FILE:
+                            openFiles.pop();
+                            break;
+                        case PHYSICAL_STRUCT_MAP:
+                            openPhysicalStructMaps--;
+                            break;
+                        case PAGE:
+                            openPages.pop();
+                            break;
+                    }
+                }
+            }
+
+            return getFilePidsPerGroup(fileIdsPerGroup, pidPerFileId, fileIdsPerPage);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private enum ElementType {FILE_GROUP, FILE, PHYSICAL_STRUCT_MAP, PAGE, OTHER}
+
+    private static class OpenFile {
+        private final String id;
+        private boolean located = false;
+
+        private OpenFile(String id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Resolves the PIDs of the files per group, in the order of the pages.
+     *
+     * @param fileIdsPerGroup The file ids per group.
+     * @param pidPerFileId    The PID of each file id.
+     * @param fileIdsPerPage  The file ids per page, in the order of the pages.
+     * @return A map with the uses and their file PIDs.
+     */
+    private static Map<String, List<String>> getFilePidsPerGroup(Map<String, Set<String>> fileIdsPerGroup,
+                                                                 Map<String, String> pidPerFileId,
+                                                                 Map<Integer, Set<String>> fileIdsPerPage) {
+        Map<String, List<String>> groupsPerFileId = new HashMap<>();
+        for (Map.Entry<String, Set<String>> group : fileIdsPerGroup.entrySet()) {
+            for (String fileId : group.getValue())
+                groupsPerFileId.computeIfAbsent(fileId, id -> new ArrayList<>()).add(group.getKey());
+        }
+
+        Map<String, List<String>> filePids = new HashMap<>();
+        for (Set<String> pageFileIds : fileIdsPerPage.values()) {
+            for (String fileId : pageFileIds) {
+                for (String group : groupsPerFileId.getOrDefault(fileId, Collections.emptyList()))
+                    filePids.computeIfAbsent(group, g -> new ArrayList<>()).add(pidPerFileId.get(fileId));
+            }
+        }
+        return filePids;
+    }
+
+    /**
+     * Returns the PID from the handle URL of a file.
+     *
+     * @param url The handle URL.
+     * @return The PID, if found.
+     */
+    private static String getPidFromUrl(String url) {
+        Matcher matcher = HANDLE_PID_PATTERN.matcher(url);
+        return matcher.find() ? "10622/" + matcher.group(1) : null;
+    }
+
+    /**
+     * Returns the value of the attribute with the given name, or an empty string, as the DOM does.
+     */
+    private static String getAttribute(XMLStreamReader reader, String name) {
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String prefix = reader.getAttributePrefix(i);
+            String localName = reader.getAttributeLocalName(i);
+            String qualifiedName = ((prefix == null) || prefix.isEmpty()) ? localName : prefix + ":" + localName;
+            if (qualifiedName.equals(name))
+                return reader.getAttributeValue(i);
+        }
+        return "";
+    }
+}
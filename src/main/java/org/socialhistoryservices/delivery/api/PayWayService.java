@@ -9,7 +9,6 @@ import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicNameValuePair;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -35,12 +34,15 @@ public class PayWayService {
     private final String passPhraseIn;
     private final String passPhraseOut;
     private final String projectName;
+    private final CloseableHttpClient httpClient;
 
-    public PayWayService(String address, String passPhraseIn, String passPhraseOut, String projectName) {
+    public PayWayService(String address, String passPhraseIn, String passPhraseOut, String projectName,
+                         CloseableHttpClient httpClient) {
         this.address = address;
         this.passPhraseIn = passPhraseIn;
         this.passPhraseOut = passPhraseOut;
         this.projectName = projectName;
+        this.httpClient = httpClient;
     }
 
     /**
@@ -86,7 +88,7 @@ public class PayWayService {
         addProject(message);
         signTransaction(message, true);
 
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
+        try {
             List<NameValuePair> params = getNameValuePairs(message);
             HttpPost httpPost = new HttpPost(this.address + "/" + apiName);
             httpPost.setEntity(new UrlEncodedFormEntity(params, "UTF-8"));
@@ -180,13 +182,16 @@ public class PayWayService {
 
     /**
      * Transforms the response from PayWay to a PayWay message.
+     * The response is always consumed, so the connection can be reused.
      */
     private static class PayWayResponseHandler implements ResponseHandler<PayWayMessage> {
+        private static final ObjectMapper mapper = new ObjectMapper();
+
         @Override
         public PayWayMessage handleResponse(HttpResponse httpResponse) throws IOException {
-            ObjectMapper mapper = new ObjectMapper();
-            InputStream inputStream = httpResponse.getEntity().getContent();
-            return mapper.readValue(inputStream, PayWayMessage.class);
+            try (InputStream inputStream = httpResponse.getEntity().getContent()) {
+                return mapper.readValue(inputStream, PayWayMessage.class);
+            }
         }
     }
 }
@@ -1,5 +1,7 @@
 package org.socialhistoryservices.delivery.api;
 
+import java.time.Duration;
+import java.util.Collection;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -60,4 +62,37 @@ public interface RecordLookupService {
      * @throws NoSuchPidException Thrown when the PID is not found.
      */
     MetadataRecordExtractor getRecordExtractorByPid(String pid) throws NoSuchPidException;
+
+    /**
+     * Maps a PID to a record metadata extractor, waiting at most the given time for the lookup.
+     * Implementing services which do not support a maximum wait perform a regular lookup.
+     *
+     * @param pid     The PID to lookup.
+     * @param maxWait The maximum time to wait for the lookup.
+     * @return The metadata extractor of the record, if found.
+     * @throws NoSuchPidException Thrown when the PID is not found, or not found in time.
+     */
+    default MetadataRecordExtractor getRecordExtractorByPid(String pid, Duration maxWait) throws NoSuchPidException {
+        return getRecordExtractorByPid(pid);
+    }
+
+    /**
+     * Maps multiple PIDs to record metadata extractors.
+     * Implementing services should look up the PIDs in as few requests as possible.
+     * A PID left out is not necessarily unknown: callers should fall back to getRecordExtractorByPid.
+     *
+     * @param pids The PIDs to lookup.
+     * @return A map of {pid,metadata extractor} key-value pairs. PIDs which are not found are left out.
+     */
+    default Map<String, MetadataRecordExtractor> getRecordExtractorsByPids(Collection<String> pids) {
+        Map<String, MetadataRecordExtractor> recordExtractors = new HashMap<>();
+        for (String pid : pids) {
+            try {
+                recordExtractors.put(pid, getRecordExtractorByPid(pid));
+            }
+            catch (NoSuchPidException ignored) {
+            }
+        }
+        return recordExtractors;
+    }
 }
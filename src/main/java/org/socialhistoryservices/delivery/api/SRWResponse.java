@@ -0,0 +1,66 @@
+package org.socialhistoryservices.delivery.api;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a search in the SRW API, as read by the {@link SRWStreamParser}.
+ */
+public final class SRWResponse {
+    private final int numberOfRecords;
+    private final List<Record> records;
+
+    public SRWResponse(int numberOfRecords, List<Record> records) {
+        this.numberOfRecords = numberOfRecords;
+        this.records = Collections.unmodifiableList(records);
+    }
+
+    /**
+     * Returns the total number of records matching the query.
+     *
+     * @return The total number of records.
+     */
+    public int getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
+    /**
+     * Returns the records in this response.
+     *
+     * @return The records.
+     */
+    public List<Record> getRecords() {
+        return records;
+    }
+
+    /**
+     * A single record in the response.
+     */
+    public static final class Record {
+        private final String identifier;
+        private final MARCRecord marc;
+
+        public Record(String identifier, MARCRecord marc) {
+            this.identifier = identifier;
+            this.marc = marc;
+        }
+
+        /**
+         * Returns the identifier (PID) from the extra record data.
+         *
+         * @return The identifier, or an empty string if not present.
+         */
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        /**
+         * Returns the MARC record.
+         *
+         * @return The MARC record, or null if the record data is not MARCXML.
+         */
+        public MARCRecord getMarc() {
+            return marc;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package org.socialhistoryservices.delivery.api;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads an SRW search response with MARCXML records in a single streaming (StAX) pass.
+ * No DOM is built; only the data of the records is retained in compact {@link MARCRecord} objects.
+ */
+public class SRWStreamParser {
+    private static final NamespaceContext NAMESPACES = new IISHNamespaceContext();
+    private static final String NS_SRW = NAMESPACES.getNamespaceURI("srw");
+    private static final String NS_MARC = NAMESPACES.getNamespaceURI("marc");
+    private static final String NS_IISG = NAMESPACES.getNamespaceURI("iisg");
+
+    private static final XMLInputFactory factory;
+
+    static {
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Parses the SRW search response.
+     *
+     * @param inputStream The stream with the SRW search response.
+     * @return The parsed response.
+     * @throws XMLStreamException Thrown when the response could not be parsed.
+     */
+    public static SRWResponse parse(InputStream inputStream) throws XMLStreamException {
+        XMLStreamReader reader = factory.createXMLStreamReader(inputStream);
+        try {
+            int numberOfRecords = 0;
+            boolean foundNumberOfRecords = false;
+            List<SRWResponse.Record> records = new ArrayList<>();
+
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT)
+                    continue;
+
+                if (isElement(reader, NS_SRW, "numberOfRecords") && !foundNumberOfRecords) {
+                    numberOfRecords = parseNumber(reader.getElementText());
+                    foundNumberOfRecords = true;
+                }
+                else if (isElement(reader, NS_SRW, "record")) {
+                    records.add(parseRecord(reader));
+                }
+            }
+
+            return new SRWResponse(numberOfRecords, records);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Opens a reader over all records in a (possibly very large) document, such as an SRW response,
+     * a MARCXML collection or an OAI-PMH export. The records are read one at a time, so only the
+     * record being read is kept in memory. MARC records outside of an SRW record have no identifier.
+     *
+     * @param inputStream The stream with the document.
+     * @return The reader of the records.
+     * @throws XMLStreamException Thrown when the document could not be opened.
+     */
+    public static RecordReader open(InputStream inputStream) throws XMLStreamException {
+        return new RecordReader(factory.createXMLStreamReader(inputStream));
+    }
+
+    /**
+     * Reads the records of a document one at a time.
+     */
+    public static final class RecordReader implements Closeable {
+        private final XMLStreamReader reader;
+
+        private RecordReader(XMLStreamReader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Reads the next record of the document.
+         *
+         * @return The next record, or null if there are no more records.
+         * @throws XMLStreamException Thrown when the document could not be parsed.
+         */
+        public SRWResponse.Record next() throws XMLStreamException {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT)
+                    continue;
+
+                if (isElement(reader, NS_SRW, "record"))
+                    return parseRecord(reader);
+                if (isElement(reader, NS_MARC, "record"))
+                    return new SRWResponse.Record("", parseMarc(reader));
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            try {
+                reader.close();
+            }
+            catch (XMLStreamException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Parses a single SRW record; the reader is positioned at the start of the record.
+     * Returns with the reader positioned at the end of the record.
+     */
+    private static SRWResponse.Record parseRecord(XMLStreamReader reader) throws XMLStreamException {
+        String identifier = null;
+        MARCRecord marc = null;
+
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+            else if (event == XMLStreamConstants.START_ELEMENT) {
+                if (isElement(reader, NS_MARC, "record") && (marc == null)) {
+                    marc = parseMarc(reader);
+                }
+                else if (isElement(reader, NS_IISG, "identifier") && (identifier == null)) {
+                    identifier = reader.getElementText();
+                }
+                else {
+                    depth++;
+                }
+            }
+        }
+
+        return new SRWResponse.Record((identifier != null) ? identifier : "", marc);
+    }
+
+    /**
+     * Parses a single MARCXML record; the reader is positioned at the start of the record.
+     * Returns with the reader positioned at the end of the record.
+     */
+    private static MARCRecord parseMarc(XMLStreamReader reader) throws XMLStreamException {
+        String leader = null;
+        List<MARCRecord.DataField> dataFields = new ArrayList<>();
+
+        String tag = null;
+        List<Character> codes = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (isElement(reader, NS_MARC, "leader")) {
+                    leader = reader.getElementText();
+                }
+                else if (isElement(reader, NS_MARC, "subfield") && (tag != null)) {
+                    String code = reader.getAttributeValue(null, "code");
+                    String value = reader.getElementText();
+                    if ((code != null) && (code.length() == 1)) {
+                        codes.add(code.charAt(0));
+                        values.add(value);
+                    }
+                }
+                else {
+                    if (isElement(reader, NS_MARC, "datafield")) {
+                        String tagAttr = reader.getAttributeValue(null, "tag");
+                        tag = (tagAttr != null) ? tagAttr.trim() : "";
+                        codes.clear();
+                        values.clear();
+                    }
+                    depth++;
+                }
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (isElement(reader, NS_MARC, "datafield") && (tag != null)) {
+                    dataFields.add(new MARCRecord.DataField(tag, codes, values));
+                    tag = null;
+                }
+                depth--;
+            }
+        }
+
+        return new MARCRecord(leader, dataFields);
+    }
+
+    private static boolean isElement(XMLStreamReader reader, String namespace, String localName) {
+        return localName.equals(reader.getLocalName()) && namespace.equals(reader.getNamespaceURI());
+    }
+
+    private static int parseNumber(String number) {
+        try {
+            return (int) Double.parseDouble(number.trim());
+        }
+        catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
+}
@@ -1,5 +1,16 @@
 package org.socialhistoryservices.delivery.api;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -9,37 +20,82 @@ import org.xml.sax.SAXException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InputStream;
+import java.time.Duration;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Represents the Shared Object Repository (SOR) service.
+ * The metadata is cached by PID, including the absence of metadata, so that the SOR is not
+ * queried again for every rendering of a reproduction. Failed requests are not cached.
  */
 public class SharedObjectRepositoryService {
     private static final Logger LOGGER = LoggerFactory.getLogger(SharedObjectRepositoryService.class);
-    private static final Pattern HANDLE_PID_PATTERN = Pattern.compile("^http://hdl.handle.net/10622/(.*?)\\?locatt=.*$");
 
-    private static final DocumentBuilder documentBuilder;
-
-    static {
+    private static final ThreadLocal<DocumentBuilder> documentBuilder = ThreadLocal.withInitial(() -> {
         try {
             DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
             dbf.setIgnoringComments(true);
-            documentBuilder = dbf.newDocumentBuilder();
+            return dbf.newDocumentBuilder();
         }
         catch (ParserConfigurationException e) {
             throw new RuntimeException(e);
         }
-    }
+    });
 
     private final String url;
+    private final CloseableHttpClient httpClient;
+    private final Cache<String, Optional<SorMetadata>> cache;
+    private ExecutorService executor;
 
-    public SharedObjectRepositoryService(String url) {
+    /**
+     * Creates a new SOR service.
+     *
+     * @param url         The address of the SOR.
+     * @param httpClient  The (pooled) HTTP client to query the SOR with.
+     * @param maximumSize The maximum number of PIDs to cache.
+     * @param expireAfter The time after which a cached PID expires.
+     */
+    public SharedObjectRepositoryService(String url, CloseableHttpClient httpClient,
+                                         long maximumSize, Duration expireAfter) {
         this.url = url;
+        this.httpClient = httpClient;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfter)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Set the executor to query the SOR for multiple PIDs concurrently.
+     *
+     * @param executor The executor to use.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Stops the executor; running queries are interrupted.
+     */
+    public void shutdown() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    /**
+     * Publishes the statistics of the cache (hits, misses, evictions) to the given registry.
+     *
+     * @param meterRegistry The registry.
+     */
+    public void bindTo(MeterRegistry meterRegistry) {
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "sorMetadata");
     }
 
     /**
@@ -49,8 +105,64 @@ public class SharedObjectRepositoryService {
      * @return The SOR has metadata, if found.
      */
     public SorMetadata getMetadataForPid(String pid) {
-        LOGGER.debug("getMetadataForPid() not implemented");
-        return null;
+        Optional<SorMetadata> sorMetadata = cache.getIfPresent(pid);
+        if (sorMetadata != null)
+            return sorMetadata.orElse(null);
+
+        try {
+            sorMetadata = Optional.ofNullable(queryMetadataForPid(pid));
+            cache.put(pid, sorMetadata);
+            return sorMetadata.orElse(null);
+        }
+        catch (IOException ioe) {
+            LOGGER.error("getMetadataForPid(): SOR API connection failed", ioe);
+            return null;
+        }
+    }
+
+    /**
+     * Find out which of the given PIDs have metadata in the SOR.
+     * The PIDs which are not cached are queried concurrently.
+     *
+     * @param pids The pids.
+     * @return A map of {pid,metadata} key-value pairs. PIDs without metadata in the SOR are left out.
+     */
+    public Map<String, SorMetadata> getMetadataForPids(Collection<String> pids) {
+        Map<String, CompletableFuture<SorMetadata>> queries = new LinkedHashMap<>();
+        for (String pid : new LinkedHashSet<>(pids)) {
+            if ((executor == null) || (cache.getIfPresent(pid) != null))
+                queries.put(pid, CompletableFuture.completedFuture(getMetadataForPid(pid)));
+            else
+                queries.put(pid, CompletableFuture.supplyAsync(() -> getMetadataForPid(pid), executor));
+        }
+
+        Map<String, SorMetadata> sorMetadata = new HashMap<>();
+        for (Map.Entry<String, CompletableFuture<SorMetadata>> query : queries.entrySet()) {
+            try {
+                SorMetadata metadata = query.getValue().join();
+                if (metadata != null)
+                    sorMetadata.put(query.getKey(), metadata);
+            }
+            catch (CompletionException ce) {
+                LOGGER.error("getMetadataForPids(): SOR API query failed", ce.getCause());
+            }
+        }
+        return sorMetadata;
+    }
+
+    /**
+     * Queries the SOR for the metadata of the given PID.
+     *
+     * @param pid The pid.
+     * @return The SOR has metadata, if found.
+     * @throws IOException Thrown when the SOR could not be queried.
+     */
+    private SorMetadata queryMetadataForPid(String pid) throws IOException {
+        String req = url + "/metadata/" + pid + "?accept=text/xml&format=xml";
+        LOGGER.debug(String.format("getMetadataForPid(): Querying SOR API: %s", req));
+
+        Document document = httpClient.execute(new HttpGet(req), new DocumentResponseHandler());
+        return (document != null) ? getMetadataFromDocument(document, pid) : null;
     }
 
     /**
@@ -63,7 +175,7 @@ public class SharedObjectRepositoryService {
     private SorMetadata getMetadataFromDocument(Document document, String pid) {
         // See if there is an element with the PID and make sure it matches the PID we're requesting
         Node pidNode = getElement(document.getElementsByTagName("pid"));
-        if (!pidNode.getTextContent().equals(pid))
+        if ((pidNode == null) || !pidNode.getTextContent().equals(pid))
             return null;
 
         String contentTypeMaster = null, contentTypeLevel1 = null;
@@ -126,116 +238,15 @@ public class SharedObjectRepositoryService {
      */
     private Map<String, List<String>> getFilesMETS(String pid) {
         try {
-            URL req = new URL(url + "/file/master/" + pid);
+            String req = url + "/file/master/" + pid;
 
-            LOGGER.debug(String.format("getFilesMETS(): Obtain METS document: %s", req.toString()));
-            HttpURLConnection conn = (HttpURLConnection) req.openConnection();
-            Document document = documentBuilder.parse(conn.getInputStream());
-
-            return getFilesMETSFromDocument(document);
+            LOGGER.debug(String.format("getFilesMETS(): Obtain METS document: %s", req));
+            return httpClient.execute(new HttpGet(req), new METSResponseHandler());
         }
         catch (IOException ioe) {
             LOGGER.error("getFilesMETS(): Could not obtain METS document", ioe);
             return null;
         }
-        catch (SAXException saxe) {
-            LOGGER.debug("getFilesMETS(): Could not parse received METS", saxe);
-            return null;
-        }
-    }
-
-    /**
-     * Parses the METS document for the files and their PIDs.
-     *
-     * @param document The METS document.
-     * @return A map with the uses and their file PIDs.
-     */
-    private static Map<String, List<String>> getFilesMETSFromDocument(Document document) {
-        Map<String, List<String>> filePids = new HashMap<>();
-
-        Map<String, Set<String>> fptrsPerGroup = gettFptrsPerGroup(document);
-        Map<Integer, Set<String>> fptrsOrdered = getFptrsOrdered(document);
-        for (String fileGrp : fptrsPerGroup.keySet()) {
-            List<String> files = new ArrayList<>();
-
-            for (Integer order : fptrsOrdered.keySet()) {
-                Set<String> groupFptrs = fptrsPerGroup.get(fileGrp);
-                Set<String> orderedFptrs = fptrsOrdered.get(order);
-
-                for (String fptr : orderedFptrs) {
-                    if (groupFptrs.contains(fptr))
-                        files.add(getFilePidFromFptr(document, fptr));
-                }
-            }
-
-            if (!files.isEmpty())
-                filePids.put(fileGrp, files);
-        }
-
-        return filePids;
-    }
-
-    /**
-     * Obtains all file pointers per group in the METS.
-     *
-     * @param document The METS document.
-     * @return A map with all file pointers per group.
-     */
-    private static Map<String, Set<String>> gettFptrsPerGroup(Document document) {
-        Map<String, Set<String>> fptrsPerGroup = new TreeMap<>();
-        for (Element fileGrpElement : getElements(document.getElementsByTagName("fileGrp"))) {
-            Set<String> fptrs = new HashSet<>();
-            for (Element fptrElement : getElements(fileGrpElement.getElementsByTagName("file")))
-                fptrs.add(fptrElement.getAttribute("ID"));
-            String fileGrpId = fileGrpElement.getAttribute("USE");
-            fptrsPerGroup.put(fileGrpId, fptrs);
-        }
-        return fptrsPerGroup;
-    }
-
-    /**
-     * Obtains all file pointers per sequence order in the METS.
-     *
-     * @param document The METS document.
-     * @return A map with all file pointers per sequence order.
-     */
-    private static Map<Integer, Set<String>> getFptrsOrdered(Document document) {
-        Map<Integer, Set<String>> fptrsPerPage = new TreeMap<>();
-        for (Element structMapElement : getElements(document.getElementsByTagName("structMap"))) {
-            if (structMapElement.getAttribute("TYPE").equals("physical")) {
-                for (Element divElement : getElements(structMapElement.getElementsByTagName("div"))) {
-                    if (divElement.getAttribute("TYPE").equals("page")) {
-                        Set<String> fptrs = new HashSet<>();
-                        for (Element fptrElement : getElements(divElement.getElementsByTagName("fptr")))
-                            fptrs.add(fptrElement.getAttribute("FILEID"));
-                        fptrsPerPage.put(Integer.parseInt(divElement.getAttribute("ORDER")), fptrs);
-                    }
-                }
-            }
-        }
-        return fptrsPerPage;
-    }
-
-    /**
-     * Returns the PID for a file with the given file pointer id.
-     *
-     * @param document The METS document.
-     * @param id       The file pointer id.
-     * @return The PID.
-     */
-    private static String getFilePidFromFptr(Document document, String id) {
-        for (Element fileElement : getElements(document.getElementsByTagName("file"))) {
-            if (fileElement.getAttribute("ID").equals(id)) {
-                Element fLocatElement = getElement(fileElement.getElementsByTagName("FLocat"));
-                if (fLocatElement != null) {
-                    String url = fLocatElement.getAttribute("xlink:href");
-                    Matcher matcher = HANDLE_PID_PATTERN.matcher(url);
-                    if (matcher.find())
-                        return "10622/" + matcher.group(1);
-                }
-            }
-        }
-        return null;
     }
 
     /**
@@ -268,4 +279,51 @@ public class SharedObjectRepositoryService {
         }
         return elements;
     }
+
+    /**
+     * Parses the response of the SOR into a document; returns null if the PID was not found
+     * or the response could not be parsed. The response is always consumed, so the connection can be reused.
+     */
+    private static class DocumentResponseHandler implements ResponseHandler<Document> {
+        @Override
+        public Document handleResponse(HttpResponse httpResponse) throws IOException {
+            StatusLine statusLine = httpResponse.getStatusLine();
+            if (statusLine.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                return null;
+            if (statusLine.getStatusCode() >= 300)
+                throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
+
+            try (InputStream inputStream = httpResponse.getEntity().getContent()) {
+                return documentBuilder.get().parse(inputStream);
+            }
+            catch (SAXException saxe) {
+                LOGGER.debug("handleResponse(): Could not parse received document", saxe);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Parses the METS document of the SOR for the files and their PIDs in a single streaming pass;
+     * returns null if the PID was not found or the document could not be parsed.
+     * The response is always consumed, so the connection can be reused.
+     */
+    private static class METSResponseHandler implements ResponseHandler<Map<String, List<String>>> {
+        @Override
+        public Map<String, List<String>> handleResponse(HttpResponse httpResponse) throws IOException {
+            StatusLine statusLine = httpResponse.getStatusLine();
+            if (statusLine.getStatusCode() == HttpStatus.SC_NOT_FOUND)
+                return null;
+            if (statusLine.getStatusCode() >= 300)
+                throw new HttpResponseException(statusLine.getStatusCode(), statusLine.getReasonPhrase());
+
+            try (InputStream inputStream = httpResponse.getEntity().getContent()) {
+                return METSStreamParser.parse(inputStream);
+            }
+            catch (XMLStreamException xmlse) {
+                LOGGER.debug("handleResponse(): Could not parse received METS", xmlse);
+                return null;
+            }
+        }
+    }
 }
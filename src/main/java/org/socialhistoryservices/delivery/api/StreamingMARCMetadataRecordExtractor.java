@@ -0,0 +1,220 @@
+package org.socialhistoryservices.delivery.api;
+
+import java.util.*;
+
+import org.socialhistoryservices.delivery.record.entity.ArchiveHoldingInfo;
+import org.socialhistoryservices.delivery.record.entity.ExternalHoldingInfo;
+import org.socialhistoryservices.delivery.record.entity.ExternalRecordInfo;
+
+/**
+ * Metadata record extractor working on a {@link MARCRecord} read by the {@link SRWStreamParser}.
+ * Extracts the same metadata as the {@link MARCMetadataRecordExtractor}, without the need of a DOM.
+ */
+public class StreamingMARCMetadataRecordExtractor implements MetadataRecordExtractor {
+    private final String pid;
+    private final MARCRecord marc;
+
+    public StreamingMARCMetadataRecordExtractor(String pid, MARCRecord marc) {
+        this.pid = pid;
+        this.marc = marc;
+    }
+
+    /**
+     * Returns the PID of the record.
+     *
+     * @return The PID.
+     */
+    @Override
+    public String getPid() {
+        return pid;
+    }
+
+    /**
+     * Extracts the metadata of the record.
+     *
+     * @return The metadata of the record, if found.
+     */
+    @Override
+    public ExternalRecordInfo getRecordMetadata() {
+        ExternalRecordInfo externalInfo = new ExternalRecordInfo();
+
+        String author = evaluateAuthor(marc);
+        if (!author.isEmpty()) {
+            externalInfo.setAuthor(MetadataRecordExtractor.stripToSize(author, 125));
+        }
+
+        String title = evaluateTitle(marc);
+        if (!title.isEmpty()) {
+            // Strip trailing slashes
+            title = title.trim().replaceAll("[/:]$", "");
+            String subTitle = marc.getSubfieldValue("245", 'b');
+            if (!subTitle.isEmpty()) {
+                title += " " + subTitle.trim().replaceAll("[/:]$", "");
+            }
+
+            // Trim this to ~125 characters for readability (this is the current max size of the field).
+            title = MetadataRecordExtractor.stripToSize(title, 125);
+            externalInfo.setTitle(title);
+        }
+        else {
+            externalInfo.setTitle("Unknown Record");
+        }
+
+        String year = marc.getSubfieldValue("260", 'c');
+        if (!year.isEmpty()) {
+            externalInfo.setDisplayYear(MetadataRecordExtractor.stripToSize(year, 30));
+        }
+
+        externalInfo.setMaterialType(evaluateMaterialType());
+        externalInfo.setCopyright(emptyToNull(marc.getSubfieldValue("540", 'b')));
+        externalInfo.setPublicationStatus(
+                MARCMetadataRecordExtractor.toPublicationStatus(marc.getSubfieldValue("542", 'm')));
+        externalInfo.setPhysicalDescription(emptyToNull(marc.getSubfieldValue("300", 'a')));
+        externalInfo.setGenres(MARCMetadataRecordExtractor.genresToString(marc.getSubfieldValues("655", 'a')));
+        externalInfo.setRestriction(ExternalRecordInfo.Restriction.OPEN);
+
+        return externalInfo;
+    }
+
+    /**
+     * Get a map of holding signatures associated with this this marc,
+     * linking to additional holding info provided by the API.
+     *
+     * @return A map of found (signature,holding info) tuples, or an empty map if none were found.
+     */
+    @Override
+    public Map<String, ExternalHoldingInfo> getHoldingMetadata() {
+        Map<String, ExternalHoldingInfo> retMap = new HashMap<>();
+
+        List<String> shelves = marc.getSubfieldValues("852", 'c');
+        List<String> signatures = marc.getSubfieldValues("852", 'j');
+        List<String> barcodes = marc.getSubfieldValues("852", 'p');
+        List<String> serialNumbers = marc.getSubfieldValues("866", 'a');
+
+        for (int i = 0; i < signatures.size(); i++) {
+            ExternalHoldingInfo eh = new ExternalHoldingInfo();
+            if (i < shelves.size())
+                eh.setShelvingLocation(shelves.get(i));
+            if (i < barcodes.size())
+                eh.setBarcode(barcodes.get(i));
+            if (i < serialNumbers.size())
+                eh.setSerialNumbers(serialNumbers.get(i).replace(",", ", "));
+            retMap.put(signatures.get(i), eh);
+        }
+
+        return retMap;
+    }
+
+    /**
+     * Obtains archive holding info of a record.
+     *
+     * @return A list with the archive metadata of the record, if found.
+     */
+    @Override
+    public List<ArchiveHoldingInfo> getArchiveHoldingInfo() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Obtains metadata record extractors for all container siblings of the current record.
+     * These records do not only share the same parent record, but also share a common container.
+     *
+     * @return A set of metadata record extractors for the container siblings.
+     */
+    @Override
+    public Set<MetadataRecordExtractor> getRecordExtractorsForContainerSiblings() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Obtains the archive holding info from the 931 fields of the archival MARC record.
+     *
+     * @param archival The archival MARC record.
+     * @return A list with the archive holding info.
+     */
+    static List<ArchiveHoldingInfo> getArchiveHoldingInfo(MARCRecord archival) {
+        List<ArchiveHoldingInfo> info = new ArrayList<>();
+        for (MARCRecord.DataField archiveItem : archival.getDataFields("931")) {
+            ArchiveHoldingInfo ahi = new ArchiveHoldingInfo();
+            ahi.setShelvingLocation(emptyToNull(archiveItem.getSubfieldValue('a')));
+            ahi.setMeter(emptyToNull(archiveItem.getSubfieldValue('b')));
+            ahi.setNumbers(emptyToNull(archiveItem.getSubfieldValue('c')));
+            ahi.setFormat(emptyToNull(archiveItem.getSubfieldValue('e')));
+            ahi.setNote(emptyToNull(archiveItem.getSubfieldValue('f')));
+
+            if (ahi.getShelvingLocation() != null || ahi.getMeter() != null ||
+                    ahi.getNumbers() != null || ahi.getFormat() != null || ahi.getNote() != null) {
+                info.add(ahi);
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Fetches the title from the MARC record, including the sub title.
+     *
+     * @param marc The MARC record.
+     * @return The title, or an empty string if not present.
+     */
+    private static String evaluateTitle(MARCRecord marc) {
+        // Strip trailing slashes
+        String title = getTitle(marc).trim().replaceAll("[/:]$", "");
+        String subTitle = marc.getSubfieldValue("245", 'b');
+        if (!subTitle.isEmpty()) {
+            title += " " + subTitle.trim().replaceAll("[/:]$", "");
+        }
+
+        return title;
+    }
+
+    /**
+     * Fetches the title from the MARC record, by trying the various title fields in order.
+     *
+     * @param marc The MARC record.
+     * @return The title, or an empty string if not present.
+     */
+    static String getTitle(MARCRecord marc) {
+        String title = marc.getSubfieldValue("245", 'a');
+        if (title.isEmpty())
+            title = marc.getSubfieldValue("500", 'a');
+        if (title.isEmpty())
+            title = marc.getSubfieldValue("600", 'a');
+        if (title.isEmpty())
+            title = marc.getSubfieldValue("610", 'a');
+        if (title.isEmpty())
+            title = marc.getSubfieldValue("650", 'a');
+        if (title.isEmpty())
+            title = marc.getSubfieldValue("651", 'a');
+        if (title.isEmpty())
+            title = marc.getSubfieldValue("245", 'k');
+        return title;
+    }
+
+    /**
+     * Fetches author from the MARC record, first tries 100a, then 110a, 700a and 710a.
+     *
+     * @param marc The MARC record.
+     * @return The author found, or an empty string if not present.
+     */
+    private static String evaluateAuthor(MARCRecord marc) {
+        String author = marc.getSubfieldValue("100", 'a');
+        if (author.isEmpty())
+            author = marc.getSubfieldValue("110", 'a');
+        if (author.isEmpty())
+            author = marc.getSubfieldValue("700", 'a');
+        if (author.isEmpty())
+            author = marc.getSubfieldValue("710", 'a');
+        return author;
+    }
+
+    private ExternalRecordInfo.MaterialType evaluateMaterialType() {
+        String leader = marc.getLeader();
+        if (leader.length() < 8)
+            return ExternalRecordInfo.MaterialType.OTHER;
+        return MARCMetadataRecordExtractor.leaderToMaterialType(leader, marc.getSubfieldValue("245", 'k'));
+    }
+
+    private static String emptyToNull(String value) {
+        return ((value == null) || value.isEmpty()) ? null : value;
+    }
+}
@@ -0,0 +1,65 @@
+package org.socialhistoryservices.delivery.api;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.socialhistoryservices.delivery.record.entity.ArchiveHoldingInfo;
+import org.socialhistoryservices.delivery.record.entity.ExternalHoldingInfo;
+import org.socialhistoryservices.delivery.record.entity.ExternalRecordInfo;
+
+/**
+ * Metadata record extractor which can be shared between threads, i.e. when cached.
+ * The underlying DOM is not thread-safe, not even for reading, so all extraction is serialized.
+ * Container siblings share the DOM of the extractor, and therefore also the lock.
+ */
+public class SynchronizedMetadataRecordExtractor implements MetadataRecordExtractor {
+    private final MetadataRecordExtractor recordExtractor;
+    private final Object lock;
+
+    public SynchronizedMetadataRecordExtractor(MetadataRecordExtractor recordExtractor) {
+        this(recordExtractor, new Object());
+    }
+
+    private SynchronizedMetadataRecordExtractor(MetadataRecordExtractor recordExtractor, Object lock) {
+        this.recordExtractor = recordExtractor;
+        this.lock = lock;
+    }
+
+    @Override
+    public String getPid() {
+        return recordExtractor.getPid();
+    }
+
+    @Override
+    public ExternalRecordInfo getRecordMetadata() {
+        synchronized (lock) {
+            return recordExtractor.getRecordMetadata();
+        }
+    }
+
+    @Override
+    public Map<String, ExternalHoldingInfo> getHoldingMetadata() {
+        synchronized (lock) {
+            return recordExtractor.getHoldingMetadata();
+        }
+    }
+
+    @Override
+    public List<ArchiveHoldingInfo> getArchiveHoldingInfo() {
+        synchronized (lock) {
+            return recordExtractor.getArchiveHoldingInfo();
+        }
+    }
+
+    @Override
+    public Set<MetadataRecordExtractor> getRecordExtractorsForContainerSiblings() {
+        synchronized (lock) {
+            Set<MetadataRecordExtractor> siblings = new HashSet<>();
+            for (MetadataRecordExtractor sibling : recordExtractor.getRecordExtractorsForContainerSiblings())
+                siblings.add(new SynchronizedMetadataRecordExtractor(sibling, lock));
+            return siblings;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.socialhistoryservices.delivery.api;
+
+import org.xml.sax.InputSource;
+
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+
+/**
+ * A compiled XPath expression which can safely be shared between threads.
+ * Compiled {@link XPathExpression} instances are not thread-safe, so each thread lazily compiles its own copy.
+ */
+public class ThreadLocalXPathExpression implements XPathExpression {
+    private final String expression;
+    private final ThreadLocal<XPathExpression> compiled = new ThreadLocal<>();
+
+    /**
+     * Creates a new thread-safe XPath expression.
+     *
+     * @param expression The XPath expression.
+     * @throws XPathExpressionException Thrown when the expression cannot be compiled.
+     */
+    ThreadLocalXPathExpression(String expression) throws XPathExpressionException {
+        this.expression = expression;
+        // Compile the expression at least once, so invalid expressions are reported directly
+        compiled.set(XmlUtils.getXPath().compile(expression));
+    }
+
+    /**
+     * Returns the XPath expression.
+     *
+     * @return The XPath expression.
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public Object evaluate(Object item, QName returnType) throws XPathExpressionException {
+        return get().evaluate(item, returnType);
+    }
+
+    @Override
+    public String evaluate(Object item) throws XPathExpressionException {
+        return get().evaluate(item);
+    }
+
+    @Override
+    public Object evaluate(InputSource source, QName returnType) throws XPathExpressionException {
+        return get().evaluate(source, returnType);
+    }
+
+    @Override
+    public String evaluate(InputSource source) throws XPathExpressionException {
+        return get().evaluate(source);
+    }
+
+    private XPathExpression get() throws XPathExpressionException {
+        XPathExpression xPathExpression = compiled.get();
+        if (xPathExpression == null) {
+            xPathExpression = XmlUtils.getXPath().compile(expression);
+            compiled.set(xPathExpression);
+        }
+        return xPathExpression;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -5,24 +5,52 @@ import org.w3c.dom.Node;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
 
 public class XmlUtils {
-    public static XPathExpression getXPathForMarc(XPath xpath, String tag, char code) throws XPathExpressionException {
-        return getXPathForMarc(xpath, tag, code, "");
+    private static final ThreadLocal<XPath> xpath = ThreadLocal.withInitial(() -> {
+        XPath xpath = XPathFactory.newInstance().newXPath();
+        xpath.setNamespaceContext(new IISHNamespaceContext());
+        return xpath;
+    });
+
+    /**
+     * Returns the XPath instance of the current thread, aware of the IISH namespaces.
+     * XPath instances are not thread-safe, so do not share the instance with other threads.
+     *
+     * @return The XPath instance.
+     */
+    public static XPath getXPath() {
+        return xpath.get();
+    }
+
+    /**
+     * Compiles the given XPath expression into an expression which can be shared between threads.
+     *
+     * @param expression The XPath expression.
+     * @return The compiled XPath expression.
+     * @throws XPathExpressionException Thrown when the expression cannot be compiled.
+     */
+    public static XPathExpression compile(String expression) throws XPathExpressionException {
+        return new ThreadLocalXPathExpression(expression);
+    }
+
+    public static XPathExpression getXPathForMarc(String tag, char code) throws XPathExpressionException {
+        return getXPathForMarc(tag, code, "");
     }
 
-    public static XPathExpression getXPathForMarc(XPath xpath, String tag, char code, String searchPath)
+    public static XPathExpression getXPathForMarc(String tag, char code, String searchPath)
         throws XPathExpressionException {
-        return xpath.compile(
+        return compile(
             searchPath + "marc:datafield[@tag=" + tag + "]/marc:subfield[@code=\"" + code + "\"]");
     }
 
-    public static XPathExpression getXPathForMarcTag(XPath xpath, String tag) throws XPathExpressionException {
-        return xpath.compile("marc:datafield[@tag=" + tag + "]");
+    public static XPathExpression getXPathForMarcTag(String tag) throws XPathExpressionException {
+        return compile("marc:datafield[@tag=" + tag + "]");
     }
 
-    public static XPathExpression getXPathForMarcSubfield(XPath xpath, char code) throws XPathExpressionException {
-        return xpath.compile("marc:subfield[@code=\"" + code + "\"]");
+    public static XPathExpression getXPathForMarcSubfield(char code) throws XPathExpressionException {
+        return compile("marc:subfield[@code=\"" + code + "\"]");
     }
 
     public static String evaluate(XPathExpression expression, Node node) {
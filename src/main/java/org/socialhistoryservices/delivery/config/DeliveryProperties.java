@@ -15,9 +15,34 @@ public class DeliveryProperties {
     private String apiDomain = "api.socialhistoryservices.org";
     private int apiPort = 443;
     private String apiProto = "https";
+    private int apiConnectTimeout = 5000;
+    private int apiReadTimeout = 15000;
+    private int apiMaxConnections = 20;
+    private int apiMaxConnectionsPerRoute = 10;
+    private boolean apiStreamingParser = false;
+    private int apiLookupThreads = 10;
+    private int apiLookupTimeout = 30000;
+    private int apiLatencyBudget = 3000;
+    private int apiCircuitBreakerFailures = 5;
+    private int apiCircuitBreakerOpenSeconds = 30;
+    private int apiSearchCacheSize = 200;
+    private int apiSearchCacheSeconds = 300;
+    private int apiPrefetchThreads = 2;
     private String timezone = "Europe/Amsterdam";
     private String dateFormat = "yyyy-MM-dd";
     private int externalInfoMinDaysCache = 30;
+    private int externalInfoCacheSize = 1000;
+    private int externalInfoCacheSeconds = 600;
+    private int externalInfoRefreshLeadDays = 1;
+    private int externalInfoRefreshMaxRecords = 500;
+    private int externalInfoRefreshBatchSize = 25;
+    private int externalInfoRefreshThreads = 2;
+    private int catalogueImportBatchSize = 100;
+    private String catalogueImportDirectory;
+    private int recordCacheSize = 10000;
+    private int holdingCacheSize = 20000;
+    private int entityCacheSeconds = 300;
+    private int closedDayCalendarSeconds = 60;
     private String holdingSeparator = "^";
     private String itemSeparator = ".";
     private String ldapManagerDn = "cn=admin,dc=socialhistoryservices,dc=org";
@@ -34,6 +59,14 @@ public class DeliveryProperties {
     private String payWayPassPhraseIn = "bla";
     private String PayWayPassPhraseOut = "bla";
     private String payWayProjectName = "delivery";
+    private int payWayConnectTimeout = 5000;
+    private int payWayReadTimeout = 15000;
+    private int payWayMaxConnections = 10;
+    private int payWayRefreshThreads = 2;
+    private int payWayReconcileBatchSize = 50;
+    private int payWayOutboxThreads = 2;
+    private int payWayOutboxMaxAttempts = 8;
+    private int payWayOutboxRetrySeconds = 30;
     private int permissionMaxPageLen = 100;
     private int permissionPageLen = 20;
     private int permissionPageStepSize = 10;
@@ -49,14 +82,31 @@ public class DeliveryProperties {
     private int requestMaxPageLen = 100;
     private int requestPageLen = 20;
     private int requestPageStepSize = 10;
+    private int activeRequestCheckBatchSize = 500;
     private int reservationMaxDaysInAdvance = 31;
     private int reservationMaxItems = 3;
     private int reservationMaxChildren = 10;
+    private int reservationDaysCacheSeconds = 300;
     private boolean printEnabled = true;
     private String printerArchive = "delivery-archive";
     private String printerReadingRoom = "delivery-reading-room";
     private String sorAccessToken = "bla";
     private String sorAddress = "http://disseminate.objectrepository.org";
+    private int sorConnectTimeout = 5000;
+    private int sorReadTimeout = 15000;
+    private int sorMaxConnections = 10;
+    private int sorLookupThreads = 10;
+    private int sorCacheSize = 1000;
+    private int sorCacheSeconds = 600;
+    private int standInPort = 8090;
+    private int standInThreads = 20;
+    private int standInLatencyMillis = 0;
+    private int standInLatencyJitterMillis = 0;
+    private double standInFailureRate = 0;
+    private String standInCannedDirectory;
+    private int standInSearchResults = 1000;
+    private int standInArchiveItems = 50;
+    private int standInMetsPages = 20;
     private String timeFormat = "HH:mm:ss";
     private String urlSearch = "search-acc.socialhistory.org";
     private String urlSelf = "http://localhost:8080";
@@ -149,6 +199,110 @@ public class DeliveryProperties {
         this.apiProto = apiProto;
     }
 
+    public int getApiConnectTimeout() {
+        return apiConnectTimeout;
+    }
+
+    public void setApiConnectTimeout(int apiConnectTimeout) {
+        this.apiConnectTimeout = apiConnectTimeout;
+    }
+
+    public int getApiReadTimeout() {
+        return apiReadTimeout;
+    }
+
+    public void setApiReadTimeout(int apiReadTimeout) {
+        this.apiReadTimeout = apiReadTimeout;
+    }
+
+    public int getApiMaxConnections() {
+        return apiMaxConnections;
+    }
+
+    public void setApiMaxConnections(int apiMaxConnections) {
+        this.apiMaxConnections = apiMaxConnections;
+    }
+
+    public int getApiMaxConnectionsPerRoute() {
+        return apiMaxConnectionsPerRoute;
+    }
+
+    public void setApiMaxConnectionsPerRoute(int apiMaxConnectionsPerRoute) {
+        this.apiMaxConnectionsPerRoute = apiMaxConnectionsPerRoute;
+    }
+
+    public boolean isApiStreamingParser() {
+        return apiStreamingParser;
+    }
+
+    public void setApiStreamingParser(boolean apiStreamingParser) {
+        this.apiStreamingParser = apiStreamingParser;
+    }
+
+    public int getApiLookupThreads() {
+        return apiLookupThreads;
+    }
+
+    public void setApiLookupThreads(int apiLookupThreads) {
+        this.apiLookupThreads = apiLookupThreads;
+    }
+
+    public int getApiSearchCacheSize() {
+        return apiSearchCacheSize;
+    }
+
+    public void setApiSearchCacheSize(int apiSearchCacheSize) {
+        this.apiSearchCacheSize = apiSearchCacheSize;
+    }
+
+    public int getApiSearchCacheSeconds() {
+        return apiSearchCacheSeconds;
+    }
+
+    public void setApiSearchCacheSeconds(int apiSearchCacheSeconds) {
+        this.apiSearchCacheSeconds = apiSearchCacheSeconds;
+    }
+
+    public int getApiPrefetchThreads() {
+        return apiPrefetchThreads;
+    }
+
+    public void setApiPrefetchThreads(int apiPrefetchThreads) {
+        this.apiPrefetchThreads = apiPrefetchThreads;
+    }
+
+    public int getApiLookupTimeout() {
+        return apiLookupTimeout;
+    }
+
+    public void setApiLookupTimeout(int apiLookupTimeout) {
+        this.apiLookupTimeout = apiLookupTimeout;
+    }
+
+    public int getApiLatencyBudget() {
+        return apiLatencyBudget;
+    }
+
+    public void setApiLatencyBudget(int apiLatencyBudget) {
+        this.apiLatencyBudget = apiLatencyBudget;
+    }
+
+    public int getApiCircuitBreakerFailures() {
+        return apiCircuitBreakerFailures;
+    }
+
+    public void setApiCircuitBreakerFailures(int apiCircuitBreakerFailures) {
+        this.apiCircuitBreakerFailures = apiCircuitBreakerFailures;
+    }
+
+    public int getApiCircuitBreakerOpenSeconds() {
+        return apiCircuitBreakerOpenSeconds;
+    }
+
+    public void setApiCircuitBreakerOpenSeconds(int apiCircuitBreakerOpenSeconds) {
+        this.apiCircuitBreakerOpenSeconds = apiCircuitBreakerOpenSeconds;
+    }
+
     public String getTimezone() {
         return timezone;
     }
@@ -173,6 +327,102 @@ public class DeliveryProperties {
         this.externalInfoMinDaysCache = externalInfoMinDaysCache;
     }
 
+    public int getExternalInfoCacheSize() {
+        return externalInfoCacheSize;
+    }
+
+    public void setExternalInfoCacheSize(int externalInfoCacheSize) {
+        this.externalInfoCacheSize = externalInfoCacheSize;
+    }
+
+    public int getExternalInfoCacheSeconds() {
+        return externalInfoCacheSeconds;
+    }
+
+    public void setExternalInfoCacheSeconds(int externalInfoCacheSeconds) {
+        this.externalInfoCacheSeconds = externalInfoCacheSeconds;
+    }
+
+    public int getExternalInfoRefreshLeadDays() {
+        return externalInfoRefreshLeadDays;
+    }
+
+    public void setExternalInfoRefreshLeadDays(int externalInfoRefreshLeadDays) {
+        this.externalInfoRefreshLeadDays = externalInfoRefreshLeadDays;
+    }
+
+    public int getExternalInfoRefreshMaxRecords() {
+        return externalInfoRefreshMaxRecords;
+    }
+
+    public void setExternalInfoRefreshMaxRecords(int externalInfoRefreshMaxRecords) {
+        this.externalInfoRefreshMaxRecords = externalInfoRefreshMaxRecords;
+    }
+
+    public int getExternalInfoRefreshBatchSize() {
+        return externalInfoRefreshBatchSize;
+    }
+
+    public void setExternalInfoRefreshBatchSize(int externalInfoRefreshBatchSize) {
+        this.externalInfoRefreshBatchSize = externalInfoRefreshBatchSize;
+    }
+
+    public int getExternalInfoRefreshThreads() {
+        return externalInfoRefreshThreads;
+    }
+
+    public void setExternalInfoRefreshThreads(int externalInfoRefreshThreads) {
+        this.externalInfoRefreshThreads = externalInfoRefreshThreads;
+    }
+
+    public int getCatalogueImportBatchSize() {
+        return catalogueImportBatchSize;
+    }
+
+    public void setCatalogueImportBatchSize(int catalogueImportBatchSize) {
+        this.catalogueImportBatchSize = catalogueImportBatchSize;
+    }
+
+    public String getCatalogueImportDirectory() {
+        return catalogueImportDirectory;
+    }
+
+    public void setCatalogueImportDirectory(String catalogueImportDirectory) {
+        this.catalogueImportDirectory = catalogueImportDirectory;
+    }
+
+    public int getRecordCacheSize() {
+        return recordCacheSize;
+    }
+
+    public void setRecordCacheSize(int recordCacheSize) {
+        this.recordCacheSize = recordCacheSize;
+    }
+
+    public int getHoldingCacheSize() {
+        return holdingCacheSize;
+    }
+
+    public void setHoldingCacheSize(int holdingCacheSize) {
+        this.holdingCacheSize = holdingCacheSize;
+    }
+
+    public int getEntityCacheSeconds() {
+        return entityCacheSeconds;
+    }
+
+    public void setEntityCacheSeconds(int entityCacheSeconds) {
+        this.entityCacheSeconds = entityCacheSeconds;
+    }
+
+    public int getClosedDayCalendarSeconds() {
+        return closedDayCalendarSeconds;
+    }
+
+    public void setClosedDayCalendarSeconds(int closedDayCalendarSeconds) {
+        this.closedDayCalendarSeconds = closedDayCalendarSeconds;
+    }
+
     public String getHoldingSeparator() {
         return holdingSeparator;
     }
@@ -293,6 +543,70 @@ public class DeliveryProperties {
         this.payWayProjectName = payWayProjectName;
     }
 
+    public int getPayWayConnectTimeout() {
+        return payWayConnectTimeout;
+    }
+
+    public void setPayWayConnectTimeout(int payWayConnectTimeout) {
+        this.payWayConnectTimeout = payWayConnectTimeout;
+    }
+
+    public int getPayWayReadTimeout() {
+        return payWayReadTimeout;
+    }
+
+    public void setPayWayReadTimeout(int payWayReadTimeout) {
+        this.payWayReadTimeout = payWayReadTimeout;
+    }
+
+    public int getPayWayMaxConnections() {
+        return payWayMaxConnections;
+    }
+
+    public void setPayWayMaxConnections(int payWayMaxConnections) {
+        this.payWayMaxConnections = payWayMaxConnections;
+    }
+
+    public int getPayWayRefreshThreads() {
+        return payWayRefreshThreads;
+    }
+
+    public void setPayWayRefreshThreads(int payWayRefreshThreads) {
+        this.payWayRefreshThreads = payWayRefreshThreads;
+    }
+
+    public int getPayWayReconcileBatchSize() {
+        return payWayReconcileBatchSize;
+    }
+
+    public void setPayWayReconcileBatchSize(int payWayReconcileBatchSize) {
+        this.payWayReconcileBatchSize = payWayReconcileBatchSize;
+    }
+
+    public int getPayWayOutboxThreads() {
+        return payWayOutboxThreads;
+    }
+
+    public void setPayWayOutboxThreads(int payWayOutboxThreads) {
+        this.payWayOutboxThreads = payWayOutboxThreads;
+    }
+
+    public int getPayWayOutboxMaxAttempts() {
+        return payWayOutboxMaxAttempts;
+    }
+
+    public void setPayWayOutboxMaxAttempts(int payWayOutboxMaxAttempts) {
+        this.payWayOutboxMaxAttempts = payWayOutboxMaxAttempts;
+    }
+
+    public int getPayWayOutboxRetrySeconds() {
+        return payWayOutboxRetrySeconds;
+    }
+
+    public void setPayWayOutboxRetrySeconds(int payWayOutboxRetrySeconds) {
+        this.payWayOutboxRetrySeconds = payWayOutboxRetrySeconds;
+    }
+
     public int getPermissionMaxPageLen() {
         return permissionMaxPageLen;
     }
@@ -413,6 +727,14 @@ public class DeliveryProperties {
         this.requestPageStepSize = requestPageStepSize;
     }
 
+    public int getActiveRequestCheckBatchSize() {
+        return activeRequestCheckBatchSize;
+    }
+
+    public void setActiveRequestCheckBatchSize(int activeRequestCheckBatchSize) {
+        this.activeRequestCheckBatchSize = activeRequestCheckBatchSize;
+    }
+
     public int getReservationMaxDaysInAdvance() {
         return reservationMaxDaysInAdvance;
     }
@@ -437,6 +759,14 @@ public class DeliveryProperties {
         this.reservationMaxChildren = reservationMaxChildren;
     }
 
+    public int getReservationDaysCacheSeconds() {
+        return reservationDaysCacheSeconds;
+    }
+
+    public void setReservationDaysCacheSeconds(int reservationDaysCacheSeconds) {
+        this.reservationDaysCacheSeconds = reservationDaysCacheSeconds;
+    }
+
     public String getPrinterArchive() {
         return printerArchive;
     }
@@ -469,6 +799,126 @@ public class DeliveryProperties {
         this.sorAddress = sorAddress;
     }
 
+    public int getSorConnectTimeout() {
+        return sorConnectTimeout;
+    }
+
+    public void setSorConnectTimeout(int sorConnectTimeout) {
+        this.sorConnectTimeout = sorConnectTimeout;
+    }
+
+    public int getSorReadTimeout() {
+        return sorReadTimeout;
+    }
+
+    public void setSorReadTimeout(int sorReadTimeout) {
+        this.sorReadTimeout = sorReadTimeout;
+    }
+
+    public int getSorMaxConnections() {
+        return sorMaxConnections;
+    }
+
+    public void setSorMaxConnections(int sorMaxConnections) {
+        this.sorMaxConnections = sorMaxConnections;
+    }
+
+    public int getSorLookupThreads() {
+        return sorLookupThreads;
+    }
+
+    public void setSorLookupThreads(int sorLookupThreads) {
+        this.sorLookupThreads = sorLookupThreads;
+    }
+
+    public int getSorCacheSize() {
+        return sorCacheSize;
+    }
+
+    public void setSorCacheSize(int sorCacheSize) {
+        this.sorCacheSize = sorCacheSize;
+    }
+
+    public int getSorCacheSeconds() {
+        return sorCacheSeconds;
+    }
+
+    public void setSorCacheSeconds(int sorCacheSeconds) {
+        this.sorCacheSeconds = sorCacheSeconds;
+    }
+
+    public int getStandInPort() {
+        return standInPort;
+    }
+
+    public void setStandInPort(int standInPort) {
+        this.standInPort = standInPort;
+    }
+
+    public int getStandInThreads() {
+        return standInThreads;
+    }
+
+    public void setStandInThreads(int standInThreads) {
+        this.standInThreads = standInThreads;
+    }
+
+    public int getStandInLatencyMillis() {
+        return standInLatencyMillis;
+    }
+
+    public void setStandInLatencyMillis(int standInLatencyMillis) {
+        this.standInLatencyMillis = standInLatencyMillis;
+    }
+
+    public int getStandInLatencyJitterMillis() {
+        return standInLatencyJitterMillis;
+    }
+
+    public void setStandInLatencyJitterMillis(int standInLatencyJitterMillis) {
+        this.standInLatencyJitterMillis = standInLatencyJitterMillis;
+    }
+
+    public double getStandInFailureRate() {
+        return standInFailureRate;
+    }
+
+    public void setStandInFailureRate(double standInFailureRate) {
+        this.standInFailureRate = standInFailureRate;
+    }
+
+    public String getStandInCannedDirectory() {
+        return standInCannedDirectory;
+    }
+
+    public void setStandInCannedDirectory(String standInCannedDirectory) {
+        this.standInCannedDirectory = standInCannedDirectory;
+    }
+
+    public int getStandInSearchResults() {
+        return standInSearchResults;
+    }
+
+    public void setStandInSearchResults(int standInSearchResults) {
+        this.standInSearchResults = standInSearchResults;
+    }
+
+    public int getStandInArchiveItems() {
+        return standInArchiveItems;
+    }
+
+    public void setStandInArchiveItems(int standInArchiveItems) {
+        this.standInArchiveItems = standInArchiveItems;
+    }
+
+    public int getStandInMetsPages() {
+        return standInMetsPages;
+    }
+
+    public void setStandInMetsPages(int standInMetsPages) {
+        this.standInMetsPages = standInMetsPages;
+    }
+
     public String getTimeFormat() {
         return timeFormat;
     }
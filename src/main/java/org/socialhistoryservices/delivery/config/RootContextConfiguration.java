@@ -1,20 +1,56 @@
 package org.socialhistoryservices.delivery.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import io.micrometer.core.instrument.binder.cache.JCacheMetrics;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import io.micrometer.core.instrument.binder.httpcomponents.MicrometerHttpRequestExecutor;
+import io.micrometer.core.instrument.binder.httpcomponents.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.hibernate.cache.jcache.ConfigSettings;
 import org.socialhistoryservices.delivery.util.RequestContextToViewInterceptor;
+import org.socialhistoryservices.delivery.api.CachingRecordLookupService;
+import org.socialhistoryservices.delivery.api.CircuitBreaker;
 import org.socialhistoryservices.delivery.api.IISHRecordLookupService;
 import org.socialhistoryservices.delivery.api.PayWayService;
 import org.socialhistoryservices.delivery.api.SharedObjectRepositoryService;
 import org.socialhistoryservices.delivery.user.controller.SecurityToViewInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.info.BuildProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Primary;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.PathMatchConfigurer;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import org.springframework.web.util.UrlPathHelper;
 
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.net.ssl.HttpsURLConnection;
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 @Configuration
 @EnableConfigurationProperties(DeliveryProperties.class)
 public class RootContextConfiguration implements WebMvcConfigurer {
@@ -37,26 +73,213 @@ public class RootContextConfiguration implements WebMvcConfigurer {
         registry.addInterceptor(reqIntercept());
     }
 
+    /**
+     * The circuit breaker of the SRW API, shared by the lookups and the cache in front of them.
+     *
+     * @param meterRegistry The registry to publish the state of the circuit to.
+     * @return The circuit breaker.
+     */
     @Bean
-    public IISHRecordLookupService myLookupService() {
+    public CircuitBreaker srwCircuitBreaker(MeterRegistry meterRegistry) {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("srw", deliveryProperties.getApiCircuitBreakerFailures(),
+                Duration.ofSeconds(deliveryProperties.getApiCircuitBreakerOpenSeconds()));
+        circuitBreaker.bindTo(meterRegistry);
+        return circuitBreaker;
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public IISHRecordLookupService myLookupService(@Qualifier("apiHttpClient") CloseableHttpClient apiHttpClient,
+                                                   CircuitBreaker circuitBreaker, MeterRegistry meterRegistry) {
         IISHRecordLookupService iishRecordLookupService = new IISHRecordLookupService();
         iishRecordLookupService.setDeliveryProperties(deliveryProperties);
+        iishRecordLookupService.setHttpClient(apiHttpClient);
+        iishRecordLookupService.setExecutor(createBoundedExecutor("apiLookup", deliveryProperties.getApiLookupThreads(),
+                meterRegistry));
+        iishRecordLookupService.setCircuitBreaker(circuitBreaker);
+        iishRecordLookupService.setMeterRegistry(meterRegistry);
         return iishRecordLookupService;
     }
 
+    /**
+     * The record lookup service used by the application: caches the lookups of the IISH record lookup service.
+     * Cached PIDs never outlive the period in which the external info of a record is considered up to date.
+     *
+     * @param myLookupService The IISH record lookup service.
+     * @param meterRegistry   The registry to publish the cache statistics to.
+     * @return The caching record lookup service.
+     */
+    @Bean(destroyMethod = "shutdown")
+    @Primary
+    public CachingRecordLookupService recordLookupService(IISHRecordLookupService myLookupService,
+                                                          CircuitBreaker circuitBreaker,
+                                                          MeterRegistry meterRegistry) {
+        Duration expireAfter = Duration.ofSeconds(deliveryProperties.getExternalInfoCacheSeconds());
+        Duration minDaysCache = Duration.ofDays(deliveryProperties.getExternalInfoMinDaysCache());
+        if (minDaysCache.compareTo(expireAfter) < 0)
+            expireAfter = minDaysCache;
+
+        CachingRecordLookupService cachingRecordLookupService = new CachingRecordLookupService(myLookupService,
+                deliveryProperties.getItemSeparator(), deliveryProperties.getExternalInfoCacheSize(), expireAfter);
+        // When saturated, a lookup is rejected and the stored external info is used, as when the budget is exceeded
+        cachingRecordLookupService.setExecutor(createBoundedExecutor("apiRefresh",
+                deliveryProperties.getApiLookupThreads(), new ThreadPoolExecutor.AbortPolicy(), meterRegistry));
+        // When the circuit is open, the stored external info is used and refreshed once the circuit closes
+        cachingRecordLookupService.setCircuitBreaker(circuitBreaker);
+        cachingRecordLookupService.setSearchCache(deliveryProperties.getApiSearchCacheSize(),
+                Duration.ofSeconds(deliveryProperties.getApiSearchCacheSeconds()));
+
+        // Prefetching is best effort: when saturated, the next page is simply not prefetched
+        cachingRecordLookupService.setPrefetchExecutor(createBoundedExecutor("apiPrefetch",
+                deliveryProperties.getApiPrefetchThreads(), new ThreadPoolExecutor.DiscardPolicy(), meterRegistry));
+        cachingRecordLookupService.bindTo(meterRegistry);
+        return cachingRecordLookupService;
+    }
+
+    /**
+     * Creates a bounded executor for lookups in an external API.
+     * When the executor is saturated, the requesting thread performs the lookup itself.
+     *
+     * @param name          The name of the executor.
+     * @param threads       The number of threads.
+     * @param meterRegistry The registry to publish the executor metrics to.
+     * @return The executor.
+     */
+    public static ExecutorService createBoundedExecutor(String name, int threads, MeterRegistry meterRegistry) {
+        return createBoundedExecutor(name, threads, new ThreadPoolExecutor.CallerRunsPolicy(), meterRegistry);
+    }
+
+    /**
+     * Creates a bounded executor for lookups in an external API.
+     *
+     * @param name            The name of the executor.
+     * @param threads         The number of threads.
+     * @param rejectedHandler What to do with a lookup when the executor is saturated.
+     * @param meterRegistry   The registry to publish the executor metrics to.
+     * @return The executor.
+     */
+    private static ExecutorService createBoundedExecutor(String name, int threads,
+                                                         RejectedExecutionHandler rejectedHandler,
+                                                         MeterRegistry meterRegistry) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 10), new CustomizableThreadFactory(name + "-"), rejectedHandler);
+        executor.allowCoreThreadTimeOut(true);
+        return ExecutorServiceMetrics.monitor(meterRegistry, executor, name);
+    }
+
+    /**
+     * The shared HTTP client used for the SRW API and the EAD documents it links to.
+     * Connections are pooled and kept alive, so subsequent lookups do not pay for a new (TLS) handshake.
+     *
+     * @param meterRegistry The registry to publish the pool and request metrics to.
+     * @return The HTTP client.
+     */
+    @Bean(destroyMethod = "close")
+    @DependsOn("configConfiguration")
+    public CloseableHttpClient apiHttpClient(MeterRegistry meterRegistry) {
+        return createPooledHttpClient("srw",
+                deliveryProperties.getApiConnectTimeout(),
+                deliveryProperties.getApiReadTimeout(),
+                deliveryProperties.getApiMaxConnections(),
+                deliveryProperties.getApiMaxConnectionsPerRoute(),
+                meterRegistry);
+    }
+
+    /**
+     * The shared HTTP client used for PayWay.
+     *
+     * @param meterRegistry The registry to publish the pool and request metrics to.
+     * @return The HTTP client.
+     */
+    @Bean(destroyMethod = "close")
+    @DependsOn("configConfiguration")
+    public CloseableHttpClient payWayHttpClient(MeterRegistry meterRegistry) {
+        return createPooledHttpClient("payway",
+                deliveryProperties.getPayWayConnectTimeout(),
+                deliveryProperties.getPayWayReadTimeout(),
+                deliveryProperties.getPayWayMaxConnections(),
+                deliveryProperties.getPayWayMaxConnections(),
+                meterRegistry);
+    }
+
     @Bean
-    public PayWayService payWayService() {
+    public PayWayService payWayService(@Qualifier("payWayHttpClient") CloseableHttpClient payWayHttpClient) {
         return new PayWayService(
                 deliveryProperties.getPayWayAddress(),
                 deliveryProperties.getPayWayPassPhraseIn(),
                 deliveryProperties.getPayWayPassPhraseOut(),
-                deliveryProperties.getPayWayProjectName()
+                deliveryProperties.getPayWayProjectName(),
+                payWayHttpClient
         );
     }
 
+    /**
+     * The shared HTTP client used for the SOR.
+     *
+     * @param meterRegistry The registry to publish the pool and request metrics to.
+     * @return The HTTP client.
+     */
+    @Bean(destroyMethod = "close")
+    @DependsOn("configConfiguration")
+    public CloseableHttpClient sorHttpClient(MeterRegistry meterRegistry) {
+        return createPooledHttpClient("sor",
+                deliveryProperties.getSorConnectTimeout(),
+                deliveryProperties.getSorReadTimeout(),
+                deliveryProperties.getSorMaxConnections(),
+                deliveryProperties.getSorMaxConnections(),
+                meterRegistry);
+    }
+
+    /**
+     * The SOR service: caches the metadata by PID and queries the SOR concurrently for multiple PIDs.
+     *
+     * @param sorHttpClient The HTTP client used for the SOR.
+     * @param meterRegistry The registry to publish the executor and cache metrics to.
+     * @return The SOR service.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public SharedObjectRepositoryService sharedObjectRepositoryService(
+            @Qualifier("sorHttpClient") CloseableHttpClient sorHttpClient, MeterRegistry meterRegistry) {
+        SharedObjectRepositoryService sharedObjectRepositoryService = new SharedObjectRepositoryService(
+                deliveryProperties.getSorAddress(), sorHttpClient, deliveryProperties.getSorCacheSize(),
+                Duration.ofSeconds(deliveryProperties.getSorCacheSeconds()));
+        sharedObjectRepositoryService.setExecutor(
+                createBoundedExecutor("sorLookup", deliveryProperties.getSorLookupThreads(), meterRegistry));
+        sharedObjectRepositoryService.bindTo(meterRegistry);
+        return sharedObjectRepositoryService;
+    }
+
+    /**
+     * The cache manager of the Hibernate second-level cache: a bounded region per cached entity and
+     * collection, with hit and miss metrics.
+     *
+     * @param meterRegistry The registry to publish the cache metrics to.
+     * @return The cache manager.
+     */
+    @Bean(destroyMethod = "close")
+    public CacheManager entityCacheManager(MeterRegistry meterRegistry) {
+        CacheManager cacheManager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName())
+                .getCacheManager();
+        long recordCacheSize = deliveryProperties.getRecordCacheSize();
+        long holdingCacheSize = deliveryProperties.getHoldingCacheSize();
+        createEntityCache(cacheManager, "record", recordCacheSize, meterRegistry);
+        createEntityCache(cacheManager, "record.pid", recordCacheSize, meterRegistry);
+        createEntityCache(cacheManager, "record.holdings", recordCacheSize, meterRegistry);
+        createEntityCache(cacheManager, "externalRecordInfo", recordCacheSize, meterRegistry);
+        createEntityCache(cacheManager, "holding", holdingCacheSize, meterRegistry);
+        createEntityCache(cacheManager, "externalHoldingInfo", holdingCacheSize, meterRegistry);
+        return cacheManager;
+    }
+
+    /**
+     * Hands the cache manager of the second-level cache to Hibernate.
+     *
+     * @param entityCacheManager The cache manager of the second-level cache.
+     * @return The customizer of the Hibernate properties.
+     */
     @Bean
-    public SharedObjectRepositoryService sharedObjectRepositoryService() {
-        return new SharedObjectRepositoryService(deliveryProperties.getSorAddress());
+    public HibernatePropertiesCustomizer entityCacheCustomizer(
+            @Qualifier("entityCacheManager") CacheManager entityCacheManager) {
+        return properties -> properties.put(ConfigSettings.CACHE_MANAGER, entityCacheManager);
     }
 
     @Bean
@@ -68,4 +291,67 @@ public class RootContextConfiguration implements WebMvcConfigurer {
     public RequestContextToViewInterceptor reqIntercept() {
         return new RequestContextToViewInterceptor(deliveryProperties);
     }
+
+    /**
+     * Creates an HTTP client with a pool of keep-alive connections.
+     *
+     * @param name                   The name of the client, used to tag the metrics.
+     * @param connectTimeout         The connect timeout in milliseconds.
+     * @param readTimeout            The read (socket) timeout in milliseconds.
+     * @param maxConnections         The maximum number of connections in the pool.
+     * @param maxConnectionsPerRoute The maximum number of connections per host.
+     * @param meterRegistry          The registry to publish the pool and request metrics to.
+     * @return The HTTP client.
+     */
+    private static CloseableHttpClient createPooledHttpClient(String name, int connectTimeout, int readTimeout,
+                                                              int maxConnections, int maxConnectionsPerRoute,
+                                                              MeterRegistry meterRegistry) {
+        // Use the default SSL socket factory of the JVM, so the trust settings of ConfigConfiguration apply
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory(),
+                        SSLConnectionSocketFactory.getDefaultHostnameVerifier()))
+                .build();
+
+        PoolingHttpClientConnectionManager connectionManager =
+                new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, name).bindTo(meterRegistry);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setRequestExecutor(MicrometerHttpRequestExecutor.builder(meterRegistry)
+                        .tags(Tags.of("client", name))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(30, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Creates a region of the second-level cache, bounded in size and in the time an entry is kept.
+     *
+     * @param cacheManager  The cache manager.
+     * @param region        The name of the region.
+     * @param maximumSize   The maximum number of entries in the region.
+     * @param meterRegistry The registry to publish the cache metrics to.
+     */
+    private void createEntityCache(CacheManager cacheManager, String region, long maximumSize,
+                                   MeterRegistry meterRegistry) {
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        configuration.setMaximumSize(OptionalLong.of(maximumSize));
+        configuration.setExpireAfterWrite(OptionalLong.of(
+                TimeUnit.SECONDS.toNanos(deliveryProperties.getEntityCacheSeconds())));
+        configuration.setStoreByValue(false);
+        configuration.setStatisticsEnabled(true);
+        JCacheMetrics.monitor(meterRegistry, cacheManager.createCache(region, configuration));
+    }
 }
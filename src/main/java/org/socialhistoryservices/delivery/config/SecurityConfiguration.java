@@ -42,7 +42,11 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
     @Override
     protected void configure(HttpSecurity httpSecurity) throws Exception {
         httpSecurity
-            .authorizeRequests().and()
+            .authorizeRequests()
+                // Only the health endpoint of the actuator is public, the metrics are for staff only
+                .antMatchers("/actuator/health").permitAll()
+                .antMatchers("/actuator/**").authenticated()
+                .and()
             // Disable Cross-Site Request Forgery token
             .csrf().disable()
             // Disable HTTP Basic authentication
@@ -3,9 +3,11 @@ package org.socialhistoryservices.delivery.record.controller;
 import org.socialhistoryservices.delivery.util.ErrorHandlingController;
 import org.socialhistoryservices.delivery.util.InvalidRequestException;
 import org.socialhistoryservices.delivery.util.ResourceNotFoundException;
+import org.socialhistoryservices.delivery.api.CachingRecordLookupService;
 import org.socialhistoryservices.delivery.api.NoSuchPidException;
 import org.socialhistoryservices.delivery.api.RecordLookupService;
 import org.socialhistoryservices.delivery.record.entity.*;
+import org.socialhistoryservices.delivery.record.service.CatalogueImporter;
 import org.socialhistoryservices.delivery.record.service.NoSuchParentException;
 import org.socialhistoryservices.delivery.record.service.RecordService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -35,6 +37,12 @@ public class RecordController extends ErrorHandlingController {
     @Autowired
     private RecordLookupService lookup;
 
+    @Autowired
+    private CachingRecordLookupService lookupCache;
+
+    @Autowired
+    private CatalogueImporter catalogueImporter;
+
     /**
      * Get information about records.
      *
@@ -47,24 +55,24 @@ public class RecordController extends ErrorHandlingController {
         List<Record> recs = new ArrayList<>();
         Map<String, List<Record>> reservedChilds = new HashMap<>();
 
+        // Look up the metadata of all PIDs at once, rather than one PID at a time
+        records.prefetchRecordsByPid(Arrays.asList(pids));
+
         for (String pid : pids) {
-            // Issue #139: Make sure that when A enters, B has to wait,
-            // and will detect the insert into the database by B when entering
-            synchronized (this) {
-                Record rec = null;
-                try {
-                    rec = records.getRecordByPidAndCreate(pid);
-                }
-                catch (NoSuchPidException e) {
-                    // Pass, catch if no of the requested PIDs are available below.
-                }
+            // Issue #139: Concurrent creations of the same record are serialized by the record service
+            Record rec = null;
+            try {
+                rec = records.getRecordByPidAndCreate(pid);
+            }
+            catch (NoSuchPidException e) {
+                // Pass, catch if no of the requested PIDs are available below.
+            }
 
-                if (rec != null) {
-                    recs.add(rec);
+            if (rec != null) {
+                recs.add(rec);
 
-                    List<Record> reserved = records.getReservedChildRecords(rec);
-                    reservedChilds.put(rec.getPid(), reserved);
-                }
+                List<Record> reserved = records.getReservedChildRecords(rec);
+                reservedChilds.put(rec.getPid(), reserved);
             }
         }
 
@@ -141,6 +149,52 @@ public class RecordController extends ErrorHandlingController {
         return "";
     }
 
+    /**
+     * Purge records from the cache of the record lookup service,
+     * so the next lookup fetches the metadata from the API again.
+     *
+     * @param encPids The PIDs of the records to purge (comma separated).
+     * @return The view to resolve.
+     */
+    @RequestMapping(value = "/{encPids:.*}!PURGE", method = RequestMethod.POST)
+    @ResponseBody
+    @PreAuthorize("hasRole('ROLE_RECORD_MODIFY')")
+    public String apiPurge(@PathVariable String encPids) {
+        for (String pid : getPidsFromURL(encPids)) {
+            lookupCache.evict(pid);
+        }
+        return "";
+    }
+
+    /**
+     * Get the progress of the running or last import of a catalogue snapshot.
+     *
+     * @return The progress.
+     */
+    @RequestMapping(value = "/import", method = RequestMethod.GET, produces = "text/plain")
+    @ResponseBody
+    @PreAuthorize("hasRole('ROLE_RECORD_MODIFY')")
+    public String apiImportStatus() {
+        return catalogueImporter.getStatus();
+    }
+
+    /**
+     * Start the import of a catalogue snapshot on the server in the background.
+     *
+     * @param file    The file name of the snapshot in the catalogue import directory on the server.
+     * @param restart Whether to ignore the progress of a previous import of the snapshot.
+     * @return The progress.
+     */
+    @RequestMapping(value = "/import", method = RequestMethod.POST, produces = "text/plain")
+    @ResponseBody
+    @PreAuthorize("hasRole('ROLE_RECORD_MODIFY')")
+    public String apiImport(@RequestParam String file,
+                            @RequestParam(defaultValue = "false", required = false) boolean restart) {
+        if (!catalogueImporter.start(catalogueImporter.resolveInImportDirectory(file), restart))
+            throw new InvalidRequestException("An import is already running.");
+        return catalogueImporter.getStatus();
+    }
+
     /**
      * Usage Restriction type enumeration in Map format for use in views.
      *
@@ -1,9 +1,11 @@
 package org.socialhistoryservices.delivery.record.dao;
 
 import org.socialhistoryservices.delivery.record.entity.Holding;
+import org.socialhistoryservices.delivery.record.entity.Record;
 
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -47,6 +49,48 @@ public interface HoldingDAO {
      */
     Holding getById(int id);
 
+    /**
+     * Retrieve the Holdings matching the given Ids.
+     *
+     * @param ids Ids of the Holdings to retrieve.
+     * @return The Holdings matching the Ids.
+     */
+    List<Holding> getByIds(List<Integer> ids);
+
+    /**
+     * List the ids of the Holdings, ordered by id.
+     *
+     * @param afterId    Only ids larger than this id are listed.
+     * @param maxResults The maximum number of ids to list.
+     * @return A list of ids of Holdings.
+     */
+    List<Integer> listIds(int afterId, int maxResults);
+
+    /**
+     * List the ids of the Holdings with an open reservation or reproduction
+     * without the active reservation or reproduction stored with the Holding, ordered by id.
+     *
+     * @param afterId    Only ids larger than this id are listed.
+     * @param maxResults The maximum number of ids to list.
+     * @return A list of ids of Holdings.
+     */
+    List<Integer> listIdsWithoutActiveRequest(int afterId, int maxResults);
+
+    /**
+     * Lock the given Holdings, and those of the other items in the same containers,
+     * until the end of the transaction.
+     *
+     * @param holdings The Holdings to lock.
+     */
+    void lock(Collection<Holding> holdings);
+
+    /**
+     * Refresh a Holding from the database, if it is managed.
+     *
+     * @param obj Holding to refresh.
+     */
+    void refresh(Holding obj);
+
     /**
      * Get a criteria builder for querying Holdings.
      *
@@ -69,5 +113,16 @@ public interface HoldingDAO {
      * @return The matching Holding.
      */
     Holding get(CriteriaQuery<Holding> query);
+
+    /**
+     * Update the status of the Holdings of all other Records in the same container as the given Record:
+     * the ids of the Holdings are selected and updated with a single versioned bulk update.
+     * Holdings already loaded in the persistence context are refreshed.
+     *
+     * @param record The Record.
+     * @param status The new status.
+     * @return The number of Holdings updated in the database.
+     */
+    int updateStatusOfContainerSiblings(Record record, Holding.Status status);
 }
 
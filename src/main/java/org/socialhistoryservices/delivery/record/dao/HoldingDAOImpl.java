@@ -1,19 +1,35 @@
 package org.socialhistoryservices.delivery.record.dao;
 
-import org.socialhistoryservices.delivery.record.entity.ExternalHoldingInfo;
-import org.socialhistoryservices.delivery.record.entity.Holding;
+import org.hibernate.Session;
+import org.socialhistoryservices.delivery.record.entity.*;
+import org.socialhistoryservices.delivery.reproduction.entity.HoldingReproduction;
+import org.socialhistoryservices.delivery.reproduction.entity.HoldingReproduction_;
+import org.socialhistoryservices.delivery.reservation.entity.HoldingReservation;
+import org.socialhistoryservices.delivery.reservation.entity.HoldingReservation_;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.persistence.*;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.*;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * Represents the Data Access Object of the Holding data associated with a record.
  */
 @Repository
 public class HoldingDAOImpl implements HoldingDAO {
+    /**
+     * The query space of the native status update, which belongs to no entity, so that Hibernate does not
+     * invalidate the 'holding' region of the second-level cache for it.
+     */
+    private static final String STATUS_QUERY_SPACE = "holdings_status";
+
     private EntityManager entityManager;
 
     /**
@@ -83,6 +99,87 @@ public class HoldingDAOImpl implements HoldingDAO {
         return entityManager.find(Holding.class, id);
     }
 
+    /**
+     * Retrieve the Holdings matching the given Ids.
+     * Holdings in the persistence context or the second-level cache are not queried again.
+     *
+     * @param ids Ids of the Holdings to retrieve.
+     * @return The Holdings matching the Ids.
+     */
+    public List<Holding> getByIds(List<Integer> ids) {
+        List<Holding> holdings = new ArrayList<>(entityManager.unwrap(Session.class)
+                .byMultipleIds(Holding.class)
+                .multiLoad(ids));
+        holdings.removeIf(Objects::isNull);
+        return holdings;
+    }
+
+    /**
+     * List the ids of the Holdings, ordered by id.
+     *
+     * @param afterId    Only ids larger than this id are listed.
+     * @param maxResults The maximum number of ids to list.
+     * @return A list of ids of Holdings.
+     */
+    public List<Integer> listIds(int afterId, int maxResults) {
+        CriteriaBuilder cb = getCriteriaBuilder();
+        CriteriaQuery<Integer> query = cb.createQuery(Integer.class);
+        Root<Holding> hRoot = query.from(Holding.class);
+        query.select(hRoot.get(Holding_.id));
+        query.where(cb.greaterThan(hRoot.get(Holding_.id), afterId));
+        query.orderBy(cb.asc(hRoot.get(Holding_.id)));
+
+        return entityManager
+                .createQuery(query)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
+    /**
+     * List the ids of the Holdings with an open reservation or reproduction
+     * without the active reservation or reproduction stored with the Holding, ordered by id.
+     *
+     * @param afterId    Only ids larger than this id are listed.
+     * @param maxResults The maximum number of ids to list.
+     * @return A list of ids of Holdings.
+     */
+    public List<Integer> listIdsWithoutActiveRequest(int afterId, int maxResults) {
+        CriteriaBuilder cb = getCriteriaBuilder();
+        CriteriaQuery<Integer> query = cb.createQuery(Integer.class);
+        Root<Holding> hRoot = query.from(Holding.class);
+
+        Subquery<Integer> reservations = query.subquery(Integer.class);
+        Root<HoldingReservation> hrRoot = reservations.from(HoldingReservation.class);
+        reservations.select(hrRoot.get(HoldingReservation_.id));
+        reservations.where(cb.and(
+                cb.equal(hrRoot.get(HoldingReservation_.holding), hRoot),
+                cb.isFalse(hrRoot.get(HoldingReservation_.completed))
+        ));
+
+        Subquery<Integer> reproductions = query.subquery(Integer.class);
+        Root<HoldingReproduction> hrpRoot = reproductions.from(HoldingReproduction.class);
+        reproductions.select(hrpRoot.get(HoldingReproduction_.id));
+        reproductions.where(cb.and(
+                cb.equal(hrpRoot.get(HoldingReproduction_.holding), hRoot),
+                cb.isFalse(hrpRoot.get(HoldingReproduction_.completed))
+        ));
+
+        query.select(hRoot.get(Holding_.id));
+        query.where(cb.and(
+                cb.greaterThan(hRoot.get(Holding_.id), afterId),
+                cb.or(
+                        cb.and(cb.isNull(hRoot.get(Holding_.activeReservationId)), cb.exists(reservations)),
+                        cb.and(cb.isNull(hRoot.get(Holding_.activeReproductionId)), cb.exists(reproductions))
+                )
+        ));
+        query.orderBy(cb.asc(hRoot.get(Holding_.id)));
+
+        return entityManager
+                .createQuery(query)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
     /**
      * Get a criteria builder for querying Holdings.
      *
@@ -118,4 +215,150 @@ public class HoldingDAOImpl implements HoldingDAO {
             return null;
         }
     }
+
+    /**
+     * Lock the given Holdings until the end of the transaction,
+     * so that their status can be changed without a concurrent transaction doing the same.
+     * <p>
+     * As changing the status of an archive item also changes the status of the other items in its container,
+     * the Holdings of the other items in the same containers are locked as well, but not those of the rest of
+     * the archive. The rows are locked in the order of their ids, so concurrent transactions cannot deadlock.
+     *
+     * @param holdings The Holdings to lock.
+     */
+    public void lock(Collection<Holding> holdings) {
+        if (holdings.isEmpty())
+            return;
+
+        CriteriaBuilder cb = getCriteriaBuilder();
+        CriteriaQuery<Integer> query = cb.createQuery(Integer.class);
+        Root<Holding> hRoot = query.from(Holding.class);
+
+        Subquery<Integer> siblings = query.subquery(Integer.class);
+        Root<Record> recRoot = siblings.from(Record.class);
+        Join<Record, ExternalRecordInfo> eriRoot = recRoot.join(Record_.externalInfo);
+
+        Set<Integer> ids = new TreeSet<>();
+        List<Predicate> containers = new ArrayList<>();
+        for (Holding holding : holdings) {
+            ids.add(holding.getId());
+
+            Record record = holding.getRecord();
+            String container = (record.getExternalInfo() != null) ? record.getExternalInfo().getContainer() : null;
+            if ((record.getParent() != null) && (container != null)) {
+                containers.add(cb.and(
+                        cb.equal(recRoot.get(Record_.parent), record.getParent()),
+                        cb.equal(eriRoot.get(ExternalRecordInfo_.container), container)
+                ));
+            }
+        }
+
+        Predicate where = hRoot.get(Holding_.id).in(ids);
+        if (!containers.isEmpty()) {
+            siblings.select(recRoot.get(Record_.id));
+            siblings.where(cb.or(containers.toArray(new Predicate[0])));
+            where = cb.or(where, hRoot.get(Holding_.record).get(Record_.id).in(siblings));
+        }
+
+        query.select(hRoot.get(Holding_.id));
+        query.where(where);
+        query.orderBy(cb.asc(hRoot.get(Holding_.id)));
+
+        entityManager
+                .createQuery(query)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .getResultList();
+    }
+
+    /**
+     * Refresh a Holding from the database, if it is managed.
+     *
+     * @param obj Holding to refresh.
+     */
+    public void refresh(Holding obj) {
+        if (entityManager.contains(obj))
+            entityManager.refresh(obj);
+    }
+
+    /**
+     * Update the status of the Holdings of all other Records in the same container as the given Record:
+     * the ids of the Holdings are selected and updated with a single versioned bulk update.
+     * Holdings already loaded in the persistence context are refreshed.
+     * <p>
+     * A bulk update through JPA would invalidate the whole 'holding' region of the second-level cache,
+     * so the update is a native query synchronized on a query space of no entity, and only the updated
+     * Holdings are evicted, now and once the current transaction is completed.
+     *
+     * @param record The Record.
+     * @param status The new status.
+     * @return The number of Holdings updated in the database.
+     */
+    public int updateStatusOfContainerSiblings(Record record, Holding.Status status) {
+        Record parent = record.getParent();
+        String container = (record.getExternalInfo() != null) ? record.getExternalInfo().getContainer() : null;
+        if ((parent == null) || (container == null))
+            return 0;
+
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Integer> query = builder.createQuery(Integer.class);
+        Root<Holding> hRoot = query.from(Holding.class);
+
+        Subquery<Integer> siblings = query.subquery(Integer.class);
+        Root<Record> recRoot = siblings.from(Record.class);
+        Join<Record, ExternalRecordInfo> eriRoot = recRoot.join(Record_.externalInfo);
+        siblings.select(recRoot.get(Record_.id));
+        siblings.where(builder.and(
+                builder.equal(recRoot.get(Record_.parent), parent),
+                builder.equal(eriRoot.get(ExternalRecordInfo_.container), container),
+                builder.notEqual(recRoot.get(Record_.id), record.getId())
+        ));
+
+        query.select(hRoot.get(Holding_.id));
+        query.where(builder.and(
+                hRoot.get(Holding_.record).get(Record_.id).in(siblings),
+                builder.notEqual(hRoot.get(Holding_.status), status)
+        ));
+
+        List<Integer> ids = entityManager.createQuery(query).getResultList();
+        if (ids.isEmpty())
+            return 0;
+
+        int updated = entityManager.unwrap(Session.class)
+                .createNativeQuery("UPDATE holdings SET status = :status, version = version + 1 WHERE id IN (:ids)")
+                .addSynchronizedQuerySpace(STATUS_QUERY_SPACE)
+                .setParameter("status", status.name())
+                .setParameterList("ids", ids)
+                .executeUpdate();
+        evictAfterCompletion(ids);
+
+        // The bulk update bypasses the persistence context, so refresh the sibling Holdings already loaded
+        PersistenceUnitUtil persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+        for (Integer id : ids) {
+            Holding holding = entityManager.getReference(Holding.class, id);
+            if (persistenceUnitUtil.isLoaded(holding))
+                entityManager.refresh(holding);
+        }
+
+        return updated;
+    }
+
+    /**
+     * Evicts the Holdings with the given ids from the second-level cache, now and once the current
+     * transaction is completed, so that concurrent transactions cannot cache the status before the update.
+     *
+     * @param ids The ids of the Holdings.
+     */
+    private void evictAfterCompletion(List<Integer> ids) {
+        Cache cache = entityManager.getEntityManagerFactory().getCache();
+        ids.forEach(id -> cache.evict(Holding.class, id));
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    ids.forEach(id -> cache.evict(Holding.class, id));
+                }
+            });
+        }
+    }
 }
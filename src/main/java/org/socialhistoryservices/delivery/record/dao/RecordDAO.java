@@ -4,6 +4,7 @@ import org.socialhistoryservices.delivery.record.entity.Record;
 
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -46,6 +47,14 @@ public interface RecordDAO {
      */
     Record getById(int id);
 
+    /**
+     * Retrieve the Record matching the given pid, using the natural id cache.
+     *
+     * @param pid Pid of the Record to retrieve.
+     * @return The Record matching the pid. Null if none exist.
+     */
+    Record getByPid(String pid);
+
     /**
      * Get a criteria builder for querying Records.
      *
@@ -70,6 +79,27 @@ public interface RecordDAO {
      */
     List<Record> listIterable(int offset, int maxResults);
 
+    /**
+     * List the cataloged Records of which the external info was never updated or last updated before the
+     * given date, ordered by the date of the last update, never updated first. Uses keyset pagination:
+     * the next page starts after the last Record of the previous page.
+     *
+     * @param updatedBefore The date before which the external info was last updated.
+     * @param after         The last Record of the previous page, or null for the first page.
+     * @param maxResults    The max number of records to fetch.
+     * @return A list of Records.
+     */
+    List<Record> listByExternalInfoUpdatedBefore(Date updatedBefore, Record after, int maxResults);
+
+    /**
+     * Count the cataloged Records of which the external info was never updated or last updated before the
+     * given date.
+     *
+     * @param updatedBefore The date before which the external info was last updated.
+     * @return The number of Records.
+     */
+    long countByExternalInfoUpdatedBefore(Date updatedBefore);
+
     /**
      * Get a single Record matching a built query.
      *
@@ -1,14 +1,14 @@
 package org.socialhistoryservices.delivery.record.dao;
 
+import org.hibernate.Session;
 import org.socialhistoryservices.delivery.record.entity.ExternalRecordInfo;
 import org.socialhistoryservices.delivery.record.entity.Record;
 import org.socialhistoryservices.delivery.record.entity.Record_;
 import org.springframework.stereotype.Repository;
 
 import javax.persistence.*;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Root;
+import javax.persistence.criteria.*;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -85,6 +85,16 @@ public class RecordDAOImpl implements RecordDAO {
         return entityManager.find(Record.class, id);
     }
 
+    /**
+     * Retrieve the Record matching the given pid, using the natural id cache.
+     *
+     * @param pid Pid of the Record to retrieve.
+     * @return The Record matching the pid. Null if none exist.
+     */
+    public Record getByPid(String pid) {
+        return entityManager.unwrap(Session.class).bySimpleNaturalId(Record.class).load(pid);
+    }
+
     /**
      * Get a criteria builder for querying Records.
      *
@@ -126,6 +136,84 @@ public class RecordDAOImpl implements RecordDAO {
                 .getResultList();
     }
 
+    /**
+     * List the cataloged Records of which the external info was never updated or last updated before the
+     * given date, ordered by the date of the last update, never updated first. Uses keyset pagination:
+     * the next page starts after the last Record of the previous page.
+     *
+     * @param updatedBefore The date before which the external info was last updated.
+     * @param after         The last Record of the previous page, or null for the first page.
+     * @param maxResults    The max number of records to fetch.
+     * @return A list of Records.
+     */
+    public List<Record> listByExternalInfoUpdatedBefore(Date updatedBefore, Record after, int maxResults) {
+        CriteriaBuilder cb = getCriteriaBuilder();
+        CriteriaQuery<Record> query = cb.createQuery(Record.class);
+
+        Root<Record> rRoot = query.from(Record.class);
+        query.select(rRoot);
+
+        Path<Date> updated = rRoot.get(Record_.externalInfoUpdated);
+        Predicate where = getExternalInfoUpdatedBeforePredicate(cb, rRoot, updatedBefore);
+        if ((after != null) && (after.getExternalInfoUpdated() == null)) {
+            // After a Record never updated come the other Records never updated and then all updated Records
+            where = cb.and(where, cb.or(
+                    cb.and(cb.isNull(updated), cb.greaterThan(rRoot.get(Record_.id), after.getId())),
+                    cb.isNotNull(updated)
+            ));
+        }
+        else if (after != null) {
+            where = cb.and(where, cb.or(
+                    cb.greaterThan(updated, after.getExternalInfoUpdated()),
+                    cb.and(
+                            cb.equal(updated, after.getExternalInfoUpdated()),
+                            cb.greaterThan(rRoot.get(Record_.id), after.getId())
+                    )
+            ));
+        }
+        query.where(where);
+
+        // JPA cannot order NULLs first, so order by whether the Record was ever updated first
+        Expression<Integer> neverUpdatedFirst = cb.<Integer>selectCase()
+                .when(cb.isNull(updated), 0)
+                .otherwise(1);
+        query.orderBy(cb.asc(neverUpdatedFirst), cb.asc(updated), cb.asc(rRoot.get(Record_.id)));
+
+        return entityManager
+                .createQuery(query)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
+    /**
+     * Count the cataloged Records of which the external info was never updated or last updated before the
+     * given date.
+     *
+     * @param updatedBefore The date before which the external info was last updated.
+     * @return The number of Records.
+     */
+    public long countByExternalInfoUpdatedBefore(Date updatedBefore) {
+        CriteriaBuilder cb = getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+
+        Root<Record> rRoot = query.from(Record.class);
+        query.select(cb.count(rRoot));
+        query.where(getExternalInfoUpdatedBeforePredicate(cb, rRoot, updatedBefore));
+
+        return entityManager.createQuery(query).getSingleResult();
+    }
+
+    private static Predicate getExternalInfoUpdatedBeforePredicate(CriteriaBuilder cb, Root<Record> rRoot,
+                                                                   Date updatedBefore) {
+        return cb.and(
+                cb.isTrue(rRoot.get(Record_.cataloged)),
+                cb.or(
+                        cb.isNull(rRoot.get(Record_.externalInfoUpdated)),
+                        cb.lessThan(rRoot.get(Record_.externalInfoUpdated), updatedBefore)
+                )
+        );
+    }
+
     /**
      * Get a single Record matching a built query.
      *
@@ -11,7 +11,8 @@ import javax.validation.constraints.Size;
 @Table(name = "archive_holding_info")
 public class ArchiveHoldingInfo {
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "record_sequence")
+    @SequenceGenerator(name = "record_sequence", sequenceName = "record_sequence", allocationSize = 50)
     @Column(name = "id")
     private int id;
 
@@ -1,5 +1,8 @@
 package org.socialhistoryservices.delivery.record.entity;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 import javax.validation.constraints.Size;
 
@@ -8,12 +11,15 @@ import javax.validation.constraints.Size;
  */
 @Entity
 @Table(name = "external_holding_info")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "externalHoldingInfo")
 public class ExternalHoldingInfo {
     /**
      * The id.
      */
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "record_sequence")
+    @SequenceGenerator(name = "record_sequence", sequenceName = "record_sequence", allocationSize = 50)
     @Column(name = "id")
     private int id;
 
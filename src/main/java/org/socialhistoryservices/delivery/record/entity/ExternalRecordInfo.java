@@ -2,6 +2,8 @@ package org.socialhistoryservices.delivery.record.entity;
 
 import com.vladmihalcea.hibernate.type.json.JsonBinaryType;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.Type;
 import org.hibernate.annotations.TypeDef;
 
@@ -23,6 +25,8 @@ import java.util.regex.Pattern;
  */
 @Entity
 @Table(name = "external_record_info")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "externalRecordInfo")
 @TypeDef(name = "jsonb", typeClass = JsonBinaryType.class)
 public class ExternalRecordInfo {
     private static final Pattern PATTERN_YEAR = Pattern.compile("[^\\d]*([12]\\d{3})[^\\d]*");
@@ -60,7 +64,8 @@ public class ExternalRecordInfo {
      * The id.
      */
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "record_sequence")
+    @SequenceGenerator(name = "record_sequence", sequenceName = "record_sequence", allocationSize = 50)
     @Column(name = "id")
     private int id;
 
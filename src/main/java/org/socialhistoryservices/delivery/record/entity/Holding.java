@@ -1,5 +1,8 @@
 package org.socialhistoryservices.delivery.record.entity;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
 import org.socialhistoryservices.delivery.reproduction.entity.HoldingReproduction;
 import org.socialhistoryservices.delivery.reservation.entity.HoldingReservation;
 
@@ -13,7 +16,12 @@ import java.util.List;
  */
 @Entity
 @Table(name = "holdings", indexes = {@Index(columnList = "record_id", name = "holdings_record_fk"),
-        @Index(columnList = "external_info_id", name = "holdings_external_info_fk")})
+        @Index(columnList = "external_info_id", name = "holdings_external_info_fk"),
+        @Index(columnList = "active_reservation_id", name = "holdings_active_reservation_idx"),
+        @Index(columnList = "active_reproduction_id", name = "holdings_active_reproduction_idx")})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "holding")
+@DynamicUpdate
 public class Holding {
     /**
      * The usage restriction of the holding.
@@ -37,7 +45,8 @@ public class Holding {
      * The Holding's id.
      */
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "record_sequence")
+    @SequenceGenerator(name = "record_sequence", sequenceName = "record_sequence", allocationSize = 50)
     @Column(name = "id")
     private int id;
 
@@ -50,6 +59,22 @@ public class Holding {
         return id;
     }
 
+    /**
+     * The Holding's version, to detect concurrent changes.
+     */
+    @Version
+    @Column(name = "version", nullable = false)
+    private int version;
+
+    /**
+     * Get the Holding's version.
+     *
+     * @return the Holding's version.
+     */
+    public int getVersion() {
+        return version;
+    }
+
     /**
      * The Holding's type.
      */
@@ -209,6 +234,54 @@ public class Holding {
         this.holdingReproductions = holdingReproductions;
     }
 
+    /**
+     * The id of the active reservation of the Holding, maintained by the ReservationService.
+     */
+    @Column(name = "active_reservation_id")
+    private Integer activeReservationId;
+
+    /**
+     * Get the id of the active reservation of the Holding.
+     *
+     * @return The id of the active reservation, or null if none exists.
+     */
+    public Integer getActiveReservationId() {
+        return activeReservationId;
+    }
+
+    /**
+     * Set the id of the active reservation of the Holding.
+     *
+     * @param activeReservationId The id of the active reservation, or null if none exists.
+     */
+    public void setActiveReservationId(Integer activeReservationId) {
+        this.activeReservationId = activeReservationId;
+    }
+
+    /**
+     * The id of the active reproduction of the Holding, maintained by the ReproductionService.
+     */
+    @Column(name = "active_reproduction_id")
+    private Integer activeReproductionId;
+
+    /**
+     * Get the id of the active reproduction of the Holding.
+     *
+     * @return The id of the active reproduction, or null if none exists.
+     */
+    public Integer getActiveReproductionId() {
+        return activeReproductionId;
+    }
+
+    /**
+     * Set the id of the active reproduction of the Holding.
+     *
+     * @param activeReproductionId The id of the active reproduction, or null if none exists.
+     */
+    public void setActiveReproductionId(Integer activeReproductionId) {
+        this.activeReproductionId = activeReproductionId;
+    }
+
     /**
      * Merge other's fields with this holding. All fields except ID,
      * signature and status are merged.
@@ -2,6 +2,10 @@ package org.socialhistoryservices.delivery.record.entity;
 
 import org.apache.commons.collections.functors.InstantiateFactory;
 import org.apache.commons.collections.list.LazyList;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 import org.socialhistoryservices.delivery.reproduction.util.Copies;
 import org.socialhistoryservices.delivery.reproduction.util.Pages;
 
@@ -20,7 +24,11 @@ import java.util.List;
  * or any other item in the IISH collection.
  */
 @Entity
-@Table(name = "records", indexes = {@Index(columnList = "external_info_id", name = "records_external_info_fk")})
+@Table(name = "records", indexes = {@Index(columnList = "external_info_id", name = "records_external_info_fk"),
+        @Index(columnList = "external_info_updated, id", name = "records_external_info_updated_idx")})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "record")
+@NaturalIdCache(region = "record.pid")
 public class Record {
 
     @Column(name = "cataloged", columnDefinition = "boolean default true not null")
@@ -50,9 +58,12 @@ public class Record {
 
     /**
      * The Record's id.
+     * The ids of the records and their holdings and external info are allocated in blocks of 50,
+     * so creating the records of an archive does not query the sequence for every entity.
      */
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "record_sequence")
+    @SequenceGenerator(name = "record_sequence", sequenceName = "record_sequence", allocationSize = 50)
     @Column(name = "id")
     private int id;
 
@@ -70,6 +81,7 @@ public class Record {
      */
     @NotBlank
     @Size(max = 255)
+    @NaturalId(mutable = true)
     @Column(name = "pid", nullable = false, unique = true)
     private String pid;
 
@@ -327,6 +339,7 @@ public class Record {
     @NotNull
     @OrderBy
     @OneToMany(mappedBy = "record", cascade = CascadeType.ALL, orphanRemoval = true)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "record.holdings")
     private List<Holding> holdings;
 
     /**
@@ -0,0 +1,305 @@
+package org.socialhistoryservices.delivery.record.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socialhistoryservices.delivery.api.*;
+import org.socialhistoryservices.delivery.config.DeliveryProperties;
+import org.socialhistoryservices.delivery.util.InvalidRequestException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Imports a snapshot of the catalogue (a MARCXML collection, an SRW response or an OAI-PMH export with
+ * MARCXML records), so that records and holdings exist before they are requested for the first time.
+ * The snapshot is streamed and imported in batches, each in its own transaction. After each batch the
+ * number of imported records is written to a progress file next to the snapshot, so an interrupted
+ * import resumes where it left off.
+ * <p>
+ * The import is started with the command line option --import-catalogue=/path/to/snapshot.xml
+ * (add --import-catalogue-restart to ignore the progress file), or from the record admin pages.
+ * The record admin pages only import snapshots by file name from the configured import directory.
+ */
+@Component
+public class CatalogueImporter implements ApplicationRunner {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CatalogueImporter.class);
+    private static final String PROGRESS_FILE_SUFFIX = ".progress";
+
+    @Autowired
+    private RecordService records;
+
+    @Autowired
+    private RecordLookupService lookup;
+
+    @Autowired
+    private DeliveryProperties deliveryProperties;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter createdCounter;
+    private final Counter updatedCounter;
+    private final Counter failedCounter;
+    private final AtomicLong processed = new AtomicLong();
+    private ExecutorService executor;
+
+    private volatile boolean running;
+    private volatile String status = "No import started";
+
+    @Autowired
+    public CatalogueImporter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        createdCounter = Counter.builder("delivery.records.import")
+                .tag("result", "created")
+                .register(meterRegistry);
+        updatedCounter = Counter.builder("delivery.records.import")
+                .tag("result", "updated")
+                .register(meterRegistry);
+        failedCounter = Counter.builder("delivery.records.import")
+                .tag("result", "failed")
+                .register(meterRegistry);
+        Gauge.builder("delivery.records.import.processed", processed, AtomicLong::get)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    private void init() {
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new CustomizableThreadFactory("catalogue-import-"));
+        executor = ExecutorServiceMetrics.monitor(meterRegistry, threadPoolExecutor, "catalogueImport");
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts the import given on the command line, if any.
+     *
+     * @param args The command line arguments.
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        List<String> files = args.getOptionValues("import-catalogue");
+        if ((files != null) && !files.isEmpty())
+            start(Paths.get(files.get(0)), args.containsOption("import-catalogue-restart"));
+    }
+
+    /**
+     * Resolves the name of a snapshot in the configured import directory.
+     *
+     * @param fileName The file name of the snapshot.
+     * @return The path to the snapshot.
+     * @throws InvalidRequestException Thrown when no import directory is configured or when the file name
+     *                                 is not the name of a file directly in the import directory.
+     */
+    public Path resolveInImportDirectory(String fileName) {
+        String importDirectory = deliveryProperties.getCatalogueImportDirectory();
+        if ((importDirectory == null) || importDirectory.isEmpty())
+            throw new InvalidRequestException("No catalogue import directory is configured.");
+
+        Path directory = Paths.get(importDirectory).toAbsolutePath().normalize();
+        Path file;
+        try {
+            Path name = Paths.get(fileName);
+            file = directory.resolve(name).normalize();
+            if ((name.getNameCount() != 1) || !directory.equals(file.getParent()))
+                throw new InvalidRequestException("Not a file name in the catalogue import directory: " + fileName);
+        }
+        catch (InvalidPathException ex) {
+            throw new InvalidRequestException("Not a file name in the catalogue import directory: " + fileName);
+        }
+
+        if (!Files.isRegularFile(file))
+            throw new InvalidRequestException("No such file in the catalogue import directory: " + fileName);
+        return file;
+    }
+
+    /**
+     * Starts the import of the given snapshot in the background, unless an import is already running.
+     * The progress file is written next to the snapshot.
+     *
+     * @param file    The path to the snapshot.
+     * @param restart Whether to ignore the progress of a previous import of the snapshot.
+     * @return Whether the import was started.
+     */
+    public synchronized boolean start(Path file, boolean restart) {
+        if (running)
+            return false;
+
+        running = true;
+        status = String.format("Starting import of %s", file);
+        executor.execute(() -> {
+            try {
+                importSnapshot(file, restart);
+            }
+            finally {
+                running = false;
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Returns whether an import is running.
+     *
+     * @return Whether an import is running.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Returns a description of the progress of the running or last import.
+     *
+     * @return The status.
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    /**
+     * Imports the snapshot, resuming after the records imported by a previous import of the snapshot.
+     *
+     * @param file    The path to the snapshot.
+     * @param restart Whether to ignore the progress of a previous import of the snapshot.
+     */
+    private void importSnapshot(Path file, boolean restart) {
+        Path progressFile = Paths.get(file + PROGRESS_FILE_SUFFIX);
+        long skip = restart ? 0 : readProgress(progressFile);
+        long created = 0, updated = 0, failed = 0;
+        long start = System.nanoTime();
+        processed.set(skip);
+
+        LOGGER.info(String.format("Start run: import catalogue snapshot %s, skipping %d records", file, skip));
+
+        int batchSize = Math.max(1, deliveryProperties.getCatalogueImportBatchSize());
+        try (InputStream inputStream = Files.newInputStream(file);
+             SRWStreamParser.RecordReader reader = SRWStreamParser.open(inputStream)) {
+            for (long i = 0; i < skip; i++) {
+                if (reader.next() == null)
+                    break;
+            }
+
+            List<SRWResponse.Record> batch;
+            while (!(batch = readBatch(reader, batchSize)).isEmpty()) {
+                if (Thread.currentThread().isInterrupted())
+                    break;
+
+                Collection<MetadataRecordExtractor> recordExtractors = getRecordExtractors(batch);
+                int createdInBatch = records.importRecords(recordExtractors);
+
+                created += createdInBatch;
+                updated += recordExtractors.size() - createdInBatch;
+                failed += batch.size() - recordExtractors.size();
+                createdCounter.increment(createdInBatch);
+                updatedCounter.increment(recordExtractors.size() - createdInBatch);
+                failedCounter.increment(batch.size() - recordExtractors.size());
+
+                writeProgress(progressFile, processed.addAndGet(batch.size()));
+                status = String.format("Importing %s: %d records processed (%d created, %d updated, " +
+                                "%d failed), %d records/s", file, processed.get(), created, updated, failed,
+                        (processed.get() - skip) * 1000 / Math.max(1, TimeUnit.NANOSECONDS.toMillis(
+                                System.nanoTime() - start)));
+                LOGGER.info(String.format("importSnapshot(): %s", status));
+            }
+
+            status = String.format("Imported %s: %d records processed (%d created, %d updated, %d failed)",
+                    file, processed.get(), created, updated, failed);
+        }
+        catch (IOException | XMLStreamException | RuntimeException ex) {
+            LOGGER.error(String.format("importSnapshot(): Failed to import catalogue snapshot %s", file), ex);
+            status = String.format("Failed to import %s after %d records: %s", file, processed.get(),
+                    ex.getMessage());
+        }
+
+        LOGGER.info(String.format("Finish run: import catalogue snapshot %s, %s", file, status));
+    }
+
+    /**
+     * Reads the next batch of records from the snapshot.
+     *
+     * @param reader    The reader of the snapshot.
+     * @param batchSize The size of the batch.
+     * @return The records; an empty list if there are no more records.
+     * @throws XMLStreamException Thrown when the snapshot could not be parsed.
+     */
+    private List<SRWResponse.Record> readBatch(SRWStreamParser.RecordReader reader, int batchSize)
+            throws XMLStreamException {
+        List<SRWResponse.Record> batch = new ArrayList<>(batchSize);
+        SRWResponse.Record record;
+        while ((batch.size() < batchSize) && ((record = reader.next()) != null))
+            batch.add(record);
+        return batch;
+    }
+
+    /**
+     * Creates the metadata extractors of the records of a batch. Books are extracted from the snapshot;
+     * the EAD documents of archives are not part of the snapshot, so archives are looked up in the API.
+     *
+     * @param batch The records.
+     * @return The metadata extractors; records without a PID or archives not found are left out.
+     */
+    private Collection<MetadataRecordExtractor> getRecordExtractors(List<SRWResponse.Record> batch) {
+        List<MetadataRecordExtractor> recordExtractors = new ArrayList<>();
+        List<String> archivePids = new ArrayList<>();
+        for (SRWResponse.Record record : batch) {
+            MARCRecord marc = record.getMarc();
+            if (marc == null)
+                continue;
+
+            // Records outside of an SRW response carry their PID in the 902$a field
+            String pid = !record.getIdentifier().isEmpty()
+                    ? record.getIdentifier() : marc.getSubfieldValue("902", 'a').trim();
+            if (pid.isEmpty())
+                continue;
+
+            if (marc.getSubfieldValue("856", 'u').endsWith("?locatt=view:ead"))
+                archivePids.add(pid);
+            else
+                recordExtractors.add(new StreamingMARCMetadataRecordExtractor(pid, marc));
+        }
+
+        if (!archivePids.isEmpty())
+            recordExtractors.addAll(lookup.getRecordExtractorsByPids(archivePids).values());
+
+        return recordExtractors;
+    }
+
+    private long readProgress(Path progressFile) {
+        try {
+            if (Files.exists(progressFile))
+                return Long.parseLong(new String(Files.readAllBytes(progressFile), StandardCharsets.UTF_8).trim());
+        }
+        catch (IOException | NumberFormatException ex) {
+            LOGGER.warn(String.format("readProgress(): Ignoring unreadable progress file %s", progressFile), ex);
+        }
+        return 0;
+    }
+
+    private void writeProgress(Path progressFile, long processed) throws IOException {
+        Files.write(progressFile, String.valueOf(processed).getBytes(StandardCharsets.UTF_8));
+    }
+}
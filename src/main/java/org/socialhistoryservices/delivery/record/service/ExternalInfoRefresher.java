@@ -0,0 +1,163 @@
+package org.socialhistoryservices.delivery.record.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socialhistoryservices.delivery.api.RecordLookupService;
+import org.socialhistoryservices.delivery.config.DeliveryProperties;
+import org.socialhistoryservices.delivery.config.RootContextConfiguration;
+import org.socialhistoryservices.delivery.record.entity.Record;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Refreshes the external info of records in the background before it expires,
+ * so that visitors do not have to wait for the API to update the records they request.
+ */
+@Component
+public class ExternalInfoRefresher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExternalInfoRefresher.class);
+
+    @Autowired
+    private RecordService records;
+
+    @Autowired
+    private RecordLookupService lookup;
+
+    @Autowired
+    private DeliveryProperties deliveryProperties;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter refreshedCounter;
+    private final Counter failedCounter;
+    private final AtomicLong remaining = new AtomicLong();
+    private ExecutorService executor;
+
+    @Autowired
+    public ExternalInfoRefresher(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        refreshedCounter = Counter.builder("delivery.records.refresh")
+                .tag("result", "refreshed")
+                .register(meterRegistry);
+        failedCounter = Counter.builder("delivery.records.refresh")
+                .tag("result", "failed")
+                .register(meterRegistry);
+        Gauge.builder("delivery.records.refresh.remaining", remaining, AtomicLong::get)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    private void init() {
+        // When saturated, the scheduled task refreshes the record itself, which slows down the run
+        executor = RootContextConfiguration.createBoundedExecutor("recordRefresh",
+                deliveryProperties.getExternalInfoRefreshThreads(), meterRegistry);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Scheduled task to refresh the external info of the records which is about to expire.
+     * The records are walked in the order of their last update, in small batches,
+     * up to a maximum number of records per run.
+     */
+    @Scheduled(cron = "0 15 * * * *")
+    public void refreshExternalInfo() {
+        int maxRecords = deliveryProperties.getExternalInfoRefreshMaxRecords();
+        if (maxRecords <= 0)
+            return;
+
+        LOGGER.info("Start run: refresh external info about to expire");
+
+        // Determine the date before which the external info is about to expire
+        int days = deliveryProperties.getExternalInfoMinDaysCache() - deliveryProperties.getExternalInfoRefreshLeadDays();
+        Calendar calendar = GregorianCalendar.getInstance();
+        calendar.add(Calendar.DAY_OF_YEAR, -days);
+        Date updatedBefore = calendar.getTime();
+
+        remaining.set(records.countByExternalInfoUpdatedBefore(updatedBefore));
+
+        int processed = 0;
+        Record last = null;
+        while (processed < maxRecords) {
+            int batchSize = Math.min(deliveryProperties.getExternalInfoRefreshBatchSize(), maxRecords - processed);
+            List<Record> batch = records.listByExternalInfoUpdatedBefore(updatedBefore, last, batchSize);
+            if (batch.isEmpty())
+                break;
+
+            int failed = refreshBatch(batch);
+            processed += batch.size();
+            last = batch.get(batch.size() - 1);
+
+            if (failed == batch.size()) {
+                LOGGER.warn("refreshExternalInfo(): No record of the batch could be refreshed, is the API down?");
+                break;
+            }
+        }
+
+        // Siblings are refreshed along with the records, so count again
+        remaining.set(records.countByExternalInfoUpdatedBefore(updatedBefore));
+
+        LOGGER.info(String.format("Finish run: refresh external info about to expire, %d records processed",
+                processed));
+    }
+
+    /**
+     * Refreshes the external info of a batch of records concurrently.
+     *
+     * @param batch The records to refresh.
+     * @return The number of records which could not be refreshed.
+     */
+    private int refreshBatch(List<Record> batch) {
+        // Look up the metadata of the whole batch at once, the refreshes will find it in the lookup cache
+        List<String> pids = new ArrayList<>();
+        for (Record record : batch)
+            pids.add(record.getPid());
+        lookup.getRecordExtractorsByPids(pids);
+
+        List<Future<Boolean>> refreshes = new ArrayList<>();
+        for (Record record : batch) {
+            int id = record.getId();
+            refreshes.add(executor.submit(() -> records.refreshExternalInfo(id)));
+        }
+
+        int failed = 0;
+        for (Future<Boolean> refresh : refreshes) {
+            boolean refreshed = false;
+            try {
+                refreshed = refresh.get();
+            }
+            catch (ExecutionException ex) {
+                LOGGER.warn("refreshBatch(): Failed to refresh the external info of a record", ex.getCause());
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                refreshes.forEach(f -> f.cancel(true));
+                return batch.size();
+            }
+
+            if (refreshed) {
+                refreshedCounter.increment();
+            }
+            else {
+                failedCounter.increment();
+                failed++;
+            }
+            remaining.decrementAndGet();
+        }
+        return failed;
+    }
+}
@@ -1,5 +1,6 @@
 package org.socialhistoryservices.delivery.record.service;
 
+import org.socialhistoryservices.delivery.api.MetadataRecordExtractor;
 import org.socialhistoryservices.delivery.api.NoSuchPidException;
 import org.socialhistoryservices.delivery.record.entity.Holding;
 import org.socialhistoryservices.delivery.record.entity.Record;
@@ -7,6 +8,8 @@ import org.springframework.validation.BindingResult;
 
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -63,9 +66,19 @@ public interface RecordService {
      * @param pid Pid of the Record to retrieve.
      * @return The Record matching the pid. Null if none exist.
      * @throws NoSuchPidException Thrown when the provided PID does not exist in the API.
+     * @throws org.springframework.dao.CannotAcquireLockException Thrown when a concurrent creation of the same record takes too long.
      */
     Record getRecordByPidAndCreate(String pid) throws NoSuchPidException;
 
+    /**
+     * Look up the metadata of multiple Records which are about to be retrieved using getRecordByPidAndCreate,
+     * in a single batch. Only Records which do not exist yet, or of which the external info is outdated,
+     * are looked up; the record lookup service caches the results for the subsequent retrievals.
+     *
+     * @param pids Pids of the Records to look up.
+     */
+    void prefetchRecordsByPid(Collection<String> pids);
+
     /**
      * Get a criteria builder for querying Records.
      *
@@ -90,6 +103,27 @@ public interface RecordService {
      */
     List<Record> listIterable(int offset, int maxResults);
 
+    /**
+     * List the cataloged Records of which the external info was never updated or last updated before the
+     * given date, ordered by the date of the last update, never updated first. Uses keyset pagination:
+     * the next page starts after the last Record of the previous page.
+     *
+     * @param updatedBefore The date before which the external info was last updated.
+     * @param after         The last Record of the previous page, or null for the first page.
+     * @param maxResults    The max number of records to fetch.
+     * @return A list of Records.
+     */
+    List<Record> listByExternalInfoUpdatedBefore(Date updatedBefore, Record after, int maxResults);
+
+    /**
+     * Count the cataloged Records of which the external info was never updated or last updated before the
+     * given date.
+     *
+     * @param updatedBefore The date before which the external info was last updated.
+     * @return The number of Records.
+     */
+    long countByExternalInfoUpdatedBefore(Date updatedBefore);
+
     /**
      * Get a single Record matching a built query.
      *
@@ -106,6 +140,43 @@ public interface RecordService {
      */
     Holding getHoldingById(int id);
 
+    /**
+     * Retrieve the Holdings matching the given Ids.
+     *
+     * @param ids Ids of the Holdings to retrieve.
+     * @return The Holdings matching the Ids.
+     */
+    List<Holding> getHoldingsById(List<Integer> ids);
+
+    /**
+     * List the ids of the Holdings, ordered by id.
+     *
+     * @param afterId    Only ids larger than this id are listed.
+     * @param maxResults The maximum number of ids to list.
+     * @return A list of ids of Holdings.
+     */
+    List<Integer> listHoldingIds(int afterId, int maxResults);
+
+    /**
+     * List the ids of the Holdings with an open reservation or reproduction
+     * without the active reservation or reproduction stored with the Holding, ordered by id.
+     *
+     * @param afterId    Only ids larger than this id are listed.
+     * @param maxResults The maximum number of ids to list.
+     * @return A list of ids of Holdings.
+     */
+    List<Integer> listHoldingIdsWithoutActiveRequest(int afterId, int maxResults);
+
+    /**
+     * Lock the given Holdings, and those of the other items in the same containers, until the end of
+     * the transaction, so that their status can be changed without a concurrent transaction doing the same.
+     * Refresh them to check their status, unless they may have changes that are not yet flushed.
+     *
+     * @param holdings The Holdings to lock.
+     * @param refresh  Whether to refresh the Holdings after locking them.
+     */
+    void lockHoldings(Collection<Holding> holdings, boolean refresh);
+
     /**
      * List all Holdings matching a built query.
      *
@@ -149,6 +220,23 @@ public interface RecordService {
      */
     boolean updateExternalInfo(Record record, boolean hardRefresh);
 
+    /**
+     * Refreshes the external info of the Record with the given id, regardless of the date of the last update.
+     *
+     * @param id The id of the Record.
+     * @return Whether the record was updated.
+     */
+    boolean refreshExternalInfo(int id);
+
+    /**
+     * Creates the Records of the given metadata extractors, or when they already exist,
+     * updates their external info. The existing Records are looked up with a single query.
+     *
+     * @param recordExtractors The metadata extractors of the (top level) Records.
+     * @return The number of Records created; the others were updated or skipped.
+     */
+    int importRecords(Collection<MetadataRecordExtractor> recordExtractors);
+
     /**
      * Get all child records of the given record that are currently reserved.
      *
@@ -8,13 +8,22 @@ import org.socialhistoryservices.delivery.record.dao.HoldingDAO;
 import org.socialhistoryservices.delivery.record.dao.RecordDAO;
 import org.socialhistoryservices.delivery.record.entity.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.CannotAcquireLockException;
 import org.springframework.stereotype.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.Validator;
 
 import javax.persistence.criteria.*;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Represents the service of the record package.
@@ -22,6 +31,16 @@ import java.util.*;
 @Service
 @Transactional
 public class RecordServiceImpl implements RecordService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordServiceImpl.class);
+    private static final int PID_LOCK_TIMEOUT_SECONDS = 30;
+
+    private final Lock[] pidLocks = new Lock[64];
+
+    {
+        for (int i = 0; i < pidLocks.length; i++)
+            pidLocks[i] = new ReentrantLock();
+    }
+
     @Autowired
     private RecordDAO recordDAO;
 
@@ -85,20 +104,13 @@ public class RecordServiceImpl implements RecordService {
 
     /**
      * Retrieve the Record matching the given pid.
+     * The pid is resolved through the natural id cache, the Record through the second-level cache.
      *
      * @param pid Pid of the Record to retrieve.
      * @return The Record matching the pid. Null if none exist.
      */
     public Record getRecordByPid(String pid) {
-        CriteriaBuilder builder = getRecordCriteriaBuilder();
-
-        CriteriaQuery<Record> query = builder.createQuery(Record.class);
-        Root<Record> recRoot = query.from(Record.class);
-        query.select(recRoot);
-
-        query.where(builder.equal(recRoot.get(Record_.pid), pid));
-
-        return getRecord(query);
+        return recordDAO.getByPid(pid);
     }
 
     /**
@@ -107,9 +119,16 @@ public class RecordServiceImpl implements RecordService {
      * @param pid Pid of the Record to retrieve.
      * @return The Record matching the pid. Null if none exist.
      * @throws NoSuchPidException Thrown when the provided PID does not exist in the API.
+     * @throws CannotAcquireLockException Thrown when a concurrent creation of the same record takes too long.
      */
     public Record getRecordByPidAndCreate(String pid) throws NoSuchPidException {
         Record record = getRecordByPid(pid);
+        if (record == null) {
+            // Wait for concurrent creations of the same record to be committed
+            lockPidUntilCompletion(pid);
+            record = getRecordByPid(pid);
+        }
+
         if (record == null) {
             record = createRecordByPid(pid);
             addRecord(record);
@@ -123,6 +142,31 @@ public class RecordServiceImpl implements RecordService {
         return record;
     }
 
+    /**
+     * Look up the metadata of multiple Records which are about to be retrieved using getRecordByPidAndCreate,
+     * in a single batch. Only Records which do not exist yet, or of which the external info is outdated,
+     * are looked up; the record lookup service caches the results for the subsequent retrievals.
+     *
+     * @param pids Pids of the Records to look up.
+     */
+    public void prefetchRecordsByPid(Collection<String> pids) {
+        String itemSeparator = deliveryProperties.getItemSeparator();
+        Set<String> lookupPids = new LinkedHashSet<>();
+        for (String pid : pids) {
+            Record record = getRecordByPid(pid);
+            if ((record == null) || (record.isCataloged() && isExternalInfoOutdated(record))) {
+                lookupPids.add(pid);
+
+                // The parent record may have to be created or updated as well
+                if (pid.contains(itemSeparator))
+                    lookupPids.add(pid.substring(0, pid.indexOf(itemSeparator)));
+            }
+        }
+
+        if (lookupPids.size() > 1)
+            lookup.getRecordExtractorsByPids(lookupPids);
+    }
+
     /**
      * Get a criteria builder for querying Records.
      *
@@ -153,6 +197,31 @@ public class RecordServiceImpl implements RecordService {
         return recordDAO.listIterable(offset, maxResults);
     }
 
+    /**
+     * List the cataloged Records of which the external info was never updated or last updated before the
+     * given date, ordered by the date of the last update, never updated first. Uses keyset pagination:
+     * the next page starts after the last Record of the previous page.
+     *
+     * @param updatedBefore The date before which the external info was last updated.
+     * @param after         The last Record of the previous page, or null for the first page.
+     * @param maxResults    The max number of records to fetch.
+     * @return A list of Records.
+     */
+    public List<Record> listByExternalInfoUpdatedBefore(Date updatedBefore, Record after, int maxResults) {
+        return recordDAO.listByExternalInfoUpdatedBefore(updatedBefore, after, maxResults);
+    }
+
+    /**
+     * Count the cataloged Records of which the external info was never updated or last updated before the
+     * given date.
+     *
+     * @param updatedBefore The date before which the external info was last updated.
+     * @return The number of Records.
+     */
+    public long countByExternalInfoUpdatedBefore(Date updatedBefore) {
+        return recordDAO.countByExternalInfoUpdatedBefore(updatedBefore);
+    }
+
     /**
      * Get a single Record matching a built query.
      *
@@ -183,6 +252,53 @@ public class RecordServiceImpl implements RecordService {
         return holdingDAO.getById(id);
     }
 
+    /**
+     * Retrieve the Holdings matching the given Ids.
+     *
+     * @param ids Ids of the Holdings to retrieve.
+     * @return The Holdings matching the Ids.
+     */
+    public List<Holding> getHoldingsById(List<Integer> ids) {
+        return holdingDAO.getByIds(ids);
+    }
+
+    /**
+     * List the ids of the Holdings, ordered by id.
+     *
+     * @param afterId    Only ids larger than this id are listed.
+     * @param maxResults The maximum number of ids to list.
+     * @return A list of ids of Holdings.
+     */
+    public List<Integer> listHoldingIds(int afterId, int maxResults) {
+        return holdingDAO.listIds(afterId, maxResults);
+    }
+
+    /**
+     * List the ids of the Holdings with an open reservation or reproduction
+     * without the active reservation or reproduction stored with the Holding, ordered by id.
+     *
+     * @param afterId    Only ids larger than this id are listed.
+     * @param maxResults The maximum number of ids to list.
+     * @return A list of ids of Holdings.
+     */
+    public List<Integer> listHoldingIdsWithoutActiveRequest(int afterId, int maxResults) {
+        return holdingDAO.listIdsWithoutActiveRequest(afterId, maxResults);
+    }
+
+    /**
+     * Lock the given Holdings, and those of the other items in the same containers, until the end of
+     * the transaction, so that their status can be changed without a concurrent transaction doing the same.
+     * Refresh them to check their status, unless they may have changes that are not yet flushed.
+     *
+     * @param holdings The Holdings to lock.
+     * @param refresh  Whether to refresh the Holdings after locking them.
+     */
+    public void lockHoldings(Collection<Holding> holdings, boolean refresh) {
+        holdingDAO.lock(holdings);
+        if (refresh)
+            holdings.forEach(holdingDAO::refresh);
+    }
+
     /**
      * Remove a Holding from the database.
      *
@@ -193,20 +309,18 @@ public class RecordServiceImpl implements RecordService {
     }
 
     /**
-     * Updates the status of a holding.
+     * Updates the status of a holding, and of the holdings of all other records in the same container.
+     * The holdings in the same container are not loaded: their ids are selected and they are updated with
+     * a single bulk update. Only those already loaded in the transaction are refreshed, one by one.
+     * The holdings are locked first, in the same order as by a concurrent reservation of them.
      *
      * @param holding The holding.
      * @param status  The new status.
      */
     public void updateHoldingStatus(Holding holding, Holding.Status status) {
+        holdingDAO.lock(Collections.singletonList(holding));
         holding.setStatus(status);
-
-        List<Record> siblings = getSiblings(holding.getRecord(), true);
-        for (Record sibling : siblings) {
-            for (Holding siblingHolding : sibling.getHoldings()) {
-                siblingHolding.setStatus(status);
-            }
-        }
+        holdingDAO.updateStatusOfContainerSiblings(holding.getRecord(), status);
     }
 
     /**
@@ -284,17 +398,15 @@ public class RecordServiceImpl implements RecordService {
     public boolean updateExternalInfo(Record record, boolean hardRefresh) {
         try {
             // Do we need to update the external info?
-            int days = deliveryProperties.getExternalInfoMinDaysCache();
-            Calendar calendar = GregorianCalendar.getInstance();
-            calendar.add(Calendar.DAY_OF_YEAR, -days);
-
-            Date lastUpdated = record.getExternalInfoUpdated();
-            if (!hardRefresh && (lastUpdated != null) && lastUpdated.after(calendar.getTime()))
+            if (!hardRefresh && !isExternalInfoOutdated(record))
                 return (record.getParent() != null) && updateExternalInfo(record.getParent(), false);
 
-            // We need to update the external info
+            // We need to update the external info; but if we already have external info,
+            // do not let a slow API hold up the request and rather continue with the stored external info
             String pid = record.getPid();
-            MetadataRecordExtractor recordExtractor = lookup.getRecordExtractorByPid(pid);
+            MetadataRecordExtractor recordExtractor = (!hardRefresh && (record.getExternalInfoUpdated() != null))
+                    ? lookup.getRecordExtractorByPid(pid, Duration.ofMillis(deliveryProperties.getApiLatencyBudget()))
+                    : lookup.getRecordExtractorByPid(pid);
 
             updateRecord(record, recordExtractor);
 
@@ -311,6 +423,115 @@ public class RecordServiceImpl implements RecordService {
         }
     }
 
+    /**
+     * Refreshes the external info of the Record with the given id, regardless of the date of the last update.
+     *
+     * @param id The id of the Record.
+     * @return Whether the record was updated.
+     */
+    public boolean refreshExternalInfo(int id) {
+        Record record = getRecordById(id);
+        if ((record == null) || !record.isCataloged())
+            return false;
+
+        // Siblings may be created, so make sure we do not race with requests for the same PID
+        lockPidUntilCompletion(record.getPid());
+        return updateExternalInfo(record, true);
+    }
+
+    /**
+     * Creates the Records of the given metadata extractors, or when they already exist,
+     * updates their external info. The existing Records are looked up with a single query.
+     * Records which are not cataloged and items of archives are skipped.
+     *
+     * @param recordExtractors The metadata extractors of the (top level) Records.
+     * @return The number of Records created; the others were updated or skipped.
+     */
+    public int importRecords(Collection<MetadataRecordExtractor> recordExtractors) {
+        String itemSeparator = deliveryProperties.getItemSeparator();
+        Map<String, MetadataRecordExtractor> recordExtractorsByPid = new LinkedHashMap<>();
+        for (MetadataRecordExtractor recordExtractor : recordExtractors) {
+            if (!recordExtractor.getPid().contains(itemSeparator))
+                recordExtractorsByPid.put(recordExtractor.getPid(), recordExtractor);
+        }
+
+        if (recordExtractorsByPid.isEmpty())
+            return 0;
+
+        CriteriaBuilder builder = getRecordCriteriaBuilder();
+        CriteriaQuery<Record> query = builder.createQuery(Record.class);
+        Root<Record> recRoot = query.from(Record.class);
+        query.select(recRoot);
+        query.where(recRoot.get(Record_.pid).in(recordExtractorsByPid.keySet()));
+
+        Map<String, Record> existing = new HashMap<>();
+        for (Record record : listRecords(query))
+            existing.put(record.getPid(), record);
+
+        int created = 0;
+        for (MetadataRecordExtractor recordExtractor : recordExtractorsByPid.values()) {
+            Record record = existing.get(recordExtractor.getPid());
+            if (record == null) {
+                record = createRecord(recordExtractor, null);
+                record.setExternalInfoUpdated(new Date());
+                addRecord(record);
+                created++;
+            }
+            else if (record.isCataloged()) {
+                updateRecord(record, recordExtractor);
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Serializes the creation of records per PID: locks the PID (and its parent and items) until the
+     * current transaction is completed, so that concurrent transactions will find the created records.
+     * If the lock cannot be obtained in time, the request fails and its transaction is rolled back,
+     * rather than risking a duplicate record.
+     *
+     * @param pid The PID to lock.
+     * @throws CannotAcquireLockException Thrown when the PID could not be locked in time.
+     */
+    private void lockPidUntilCompletion(String pid) {
+        String itemSeparator = deliveryProperties.getItemSeparator();
+        String parentPid = pid.contains(itemSeparator) ? pid.substring(0, pid.indexOf(itemSeparator)) : pid;
+        Lock lock = pidLocks[Math.floorMod(parentPid.hashCode(), pidLocks.length)];
+
+        try {
+            if (!lock.tryLock(PID_LOCK_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn(String.format("lockPidUntilCompletion(): Timeout while waiting for PID %s", pid));
+                throw new CannotAcquireLockException(String.format("Timeout while waiting for PID %s", pid));
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CannotAcquireLockException(String.format("Interrupted while waiting for PID %s", pid), ex);
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                lock.unlock();
+            }
+        });
+    }
+
+    /**
+     * Determines whether the external info of the given record is outdated.
+     *
+     * @param record The record.
+     * @return Whether the external info should be updated.
+     */
+    private boolean isExternalInfoOutdated(Record record) {
+        int days = deliveryProperties.getExternalInfoMinDaysCache();
+        Calendar calendar = GregorianCalendar.getInstance();
+        calendar.add(Calendar.DAY_OF_YEAR, -days);
+
+        Date lastUpdated = record.getExternalInfoUpdated();
+        return (lastUpdated == null) || !lastUpdated.after(calendar.getTime());
+    }
+
     /**
      * Create a record, using the metadata from the IISH API to populate its fields.
      *
@@ -349,19 +570,25 @@ public class RecordServiceImpl implements RecordService {
      * @param siblingExtractors The metadata extractors for the sibling records.
      */
     private void createOrUpdateSiblings(Record r, Set<MetadataRecordExtractor> siblingExtractors) {
-        List<Record> siblings = getSiblings(r, false);
-        for (MetadataRecordExtractor siblingExtractor : siblingExtractors) {
-            Optional<Record> record = siblings.stream()
-                    .filter(sr -> sr.getPid().equals(siblingExtractor.getPid())).findFirst();
+        if (siblingExtractors.isEmpty())
+            return;
 
-            if (record.isPresent()) {
-                Record sibling = record.get();
+        Map<String, MetadataRecordExtractor> siblingExtractorsByPid = new HashMap<>();
+        for (MetadataRecordExtractor siblingExtractor : siblingExtractors)
+            siblingExtractorsByPid.put(siblingExtractor.getPid(), siblingExtractor);
+
+        Map<String, Record> siblingsByPid = new HashMap<>();
+        for (Record sibling : getSiblings(r, siblingExtractorsByPid.keySet()))
+            siblingsByPid.put(sibling.getPid(), sibling);
+
+        for (MetadataRecordExtractor siblingExtractor : siblingExtractorsByPid.values()) {
+            Record sibling = siblingsByPid.get(siblingExtractor.getPid());
+            if (sibling != null) {
+                // The sibling is managed, so the changes are written (in batches) when the transaction is flushed
                 updateRecord(sibling, siblingExtractor);
-                saveRecord(sibling);
             }
             else {
-                Record sibling = createRecord(siblingExtractor, r.getParent());
-                addRecord(sibling);
+                addRecord(createRecord(siblingExtractor, r.getParent()));
             }
         }
     }
@@ -411,51 +638,103 @@ public class RecordServiceImpl implements RecordService {
         // Update archive holding info
         record.setArchiveHoldingInfo(recordExtractor.getArchiveHoldingInfo());
 
+        // Index the existing holdings by signature and by barcode
+        Map<String, List<Holding>> holdingsBySignature = new HashMap<>();
+        Map<String, List<Holding>> holdingsByBarcode = new HashMap<>();
+        for (Holding h : record.getHoldings())
+            indexHolding(h, holdingsBySignature, holdingsByBarcode);
+
         // Update the holdings, merge existing holdings, add new holdings, do not remove old holdings
-        for (String signature : ehMap.keySet()) {
-            boolean found = false;
-            ExternalHoldingInfo ehi = ehMap.get(signature);
-
-            for (Holding h : record.getHoldings()) {
-                if (signature.equals(h.getSignature())) {
-                    if (h.getExternalInfo() != null)
-                        h.getExternalInfo().mergeWith(ehi);
-                    else
-                        h.setExternalInfo(ehi);
-
-                    found = true;
-                }
+        for (Map.Entry<String, ExternalHoldingInfo> e : ehMap.entrySet()) {
+            String signature = e.getKey();
+            ExternalHoldingInfo ehi = e.getValue();
+
+            List<Holding> found = holdingsBySignature.get(signature);
+            if ((found != null) && !found.isEmpty()) {
+                for (Holding h : found)
+                    mergeExternalInfo(h, ehi, holdingsByBarcode);
+                continue;
             }
 
             // Not found, but check again: maybe the signature changed, but the barcode is still the same
-            if (!found) {
-                for (Holding h : record.getHoldings()) {
-                    // Found a holding with a different signature, but with the same barcode, start a merge
-                    if (ehi.getBarcode().equals(h.getExternalInfo().getBarcode())) {
-                        h.setSignature(signature);
-                        if (h.getExternalInfo() != null)
-                            h.getExternalInfo().mergeWith(ehi);
-                        else
-                            h.setExternalInfo(ehi);
-
-                        found = true;
-                    }
-                }
-
-                // If still not found, create a new holding
-                if (!found) {
-                    Holding holding = new Holding();
-                    holding.setSignature(signature);
-                    holding.setExternalInfo(ehi);
-                    record.addHolding(holding);
-                    holding.setRecord(record);
+            found = getHoldingsByBarcode(ehi.getBarcode(), holdingsByBarcode);
+            if (!found.isEmpty()) {
+                // Found holdings with a different signature, but with the same barcode, start a merge
+                for (Holding h : found) {
+                    holdingsBySignature.get(h.getSignature()).remove(h);
+                    h.setSignature(signature);
+                    mergeExternalInfo(h, ehi, holdingsByBarcode);
                 }
+                holdingsBySignature.put(signature, found);
+                continue;
             }
+
+            // If still not found, create a new holding
+            Holding holding = new Holding();
+            holding.setSignature(signature);
+            holding.setExternalInfo(ehi);
+            record.addHolding(holding);
+            holding.setRecord(record);
+            indexHolding(holding, holdingsBySignature, holdingsByBarcode);
         }
 
         record.setExternalInfoUpdated(new Date());
     }
 
+    /**
+     * Adds the holding to the indexes by signature and by barcode.
+     *
+     * @param h                   The holding.
+     * @param holdingsBySignature The holdings by signature.
+     * @param holdingsByBarcode   The holdings by barcode.
+     */
+    private void indexHolding(Holding h, Map<String, List<Holding>> holdingsBySignature,
+                              Map<String, List<Holding>> holdingsByBarcode) {
+        holdingsBySignature.computeIfAbsent(h.getSignature(), k -> new ArrayList<>()).add(h);
+        if ((h.getExternalInfo() != null) && (h.getExternalInfo().getBarcode() != null))
+            holdingsByBarcode.computeIfAbsent(h.getExternalInfo().getBarcode(), k -> new ArrayList<>()).add(h);
+    }
+
+    /**
+     * Returns the holdings which currently have the given barcode.
+     * The index may contain holdings of which the barcode changed since they were indexed.
+     *
+     * @param barcode           The barcode.
+     * @param holdingsByBarcode The holdings by barcode.
+     * @return The holdings with the barcode.
+     */
+    private List<Holding> getHoldingsByBarcode(String barcode, Map<String, List<Holding>> holdingsByBarcode) {
+        List<Holding> found = new ArrayList<>();
+        if (barcode == null)
+            return found;
+
+        for (Holding h : holdingsByBarcode.getOrDefault(barcode, Collections.emptyList())) {
+            if ((h.getExternalInfo() != null) && barcode.equals(h.getExternalInfo().getBarcode()) &&
+                    !found.contains(h))
+                found.add(h);
+        }
+        return found;
+    }
+
+    /**
+     * Merges the given external holding info into the external info of the holding,
+     * and indexes the holding by its (possibly changed) barcode.
+     *
+     * @param h                 The holding.
+     * @param ehi               The external holding info.
+     * @param holdingsByBarcode The holdings by barcode.
+     */
+    private void mergeExternalInfo(Holding h, ExternalHoldingInfo ehi, Map<String, List<Holding>> holdingsByBarcode) {
+        String oldBarcode = (h.getExternalInfo() != null) ? h.getExternalInfo().getBarcode() : null;
+        if (h.getExternalInfo() != null)
+            h.getExternalInfo().mergeWith(ehi);
+        else
+            h.setExternalInfo(ehi);
+
+        if ((h.getExternalInfo().getBarcode() != null) && !h.getExternalInfo().getBarcode().equals(oldBarcode))
+            holdingsByBarcode.computeIfAbsent(h.getExternalInfo().getBarcode(), k -> new ArrayList<>()).add(h);
+    }
+
     /**
      * Get all child records of the given record that are currently reserved.
      *
@@ -480,34 +759,26 @@ public class RecordServiceImpl implements RecordService {
         return listRecords(query);
     }
 
-    /*
-     * Get all sibling records (with the same container).
+    /**
+     * Get the sibling records with the given PIDs, with their external info and holdings.
      *
      * @param record The record.
-     * @param sameContainer If the sibling records should have the same container.
-     * @return A list of all sibling records (with the same container).
+     * @param pids   The PIDs of the sibling records.
+     * @return A list of the sibling records.
      */
-    private List<Record> getSiblings(Record record, boolean sameContainer) {
+    private List<Record> getSiblings(Record record, Collection<String> pids) {
         CriteriaBuilder builder = getRecordCriteriaBuilder();
         CriteriaQuery<Record> query = builder.createQuery(Record.class);
         Root<Record> recRoot = query.from(Record.class);
-        Join<Record, ExternalRecordInfo> eriRoot = recRoot.join(Record_.externalInfo);
-
-        Predicate where = sameContainer ?
-                builder.and(
-                        builder.equal(recRoot.get(Record_.parent), record.getParent()),
-                        builder.isNotNull(eriRoot.get(ExternalRecordInfo_.container)),
-                        builder.equal(eriRoot.get(ExternalRecordInfo_.container),
-                                record.getExternalInfo().getContainer()),
-                        builder.notEqual(recRoot.get(Record_.id), record.getId())
-                ) :
-                builder.and(
-                        builder.equal(recRoot.get(Record_.parent), record.getParent()),
-                        builder.notEqual(recRoot.get(Record_.id), record.getId())
-                );
-
-        query.select(recRoot);
-        query.where(where);
+        recRoot.fetch(Record_.externalInfo);
+        recRoot.fetch(Record_.holdings, JoinType.LEFT).fetch(Holding_.externalInfo, JoinType.LEFT);
+
+        query.select(recRoot).distinct(true);
+        query.where(builder.and(
+                builder.equal(recRoot.get(Record_.parent), record.getParent()),
+                builder.notEqual(recRoot.get(Record_.id), record.getId()),
+                recRoot.get(Record_.pid).in(pids)
+        ));
 
         return listRecords(query);
     }
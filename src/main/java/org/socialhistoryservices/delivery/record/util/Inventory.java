@@ -2,9 +2,10 @@ package org.socialhistoryservices.delivery.record.util;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
+import java.io.Serializable;
 import java.util.List;
 
-public class Inventory {
+public class Inventory implements Serializable {
     private String unitId;
     private String title;
     private List<Inventory> children;
@@ -379,17 +379,19 @@ public class ReproductionController extends AbstractRequestController {
     public String batchProcessChangeHoldingStatus(HttpServletRequest req,
                                                   @RequestParam(required = false) List<String> checked,
                                                   @RequestParam Holding.Status newHoldingStatus) {
-        for (BulkActionIds bulkActionIds : getIdsFromBulk(checked)) {
-            Holding h = records.getHoldingById(bulkActionIds.getHoldingId());
-            if (h != null) {
-                // Only update the status if the holding is active for the same reproduction
-                Request request = requests.getActiveFor(h);
-                if ((request instanceof Reproduction) &&
-                        (((Reproduction) request).getId() == bulkActionIds.getRequestId())) {
-                    // Set the new status
-                    records.updateHoldingStatus(h, newHoldingStatus);
-                    records.saveHolding(h);
-                }
+        Map<BulkActionIds, Holding> holdings = getHoldingsFromBulk(checked);
+        records.lockHoldings(holdings.values(), true);
+        Map<Integer, Request> activeRequests = requests.getActiveFor(holdings.values());
+        for (Map.Entry<BulkActionIds, Holding> entry : holdings.entrySet()) {
+            Holding h = entry.getValue();
+
+            // Only update the status if the holding is active for the same reproduction
+            Request request = activeRequests.get(h.getId());
+            if ((request instanceof Reproduction) &&
+                    (((Reproduction) request).getId() == entry.getKey().getRequestId())) {
+                // Set the new status
+                records.updateHoldingStatus(h, newHoldingStatus);
+                records.saveHolding(h);
             }
         }
 
@@ -535,6 +537,7 @@ public class ReproductionController extends AbstractRequestController {
         Map<String, List<ReproductionStandardOption>> reproductionStandardOptions =
                 new HashMap<>();
         List<ReproductionStandardOption> standardOptions = reproductions.getAllReproductionStandardOptions();
+        reproductions.prefetchSorMetadata(holdings);
 
         for (Holding holding : holdings) {
             List<ReproductionStandardOption> standardOptionsForHolding = new ArrayList<>();
@@ -752,7 +755,8 @@ public class ReproductionController extends AbstractRequestController {
             try {
                 Order order = reproduction.getOrder();
                 if (order == null) {
-                    order = reproductions.createOrder(reproduction);
+                    // (Re)try to register the order, the customer waits for it on the order page
+                    reproductions.createOrder(reproduction);
 
                     // If the reproduction is for free, take care of delivery
                     if (reproduction.isForFree()) {
@@ -762,15 +766,14 @@ public class ReproductionController extends AbstractRequestController {
                         // Show payment accepted page
                         return "redirect:/reproduction/order/confirm";
                     }
+
+                    return "redirect:" + getOrderPageLink(reproduction);
                 }
 
                 return "redirect:" + payWayService.getPaymentPageRedirectLink(order.getId());
             } catch (IncompleteOrderDetailsException onre) {
                 // We already checked for this one though
                 throw new InvalidRequestException("Reproduction is not ready yet.");
-            } catch (OrderRegistrationFailureException orfe) {
-                String msg = msgSource.getMessage("payway.error", null, LocaleContextHolder.getLocale());
-                throw new InvalidRequestException(msg);
             }
         }
 
@@ -791,7 +794,7 @@ public class ReproductionController extends AbstractRequestController {
             try {
                 // Change status to 'confirmed by customer' and create order
                 reproductions.updateStatusAndAssociatedHoldingStatus(reproduction, Reproduction.Status.CONFIRMED);
-                Order order = reproductions.createOrder(reproduction);
+                reproductions.createOrder(reproduction);
 
                 // If the reproduction is for free, take care of delivery
                 if (reproduction.isForFree()) {
@@ -802,20 +805,64 @@ public class ReproductionController extends AbstractRequestController {
                     return "redirect:/reproduction/order/confirm";
                 }
 
-                // Otherwise redirect the user to the payment page
-                return "redirect:" + payWayService.getPaymentPageRedirectLink(order.getId());
+                // Otherwise let the user wait for the order to be registered in PayWay
+                return "redirect:" + getOrderPageLink(reproduction);
             } catch (IncompleteOrderDetailsException onre) {
                 // We already checked for this one though
                 throw new InvalidRequestException("Reproduction is not ready yet.");
-            } catch (OrderRegistrationFailureException orfe) {
-                String msg = msgSource.getMessage("payway.error", null, LocaleContextHolder.getLocale());
-                model.addAttribute("paywayError", msg);
             }
         }
 
         return "reproduction_confirm";
     }
 
+    /**
+     * Shows the customer the progress of the registration of the order in PayWay,
+     * and redirects to the payment page once the order is registered. The page reloads itself until then.
+     *
+     * @param reproductionId The id of the reproduction.
+     * @param token          A token to prevent unauthorized access to the reproduction.
+     * @param model          The model to add response attributes to.
+     * @return The view to resolve.
+     */
+    @RequestMapping(value = "/confirm/{reproductionId:[\\d]+}/{token}/order", method = RequestMethod.GET)
+    public String showOrder(@PathVariable int reproductionId, @PathVariable String token, Model model) {
+        Reproduction reproduction = reproductions.getReproductionById(reproductionId);
+        validateToken(reproduction, token);
+
+        if (reproduction == null)
+            throw new InvalidRequestException("No such reproduction.");
+
+        if (reproduction.getStatus() != Reproduction.Status.CONFIRMED)
+            throw new InvalidRequestException("Reproduction is not awaiting payment.");
+
+        Order order = reproduction.getOrder();
+        if (order != null)
+            return "redirect:" + payWayService.getPaymentPageRedirectLink(order.getId());
+
+        PayWayOutboxMessage.Status status = reproductions.getOrderRegistrationStatus(reproduction);
+        if (status == null)
+            throw new InvalidRequestException("Reproduction has no order yet.");
+
+        if (status == PayWayOutboxMessage.Status.FAILED) {
+            String msg = msgSource.getMessage("payway.error", null, LocaleContextHolder.getLocale());
+            model.addAttribute("paywayError", msg);
+        }
+
+        model.addAttribute("reproduction", reproduction);
+        return "reproduction_order_pending";
+    }
+
+    /**
+     * Returns the link to the page on which the customer waits for the order to be registered in PayWay.
+     *
+     * @param reproduction The reproduction.
+     * @return The link.
+     */
+    private String getOrderPageLink(Reproduction reproduction) {
+        return "/reproduction/confirm/" + reproduction.getId() + "/" + reproduction.getToken() + "/order";
+    }
+
     /**
      * Reproduction confirmed, no payment required.
      *
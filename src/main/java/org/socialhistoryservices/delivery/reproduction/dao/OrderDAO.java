@@ -61,4 +61,14 @@ public interface OrderDAO {
      * @return The matching Order.
      */
     Order get(CriteriaQuery<Order> query);
+
+    /**
+     * List the orders which are not yet payed, while their reproduction is still awaiting payment,
+     * ordered by id. Uses keyset pagination: the next page starts after the last order of the previous page.
+     *
+     * @param afterId    The id of the last order of the previous page, or 0 for the first page.
+     * @param maxResults The max number of orders to fetch.
+     * @return A list of Orders.
+     */
+    List<Order> listAwaitingPayment(long afterId, int maxResults);
 }
@@ -1,11 +1,16 @@
 package org.socialhistoryservices.delivery.reproduction.dao;
 
 import org.socialhistoryservices.delivery.reproduction.entity.Order;
+import org.socialhistoryservices.delivery.reproduction.entity.Order_;
+import org.socialhistoryservices.delivery.reproduction.entity.Reproduction;
+import org.socialhistoryservices.delivery.reproduction.entity.Reproduction_;
 import org.springframework.stereotype.Repository;
 
 import javax.persistence.*;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Root;
 import java.util.List;
 
 /**
@@ -102,4 +107,33 @@ public class OrderDAOImpl implements OrderDAO {
             return null;
         }
     }
+
+    /**
+     * List the orders which are not yet payed, while their reproduction is still awaiting payment,
+     * ordered by id. Uses keyset pagination: the next page starts after the last order of the previous page.
+     *
+     * @param afterId    The id of the last order of the previous page, or 0 for the first page.
+     * @param maxResults The max number of orders to fetch.
+     * @return A list of Orders.
+     */
+    public List<Order> listAwaitingPayment(long afterId, int maxResults) {
+        CriteriaBuilder cb = getCriteriaBuilder();
+        CriteriaQuery<Order> query = cb.createQuery(Order.class);
+
+        Root<Order> oRoot = query.from(Order.class);
+        Join<Order, Reproduction> rJoin = oRoot.join(Order_.reproduction);
+        query.select(oRoot);
+        query.where(cb.and(
+                cb.greaterThan(oRoot.get(Order_.id), afterId),
+                cb.equal(oRoot.get(Order_.payed), Order.ORDER_NOT_PAYED),
+                rJoin.get(Reproduction_.status).in(Reproduction.Status.HAS_ORDER_DETAILS,
+                        Reproduction.Status.CONFIRMED)
+        ));
+        query.orderBy(cb.asc(oRoot.get(Order_.id)));
+
+        return entityManager
+                .createQuery(query)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
 }
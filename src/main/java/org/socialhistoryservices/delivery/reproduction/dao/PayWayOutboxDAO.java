@@ -0,0 +1,69 @@
+package org.socialhistoryservices.delivery.reproduction.dao;
+
+import org.socialhistoryservices.delivery.reproduction.entity.PayWayOutboxMessage;
+import org.socialhistoryservices.delivery.reproduction.entity.Reproduction;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Interface representing the Data Access object of the PayWay outbox.
+ */
+public interface PayWayOutboxDAO {
+    /**
+     * Add a PayWayOutboxMessage to the database.
+     *
+     * @param obj PayWayOutboxMessage to add.
+     */
+    void add(PayWayOutboxMessage obj);
+
+    /**
+     * Save changes to a PayWayOutboxMessage in the database.
+     *
+     * @param obj PayWayOutboxMessage to save.
+     */
+    void save(PayWayOutboxMessage obj);
+
+    /**
+     * Retrieve the PayWayOutboxMessage matching the given Id.
+     *
+     * @param id Id of the PayWayOutboxMessage to retrieve.
+     * @return The PayWayOutboxMessage matching the Id.
+     */
+    PayWayOutboxMessage getById(int id);
+
+    /**
+     * Retrieve the PayWayOutboxMessage matching the given idempotency key.
+     *
+     * @param idempotencyKey The idempotency key.
+     * @return The PayWayOutboxMessage matching the key, or null if not found.
+     */
+    PayWayOutboxMessage getByIdempotencyKey(String idempotencyKey);
+
+    /**
+     * List the ids of the pending messages which are due to be sent, the oldest first.
+     *
+     * @param now        The current date.
+     * @param maxResults The max number of ids to fetch.
+     * @return A list of ids.
+     */
+    List<Integer> listDueIds(Date now, int maxResults);
+
+    /**
+     * Claim a pending message which is due to be sent, by moving its next attempt to the given date.
+     * Only one worker can claim the message, a message of a worker which died is due again after the lease.
+     *
+     * @param id         Id of the PayWayOutboxMessage to claim.
+     * @param now        The current date.
+     * @param leaseUntil The date until which the message is claimed.
+     * @return Whether the message was claimed.
+     */
+    boolean claim(int id, Date now, Date leaseUntil);
+
+    /**
+     * Remove all PayWayOutboxMessages of the given reproduction.
+     *
+     * @param reproduction The reproduction.
+     */
+    void removeByReproduction(Reproduction reproduction);
+}
@@ -0,0 +1,144 @@
+package org.socialhistoryservices.delivery.reproduction.dao;
+
+import org.socialhistoryservices.delivery.reproduction.entity.PayWayOutboxMessage;
+import org.socialhistoryservices.delivery.reproduction.entity.PayWayOutboxMessage_;
+import org.socialhistoryservices.delivery.reproduction.entity.Reproduction;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.*;
+import javax.persistence.criteria.*;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Represents the Data Access object of the PayWay outbox.
+ */
+@Repository
+public class PayWayOutboxDAOImpl implements PayWayOutboxDAO {
+    private EntityManager entityManager;
+
+    /**
+     * Set the entity manager to use in this DAO, internal.
+     *
+     * @param entityManager The manager.
+     */
+    @PersistenceContext
+    private void setEntityManager(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * Add a PayWayOutboxMessage to the database.
+     *
+     * @param obj PayWayOutboxMessage to add.
+     */
+    public void add(PayWayOutboxMessage obj) {
+        entityManager.persist(obj);
+    }
+
+    /**
+     * Save changes to a PayWayOutboxMessage in the database.
+     *
+     * @param obj PayWayOutboxMessage to save.
+     */
+    public void save(PayWayOutboxMessage obj) {
+        entityManager.merge(obj);
+    }
+
+    /**
+     * Retrieve the PayWayOutboxMessage matching the given Id.
+     *
+     * @param id Id of the PayWayOutboxMessage to retrieve.
+     * @return The PayWayOutboxMessage matching the Id.
+     */
+    public PayWayOutboxMessage getById(int id) {
+        return entityManager.find(PayWayOutboxMessage.class, id);
+    }
+
+    /**
+     * Retrieve the PayWayOutboxMessage matching the given idempotency key.
+     *
+     * @param idempotencyKey The idempotency key.
+     * @return The PayWayOutboxMessage matching the key, or null if not found.
+     */
+    public PayWayOutboxMessage getByIdempotencyKey(String idempotencyKey) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<PayWayOutboxMessage> query = cb.createQuery(PayWayOutboxMessage.class);
+
+        Root<PayWayOutboxMessage> mRoot = query.from(PayWayOutboxMessage.class);
+        query.select(mRoot);
+        query.where(cb.equal(mRoot.get(PayWayOutboxMessage_.idempotencyKey), idempotencyKey));
+
+        try {
+            return entityManager.createQuery(query).getSingleResult();
+        }
+        catch (NoResultException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * List the ids of the pending messages which are due to be sent, the oldest first.
+     *
+     * @param now        The current date.
+     * @param maxResults The max number of ids to fetch.
+     * @return A list of ids.
+     */
+    public List<Integer> listDueIds(Date now, int maxResults) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Integer> query = cb.createQuery(Integer.class);
+
+        Root<PayWayOutboxMessage> mRoot = query.from(PayWayOutboxMessage.class);
+        query.select(mRoot.get(PayWayOutboxMessage_.id));
+        query.where(cb.and(
+                cb.equal(mRoot.get(PayWayOutboxMessage_.status), PayWayOutboxMessage.Status.PENDING),
+                cb.lessThanOrEqualTo(mRoot.get(PayWayOutboxMessage_.nextAttempt), now)
+        ));
+        query.orderBy(cb.asc(mRoot.get(PayWayOutboxMessage_.nextAttempt)));
+
+        return entityManager
+                .createQuery(query)
+                .setMaxResults(maxResults)
+                .getResultList();
+    }
+
+    /**
+     * Claim a pending message which is due to be sent, by moving its next attempt to the given date.
+     * Only one worker can claim the message, a message of a worker which died is due again after the lease.
+     *
+     * @param id         Id of the PayWayOutboxMessage to claim.
+     * @param now        The current date.
+     * @param leaseUntil The date until which the message is claimed.
+     * @return Whether the message was claimed.
+     */
+    public boolean claim(int id, Date now, Date leaseUntil) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<PayWayOutboxMessage> update = cb.createCriteriaUpdate(PayWayOutboxMessage.class);
+
+        Root<PayWayOutboxMessage> mRoot = update.from(PayWayOutboxMessage.class);
+        update.set(mRoot.get(PayWayOutboxMessage_.nextAttempt), leaseUntil);
+        update.set(mRoot.get(PayWayOutboxMessage_.attempts), cb.sum(mRoot.get(PayWayOutboxMessage_.attempts), 1));
+        update.where(cb.and(
+                cb.equal(mRoot.get(PayWayOutboxMessage_.id), id),
+                cb.equal(mRoot.get(PayWayOutboxMessage_.status), PayWayOutboxMessage.Status.PENDING),
+                cb.lessThanOrEqualTo(mRoot.get(PayWayOutboxMessage_.nextAttempt), now)
+        ));
+
+        return entityManager.createQuery(update).executeUpdate() == 1;
+    }
+
+    /**
+     * Remove all PayWayOutboxMessages of the given reproduction.
+     *
+     * @param reproduction The reproduction.
+     */
+    public void removeByReproduction(Reproduction reproduction) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaDelete<PayWayOutboxMessage> delete = cb.createCriteriaDelete(PayWayOutboxMessage.class);
+
+        Root<PayWayOutboxMessage> mRoot = delete.from(PayWayOutboxMessage.class);
+        delete.where(cb.equal(mRoot.get(PayWayOutboxMessage_.reproduction), reproduction));
+
+        entityManager.createQuery(delete).executeUpdate();
+    }
+}
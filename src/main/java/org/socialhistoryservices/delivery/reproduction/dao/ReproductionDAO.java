@@ -6,7 +6,9 @@ import org.socialhistoryservices.delivery.reproduction.entity.Reproduction;
 import javax.persistence.Tuple;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Interface representing the Data Access object of a reproduction.
@@ -80,6 +82,22 @@ public interface ReproductionDAO {
      */
     Reproduction getActiveFor(Holding h);
 
+    /**
+     * Get the active reproductions relating to the given Holdings.
+     *
+     * @param holdings Holdings to find the reproductions for.
+     * @return The active reproductions, by id of the Holding; Holdings without one are left out.
+     */
+    Map<Integer, Reproduction> getActiveFor(Collection<Holding> holdings);
+
+    /**
+     * Find the active reproductions relating to the given Holdings from the holding reproductions.
+     *
+     * @param holdings Holdings to find the reproductions for.
+     * @return The active reproductions, by id of the Holding; Holdings without one are left out.
+     */
+    Map<Integer, Reproduction> findActiveFor(Collection<Holding> holdings);
+
     /**
      * Check whether there are any reproductions made on the holding.
      *
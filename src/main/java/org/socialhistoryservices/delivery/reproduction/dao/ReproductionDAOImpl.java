@@ -1,5 +1,6 @@
 package org.socialhistoryservices.delivery.reproduction.dao;
 
+import org.hibernate.Session;
 import org.socialhistoryservices.delivery.record.entity.Holding;
 import org.socialhistoryservices.delivery.record.entity.Holding_;
 import org.socialhistoryservices.delivery.reproduction.entity.HoldingReproduction;
@@ -10,7 +11,7 @@ import org.springframework.stereotype.Repository;
 
 import javax.persistence.*;
 import javax.persistence.criteria.*;
-import java.util.List;
+import java.util.*;
 
 /**
  * Represents the Data Access object of a reproduction.
@@ -126,27 +127,78 @@ public class ReproductionDAOImpl implements ReproductionDAO {
      * @return The active reproduction, null if none exist.
      */
     public Reproduction getActiveFor(Holding h) {
+        Integer id = h.getActiveReproductionId();
+        return (id != null) ? getById(id) : null;
+    }
+
+    /**
+     * Get the active reproductions relating to the given Holdings.
+     *
+     * @param holdings Holdings to find the reproductions for.
+     * @return The active reproductions, by id of the Holding; Holdings without one are left out.
+     */
+    public Map<Integer, Reproduction> getActiveFor(Collection<Holding> holdings) {
+        Map<Integer, Reproduction> activeFor = new HashMap<>();
+
+        Set<Integer> ids = new HashSet<>();
+        for (Holding holding : holdings) {
+            if (holding.getActiveReproductionId() != null)
+                ids.add(holding.getActiveReproductionId());
+        }
+        if (ids.isEmpty())
+            return activeFor;
+
+        // Reproductions already in the persistence context are not queried again
+        Map<Integer, Reproduction> reproductions = new HashMap<>();
+        for (Reproduction reproduction : entityManager.unwrap(Session.class)
+                .byMultipleIds(Reproduction.class).multiLoad(new ArrayList<>(ids))) {
+            if (reproduction != null)
+                reproductions.put(reproduction.getId(), reproduction);
+        }
+
+        for (Holding holding : holdings) {
+            Reproduction reproduction = reproductions.get(holding.getActiveReproductionId());
+            if (reproduction != null)
+                activeFor.put(holding.getId(), reproduction);
+        }
+        return activeFor;
+    }
+
+    /**
+     * Find the active reproductions relating to the given Holdings from the holding reproductions.
+     *
+     * @param holdings Holdings to find the reproductions for.
+     * @return The active reproductions, by id of the Holding; Holdings without one are left out.
+     */
+    public Map<Integer, Reproduction> findActiveFor(Collection<Holding> holdings) {
+        Map<Integer, Reproduction> activeFor = new HashMap<>();
+        if (holdings.isEmpty())
+            return activeFor;
+
+        Set<Integer> holdingIds = new HashSet<>();
+        for (Holding holding : holdings) {
+            holdingIds.add(holding.getId());
+        }
+
         CriteriaBuilder cb = getCriteriaBuilder();
-        CriteriaQuery<Reproduction> cq = cb.createQuery(Reproduction.class);
+        CriteriaQuery<Tuple> cq = cb.createTupleQuery();
         Root<Reproduction> rRoot = cq.from(Reproduction.class);
-        cq.select(rRoot);
 
         Join<Reproduction, HoldingReproduction> hrRoot = rRoot.join(Reproduction_.holdingReproductions);
         Join<HoldingReproduction, Holding> hRoot = hrRoot.join(HoldingReproduction_.holding);
-        Expression<Boolean> where = cb.equal(hRoot.get(Holding_.id), h.getId());
-        where = cb.and(where, cb.equal(hrRoot.get(HoldingReproduction_.completed), false));
+        cq.multiselect(hRoot.get(Holding_.id), rRoot);
 
-        cq.where(where);
+        cq.where(cb.and(
+                hRoot.get(Holding_.id).in(holdingIds),
+                cb.equal(hrRoot.get(HoldingReproduction_.completed), false)
+        ));
         cq.orderBy(cb.asc(rRoot.get(Reproduction_.creationDate)));
 
-        try {
-            TypedQuery<Reproduction> q = entityManager.createQuery(cq);
-            q.setMaxResults(1);
-            return q.getSingleResult();
-        }
-        catch (NoResultException ex) {
-            return null;
+        // The reproduction with the earliest creation date is the active reproduction of a holding
+        for (Tuple tuple : entityManager.createQuery(cq).getResultList()) {
+            activeFor.putIfAbsent(tuple.get(0, Integer.class), tuple.get(1, Reproduction.class));
         }
+        return activeFor;
     }
 
     /**
@@ -0,0 +1,296 @@
+package org.socialhistoryservices.delivery.reproduction.entity;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.socialhistoryservices.delivery.api.PayWayMessage;
+import org.springframework.beans.factory.annotation.Configurable;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.Date;
+
+/**
+ * PayWayOutboxMessage object representing a message to PayWay which is yet to be sent.
+ * The message is stored in the same transaction as the change which requires it,
+ * and is sent (and retried) in the background.
+ */
+@Entity
+@Table(name = "payway_outbox", indexes = {@Index(columnList = "status, next_attempt", name = "payway_outbox_due_idx")})
+@Configurable
+public class PayWayOutboxMessage {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * The operations to send to PayWay.
+     */
+    public enum Operation {
+        CREATE_ORDER("createOrder"),
+        REFUND_PAYMENT("refundPayment");
+
+        private final String apiName;
+
+        Operation(String apiName) {
+            this.apiName = apiName;
+        }
+
+        /**
+         * Get the name of the operation in the PayWay API.
+         *
+         * @return The name of the API.
+         */
+        public String getApiName() {
+            return apiName;
+        }
+    }
+
+    /**
+     * The statuses of a message.
+     */
+    public enum Status {
+        PENDING,
+        SENT,
+        FAILED
+    }
+
+    /**
+     * The PayWayOutboxMessage's id.
+     */
+    @Id
+    @GeneratedValue
+    @Column(name = "id")
+    private int id;
+
+    /**
+     * Get the PayWayOutboxMessage's id.
+     *
+     * @return the PayWayOutboxMessage's id.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Set the PayWayOutboxMessage's id.
+     *
+     * @param id the PayWayOutboxMessage's id.
+     */
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    @NotNull
+    @Size(max = 100)
+    @Column(name = "idempotency_key", nullable = false, unique = true)
+    private String idempotencyKey;
+
+    /**
+     * Get the key which identifies the operation, so it is only placed in the outbox once.
+     *
+     * @return The idempotency key.
+     */
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    /**
+     * Set the key which identifies the operation, so it is only placed in the outbox once.
+     *
+     * @param idempotencyKey The idempotency key.
+     */
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    @Column(name = "operation", nullable = false)
+    private Operation operation;
+
+    /**
+     * Get the operation.
+     *
+     * @return The operation.
+     */
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Set the operation.
+     *
+     * @param operation The operation.
+     */
+    public void setOperation(Operation operation) {
+        this.operation = operation;
+    }
+
+    @NotNull
+    @Size(max = 2000)
+    @Column(name = "payload", nullable = false, length = 2000)
+    private String payload;
+
+    /**
+     * Get the message to send to PayWay.
+     *
+     * @return The message.
+     */
+    public PayWayMessage getMessage() {
+        try {
+            return OBJECT_MAPPER.readValue(payload, PayWayMessage.class);
+        }
+        catch (JsonProcessingException jpe) {
+            throw new IllegalStateException(jpe);
+        }
+    }
+
+    /**
+     * Set the message to send to PayWay.
+     *
+     * @param message The message.
+     */
+    public void setMessage(PayWayMessage message) {
+        try {
+            payload = OBJECT_MAPPER.writeValueAsString(message);
+        }
+        catch (JsonProcessingException jpe) {
+            throw new IllegalArgumentException(jpe);
+        }
+    }
+
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    private Status status = Status.PENDING;
+
+    /**
+     * Get the status.
+     *
+     * @return The status.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Set the status.
+     *
+     * @param status The status.
+     */
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    /**
+     * Get the number of attempts to send the message.
+     *
+     * @return The number of attempts.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Set the number of attempts to send the message.
+     *
+     * @param attempts The number of attempts.
+     */
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    @NotNull
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "next_attempt", nullable = false)
+    private Date nextAttempt;
+
+    /**
+     * Get the date from which the message may be sent (again).
+     *
+     * @return The date of the next attempt.
+     */
+    public Date getNextAttempt() {
+        return nextAttempt;
+    }
+
+    /**
+     * Set the date from which the message may be sent (again).
+     *
+     * @param nextAttempt The date of the next attempt.
+     */
+    public void setNextAttempt(Date nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+
+    @Size(max = 255)
+    @Column(name = "last_error")
+    private String lastError;
+
+    /**
+     * Get the error of the last failed attempt.
+     *
+     * @return The error.
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Set the error of the last failed attempt.
+     *
+     * @param lastError The error.
+     */
+    public void setLastError(String lastError) {
+        this.lastError = ((lastError != null) && (lastError.length() > 255))
+                ? lastError.substring(0, 255) : lastError;
+    }
+
+    @NotNull
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "creation_date", nullable = false)
+    private Date creationDate;
+
+    /**
+     * Get the creation date.
+     *
+     * @return The creation date.
+     */
+    public Date getCreationDate() {
+        return creationDate;
+    }
+
+    /**
+     * Set the creation date.
+     *
+     * @param creationDate The creation date.
+     */
+    public void setCreationDate(Date creationDate) {
+        this.creationDate = creationDate;
+    }
+
+    @NotNull
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "reproduction_id", nullable = false)
+    private Reproduction reproduction;
+
+    /**
+     * Get the reproduction the message is about.
+     *
+     * @return The reproduction.
+     */
+    public Reproduction getReproduction() {
+        return reproduction;
+    }
+
+    /**
+     * Set the reproduction the message is about.
+     *
+     * @param reproduction The reproduction.
+     */
+    public void setReproduction(Reproduction reproduction) {
+        this.reproduction = reproduction;
+    }
+}
@@ -0,0 +1,154 @@
+package org.socialhistoryservices.delivery.reproduction.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socialhistoryservices.delivery.config.DeliveryProperties;
+import org.socialhistoryservices.delivery.reproduction.entity.Order;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Refreshes orders from PayWay in the background, on a bounded executor.
+ * Also reconciles the orders awaiting payment with PayWay on a schedule,
+ * in case a refresh failed or a message of PayWay never arrived.
+ */
+@Component
+public class OrderRefresher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OrderRefresher.class);
+
+    @Autowired
+    @Lazy
+    private ReproductionService reproductions;
+
+    @Autowired
+    private DeliveryProperties deliveryProperties;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter refreshedCounter;
+    private final Counter failedCounter;
+    private ExecutorService executor;
+
+    @Autowired
+    public OrderRefresher(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        refreshedCounter = Counter.builder("delivery.payway.orders.refresh")
+                .tag("result", "refreshed")
+                .register(meterRegistry);
+        failedCounter = Counter.builder("delivery.payway.orders.refresh")
+                .tag("result", "failed")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    private void init() {
+        // When saturated, the requesting thread performs the refresh itself
+        int threads = deliveryProperties.getPayWayRefreshThreads();
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 50), new CustomizableThreadFactory("payway-refresh-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        executor = ExecutorServiceMetrics.monitor(meterRegistry, threadPoolExecutor, "payWayRefresh");
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Refreshes the order with the given id in the background, once the current transaction is committed.
+     *
+     * @param orderId The id of the order.
+     */
+    public void refreshAfterCommit(long orderId) {
+        afterCommit(() -> refresh(orderId));
+    }
+
+    /**
+     * Scheduled task to refresh all orders awaiting payment from PayWay, in batches.
+     */
+    @Scheduled(cron = "0 */30 * * * *")
+    public void reconcileOrders() {
+        LOGGER.info("Start run: reconcile orders awaiting payment");
+
+        int batchSize = deliveryProperties.getPayWayReconcileBatchSize();
+        int processed = 0;
+        long lastId = 0;
+        List<Order> batch;
+        while (!(batch = reproductions.listOrdersAwaitingPayment(lastId, batchSize)).isEmpty()) {
+            List<Future<?>> refreshes = new ArrayList<>();
+            for (Order order : batch) {
+                long orderId = order.getId();
+                refreshes.add(executor.submit(() -> refresh(orderId)));
+            }
+
+            for (Future<?> refresh : refreshes) {
+                try {
+                    refresh.get();
+                }
+                catch (ExecutionException ex) {
+                    LOGGER.warn("reconcileOrders(): Failed to refresh an order", ex.getCause());
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    refreshes.forEach(f -> f.cancel(true));
+                    return;
+                }
+            }
+
+            processed += batch.size();
+            lastId = batch.get(batch.size() - 1).getId();
+        }
+
+        LOGGER.info(String.format("Finish run: reconcile orders awaiting payment, %d orders processed", processed));
+    }
+
+    /**
+     * Refreshes the order with the given id from PayWay.
+     *
+     * @param orderId The id of the order.
+     */
+    private void refresh(long orderId) {
+        Order order = reproductions.getOrderById(orderId);
+        if ((order != null) && (reproductions.refreshOrder(order) != null)) {
+            refreshedCounter.increment();
+        }
+        else {
+            failedCounter.increment();
+        }
+    }
+
+    /**
+     * Runs the given task on the executor once the current transaction is committed,
+     * or right away if there is no transaction.
+     *
+     * @param task The task.
+     */
+    private void afterCommit(Runnable task) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            executor.execute(task);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                executor.execute(task);
+            }
+        });
+    }
+}
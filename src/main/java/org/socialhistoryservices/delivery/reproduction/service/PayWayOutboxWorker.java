@@ -0,0 +1,187 @@
+package org.socialhistoryservices.delivery.reproduction.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socialhistoryservices.delivery.api.InvalidPayWayMessageException;
+import org.socialhistoryservices.delivery.api.PayWayMessage;
+import org.socialhistoryservices.delivery.api.PayWayService;
+import org.socialhistoryservices.delivery.config.DeliveryProperties;
+import org.socialhistoryservices.delivery.reproduction.entity.PayWayOutboxMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Sends the messages in the PayWay outbox in the background, on a bounded executor.
+ * A message is sent right after the transaction which placed it in the outbox is committed;
+ * failed messages are retried with an exponential backoff by a scheduled task, up to a maximum number of attempts.
+ * PayWay is called outside of any transaction, so a slow PayWay holds neither a database connection
+ * nor a request thread.
+ */
+@Component
+public class PayWayOutboxWorker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PayWayOutboxWorker.class);
+
+    // Well beyond the timeouts of the PayWay client; a message claimed by a worker which died is sent again after
+    private static final long LEASE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final int BATCH_SIZE = 100;
+
+    @Autowired
+    @Lazy
+    private ReproductionService reproductions;
+
+    @Autowired
+    private PayWayService payWayService;
+
+    @Autowired
+    private DeliveryProperties deliveryProperties;
+
+    private final MeterRegistry meterRegistry;
+    private ExecutorService executor;
+
+    @Autowired
+    public PayWayOutboxWorker(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    private void init() {
+        int threads = deliveryProperties.getPayWayOutboxThreads();
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 50), new CustomizableThreadFactory("payway-outbox-"));
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        executor = ExecutorServiceMetrics.monitor(meterRegistry, threadPoolExecutor, "payWayOutbox");
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Sends the message of the outbox with the given id in the background,
+     * once the current transaction is committed.
+     *
+     * @param id The id of the message.
+     */
+    public void sendAfterCommit(int id) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            trySend(id);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                trySend(id);
+            }
+        });
+    }
+
+    /**
+     * Sends the message of the outbox with the given id in the background, if the executor is not saturated.
+     * Otherwise the message is left to the scheduled task, rather than blocking the requesting thread.
+     *
+     * @param id The id of the message.
+     */
+    private void trySend(int id) {
+        try {
+            executor.execute(() -> send(id));
+        }
+        catch (RejectedExecutionException ree) {
+            LOGGER.debug(String.format("trySend(): Message %d left to the scheduled task", id));
+        }
+    }
+
+    /**
+     * Scheduled task to send the messages of the outbox which are due, including the retries.
+     */
+    @Scheduled(fixedDelay = 30000)
+    public void sendDueMessages() {
+        List<Integer> ids;
+        while (!(ids = reproductions.listDuePayWayMessages(BATCH_SIZE)).isEmpty()) {
+            LOGGER.debug(String.format("sendDueMessages(): Sending %d messages to PayWay", ids.size()));
+
+            List<Future<?>> sends = new ArrayList<>();
+            boolean saturated = false;
+            for (int id : ids) {
+                try {
+                    sends.add(executor.submit(() -> send(id)));
+                }
+                catch (RejectedExecutionException ree) {
+                    saturated = true;
+                    break;
+                }
+            }
+
+            for (Future<?> send : sends) {
+                try {
+                    send.get();
+                }
+                catch (CancellationException | ExecutionException ex) {
+                    // Left for the next run
+                }
+                catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    sends.forEach(f -> f.cancel(true));
+                    return;
+                }
+            }
+
+            // Messages which failed again are only due after their backoff; leave the rest for the next run
+            if (saturated || (ids.size() < BATCH_SIZE))
+                break;
+        }
+    }
+
+    /**
+     * Sends the message of the outbox with the given id to PayWay, if it can be claimed.
+     *
+     * @param id The id of the message.
+     */
+    private void send(int id) {
+        PayWayOutboxMessage message = reproductions.claimPayWayMessage(id,
+                new Date(System.currentTimeMillis() + LEASE_MILLIS));
+        if (message == null)
+            return;
+
+        String apiName = message.getOperation().getApiName();
+        try {
+            PayWayMessage response = payWayService.send(apiName, message.getMessage());
+            reproductions.completePayWayMessage(id, response);
+            meterRegistry.counter("delivery.payway.outbox", "operation", apiName, "result", "sent").increment();
+        }
+        catch (InvalidPayWayMessageException ipwme) {
+            LOGGER.warn(String.format("send(): Attempt %d to send %s to PayWay failed",
+                    message.getAttempts(), apiName), ipwme);
+
+            Date nextAttempt = null;
+            if (message.getAttempts() < deliveryProperties.getPayWayOutboxMaxAttempts()) {
+                long backoff = TimeUnit.SECONDS.toMillis(deliveryProperties.getPayWayOutboxRetrySeconds())
+                        << Math.min(message.getAttempts() - 1, 16);
+                nextAttempt = new Date(System.currentTimeMillis() + backoff);
+            }
+
+            reproductions.failPayWayMessage(id, String.valueOf(ipwme.getMessage()), nextAttempt);
+            meterRegistry.counter("delivery.payway.outbox", "operation", apiName,
+                    "result", (nextAttempt != null) ? "retry" : "failed").increment();
+        }
+        catch (RuntimeException re) {
+            // The message is sent again once its lease expires
+            LOGGER.error(String.format("send(): Failed to process the message %d to PayWay", id), re);
+        }
+    }
+}
@@ -183,12 +183,17 @@ public class ReproductionMailer extends RequestMailer {
         String sorAccessToken = deliveryProperties.getSorAccessToken();
         Map<String, List<String>> urlsForHolding = new HashMap<>();
 
+        // Obtain the metadata from the SOR for all holdings at once
+        List<String> pids = new ArrayList<>();
+        for (HoldingReproduction hr : hrs)
+            pids.add(hr.getHolding().determinePid());
+        Map<String, SorMetadata> sorMetadataByPid = sorService.getMetadataForPids(pids);
+
         for (HoldingReproduction hr : hrs) {
             List<String> urls = new ArrayList<>();
             Holding holding = hr.getHolding();
 
-            // Obtain the metadata from the SOR
-            SorMetadata sorMetadata = sorService.getMetadataForPid(holding.determinePid());
+            SorMetadata sorMetadata = sorMetadataByPid.get(holding.determinePid());
             ReproductionStandardOption.Level level = hr.getStandardOption().getLevel();
 
             // Determine the URLs based on their material type and content
@@ -1,5 +1,6 @@
 package org.socialhistoryservices.delivery.reproduction.service;
 
+import org.socialhistoryservices.delivery.api.PayWayMessage;
 import org.socialhistoryservices.delivery.record.entity.Holding;
 import org.socialhistoryservices.delivery.record.entity.Record;
 import org.socialhistoryservices.delivery.reproduction.entity.*;
@@ -12,9 +13,10 @@ import javax.persistence.Tuple;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import java.awt.print.PrinterException;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Future;
 
 /**
  * Interface representing the service of the Reproduction package.
@@ -183,6 +185,14 @@ public interface ReproductionService {
      */
     boolean hasOrderDetails(Reproduction reproduction);
 
+    /**
+     * Look up the SOR metadata of multiple holdings which are about to be checked for their availability
+     * in the SOR, concurrently. The SOR service caches the results for the subsequent checks.
+     *
+     * @param holdings The holdings.
+     */
+    void prefetchSorMetadata(Collection<Holding> holdings);
+
     /**
      * Returns standard options for the given holding which are NOT available in the SOR.
      *
@@ -216,33 +226,87 @@ public interface ReproductionService {
 
     /**
      * Creates an order for the given reproduction.
+     * The registration of the order in PayWay is placed in the outbox and sent in the background,
+     * a registration which failed before is retried.
+     *
+     * @param r The reproduction.
+     * @return The registered order, or null if the order is not registered in PayWay yet.
+     * @throws IncompleteOrderDetailsException Thrown when not all holdings have an order ready.
+     */
+    Order createOrder(Reproduction r) throws IncompleteOrderDetailsException;
+
+    /**
+     * Returns the status of the registration of the order of the given reproduction in PayWay.
      *
      * @param r The reproduction.
-     * @return The created and registered order. (Or null if the reproduction is for free)
-     * @throws IncompleteOrderDetailsException   Thrown when not all holdings have an order ready.
-     * @throws OrderRegistrationFailureException Thrown in case we failed to register the order in PayWay.
+     * @return The status of the registration, or null if no order was created yet.
      */
-    Order createOrder(Reproduction r) throws IncompleteOrderDetailsException, OrderRegistrationFailureException;
+    PayWayOutboxMessage.Status getOrderRegistrationStatus(Reproduction r);
 
     /**
      * Will refresh the given order by retrieving the order details from PayWay.
-     * The API call is performed in a seperate thread and
-     * a Future object is returned to see when and whether the refresh was succesful.
+     * Use the OrderRefresher to refresh an order in the background instead.
      *
      * @param order The order to refresh. The id must be set.
-     * @return A Future object that will return the refreshed Order when succesful.
+     * @return The refreshed Order when succesful, otherwise null.
      */
-    Future<Order> refreshOrder(Order order);
+    Order refreshOrder(Order order);
 
     /**
-     * Will refund everything for the given order. (NOTE: Only marked as such in PayWay)
-     * The API call is performed in a seperate thread and
-     * a Future object is returned to see when and whether the refund was succesful.
+     * Will refund everything for the given order, if payed. (NOTE: Only marked as such in PayWay)
+     * The refund is placed in the outbox and sent in the background. As PayWay does not refuse a second refund,
+     * it is sent at most once only as far as the order refreshed from PayWay tells whether it was refunded:
+     * a refund sent again is first checked against the refreshed order, see claimPayWayMessage.
      *
      * @param order The order to refund. The id must be set.
-     * @return A Future object that will return the order when succesful.
      */
-    Future<Order> refundOrder(Order order);
+    void refundOrder(Order order);
+
+    /**
+     * List the ids of the messages in the PayWay outbox which are due to be sent.
+     *
+     * @param maxResults The max number of ids to fetch.
+     * @return A list of ids.
+     */
+    List<Integer> listDuePayWayMessages(int maxResults);
+
+    /**
+     * Claim a message in the PayWay outbox to send it.
+     * A refund is not sent if the order is refunded already; if it is sent again,
+     * the order is refreshed from PayWay first, and the refund is postponed if that fails.
+     *
+     * @param id         The id of the message.
+     * @param leaseUntil The date until which the message is claimed, after which it is due again.
+     * @return The message, or null if it could not be claimed or no longer has to be sent.
+     */
+    PayWayOutboxMessage claimPayWayMessage(int id, Date leaseUntil);
+
+    /**
+     * Process the response of PayWay to a message of the outbox, and mark the message as sent.
+     *
+     * @param id       The id of the message.
+     * @param response The response of PayWay.
+     */
+    void completePayWayMessage(int id, PayWayMessage response);
+
+    /**
+     * Record a failed attempt to send a message of the outbox.
+     *
+     * @param id          The id of the message.
+     * @param error       The error.
+     * @param nextAttempt The date of the next attempt, or null to give up on the message.
+     */
+    void failPayWayMessage(int id, String error, Date nextAttempt);
+
+    /**
+     * List the orders which are not yet payed, while their reproduction is still awaiting payment,
+     * ordered by id. Uses keyset pagination: the next page starts after the last order of the previous page.
+     *
+     * @param afterId    The id of the last order of the previous page, or 0 for the first page.
+     * @param maxResults The max number of orders to fetch.
+     * @return A list of Orders.
+     */
+    List<Order> listOrdersAwaitingPayment(long afterId, int maxResults);
 
     /**
      * Returns whether the record accepts the standard reproduction option.
@@ -336,4 +400,12 @@ public interface ReproductionService {
      * @return The active reproduction, or null if no active reproduction exists.
      */
     Reproduction getActiveFor(Holding h);
+
+    /**
+     * Returns the active reproductions with which the given holdings are associated.
+     *
+     * @param holdings The Holdings to get the active reproductions of.
+     * @return The active reproductions, by id of the Holding; Holdings without an active reproduction are left out.
+     */
+    Map<Integer, Reproduction> getActiveFor(Collection<Holding> holdings);
 }
@@ -17,14 +17,15 @@ import org.socialhistoryservices.delivery.reproduction.util.ReproductionStandard
 import org.socialhistoryservices.delivery.request.entity.HoldingRequest;
 import org.socialhistoryservices.delivery.request.entity.Request;
 import org.socialhistoryservices.delivery.request.service.AbstractRequestService;
+import org.socialhistoryservices.delivery.request.service.ActiveRequestChecker;
 import org.socialhistoryservices.delivery.request.service.ClosedException;
 import org.socialhistoryservices.delivery.request.service.NoHoldingsException;
 import org.socialhistoryservices.delivery.request.service.RequestPrintable;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.mail.MailException;
 import org.springframework.scheduling.annotation.Async;
-import org.springframework.scheduling.annotation.AsyncResult;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -41,7 +42,6 @@ import java.awt.print.PrinterException;
 import java.math.BigDecimal;
 import java.text.DateFormat;
 import java.util.*;
-import java.util.concurrent.Future;
 
 /**
  * Represents the service of the reproduction package.
@@ -57,6 +57,9 @@ public class ReproductionServiceImpl extends AbstractRequestService implements R
     @Autowired
     private OrderDAO orderDAO;
 
+    @Autowired
+    private PayWayOutboxDAO payWayOutboxDAO;
+
     @Autowired
     private HoldingReproductionDAO holdingReproductionDAO;
 
@@ -69,12 +72,22 @@ public class ReproductionServiceImpl extends AbstractRequestService implements R
     @Autowired
     private PayWayService payWayService;
 
+    @Autowired
+    private OrderRefresher orderRefresher;
+
+    @Autowired
+    private PayWayOutboxWorker payWayOutboxWorker;
+
     @Autowired
     private SharedObjectRepositoryService sorService;
 
     @Autowired
     private ReproductionMailer reproductionMailer;
 
+    @Autowired
+    @Lazy
+    private ActiveRequestChecker activeRequestChecker;
+
     @Autowired
     private BeanFactory bf;
 
@@ -92,6 +105,7 @@ public class ReproductionServiceImpl extends AbstractRequestService implements R
 
         // Add to the database
         reproductionDAO.add(obj);
+        updateActiveFor(obj);
     }
 
     /**
@@ -104,7 +118,13 @@ public class ReproductionServiceImpl extends AbstractRequestService implements R
         // Note that we are in a transaction here, so it does not matter the records are still linked
         // to the reproduction when setting them to available.
         changeHoldingStatus(reproduction, Holding.Status.AVAILABLE);
+        payWayOutboxDAO.removeByReproduction(reproduction);
+
+        List<Holding> holdings = reproduction.getHoldings();
         reproductionDAO.remove(reproduction);
+        if (holdings != null) {
+            updateActiveFor(holdings);
+        }
     }
 
     /**
@@ -124,7 +144,9 @@ public class ReproductionServiceImpl extends AbstractRequestService implements R
      * @param obj Reproduction to save.
      */
     public Reproduction saveReproduction(Reproduction obj) {
-        return reproductionDAO.save(obj);
+        Reproduction saved = reproductionDAO.save(obj);
+        updateActiveFor(saved);
+        return saved;
     }
 
     /**
@@ -341,6 +363,9 @@ public class ReproductionServiceImpl extends AbstractRequestService implements R
      * @param other        The other reproduction.
      */
     public void merge(Reproduction reproduction, Reproduction other) {
+        // Holdings removed from the reproduction may no longer have it as their active reproduction
+        List<Holding> holdings = reproduction.getHoldings();
+
         reproduction.setCustomerName(other.getName());
         reproduction.setCustomerEmail(other.getEmail());
         reproduction.setDiscountPercentage(other.getDiscountPercentage());
@@ -366,6 +391,9 @@ public class ReproductionServiceImpl extends AbstractRequestService implements R
             addOrUpdateHoldingsProvidedByRequest(reproduction, other);
         }
         updateStatusAndAssociatedHoldingStatus(reproduction, other.getStatus());
+        if (holdings != null) {
+            updateActiveFor(holdings);
+        }
     }
 
     /**
@@ -412,6 +440,11 @@ public class ReproductionServiceImpl extends AbstractRequestService implements R
                 }
             }
         }
+
+        // A reproduction which is not added yet is taken into account once added
+        if (reproduction.getId() != 0) {
+            updateActiveFor(reproduction);
+        }
     }
 
     /**
@@ -541,6 +574,13 @@ public class ReproductionServiceImpl extends AbstractRequestService implements R
         // Only check for availability on new reproduction requests
         if (oldReproduction == null) {
             // Determine for all the item whether it is already available in the SOR
+            List<Holding> holdingsWithStandardOption = new ArrayList<>();
+            for (HoldingReproduction hr : newReproduction.getHoldingReproductions()) {
+                if (hr.getStandardOption() != null)
+                    holdingsWithStandardOption.add(hr.getHolding());
+            }
+            prefetchSorMetadata(holdingsWithStandardOption);
+
             for (HoldingReproduction hr : newReproduction.getHoldingReproductions()) {
                 hr.setInSor(isHoldingReproductionInSor(hr));
             }
@@ -686,6 +726,21 @@ public class ReproductionServiceImpl extends AbstractRequestService implements R
         }
     }
 
+    /**
+     * Look up the SOR metadata of multiple holdings which are about to be checked for their availability
+     * in the SOR, concurrently. The SOR service caches the results for the subsequent checks.
+     *
+     * @param holdings The holdings.
+     */
+    public void prefetchSorMetadata(Collection<Holding> holdings) {
+        Set<String> pids = new LinkedHashSet<>();
+        for (Holding holding : holdings)
+            pids.add(holding.determinePid());
+
+        if (pids.size() > 1)
+            sorService.getMetadataForPids(pids);
+    }
+
     /**
      * Returns standard options for the given holding which are NOT available in the SOR.
      *
@@ -902,12 +957,14 @@ public class ReproductionServiceImpl extends AbstractRequestService implements R
     /**
      * Creates an order for the given reproduction.
      *
+     * The registration of the order in PayWay is placed in the outbox and sent in the background,
+     * a registration which failed before is retried.
+     *
      * @param r The reproduction.
-     * @return The created and registered order. (Or null if the reproduction is for free)
-     * @throws IncompleteOrderDetailsException   Thrown when not all holdings have an order ready.
-     * @throws OrderRegistrationFailureException Thrown in case we failed to register the order in PayWay.
+     * @return The registered order, or null if the order is not registered in PayWay yet.
+     * @throws IncompleteOrderDetailsException Thrown when not all holdings have an order ready.
      */
-    public Order createOrder(Reproduction r) throws IncompleteOrderDetailsException, OrderRegistrationFailureException {
+    public Order createOrder(Reproduction r) throws IncompleteOrderDetailsException {
         if (!hasOrderDetails(r))
             throw new IncompleteOrderDetailsException();
 
@@ -922,8 +979,9 @@ public class ReproductionServiceImpl extends AbstractRequestService implements R
                 updateStatusAndAssociatedHoldingStatus(r, Reproduction.Status.COMPLETED);
         }
 
-        // First attempt to create and register a new order in PayWay
-        try {
+        // Check if we maybe already placed the registration in the outbox before
+        PayWayOutboxMessage registration = payWayOutboxDAO.getByIdempotencyKey(getOrderRegistrationKey(r));
+        if (registration == null) {
             // PayWay wants the amounts in number of cents
             BigDecimal price = r.getTotalPriceWithDiscount();
             long amount = price.movePointRight(2).longValue();
@@ -942,36 +1000,77 @@ public class ReproductionServiceImpl extends AbstractRequestService implements R
             message.put("com", "IISH reproduction " + r.getId());
             message.put("paymentmethod", PayWayMessage.ORDER_OGONE_PAYMENT);
 
-            PayWayMessage orderMessage = payWayService.send("createOrder", message);
+            addPayWayMessage(r, PayWayOutboxMessage.Operation.CREATE_ORDER, getOrderRegistrationKey(r), message);
+        }
+        else if (registration.getStatus() == PayWayOutboxMessage.Status.FAILED) {
+            LOGGER.info(String.format("createOrder(): Retrying the failed registration of the order of " +
+                    "reproduction %d", r.getId()));
+            registration.setStatus(PayWayOutboxMessage.Status.PENDING);
+            registration.setAttempts(0);
+            registration.setNextAttempt(new Date());
+            payWayOutboxDAO.save(registration);
+            payWayOutboxWorker.sendAfterCommit(registration.getId());
+        }
 
-            // We received an message from PayWay, so the order is registered
-            order = new Order();
-            order.setId(orderMessage.getLong("orderid"));
+        return null;
+    }
 
-            r.setOrder(order);
-            reproductionDAO.save(r);
+    /**
+     * Returns the status of the registration of the order of the given reproduction in PayWay.
+     *
+     * @param r The reproduction.
+     * @return The status of the registration, or null if no order was created yet.
+     */
+    public PayWayOutboxMessage.Status getOrderRegistrationStatus(Reproduction r) {
+        if (r.getOrder() != null)
+            return PayWayOutboxMessage.Status.SENT;
 
-            // Refresh the actual order details asynchronously
-            refreshOrder(order);
-        }
-        catch (InvalidPayWayMessageException ipwme) {
-            LOGGER.error("Invalid or no PayWay message received when registering a new order.", ipwme);
-            throw new OrderRegistrationFailureException(ipwme);
-        }
+        PayWayOutboxMessage registration = payWayOutboxDAO.getByIdempotencyKey(getOrderRegistrationKey(r));
+        return (registration != null) ? registration.getStatus() : null;
+    }
 
-        return order;
+    /**
+     * Returns the idempotency key of the registration of the order of the given reproduction.
+     *
+     * @param r The reproduction.
+     * @return The idempotency key.
+     */
+    private static String getOrderRegistrationKey(Reproduction r) {
+        return "createOrder:reproduction:" + r.getId();
+    }
+
+    /**
+     * Places a message to PayWay in the outbox, to be sent once the current transaction is committed.
+     *
+     * @param r              The reproduction the message is about.
+     * @param operation      The operation.
+     * @param idempotencyKey The key which identifies the operation.
+     * @param message        The message.
+     */
+    private void addPayWayMessage(Reproduction r, PayWayOutboxMessage.Operation operation,
+                                  String idempotencyKey, PayWayMessage message) {
+        Date now = new Date();
+
+        PayWayOutboxMessage outboxMessage = new PayWayOutboxMessage();
+        outboxMessage.setReproduction(r);
+        outboxMessage.setOperation(operation);
+        outboxMessage.setIdempotencyKey(idempotencyKey);
+        outboxMessage.setMessage(message);
+        outboxMessage.setCreationDate(now);
+        outboxMessage.setNextAttempt(now);
+        payWayOutboxDAO.add(outboxMessage);
+
+        payWayOutboxWorker.sendAfterCommit(outboxMessage.getId());
     }
 
     /**
      * Will refresh the given order by retrieving the order details from PayWay.
-     * The API call is performed in a seperate thread and
-     * a Future object is returned to see when and whether the refresh was succesful.
+     * Use the OrderRefresher to refresh an order in the background instead.
      *
      * @param order The order to refresh. The id must be set.
-     * @return A Future object that will return the refreshed Order when succesful.
+     * @return The refreshed Order when succesful, otherwise null.
      */
-    @Async
-    public Future<Order> refreshOrder(Order order) {
+    public Order refreshOrder(Order order) {
         try {
             PayWayMessage message = payWayService.getMessageForOrderId(order.getId());
             PayWayMessage orderDetails = payWayService.send("orderDetails", message);
@@ -979,40 +1078,170 @@ public class ReproductionServiceImpl extends AbstractRequestService implements R
             order.mapFromPayWayMessage(orderDetails);
             orderDAO.save(order);
 
-            return new AsyncResult<>(order);
+            return order;
         }
         catch (InvalidPayWayMessageException ivwme) {
             LOGGER.error(String.format("refreshOrder() : Failed to refresh the order with id %d", order.getId()));
-            return new AsyncResult<>(null);
+            return null;
         }
     }
 
     /**
-     * Will refund everything for the given order. (NOTE: Only marked as such in PayWay)
-     * The API call is performed in a seperate thread and
-     * a Future object is returned to see when and whether the refund was succesful.
+     * Will refund everything for the given order, if payed. (NOTE: Only marked as such in PayWay)
+     * The refund is placed in the outbox and sent in the background. As PayWay does not refuse a second refund,
+     * it is sent at most once only as far as the order refreshed from PayWay tells whether it was refunded:
+     * a refund sent again is first checked against the refreshed order, see claimPayWayMessage.
      *
      * @param order The order to refund. The id must be set.
-     * @return A Future object that will return the order when succesful.
      */
-    @Async
-    public Future<Order> refundOrder(Order order) {
-        try {
-            if ((order.getPayed() == Order.ORDER_PAYED) && (order.getAmount() > 0)) {
-                PayWayMessage message = payWayService.getMessageForOrderId(order.getId());
-                message.put("amount", order.getAmount());
-                payWayService.send("refundPayment", message);
-                refreshOrder(order);
+    public void refundOrder(Order order) {
+        if ((order.getPayed() != Order.ORDER_PAYED) || (order.getAmount() <= 0))
+            return;
+
+        String idempotencyKey = "refundPayment:order:" + order.getId();
+        if (payWayOutboxDAO.getByIdempotencyKey(idempotencyKey) != null)
+            return;
+
+        PayWayMessage message = payWayService.getMessageForOrderId(order.getId());
+        message.put("amount", order.getAmount());
+        addPayWayMessage(order.getReproduction(), PayWayOutboxMessage.Operation.REFUND_PAYMENT,
+                idempotencyKey, message);
+    }
+
+    /**
+     * List the ids of the messages in the PayWay outbox which are due to be sent.
+     *
+     * @param maxResults The max number of ids to fetch.
+     * @return A list of ids.
+     */
+    public List<Integer> listDuePayWayMessages(int maxResults) {
+        return payWayOutboxDAO.listDueIds(new Date(), maxResults);
+    }
+
+    /**
+     * Claim a message in the PayWay outbox to send it.
+     * A refund is not sent if the order is refunded already; if it is sent again,
+     * the order is refreshed from PayWay first, and the refund is postponed if that fails.
+     *
+     * @param id         The id of the message.
+     * @param leaseUntil The date until which the message is claimed, after which it is due again.
+     * @return The message, or null if it could not be claimed or no longer has to be sent.
+     */
+    public PayWayOutboxMessage claimPayWayMessage(int id, Date leaseUntil) {
+        if (!payWayOutboxDAO.claim(id, new Date(), leaseUntil))
+            return null;
+
+        // PayWay has no notion of idempotency keys, so make sure an order is registered only once
+        PayWayOutboxMessage message = payWayOutboxDAO.getById(id);
+        if ((message.getOperation() == PayWayOutboxMessage.Operation.CREATE_ORDER)
+                && (message.getReproduction().getOrder() != null)) {
+            message.setStatus(PayWayOutboxMessage.Status.SENT);
+            payWayOutboxDAO.save(message);
+            return null;
+        }
+
+        // Neither does PayWay refuse a second refund, so make sure an order is refunded only once:
+        // an earlier attempt may have reached PayWay without us knowing, so refresh the order before trying again
+        if (message.getOperation() == PayWayOutboxMessage.Operation.REFUND_PAYMENT) {
+            Order order = message.getReproduction().getOrder();
+            if ((message.getAttempts() > 1) && (refreshOrder(order) == null)) {
+                // Try again once the lease expires, rather than refunding without knowing whether it was refunded
+                message.setLastError("Failed to refresh the order before refunding it again");
+                payWayOutboxDAO.save(message);
+                return null;
             }
 
-            return new AsyncResult<>(order);
+            if (isRefunded(order)) {
+                message.setStatus(PayWayOutboxMessage.Status.SENT);
+                payWayOutboxDAO.save(message);
+                return null;
+            }
         }
-        catch (InvalidPayWayMessageException ivwme) {
-            LOGGER.error(String.format("refundOrder() : Failed to refund the order with id %d", order.getId()));
-            return new AsyncResult<>(null);
+
+        return message;
+    }
+
+    /**
+     * Whether the given order is refunded, according to the order details last retrieved from PayWay.
+     *
+     * @param order The order.
+     * @return Whether the order is refunded.
+     */
+    private static boolean isRefunded(Order order) {
+        return (order.getPayed() == Order.ORDER_REFUND_OGONE) || (order.getPayed() == Order.ORDER_REFUND_BANK)
+                || ((order.getRefundedAmount() > 0) && (order.getRefundedAmount() >= order.getAmount()));
+    }
+
+    /**
+     * Process the response of PayWay to a message of the outbox, and mark the message as sent.
+     *
+     * @param id       The id of the message.
+     * @param response The response of PayWay.
+     */
+    public void completePayWayMessage(int id, PayWayMessage response) {
+        PayWayOutboxMessage message = payWayOutboxDAO.getById(id);
+        if (message == null)
+            return;
+
+        message.setStatus(PayWayOutboxMessage.Status.SENT);
+        message.setLastError(null);
+        payWayOutboxDAO.save(message);
+
+        Reproduction r = message.getReproduction();
+        switch (message.getOperation()) {
+            case CREATE_ORDER:
+                // We received an message from PayWay, so the order is registered
+                Order order = new Order();
+                order.setId(response.getLong("orderid"));
+
+                r.setOrder(order);
+                reproductionDAO.save(r);
+
+                // Refresh the actual order details asynchronously
+                orderRefresher.refreshAfterCommit(order.getId());
+                break;
+            case REFUND_PAYMENT:
+                orderRefresher.refreshAfterCommit(r.getOrder().getId());
+                break;
         }
     }
 
+    /**
+     * Record a failed attempt to send a message of the outbox.
+     *
+     * @param id          The id of the message.
+     * @param error       The error.
+     * @param nextAttempt The date of the next attempt, or null to give up on the message.
+     */
+    public void failPayWayMessage(int id, String error, Date nextAttempt) {
+        PayWayOutboxMessage message = payWayOutboxDAO.getById(id);
+        if (message == null)
+            return;
+
+        message.setLastError(error);
+        if (nextAttempt != null) {
+            message.setNextAttempt(nextAttempt);
+        }
+        else {
+            LOGGER.error(String.format("failPayWayMessage(): Giving up on sending %s for reproduction %d: %s",
+                    message.getOperation().getApiName(), message.getReproduction().getId(), error));
+            message.setStatus(PayWayOutboxMessage.Status.FAILED);
+        }
+        payWayOutboxDAO.save(message);
+    }
+
+    /**
+     * List the orders which are not yet payed, while their reproduction is still awaiting payment,
+     * ordered by id. Uses keyset pagination: the next page starts after the last order of the previous page.
+     *
+     * @param afterId    The id of the last order of the previous page, or 0 for the first page.
+     * @param maxResults The max number of orders to fetch.
+     * @return A list of Orders.
+     */
+    public List<Order> listOrdersAwaitingPayment(long afterId, int maxResults) {
+        return orderDAO.listAwaitingPayment(afterId, maxResults);
+    }
+
     /**
      * Returns whether the record accepts the standard reproduction option.
      *
@@ -1241,11 +1470,60 @@ public class ReproductionServiceImpl extends AbstractRequestService implements R
 
     /**
      * Returns the active reproduction with which this holding is associated.
+     * Until the active reproductions are known to be stored with all holdings, it is found from the holding reproductions.
      *
      * @param h The Holding to get the active reproduction of.
      * @return The active reproduction, or null if no active reproduction exists.
      */
     public Reproduction getActiveFor(Holding h) {
+        if (!activeRequestChecker.isPopulated())
+            return reproductionDAO.findActiveFor(Collections.singletonList(h)).get(h.getId());
         return reproductionDAO.getActiveFor(h);
     }
+
+    /**
+     * Returns the active reproductions with which the given holdings are associated.
+     * Until the active reproductions are known to be stored with all holdings, they are found from the holding reproductions.
+     *
+     * @param holdings The Holdings to get the active reproductions of.
+     * @return The active reproductions, by id of the Holding; Holdings without an active reproduction are left out.
+     */
+    public Map<Integer, Reproduction> getActiveFor(Collection<Holding> holdings) {
+        if (!activeRequestChecker.isPopulated())
+            return reproductionDAO.findActiveFor(holdings);
+        return reproductionDAO.getActiveFor(holdings);
+    }
+
+    /**
+     * Updates the active reproduction of the given holdings, as found from the holding reproductions.
+     *
+     * @param holdings The Holdings to update the active reproduction of.
+     * @return The number of Holdings of which the active reproduction changed.
+     */
+    public int updateActiveFor(Collection<Holding> holdings) {
+        Map<Integer, Reproduction> activeFor = reproductionDAO.findActiveFor(holdings);
+
+        int updated = 0;
+        for (Holding holding : holdings) {
+            Reproduction reproduction = activeFor.get(holding.getId());
+            Integer id = (reproduction != null) ? reproduction.getId() : null;
+            if (!Objects.equals(holding.getActiveReproductionId(), id)) {
+                holding.setActiveReproductionId(id);
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Updates the active reproduction of the holdings of the given reproduction.
+     *
+     * @param reproduction The reproduction.
+     */
+    private void updateActiveFor(Reproduction reproduction) {
+        List<Holding> holdings = reproduction.getHoldings();
+        if (holdings != null) {
+            updateActiveFor(holdings);
+        }
+    }
 }
@@ -104,6 +104,14 @@ public abstract class AbstractRequestController extends ErrorHandlingController
         try {
             List<Holding> holdings = new ArrayList<>();
             String[] tuples = getPidsFromURL(path);
+
+            // Look up the metadata of all PIDs at once, rather than one PID at a time
+            List<String> pids = new ArrayList<>();
+            for (String tuple : tuples) {
+                pids.add(tuple.split(Pattern.quote(deliveryProperties.getHoldingSeparator()))[0]);
+            }
+            records.prefetchRecordsByPid(pids);
+
             for (String tuple : tuples) {
                 String[] elements = tuple.split(Pattern.quote(deliveryProperties.getHoldingSeparator()));
                 Record r = records.getRecordByPidAndCreate(elements[0]);
@@ -372,13 +380,12 @@ public abstract class AbstractRequestController extends ErrorHandlingController
      * @return A map with the requests for which the given holdings are active.
      */
     protected Map<String, Request> getHoldingActiveRequests(Collection<Holding> holdings) {
+        Map<Integer, Request> activeRequests = requests.getActiveFor(holdings);
         Map<String, Request> holdingActiveRequests = new HashMap<>();
         for (Holding holding : holdings) {
-            if (!holdingActiveRequests.containsKey(holding.toString())) {
-                Request request = requests.getActiveFor(holding);
-                if (request != null)
-                    holdingActiveRequests.put(holding.toString(), request);
-            }
+            Request request = activeRequests.get(holding.getId());
+            if (request != null)
+                holdingActiveRequests.put(holding.toString(), request);
         }
         return holdingActiveRequests;
     }
@@ -401,6 +408,22 @@ public abstract class AbstractRequestController extends ErrorHandlingController
         return bulkActionIds;
     }
 
+    /**
+     * From a list of request id and holding id pairs, look up the holdings.
+     *
+     * @param bulk A list of request id and holding id pairs.
+     * @return The holdings by their request id and holding id pair; holdings not found are left out.
+     */
+    protected Map<BulkActionIds, Holding> getHoldingsFromBulk(List<String> bulk) {
+        Map<BulkActionIds, Holding> holdings = new LinkedHashMap<>();
+        for (BulkActionIds bulkActionIds : getIdsFromBulk(bulk)) {
+            Holding holding = records.getHoldingById(bulkActionIds.getHoldingId());
+            if (holding != null)
+                holdings.put(bulkActionIds, holding);
+        }
+        return holdings;
+    }
+
     /**
      * From a list of request id and holding id pairs, extract the request ids.
      *
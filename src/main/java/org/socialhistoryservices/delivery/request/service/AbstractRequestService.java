@@ -145,9 +145,17 @@ public abstract class AbstractRequestService implements RequestService {
      * @param status  Status to change holdings to.
      */
     protected void changeHoldingStatus(Request request, Holding.Status status) {
+        List<Holding> holdings = new ArrayList<>();
         for (HoldingRequest hr : request.getHoldingRequests()) {
-            Holding h = hr.getHolding();
-            if (requests.getActiveFor(h) == request)
+            holdings.add(hr.getHolding());
+        }
+
+        // Lock all holdings at once, in the same order as by a concurrent reservation of them
+        records.lockHoldings(holdings, false);
+
+        Map<Integer, Request> activeRequests = requests.getActiveFor(holdings);
+        for (Holding h : holdings) {
+            if (activeRequests.get(h.getId()) == request)
                 records.updateHoldingStatus(h, status);
         }
     }
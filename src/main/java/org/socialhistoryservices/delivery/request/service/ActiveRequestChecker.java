@@ -0,0 +1,163 @@
+package org.socialhistoryservices.delivery.request.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socialhistoryservices.delivery.config.DeliveryProperties;
+import org.socialhistoryservices.delivery.record.service.RecordService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Checks the active requests stored with the holdings against the holding requests on a schedule,
+ * and repairs the holdings of which the active request has drifted.
+ * <p>
+ * On startup, the holdings with an open request but without a stored active request are backfilled
+ * in the background, which populates the stored active requests of an existing database.
+ * Until a backfill or a check completed without failures, the active requests are not
+ * known to be stored with all holdings, and have to be looked up from the holding requests.
+ */
+@Component
+public class ActiveRequestChecker implements ApplicationRunner {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ActiveRequestChecker.class);
+
+    @Autowired
+    private GeneralRequestService requests;
+
+    @Autowired
+    private RecordService records;
+
+    @Autowired
+    private DeliveryProperties deliveryProperties;
+
+    private final MeterRegistry meterRegistry;
+    private final Counter repairedCounter;
+    private final Counter failedCounter;
+    private ExecutorService executor;
+
+    private volatile boolean populated;
+
+    @Autowired
+    public ActiveRequestChecker(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        repairedCounter = Counter.builder("delivery.holdings.activeRequest.repaired")
+                .register(meterRegistry);
+        failedCounter = Counter.builder("delivery.holdings.activeRequest.failed")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    private void init() {
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new CustomizableThreadFactory("active-request-backfill-"));
+        executor = ExecutorServiceMetrics.monitor(meterRegistry, threadPoolExecutor, "activeRequestBackfill");
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Starts the backfill of the active requests in the background.
+     *
+     * @param args The command line arguments.
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        executor.execute(this::backfillActiveRequests);
+    }
+
+    /**
+     * Returns whether the active requests are known to be stored with all holdings.
+     *
+     * @return Whether a backfill or a check of the active requests completed without failures.
+     */
+    public boolean isPopulated() {
+        return populated;
+    }
+
+    /**
+     * Backfills the active requests of the holdings with an open request
+     * without a stored active request, in batches.
+     */
+    public void backfillActiveRequests() {
+        LOGGER.info("Start run: backfill active requests of holdings");
+
+        if (check(records::listHoldingIdsWithoutActiveRequest))
+            populated = true;
+
+        LOGGER.info("Finish run: backfill active requests of holdings");
+    }
+
+    /**
+     * Scheduled task to check the active requests of all holdings, in batches.
+     */
+    @Scheduled(cron = "0 45 3 * * *")
+    public void checkActiveRequests() {
+        LOGGER.info("Start run: check active requests of holdings");
+
+        if (check(records::listHoldingIds))
+            populated = true;
+
+        LOGGER.info("Finish run: check active requests of holdings");
+    }
+
+    /**
+     * Checks the active requests of the listed holdings, in batches.
+     * Every batch is checked in its own transaction; a failed batch is logged and skipped.
+     *
+     * @param listIds Lists the ids of the holdings to check, given the last id checked and the batch size.
+     * @return Whether all batches were checked without failures.
+     */
+    private boolean check(BiFunction<Integer, Integer, List<Integer>> listIds) {
+        int batchSize = deliveryProperties.getActiveRequestCheckBatchSize();
+        int checked = 0;
+        int repaired = 0;
+        int failed = 0;
+        int lastId = 0;
+        List<Integer> batch;
+        while (!(batch = listIds.apply(lastId, batchSize)).isEmpty()) {
+            try {
+                int repairedInBatch = requests.updateActiveRequests(batch);
+                repairedCounter.increment(repairedInBatch);
+                repaired += repairedInBatch;
+            }
+            catch (RuntimeException e) {
+                LOGGER.error(String.format("check(): Failed to check the active requests of holdings %d to %d",
+                        batch.get(0), batch.get(batch.size() - 1)), e);
+                failedCounter.increment(batch.size());
+                failed += batch.size();
+            }
+
+            checked += batch.size();
+            lastId = batch.get(batch.size() - 1);
+        }
+
+        if (repaired > 0) {
+            LOGGER.warn(String.format("check(): Repaired %d active requests", repaired));
+        }
+
+        if (failed > 0) {
+            LOGGER.warn(String.format("check(): Failed to check %d of %d holdings", failed, checked));
+        }
+
+        LOGGER.info(String.format("check(): %d holdings checked", checked));
+        return failed == 0;
+    }
+}
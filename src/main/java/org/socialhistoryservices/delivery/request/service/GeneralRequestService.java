@@ -3,6 +3,10 @@ package org.socialhistoryservices.delivery.request.service;
 import org.socialhistoryservices.delivery.record.entity.Holding;
 import org.socialhistoryservices.delivery.request.entity.Request;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Interface representing the service of the RequestService package.
  */
@@ -14,4 +18,21 @@ public interface GeneralRequestService {
      * @return The active request, null if none exist.
      */
     Request getActiveFor(Holding holding);
+
+    /**
+     * Get the active requests relating to the given Holdings, with one query per type of request.
+     *
+     * @param holdings Holdings to find the requests for.
+     * @return The active requests, by id of the Holding; Holdings without an active request are left out.
+     */
+    Map<Integer, Request> getActiveFor(Collection<Holding> holdings);
+
+    /**
+     * Recompute the active requests of the Holdings with the given ids from the holding requests
+     * and repair the Holdings of which the stored active requests have drifted.
+     *
+     * @param holdingIds The ids of the Holdings to check.
+     * @return The number of repaired active requests.
+     */
+    int updateActiveRequests(List<Integer> holdingIds);
 }
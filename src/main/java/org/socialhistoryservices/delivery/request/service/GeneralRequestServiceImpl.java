@@ -1,11 +1,16 @@
 package org.socialhistoryservices.delivery.request.service;
 
 import org.socialhistoryservices.delivery.record.entity.Holding;
+import org.socialhistoryservices.delivery.record.service.RecordService;
 import org.socialhistoryservices.delivery.request.entity.Request;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -17,6 +22,9 @@ public class GeneralRequestServiceImpl implements GeneralRequestService {
     @Autowired
     private Set<RequestService> requests;
 
+    @Autowired
+    private RecordService records;
+
     /**
      * Get an active request relating to a specific Holding.
      *
@@ -35,4 +43,39 @@ public class GeneralRequestServiceImpl implements GeneralRequestService {
         }
         return activeRequest;
     }
+
+    /**
+     * Get the active requests relating to the given Holdings, with one query per type of request.
+     *
+     * @param holdings Holdings to find the requests for.
+     * @return The active requests, by id of the Holding; Holdings without an active request are left out.
+     */
+    public Map<Integer, Request> getActiveFor(Collection<Holding> holdings) {
+        Map<Integer, Request> activeRequests = new HashMap<>();
+        for (RequestService requestService : requests) {
+            for (Map.Entry<Integer, ? extends Request> entry : requestService.getActiveFor(holdings).entrySet()) {
+                // The request with the earliest creation date is always the actual active request
+                activeRequests.merge(entry.getKey(), entry.getValue(), (activeRequest, request) ->
+                        activeRequest.getCreationDate().after(request.getCreationDate()) ? request : activeRequest);
+            }
+        }
+        return activeRequests;
+    }
+
+    /**
+     * Recompute the active requests of the Holdings with the given ids from the holding requests
+     * and repair the Holdings of which the stored active requests have drifted.
+     *
+     * @param holdingIds The ids of the Holdings to check.
+     * @return The number of repaired active requests.
+     */
+    public int updateActiveRequests(List<Integer> holdingIds) {
+        List<Holding> holdings = records.getHoldingsById(holdingIds);
+
+        int updated = 0;
+        for (RequestService requestService : requests) {
+            updated += requestService.updateActiveFor(holdings);
+        }
+        return updated;
+    }
 }
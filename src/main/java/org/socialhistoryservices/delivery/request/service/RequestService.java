@@ -3,6 +3,9 @@ package org.socialhistoryservices.delivery.request.service;
 import org.socialhistoryservices.delivery.record.entity.Holding;
 import org.socialhistoryservices.delivery.request.entity.Request;
 
+import java.util.Collection;
+import java.util.Map;
+
 /**
  * Represents the service of the request package to be used by the implementing services.
  */
@@ -14,4 +17,20 @@ public interface RequestService {
      * @return The active request, or null if no active request exists.
      */
     Request getActiveFor(Holding holding);
+
+    /**
+     * Returns the active requests with which the given holdings are associated.
+     *
+     * @param holdings The Holdings to get the active requests of.
+     * @return The active requests, by id of the Holding; Holdings without an active request are left out.
+     */
+    Map<Integer, ? extends Request> getActiveFor(Collection<Holding> holdings);
+
+    /**
+     * Updates the active request of the given holdings, as found from the holding requests.
+     *
+     * @param holdings The Holdings to update the active request of.
+     * @return The number of Holdings of which the active request changed.
+     */
+    int updateActiveFor(Collection<Holding> holdings);
 }
@@ -23,11 +23,14 @@ import org.socialhistoryservices.delivery.reservation.entity.HoldingReservation;
 import org.socialhistoryservices.delivery.reservation.entity.Reservation;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.http.CacheControl;
 import org.springframework.mail.MailException;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.ObjectError;
@@ -36,8 +39,10 @@ import org.springframework.web.bind.annotation.*;
 import javax.persistence.Tuple;
 import javax.persistence.criteria.*;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.awt.print.PrinterException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -139,6 +144,31 @@ public class ReservationController extends AbstractRequestController {
         return processVisitorReservationCreation(req, newRes, null, codes, model, false);
     }
 
+    /**
+     * Get the days from today up to the maximum number of days in advance, with whether a visitor
+     * can make a reservation on each day and if not, why not. Allows the create form to disable
+     * invalid dates up front.
+     *
+     * @param callback A callback, if provided, for the JSONP response.
+     * @param model    The model to add the result to.
+     * @param response The HTTP response.
+     * @return The view to resolve.
+     */
+    @RequestMapping(value = "/availability", method = RequestMethod.GET)
+    public String getAvailability(@RequestParam(required = false) String callback, Model model,
+                                  HttpServletResponse response) {
+        model.addAttribute("callback", callback);
+        model.addAttribute("days", reservations.getReservationDays());
+
+        response.setHeader("Content-Type", (callback != null) ? "application/javascript" : "application/json");
+        response.setHeader("Cache-Control", CacheControl
+                .maxAge(deliveryProperties.getReservationDaysCacheSeconds(), TimeUnit.SECONDS)
+                .cachePublic()
+                .getHeaderValue());
+
+        return "json/reservation_availability.json";
+    }
+
     /**
      * Process the create form of a reservation (visitors create form).
      *
@@ -183,6 +213,16 @@ public class ReservationController extends AbstractRequestController {
             return "reservation_choice";
         }
 
+        if (commit) {
+            // Make sure a Captcha was entered correctly.
+            checkCaptcha(req, result, model);
+
+            // Lock the holdings right before checking their status, so that concurrent reservations,
+            // also on other nodes, cannot reserve the same holdings
+            if (!result.hasErrors())
+                records.lockHoldings(newRes.getHoldings(), true);
+        }
+
         // Removed holdings that are already reserved
         Set<HoldingReservation> hrReserved = new HashSet<>();
         for (HoldingReservation hr : newRes.getHoldingReservations()) {
@@ -196,19 +236,20 @@ public class ReservationController extends AbstractRequestController {
 
         try {
             if (commit) {
-                // Make sure a Captcha was entered correctly.
-                checkCaptcha(req, result, model);
                 reservations.createOrEdit(newRes, null, result);
                 if (!result.hasErrors()) {
-                    // Mail the confirmation to the visitor.
-                    try {
-                        resMailer.mailConfirmation(newRes);
-                    } catch (MailException e) {
-                        LOGGER.error("Failed to send email", e);
-                        model.addAttribute("error", "mail");
-                    }
-                    // Automatically print the reservation.
-                    autoPrint(newRes);
+                    // Mail and print once the reservation is committed, which releases the locks on the holdings
+                    afterCommit(() -> {
+                        // Mail the confirmation to the visitor.
+                        try {
+                            resMailer.mailConfirmation(newRes);
+                        } catch (MailException e) {
+                            LOGGER.error("Failed to send email", e);
+                            model.addAttribute("error", "mail");
+                        }
+                        // Automatically print the reservation.
+                        autoPrint(newRes);
+                    });
                     model.addAttribute("reservation", newRes);
                     return "reservation_success";
                 }
@@ -341,6 +382,26 @@ public class ReservationController extends AbstractRequestController {
         return hrs;
     }
 
+    /**
+     * Runs the given task once the current transaction is committed,
+     * or immediately if no transaction is active.
+     *
+     * @param task The task to run.
+     */
+    private void afterCommit(Runnable task) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            task.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                task.run();
+            }
+        });
+    }
+
     /**
      * Print a reservation if it has been reserved between the opening and
      * closing times of the reading room.
@@ -506,19 +567,19 @@ public class ReservationController extends AbstractRequestController {
     public String batchProcessChangeHoldingStatus(HttpServletRequest req,
                                                   @RequestParam(required = false) List<String> checked,
                                                   @RequestParam Holding.Status newHoldingStatus) {
-        for (BulkActionIds bulkActionIds : getIdsFromBulk(checked)) {
-            Holding h = records.getHoldingById(bulkActionIds.getHoldingId());
+        Map<BulkActionIds, Holding> holdings = getHoldingsFromBulk(checked);
+        records.lockHoldings(holdings.values(), true);
+        Map<Integer, Request> activeRequests = requests.getActiveFor(holdings.values());
+        for (Map.Entry<BulkActionIds, Holding> entry : holdings.entrySet()) {
+            Holding h = entry.getValue();
 
             // Only update the status if the holding is active for the same reservation
-            if (h != null) {
-                Request request = requests.getActiveFor(h);
-
-                if ((request instanceof Reservation) &&
-                        (((Reservation) request).getId() == bulkActionIds.getRequestId())) {
-                    // Set the new status
-                    records.updateHoldingStatus(h, newHoldingStatus);
-                    records.saveHolding(h);
-                }
+            Request request = activeRequests.get(h.getId());
+            if ((request instanceof Reservation) &&
+                    (((Reservation) request).getId() == entry.getKey().getRequestId())) {
+                // Set the new status
+                records.updateHoldingStatus(h, newHoldingStatus);
+                records.saveHolding(h);
             }
         }
 
@@ -7,7 +7,9 @@ import org.socialhistoryservices.delivery.reservation.entity.Reservation;
 import javax.persistence.Tuple;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Interface representing the Data Access bject of a reservation.
@@ -81,6 +83,22 @@ public interface ReservationDAO {
      */
     Reservation getActiveFor(Holding h);
 
+    /**
+     * Get the active reservations relating to the given Holdings.
+     *
+     * @param holdings Holdings to find the reservations for.
+     * @return The active reservations, by id of the Holding; Holdings without one are left out.
+     */
+    Map<Integer, Reservation> getActiveFor(Collection<Holding> holdings);
+
+    /**
+     * Find the active reservations relating to the given Holdings from the holding reservations.
+     *
+     * @param holdings Holdings to find the reservations for.
+     * @return The active reservations, by id of the Holding; Holdings without one are left out.
+     */
+    Map<Integer, Reservation> findActiveFor(Collection<Holding> holdings);
+
     /**
      * Check whether the given record is linked to a pending reservation based on the container.
      *
@@ -1,5 +1,6 @@
 package org.socialhistoryservices.delivery.reservation.dao;
 
+import org.hibernate.Session;
 import org.socialhistoryservices.delivery.record.entity.*;
 import org.socialhistoryservices.delivery.reservation.entity.HoldingReservation;
 import org.socialhistoryservices.delivery.reservation.entity.HoldingReservation_;
@@ -9,7 +10,7 @@ import org.springframework.stereotype.Repository;
 
 import javax.persistence.*;
 import javax.persistence.criteria.*;
-import java.util.List;
+import java.util.*;
 
 /**
  * Represents the Data Access bject of a reservation.
@@ -33,7 +34,7 @@ public class ReservationDAOImpl implements ReservationDAO {
      *
      * @param obj Reservation to add.
      */
-    public synchronized void add(Reservation obj) {
+    public void add(Reservation obj) {
         entityManager.persist(obj);
     }
 
@@ -123,28 +124,78 @@ public class ReservationDAOImpl implements ReservationDAO {
      * @return The active reservation, null if none exist.
      */
     public Reservation getActiveFor(Holding h) {
+        Integer id = h.getActiveReservationId();
+        return (id != null) ? getById(id) : null;
+    }
+
+    /**
+     * Get the active reservations relating to the given Holdings.
+     *
+     * @param holdings Holdings to find the reservations for.
+     * @return The active reservations, by id of the Holding; Holdings without one are left out.
+     */
+    public Map<Integer, Reservation> getActiveFor(Collection<Holding> holdings) {
+        Map<Integer, Reservation> activeFor = new HashMap<>();
+
+        Set<Integer> ids = new HashSet<>();
+        for (Holding holding : holdings) {
+            if (holding.getActiveReservationId() != null)
+                ids.add(holding.getActiveReservationId());
+        }
+        if (ids.isEmpty())
+            return activeFor;
+
+        // Reservations already in the persistence context are not queried again
+        Map<Integer, Reservation> reservations = new HashMap<>();
+        for (Reservation reservation : entityManager.unwrap(Session.class)
+                .byMultipleIds(Reservation.class).multiLoad(new ArrayList<>(ids))) {
+            if (reservation != null)
+                reservations.put(reservation.getId(), reservation);
+        }
+
+        for (Holding holding : holdings) {
+            Reservation reservation = reservations.get(holding.getActiveReservationId());
+            if (reservation != null)
+                activeFor.put(holding.getId(), reservation);
+        }
+        return activeFor;
+    }
+
+    /**
+     * Find the active reservations relating to the given Holdings from the holding reservations.
+     *
+     * @param holdings Holdings to find the reservations for.
+     * @return The active reservations, by id of the Holding; Holdings without one are left out.
+     */
+    public Map<Integer, Reservation> findActiveFor(Collection<Holding> holdings) {
+        Map<Integer, Reservation> activeFor = new HashMap<>();
+        if (holdings.isEmpty())
+            return activeFor;
+
+        Set<Integer> holdingIds = new HashSet<>();
+        for (Holding holding : holdings) {
+            holdingIds.add(holding.getId());
+        }
+
         CriteriaBuilder cb = getCriteriaBuilder();
-        CriteriaQuery<Reservation> cq = cb.createQuery(Reservation.class);
+        CriteriaQuery<Tuple> cq = cb.createTupleQuery();
         Root<Reservation> resRoot = cq.from(Reservation.class);
-        cq.select(resRoot);
 
         Join<Reservation, HoldingReservation> hrRoot = resRoot.join(Reservation_.holdingReservations);
         Join<HoldingReservation, Holding> hRoot = hrRoot.join(HoldingReservation_.holding);
+        cq.multiselect(hRoot.get(Holding_.id), resRoot);
 
         cq.where(cb.and(
-                cb.equal(hRoot.get(Holding_.id), h.getId()),
+                hRoot.get(Holding_.id).in(holdingIds),
                 cb.equal(hrRoot.get(HoldingReservation_.completed), false)
         ));
         cq.orderBy(cb.asc(resRoot.get(Reservation_.creationDate)));
 
-        try {
-            TypedQuery<Reservation> q = entityManager.createQuery(cq);
-            q.setMaxResults(1);
-            return q.getSingleResult();
-        }
-        catch (NoResultException ex) {
-            return null;
+        // The reservation with the earliest creation date is the active reservation of a holding
+        for (Tuple tuple : entityManager.createQuery(cq).getResultList()) {
+            activeFor.putIfAbsent(tuple.get(0, Integer.class), tuple.get(1, Reservation.class));
         }
+        return activeFor;
     }
 
     /**
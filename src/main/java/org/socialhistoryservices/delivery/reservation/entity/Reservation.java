@@ -47,6 +47,22 @@ public class Reservation extends Request {
         return id;
     }
 
+    /**
+     * The Reservation's version, to detect concurrent changes.
+     */
+    @Version
+    @Column(name = "version", nullable = false)
+    private int version;
+
+    /**
+     * Get the Reservation's version.
+     *
+     * @return the Reservation's version.
+     */
+    public int getVersion() {
+        return version;
+    }
+
     /**
      * The Reservation's name.
      */
@@ -1,11 +1,11 @@
 package org.socialhistoryservices.delivery.reservation.service;
 
 import org.socialhistoryservices.delivery.reservation.entity.ReservationDateException;
+import org.socialhistoryservices.delivery.reservation.util.ClosedDayCalendar;
 import org.springframework.validation.BindingResult;
 
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
-import java.util.Calendar;
 import java.util.List;
 
 public interface ReservationDateExceptionService {
@@ -57,11 +57,12 @@ public interface ReservationDateExceptionService {
     Boolean isValid(ReservationDateException resExcept, BindingResult result);
 
     /**
-     * Get all the ReservationDateException's dates known in the database.
+     * Get the calendar of the days closed by the ReservationDateExceptions in the database.
+     * The calendar is built once and replaced when a ReservationDateException is added or removed.
      *
-     * @return all ReservationDateException's dates from the database.
+     * @return the calendar of closed days.
      */
-    List<Calendar> getExceptionDates();
+    ClosedDayCalendar getClosedDayCalendar();
 
     /**
      * Get all the ReservationDateExceptions from the database.
@@ -70,14 +71,6 @@ public interface ReservationDateExceptionService {
      */
     List<ReservationDateException> getReservationDateExceptions();
 
-    /**
-     * Get the reason for the ReservationDateException for the corresponding Calendar date.
-     *
-     * @param cal Calendar with the date to be checked.
-     * @return the reason for the ReservationDateException.
-     */
-    String getReasonForExceptionDate(Calendar cal);
-
     /**
      * Checks whether the given ReservationDateException exists in the database. This by checking
      * if the (one of) the dates are already in use by another ReservationDateException.
@@ -1,22 +1,24 @@
 package org.socialhistoryservices.delivery.reservation.service;
 
+import org.socialhistoryservices.delivery.config.DeliveryProperties;
 import org.socialhistoryservices.delivery.reservation.dao.ReservationDateExceptionDAO;
 import org.socialhistoryservices.delivery.reservation.entity.ReservationDateException;
+import org.socialhistoryservices.delivery.reservation.util.ClosedDayCalendar;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.MessageSource;
 import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
 
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
-import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @Service
 @Transactional
@@ -27,6 +29,13 @@ public class ReservationDateExceptionServiceImpl implements ReservationDateExcep
     @Autowired
     protected MessageSource messageSource;
 
+    @Autowired
+    private DeliveryProperties deliveryProperties;
+
+    private final Object closedDayCalendarLock = new Object();
+    private volatile CachedClosedDayCalendar closedDayCalendar;
+    private long closedDayCalendarGeneration;
+
     /**
      * Add a ReservationDateException to the database.
      *
@@ -34,6 +43,7 @@ public class ReservationDateExceptionServiceImpl implements ReservationDateExcep
      */
     public void addReservationDateException(ReservationDateException obj) {
         reservationDateExceptionDAO.add(obj);
+        invalidateClosedDayCalendarAfterCompletion();
     }
 
     /**
@@ -43,6 +53,7 @@ public class ReservationDateExceptionServiceImpl implements ReservationDateExcep
      */
     public void removeReservationDateException(ReservationDateException obj) {
         reservationDateExceptionDAO.remove(obj);
+        invalidateClosedDayCalendarAfterCompletion();
     }
 
     /**
@@ -75,34 +86,69 @@ public class ReservationDateExceptionServiceImpl implements ReservationDateExcep
     }
 
     /**
-     * Get all the ReservationDateException's dates known in the database.
+     * Get the calendar of the days closed by the ReservationDateExceptions in the database.
+     * The calendar is built once and replaced when a ReservationDateException is added or removed.
+     * As other nodes may add or remove ReservationDateExceptions as well, it is also rebuilt
+     * once it is older than the configured number of seconds.
      *
-     * @return all ReservationDateException's dates from the database.
+     * @return the calendar of closed days.
      */
-    public List<Calendar> getExceptionDates() {
-        List<ReservationDateException> result = getReservationDateExceptions();
-        List<Calendar> exceptionDates = new ArrayList<>();
-        for (ReservationDateException res : result) {
-            if (res.getEndDate() == null) {
-                Calendar cal = GregorianCalendar.getInstance();
-                cal.setTime(res.getStartDate());
-                exceptionDates.add(cal);
-            }
-            else {
-                Calendar startCal = GregorianCalendar.getInstance();
-                Calendar endCal = GregorianCalendar.getInstance();
-                startCal.setTime(res.getStartDate());
-                endCal.setTime(res.getEndDate());
-                while (startCal.getTime().before(endCal.getTime())) {
-                    Calendar cal = Calendar.getInstance();
-                    cal.setTime(startCal.getTime());
-                    exceptionDates.add(cal);
-                    startCal.add(Calendar.DAY_OF_YEAR, 1);
+    public ClosedDayCalendar getClosedDayCalendar() {
+        long now = System.nanoTime();
+        CachedClosedDayCalendar cached = closedDayCalendar;
+        if ((cached != null) && (now - cached.built < getClosedDayCalendarMaxAge()))
+            return cached.calendar;
+
+        long generation;
+        synchronized (closedDayCalendarLock) {
+            generation = closedDayCalendarGeneration;
+        }
+
+        ClosedDayCalendar calendar = ClosedDayCalendar.of(getReservationDateExceptions());
+
+        // Do not publish a calendar built from exceptions changed in the meantime
+        synchronized (closedDayCalendarLock) {
+            if (generation == closedDayCalendarGeneration)
+                closedDayCalendar = new CachedClosedDayCalendar(calendar, now);
+        }
+        return calendar;
+    }
+
+    private long getClosedDayCalendarMaxAge() {
+        return TimeUnit.SECONDS.toNanos(deliveryProperties.getClosedDayCalendarSeconds());
+    }
+
+    private static final class CachedClosedDayCalendar {
+        private final ClosedDayCalendar calendar;
+        private final long built;
+
+        private CachedClosedDayCalendar(ClosedDayCalendar calendar, long built) {
+            this.calendar = calendar;
+            this.built = built;
+        }
+    }
+
+    /**
+     * Drops the calendar of closed days once the current transaction has completed,
+     * so that it is rebuilt from the committed ReservationDateExceptions.
+     */
+    private void invalidateClosedDayCalendarAfterCompletion() {
+        invalidateClosedDayCalendar();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    invalidateClosedDayCalendar();
                 }
-                exceptionDates.add(endCal);
-            }
+            });
+        }
+    }
+
+    private void invalidateClosedDayCalendar() {
+        synchronized (closedDayCalendarLock) {
+            closedDayCalendarGeneration++;
+            closedDayCalendar = null;
         }
-        return exceptionDates;
     }
 
     /**
@@ -118,24 +164,6 @@ public class ReservationDateExceptionServiceImpl implements ReservationDateExcep
         return listReservationDateExceptions(query);
     }
 
-    /**
-     * Get the reason for the ReservationDateException for the corresponding Calendar date.
-     *
-     * @param cal Calendar with the date to be checked.
-     * @return the reason for the ReservationDateException.
-     */
-    public String getReasonForExceptionDate(Calendar cal) {
-        List<ReservationDateException> reservationDateExceptions = getReservationDateExceptions();
-        for (ReservationDateException res : reservationDateExceptions) {
-            for (int i = 0; i < res.getDatesOfReservationDateException().size(); i++) {
-                if (cal.getTime().equals(res.getDatesOfReservationDateException().get(i))) { // Make a get dates method for ReservationDateExceptions
-                    return res.getdescription();
-                }
-            }
-        }
-        return "No reason given!";
-    }
-
     /**
      * Checks whether the given ReservationDateException is valid. This by checking the description
      * and/or the start date not being null.
@@ -176,24 +204,19 @@ public class ReservationDateExceptionServiceImpl implements ReservationDateExcep
      * @return A boolean value representing whether the ReservationDateException already exists.
      */
     public Boolean exceptionDateExists(ReservationDateException resExcept, BindingResult result) {
-        if (resExcept.getDatesOfReservationDateException().size() > 1) {
-            for (int i = 0; i < resExcept.getDatesOfReservationDateException().size(); i++) {
-                Calendar cal = Calendar.getInstance();
-                cal.setTime(resExcept.getDatesOfReservationDateException().get(i));
-                if (getExceptionDates().contains(cal)) {
-                    String msg = messageSource.getMessage("reservationDateException.oneOrMoredatesExists",
-                            new Object[]{}, LocaleContextHolder.getLocale());
-                    result.addError(new FieldError(result.getObjectName(), "endDate",
-                            resExcept.getEndDate(), false,
-                            null, null, msg));
-                    return true;
-                }
+        ClosedDayCalendar calendar = getClosedDayCalendar();
+        if ((resExcept.getEndDate() != null) && resExcept.getEndDate().after(resExcept.getStartDate())) {
+            if (calendar.isClosedDuring(resExcept.getStartDate(), resExcept.getEndDate())) {
+                String msg = messageSource.getMessage("reservationDateException.oneOrMoredatesExists",
+                        new Object[]{}, LocaleContextHolder.getLocale());
+                result.addError(new FieldError(result.getObjectName(), "endDate",
+                        resExcept.getEndDate(), false,
+                        null, null, msg));
+                return true;
             }
         }
         else {
-            Calendar cal = Calendar.getInstance();
-            cal.setTime(resExcept.getStartDate());
-            if (getExceptionDates().contains(cal)) {
+            if (calendar.isClosed(resExcept.getStartDate())) {
                 String msg = messageSource.getMessage("reservationDateException.startDateExistst",
                         new Object[]{}, LocaleContextHolder.getLocale());
                 result.addError(new FieldError(result.getObjectName(), "endDate",
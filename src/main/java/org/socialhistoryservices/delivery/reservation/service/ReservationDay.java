@@ -0,0 +1,70 @@
+package org.socialhistoryservices.delivery.reservation.service;
+
+import java.time.LocalDate;
+
+/**
+ * A day on which a visitor may or may not make a reservation.
+ */
+public class ReservationDay {
+    /**
+     * Why a reservation cannot be made on a day.
+     */
+    public enum Closure {
+        AFTER_LATEST_TIME,
+        WEEKEND,
+        EXCEPTION
+    }
+
+    private final LocalDate date;
+    private final Closure closure;
+    private final String reason;
+
+    /**
+     * Creates a day.
+     *
+     * @param date    The date.
+     * @param closure Why a reservation cannot be made, or null if a reservation can be made.
+     * @param reason  The description of the ReservationDateException closing the day, if any.
+     */
+    public ReservationDay(LocalDate date, Closure closure, String reason) {
+        this.date = date;
+        this.closure = closure;
+        this.reason = reason;
+    }
+
+    /**
+     * Get the date.
+     *
+     * @return The date.
+     */
+    public LocalDate getDate() {
+        return date;
+    }
+
+    /**
+     * Get whether a reservation can be made on this day.
+     *
+     * @return Whether a reservation can be made.
+     */
+    public boolean isReservable() {
+        return closure == null;
+    }
+
+    /**
+     * Get why a reservation cannot be made on this day.
+     *
+     * @return The closure, or null if a reservation can be made.
+     */
+    public Closure getClosure() {
+        return closure;
+    }
+
+    /**
+     * Get the description of the ReservationDateException closing this day.
+     *
+     * @return The reason, or null if the day is not closed by a ReservationDateException.
+     */
+    public String getReason() {
+        return reason;
+    }
+}
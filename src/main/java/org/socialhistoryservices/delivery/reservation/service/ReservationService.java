@@ -12,8 +12,10 @@ import javax.persistence.Tuple;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import java.awt.print.PrinterException;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Interface representing the service of the reservation package.
@@ -200,6 +202,14 @@ public interface ReservationService {
      */
     Date getFirstValidReservationDate(Date from);
 
+    /**
+     * Get the days from today up to reservationMaxDaysInAdvance, with whether a reservation
+     * can be made on each day and if not, why not.
+     *
+     * @return The days, in chronological order.
+     */
+    List<ReservationDay> getReservationDays();
+
     /**
      * Returns the active reservation with which this holding is associated.
      *
@@ -207,4 +217,12 @@ public interface ReservationService {
      * @return The active reservation, or null if no active reservation exists.
      */
     Reservation getActiveFor(Holding holding);
+
+    /**
+     * Returns the active reservations with which the given holdings are associated.
+     *
+     * @param holdings The Holdings to get the active reservations of.
+     * @return The active reservations, by id of the Holding; Holdings without an active reservation are left out.
+     */
+    Map<Integer, Reservation> getActiveFor(Collection<Holding> holdings);
 }
@@ -14,9 +14,11 @@ import org.socialhistoryservices.delivery.reservation.dao.HoldingReservationDAO;
 import org.socialhistoryservices.delivery.reservation.dao.ReservationDAO;
 import org.socialhistoryservices.delivery.reservation.entity.HoldingReservation;
 import org.socialhistoryservices.delivery.reservation.entity.Reservation;
+import org.socialhistoryservices.delivery.reservation.util.ClosedDayCalendar;
 
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -30,6 +32,8 @@ import java.awt.print.PrinterException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
 import java.util.*;
 
 /**
@@ -55,6 +59,10 @@ public class ReservationServiceImpl extends AbstractRequestService implements Re
     @Autowired
     private PrinterConfiguration printerConfiguration;
 
+    @Autowired
+    @Lazy
+    private ActiveRequestChecker activeRequestChecker;
+
     /**
      * Add a Reservation to the database.
      *
@@ -66,6 +74,7 @@ public class ReservationServiceImpl extends AbstractRequestService implements Re
 
         // Add to the database
         reservationDAO.add(obj);
+        updateActiveFor(obj);
     }
 
     /**
@@ -81,7 +90,12 @@ public class ReservationServiceImpl extends AbstractRequestService implements Re
         if (obj.getStatus() != Reservation.Status.COMPLETED) {
             changeHoldingStatus(obj, Holding.Status.AVAILABLE);
         }
+
+        List<Holding> holdings = obj.getHoldings();
         reservationDAO.remove(obj);
+        if (holdings != null) {
+            updateActiveFor(holdings);
+        }
     }
 
     /**
@@ -102,7 +116,9 @@ public class ReservationServiceImpl extends AbstractRequestService implements Re
      * @param obj Reservation to save.
      */
     public Reservation saveReservation(Reservation obj) {
-        return reservationDAO.save(obj);
+        Reservation saved = reservationDAO.save(obj);
+        updateActiveFor(saved);
+        return saved;
     }
 
     /**
@@ -256,6 +272,9 @@ public class ReservationServiceImpl extends AbstractRequestService implements Re
      * @param other       The other reservation to merge with.
      */
     public void merge(Reservation reservation, Reservation other) {
+        // Holdings removed from the reservation may no longer have it as their active reservation
+        List<Holding> holdings = reservation.getHoldings();
+
         reservation.setDate(other.getDate());
         reservation.setReturnDate(other.getReturnDate());
         reservation.setVisitorName(other.getVisitorName());
@@ -277,6 +296,9 @@ public class ReservationServiceImpl extends AbstractRequestService implements Re
         }
 
         updateStatusAndAssociatedHoldingStatus(reservation, other.getStatus());
+        if (holdings != null) {
+            updateActiveFor(holdings);
+        }
     }
 
     /**
@@ -315,6 +337,11 @@ public class ReservationServiceImpl extends AbstractRequestService implements Re
         }
 
         updateHoldingStatusForPendingReservations(reservation);
+
+        // A reservation which is not added yet is taken into account once added
+        if (reservation.getId() != 0) {
+            updateActiveFor(reservation);
+        }
     }
 
     /**
@@ -425,14 +452,13 @@ public class ReservationServiceImpl extends AbstractRequestService implements Re
         if (oldRes == null) {
             Date resDate = newRes.getDate();
             if (resDate != null && !resDate.equals(getFirstValidReservationDate(resDate))) {
-                Calendar resCalendar = Calendar.getInstance();
-                resCalendar.setTime(resDate);
+                String reason = dateExceptionService.getClosedDayCalendar()
+                        .getReason(ClosedDayCalendar.toLocalDate(resDate));
 
                 String msg;
-                if (dateExceptionService.getExceptionDates().contains(resCalendar)) {
+                if (reason != null) {
                     msg = msgSource.getMessage("reservationDateException.dateIsException",
-                            new Object[]{}, LocaleContextHolder.getLocale()) +
-                            dateExceptionService.getReasonForExceptionDate(resCalendar);
+                            new Object[]{}, LocaleContextHolder.getLocale()) + reason;
                 }
                 else {
                     msg = msgSource.getMessage("validator.reservationDate", null,
@@ -482,25 +508,7 @@ public class ReservationServiceImpl extends AbstractRequestService implements Re
         Calendar fromCal = GregorianCalendar.getInstance();
         fromCal.setTime(from);
 
-        SimpleDateFormat format = new SimpleDateFormat("HH:mm");
-        format.setLenient(false);
-
-        Calendar t = GregorianCalendar.getInstance();
-        try {
-            t.setTime(format.parse(deliveryProperties.getRequestLatestTime()));
-        }
-        catch (ParseException e) {
-            throw new RuntimeException("Invalid reservationLatestTime provided in config. Should be of format HH:mm");
-        }
-
-        Calendar firstPossibleCal = GregorianCalendar.getInstance();
-
-        // Cannot reserve after "closing" time.
-        if (firstPossibleCal.get(Calendar.HOUR_OF_DAY) > t.get(Calendar.HOUR_OF_DAY) ||
-                (firstPossibleCal.get(Calendar.HOUR_OF_DAY) == t.get(Calendar.HOUR_OF_DAY) &&
-                        firstPossibleCal.get(Calendar.MINUTE) >= t.get(Calendar.MINUTE))) {
-            firstPossibleCal.add(Calendar.DAY_OF_YEAR, 1);
-        }
+        Calendar firstPossibleCal = getFirstPossibleReservationDay();
 
         // Cannot reserve in past (or after closing time).
         if (fromCal.get(Calendar.YEAR) < firstPossibleCal.get(Calendar.YEAR)
@@ -509,33 +517,13 @@ public class ReservationServiceImpl extends AbstractRequestService implements Re
             fromCal = firstPossibleCal;
         }
 
-        // Check if date is an exception date
+        // Skip exception dates and weekends.
         // Vrijdag zaterdag en zondag geen diensten.
-        List<Calendar> exceptionDates = dateExceptionService.getExceptionDates();
-        for (Calendar exceptionDate : exceptionDates) {
-            if (fromCal.equals(exceptionDate)) {
-                fromCal.add(Calendar.DAY_OF_YEAR, 1);
-                // Check for weekends
-                if (fromCal.get(Calendar.DAY_OF_WEEK) == Calendar.FRIDAY) {
-                    fromCal.add(Calendar.DAY_OF_YEAR, 3);
-                }
-                if (fromCal.get(Calendar.DAY_OF_WEEK) == Calendar.SATURDAY) {
-                    fromCal.add(Calendar.DAY_OF_YEAR, 2);
-                }
-                if (fromCal.get(Calendar.DAY_OF_WEEK) == Calendar.SUNDAY) {
-                    fromCal.add(Calendar.DAY_OF_YEAR, 1);
-                }
-            }
-        }
-
-        // Vrijdag zaterdag en zondag geen diensten.
-        if (fromCal.get(Calendar.DAY_OF_WEEK) == Calendar.FRIDAY) {
-            fromCal.add(Calendar.DAY_OF_YEAR, 3);
-        }
-        if (fromCal.get(Calendar.DAY_OF_WEEK) == Calendar.SATURDAY) {
-            fromCal.add(Calendar.DAY_OF_YEAR, 2);
-        }
-        if (fromCal.get(Calendar.DAY_OF_WEEK) == Calendar.SUNDAY) {
+        ClosedDayCalendar closedDays = dateExceptionService.getClosedDayCalendar();
+        while (closedDays.isClosed(fromCal.getTime())
+                || fromCal.get(Calendar.DAY_OF_WEEK) == Calendar.FRIDAY
+                || fromCal.get(Calendar.DAY_OF_WEEK) == Calendar.SATURDAY
+                || fromCal.get(Calendar.DAY_OF_WEEK) == Calendar.SUNDAY) {
             fromCal.add(Calendar.DAY_OF_YEAR, 1);
         }
 
@@ -551,13 +539,120 @@ public class ReservationServiceImpl extends AbstractRequestService implements Re
         return fromCal.getTime();
     }
 
+    /**
+     * Get the days from today up to reservationMaxDaysInAdvance, with whether a reservation
+     * can be made on each day and if not, why not.
+     *
+     * @return The days, in chronological order.
+     */
+    public List<ReservationDay> getReservationDays() {
+        ClosedDayCalendar closedDays = dateExceptionService.getClosedDayCalendar();
+        LocalDate today = LocalDate.now();
+        LocalDate firstPossibleDay = ClosedDayCalendar.toLocalDate(getFirstPossibleReservationDay().getTime());
+        LocalDate lastPossibleDay = today.plusDays(deliveryProperties.getReservationMaxDaysInAdvance());
+
+        List<ReservationDay> days = new ArrayList<>();
+        for (LocalDate day = today; !day.isAfter(lastPossibleDay); day = day.plusDays(1)) {
+            DayOfWeek dayOfWeek = day.getDayOfWeek();
+            if (day.isBefore(firstPossibleDay))
+                days.add(new ReservationDay(day, ReservationDay.Closure.AFTER_LATEST_TIME, null));
+            else if (closedDays.isClosed(day))
+                days.add(new ReservationDay(day, ReservationDay.Closure.EXCEPTION, closedDays.getReason(day)));
+            // Vrijdag zaterdag en zondag geen diensten.
+            else if (dayOfWeek == DayOfWeek.FRIDAY || dayOfWeek == DayOfWeek.SATURDAY
+                    || dayOfWeek == DayOfWeek.SUNDAY)
+                days.add(new ReservationDay(day, ReservationDay.Closure.WEEKEND, null));
+            else
+                days.add(new ReservationDay(day, null, null));
+        }
+        return days;
+    }
+
+    /**
+     * Get the first day on which a reservation can be made, ignoring weekends and exception dates:
+     * today, or tomorrow if it is past the latest time to make a reservation for today.
+     *
+     * @return The current time on the first possible day.
+     */
+    private Calendar getFirstPossibleReservationDay() {
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm");
+        format.setLenient(false);
+
+        Calendar t = GregorianCalendar.getInstance();
+        try {
+            t.setTime(format.parse(deliveryProperties.getRequestLatestTime()));
+        }
+        catch (ParseException e) {
+            throw new RuntimeException("Invalid reservationLatestTime provided in config. Should be of format HH:mm");
+        }
+
+        Calendar firstPossibleCal = GregorianCalendar.getInstance();
+
+        // Cannot reserve after "closing" time.
+        if (firstPossibleCal.get(Calendar.HOUR_OF_DAY) > t.get(Calendar.HOUR_OF_DAY) ||
+                (firstPossibleCal.get(Calendar.HOUR_OF_DAY) == t.get(Calendar.HOUR_OF_DAY) &&
+                        firstPossibleCal.get(Calendar.MINUTE) >= t.get(Calendar.MINUTE))) {
+            firstPossibleCal.add(Calendar.DAY_OF_YEAR, 1);
+        }
+        return firstPossibleCal;
+    }
+
     /**
      * Returns the active reservation with which this holding is associated.
+     * Until the active reservations are known to be stored with all holdings, it is found from the holding reservations.
      *
      * @param holding The Holding to get the active reservation of.
      * @return The active reservation, or null if no active reservation exists.
      */
     public Reservation getActiveFor(Holding holding) {
+        if (!activeRequestChecker.isPopulated())
+            return reservationDAO.findActiveFor(Collections.singletonList(holding)).get(holding.getId());
         return reservationDAO.getActiveFor(holding);
     }
+
+    /**
+     * Returns the active reservations with which the given holdings are associated.
+     * Until the active reservations are known to be stored with all holdings, they are found from the holding reservations.
+     *
+     * @param holdings The Holdings to get the active reservations of.
+     * @return The active reservations, by id of the Holding; Holdings without an active reservation are left out.
+     */
+    public Map<Integer, Reservation> getActiveFor(Collection<Holding> holdings) {
+        if (!activeRequestChecker.isPopulated())
+            return reservationDAO.findActiveFor(holdings);
+        return reservationDAO.getActiveFor(holdings);
+    }
+
+    /**
+     * Updates the active reservation of the given holdings, as found from the holding reservations.
+     *
+     * @param holdings The Holdings to update the active reservation of.
+     * @return The number of Holdings of which the active reservation changed.
+     */
+    public int updateActiveFor(Collection<Holding> holdings) {
+        Map<Integer, Reservation> activeFor = reservationDAO.findActiveFor(holdings);
+
+        int updated = 0;
+        for (Holding holding : holdings) {
+            Reservation reservation = activeFor.get(holding.getId());
+            Integer id = (reservation != null) ? reservation.getId() : null;
+            if (!Objects.equals(holding.getActiveReservationId(), id)) {
+                holding.setActiveReservationId(id);
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Updates the active reservation of the holdings of the given reservation.
+     *
+     * @param reservation The reservation.
+     */
+    private void updateActiveFor(Reservation reservation) {
+        List<Holding> holdings = reservation.getHoldings();
+        if (holdings != null) {
+            updateActiveFor(holdings);
+        }
+    }
 }
@@ -0,0 +1,172 @@
+package org.socialhistoryservices.delivery.reservation.util;
+
+import org.socialhistoryservices.delivery.reservation.entity.ReservationDateException;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * An immutable calendar of the days on which the reading room is closed because of a ReservationDateException.
+ * The closed days are kept in a bitset indexed by day, so checking a day is a single bit lookup.
+ * The days of dates are determined in the default time zone at the time the calendar is built,
+ * by arithmetic on the time of the date, so checking a date does not allocate.
+ */
+public final class ClosedDayCalendar {
+    /**
+     * The calendar without closed days.
+     */
+    public static final ClosedDayCalendar EMPTY =
+            new ClosedDayCalendar(0, new BitSet(), new TreeMap<>(), TimeZone.getDefault());
+
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private final long firstEpochDay;
+    private final BitSet closedDays;
+    private final NavigableMap<Long, Closure> closuresByStart;
+    private final TimeZone timeZone;
+
+    private ClosedDayCalendar(long firstEpochDay, BitSet closedDays, NavigableMap<Long, Closure> closuresByStart,
+                              TimeZone timeZone) {
+        this.firstEpochDay = firstEpochDay;
+        this.closedDays = closedDays;
+        this.closuresByStart = closuresByStart;
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Builds the calendar of the given ReservationDateExceptions.
+     *
+     * @param exceptions The ReservationDateExceptions.
+     * @return The calendar.
+     */
+    public static ClosedDayCalendar of(Collection<ReservationDateException> exceptions) {
+        if (exceptions.isEmpty())
+            return EMPTY;
+
+        TimeZone timeZone = TimeZone.getDefault();
+        NavigableMap<Long, Closure> closuresByStart = new TreeMap<>();
+        long firstEpochDay = Long.MAX_VALUE;
+        for (ReservationDateException exception : exceptions) {
+            long start = toEpochDay(exception.getStartDate(), timeZone);
+            long end = (exception.getEndDate() != null) ? toEpochDay(exception.getEndDate(), timeZone) : start;
+            if (end < start)
+                continue;
+
+            // Overlapping exceptions are refused on creation; should they exist anyway, the first one wins
+            closuresByStart.putIfAbsent(start, new Closure(end, exception.getdescription()));
+            firstEpochDay = Math.min(firstEpochDay, start);
+        }
+
+        if (closuresByStart.isEmpty())
+            return EMPTY;
+
+        BitSet closedDays = new BitSet();
+        for (Map.Entry<Long, Closure> closure : closuresByStart.entrySet()) {
+            closedDays.set((int) (closure.getKey() - firstEpochDay),
+                    (int) (closure.getValue().end - firstEpochDay) + 1);
+        }
+
+        return new ClosedDayCalendar(firstEpochDay, closedDays, closuresByStart, timeZone);
+    }
+
+    /**
+     * Returns whether the reading room is closed on the given day.
+     *
+     * @param date The day.
+     * @return Whether the reading room is closed.
+     */
+    public boolean isClosed(LocalDate date) {
+        return isClosed(date.toEpochDay());
+    }
+
+    /**
+     * Returns whether the reading room is closed on the given day.
+     *
+     * @param date The day; the time is ignored.
+     * @return Whether the reading room is closed.
+     */
+    public boolean isClosed(Date date) {
+        return !closedDays.isEmpty() && isClosed(toEpochDay(date, timeZone));
+    }
+
+    /**
+     * Returns whether the reading room is closed on one of the days of the given period.
+     *
+     * @param startDate The first day of the period.
+     * @param endDate   The last day of the period; null if the period is a single day.
+     * @return Whether the reading room is closed on one of the days.
+     */
+    public boolean isClosedDuring(Date startDate, Date endDate) {
+        long start = toEpochDay(startDate, timeZone) - firstEpochDay;
+        long end = toEpochDay((endDate != null) ? endDate : startDate, timeZone) - firstEpochDay;
+        if ((end < 0) || (start >= closedDays.length()))
+            return false;
+
+        int next = closedDays.nextSetBit((int) Math.max(0, start));
+        return (next >= 0) && (next <= end);
+    }
+
+    /**
+     * Returns the reason the reading room is closed on the given day.
+     *
+     * @param date The day.
+     * @return The description of the ReservationDateException, or null if the reading room is not closed.
+     */
+    public String getReason(LocalDate date) {
+        long epochDay = date.toEpochDay();
+        if (!isClosed(epochDay))
+            return null;
+
+        for (Closure closure : closuresByStart.headMap(epochDay, true).descendingMap().values()) {
+            if (closure.end >= epochDay)
+                return closure.reason;
+        }
+        return null;
+    }
+
+    private boolean isClosed(long epochDay) {
+        long index = epochDay - firstEpochDay;
+        return (index >= 0) && (index < closedDays.length()) && closedDays.get((int) index);
+    }
+
+    /**
+     * Returns the day of the given date in the default time zone, the time zone of the dates in the database.
+     *
+     * @param date The date.
+     * @return The day.
+     */
+    public static LocalDate toLocalDate(Date date) {
+        // java.sql.Date does not support toInstant()
+        return Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+
+    /**
+     * Returns the day of the given date in the given time zone, as the number of days since the epoch.
+     *
+     * @param date     The date.
+     * @param timeZone The time zone.
+     * @return The day.
+     */
+    private static long toEpochDay(Date date, TimeZone timeZone) {
+        long millis = date.getTime();
+        return Math.floorDiv(millis + timeZone.getOffset(millis), MILLIS_PER_DAY);
+    }
+
+    private static final class Closure {
+        private final long end;
+        private final String reason;
+
+        private Closure(long end, String reason) {
+            this.end = end;
+            this.reason = reason;
+        }
+    }
+}
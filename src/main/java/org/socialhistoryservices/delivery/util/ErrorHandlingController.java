@@ -19,6 +19,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -50,7 +51,8 @@ public class ErrorHandlingController {
 
     @InitBinder
     public void initBinder(WebDataBinder binder) {
-        binder.registerCustomEditor(Date.class, new CustomDateEditor(df,
+        // A SimpleDateFormat is not thread-safe, so every binder gets its own copy
+        binder.registerCustomEditor(Date.class, new CustomDateEditor((DateFormat) df.clone(),
                 true));
         binder.registerCustomEditor(String.class, new StringTrimmerEditor
                 (true));
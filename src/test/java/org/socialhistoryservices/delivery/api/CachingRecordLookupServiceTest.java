@@ -0,0 +1,154 @@
+package org.socialhistoryservices.delivery.api;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests the lookups of the caching record lookup service within a latency budget,
+ * and the lookups deferred while the circuit of the API is open.
+ */
+public class CachingRecordLookupServiceTest {
+    private static final Duration BUDGET = Duration.ofSeconds(5);
+    private static final String NOT_FOUND = "10622/NOT_FOUND";
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker("test", 1, Duration.ofHours(1));
+    private volatile boolean apiAvailable = true;
+    private ThreadPoolExecutor executor;
+    private CachingRecordLookupService lookupService;
+
+    @BeforeEach
+    public void setUp() {
+        RecordLookupService lookup = new RecordLookupService() {
+            @Override
+            public PageChunk getRecordsByTitle(String title, int resultCountPerChunk, int resultStart) {
+                return new PageChunk(resultCountPerChunk, resultStart);
+            }
+
+            @Override
+            public MetadataRecordExtractor getRecordExtractorByPid(String pid) throws NoSuchPidException {
+                // Guarded by the circuit breaker, as the lookups in the API
+                if (!circuitBreaker.allowRequest())
+                    throw new NoSuchPidException();
+
+                lookups.incrementAndGet();
+                if (pid.equals(NOT_FOUND)) {
+                    circuitBreaker.recordSuccess();
+                    throw new NoSuchPidException();
+                }
+                if (!apiAvailable) {
+                    circuitBreaker.recordFailure();
+                    throw new NoSuchPidException();
+                }
+                circuitBreaker.recordSuccess();
+                return mock(MetadataRecordExtractor.class);
+            }
+        };
+
+        executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1),
+                new ThreadPoolExecutor.AbortPolicy());
+        lookupService = new CachingRecordLookupService(lookup, ".", 100, Duration.ofMinutes(1));
+        lookupService.setExecutor(executor);
+        lookupService.setCircuitBreaker(circuitBreaker);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void lookupWithinBudget() throws Exception {
+        assertNotNull(lookupService.getRecordExtractorByPid("10622/A", BUDGET));
+        assertNotNull(lookupService.getRecordExtractorByPid("10622/A", BUDGET));
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void rejectedLookupIsNotFoundInTime() throws Exception {
+        saturate();
+
+        long start = System.nanoTime();
+        assertThrows(NoSuchPidException.class, () -> lookupService.getRecordExtractorByPid("10622/A", BUDGET));
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(BUDGET) < 0,
+                "a rejected lookup does not wait for the budget");
+        assertEquals(0, lookups.get(), "a rejected lookup is not performed by the calling thread");
+
+        // The rejected lookup is no longer in flight, so the PID is looked up again once there is capacity
+        release.countDown();
+        executor.getQueue().clear();  // There is room in the queue, even if the queued task has not run yet
+        assertNotNull(lookupService.getRecordExtractorByPid("10622/A", BUDGET));
+        assertEquals(1, lookups.get());
+    }
+
+    @Test
+    public void lookupRejectedByOpenCircuitIsRefreshedOnceClosed() throws Exception {
+        apiAvailable = false;
+        assertThrows(NoSuchPidException.class, () -> lookupService.getRecordExtractorByPid("10622/A", BUDGET));
+        assertTrue(circuitBreaker.isOpen());
+        assertThrows(NoSuchPidException.class, () -> lookupService.getRecordExtractorByPid("10622/B", BUDGET));
+        assertEquals(1, lookups.get(), "the lookup of B is rejected by the open circuit");
+
+        // Another lookup closes the circuit, after which A and B are looked up in the background
+        apiAvailable = true;
+        circuitBreaker.recordSuccess();
+        awaitLookups(3);
+
+        assertNotNull(lookupService.getRecordExtractorByPid("10622/A", BUDGET));
+        assertNotNull(lookupService.getRecordExtractorByPid("10622/B", BUDGET));
+        assertEquals(3, lookups.get(), "A and B are cached");
+    }
+
+    @Test
+    public void lookupNotFoundWithClosedCircuitIsNotRefreshed() throws Exception {
+        assertThrows(NoSuchPidException.class, () -> lookupService.getRecordExtractorByPid(NOT_FOUND, BUDGET));
+        assertFalse(circuitBreaker.isOpen());
+
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordSuccess();
+        awaitLookups(1);
+        assertEquals(1, lookups.get(), "a PID not found is not looked up again once the circuit closes");
+    }
+
+    /**
+     * Waits for the given number of lookups in the API, and for the background lookups to complete.
+     */
+    private void awaitLookups(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + BUDGET.toNanos();
+        while (lookups.get() < count) {
+            assertTrue(System.nanoTime() < deadline, "lookups: " + lookups.get());
+            Thread.sleep(10);
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(BUDGET.toMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Occupies the thread and the queue of the executor, until released.
+     */
+    private void saturate() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+        executor.execute(() -> {
+        });
+    }
+}
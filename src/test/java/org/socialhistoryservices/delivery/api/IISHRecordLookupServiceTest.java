@@ -0,0 +1,126 @@
+package org.socialhistoryservices.delivery.api;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.socialhistoryservices.delivery.config.DeliveryProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.socialhistoryservices.delivery.api.MetadataRecordExtractors.describe;
+
+/**
+ * Tests the lookup of multiple PIDs at once against the stand-in server, with and without the streaming parser.
+ */
+@SpringBootTest
+@ActiveProfiles({"test", "standin"})
+public class IISHRecordLookupServiceTest {
+    @Autowired
+    private IISHRecordLookupService lookupService;
+
+    @Autowired
+    private DeliveryProperties deliveryProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @TempDir
+    Path cannedDirectory;
+
+    private boolean apiStreamingParser;
+    private String standInCannedDirectory;
+
+    @BeforeEach
+    public void setUp() {
+        apiStreamingParser = deliveryProperties.isApiStreamingParser();
+        standInCannedDirectory = deliveryProperties.getStandInCannedDirectory();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        deliveryProperties.setApiStreamingParser(apiStreamingParser);
+        deliveryProperties.setStandInCannedDirectory(standInCannedDirectory);
+    }
+
+    @Test
+    public void lookupByPidsEqualsLookupByPid() throws Exception {
+        assertLookupByPidsEqualsLookupByPid("DOM");
+    }
+
+    @Test
+    public void streamingLookupByPidsEqualsLookupByPid() throws Exception {
+        deliveryProperties.setApiStreamingParser(true);
+        assertLookupByPidsEqualsLookupByPid("STR");
+    }
+
+    @Test
+    public void lookupByPidsCreatesExtractorsOfTheParser() {
+        List<String> pids = Arrays.asList("10622/EXB1", "10622/ARCHEX1", "10622/ARCHEX1.1");
+
+        for (MetadataRecordExtractor extractor : lookupService.getRecordExtractorsByPids(pids).values())
+            assertFalse(extractor instanceof StreamingMARCMetadataRecordExtractor, extractor.getPid());
+
+        deliveryProperties.setApiStreamingParser(true);
+        Map<String, MetadataRecordExtractor> extractors = lookupService.getRecordExtractorsByPids(pids);
+        assertTrue(extractors.get("10622/EXB1") instanceof StreamingMARCMetadataRecordExtractor);
+    }
+
+    @Test
+    public void itemsOfArchiveWithoutEADAreLeftOut() throws Exception {
+        // The stand-in serves an EAD document which cannot be parsed
+        Files.createDirectory(cannedDirectory.resolve("ead"));
+        Files.write(cannedDirectory.resolve("ead").resolve("ARCHNOEAD.xml"),
+                "<ead>".getBytes(StandardCharsets.UTF_8));
+        deliveryProperties.setStandInCannedDirectory(cannedDirectory.toString());
+
+        List<String> pids = Arrays.asList("10622/NOEADB1", "10622/ARCHNOEAD.1", "10622/ARCHNOEAD.2",
+                "10622/ARCHEAD.1");
+        for (boolean streaming : new boolean[]{false, true}) {
+            deliveryProperties.setApiStreamingParser(streaming);
+            Map<String, MetadataRecordExtractor> extractors = lookupService.getRecordExtractorsByPids(pids);
+            assertEquals(new HashSet<>(Arrays.asList("10622/NOEADB1", "10622/ARCHEAD.1")), extractors.keySet(),
+                    "streaming " + streaming);
+        }
+    }
+
+    /**
+     * Looks up books, archives and items of archives at once and one by one, and compares the metadata.
+     * The EAD document of an archive is fetched once, whatever the number of its items looked up.
+     */
+    private void assertLookupByPidsEqualsLookupByPid(String prefix) throws Exception {
+        List<String> pids = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            pids.add("10622/" + prefix + "B" + i);
+        for (int i = 0; i < 3; i++) {
+            pids.add("10622/ARCH" + prefix + i);
+            for (int item = 1; item <= 4; item++)
+                pids.add("10622/ARCH" + prefix + i + "." + item);
+        }
+        // An archive of which only items are looked up
+        for (int item = 1; item <= 4; item++)
+            pids.add("10622/ARCH" + prefix + "X." + item);
+
+        long eadFetches = getEADFetches();
+        Map<String, MetadataRecordExtractor> extractors = lookupService.getRecordExtractorsByPids(pids);
+        assertEquals(4, getEADFetches() - eadFetches, "EAD documents fetched");
+
+        assertEquals(new HashSet<>(pids), extractors.keySet());
+        for (String pid : pids)
+            assertEquals(describe(lookupService.getRecordExtractorByPid(pid)), describe(extractors.get(pid)), pid);
+    }
+
+    private long getEADFetches() {
+        Timer timer = meterRegistry.find("delivery.api.lookup").tag("leg", "ead").timer();
+        return (timer != null) ? timer.count() : 0;
+    }
+}
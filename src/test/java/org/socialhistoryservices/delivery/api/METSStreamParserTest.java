@@ -0,0 +1,278 @@
+package org.socialhistoryservices.delivery.api;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the streaming METS parser against the DOM resolver it replaced, and the time it takes to parse large documents.
+ */
+public class METSStreamParserTest {
+    private static final String[] USES = {"archive application", "archive image", "hires reference", "thumbnail"};
+
+    @Test
+    public void resultEqualsDomResolver() throws Exception {
+        // As delivered by the SOR: every page points to one file of every group, in a random order of pages
+        String mets = createMets(100, USES, 1, new Random(1));
+
+        assertEquals(resolveWithDom(mets, HashSet::new), parse(mets));
+    }
+
+    @Test
+    public void irregularDocumentEqualsDomResolver() throws Exception {
+        String mets = header() +
+                "<fileSec>" +
+                "<fileGrp USE=\"archive image\">" +
+                file("f1", "10622/A1") +
+                // Without a location, or with a location that is not a handle, a file has no PID
+                "<file ID=\"f2\"/>" +
+                "<file ID=\"f3\"><FLocat LOCTYPE=\"URL\" xlink:href=\"http://example.org/f3\"/></file>" +
+                // Only the first location of a file determines its PID
+                "<file ID=\"f4\">" + location("10622/A4") + location("10622/B4") + "</file>" +
+                "</fileGrp>" +
+                "<fileGrp USE=\"thumbnail\">" +
+                // Only the first file with an id and a PID determines the PID of that id
+                file("f1", "10622/T1") +
+                file("f2", "10622/T2") +
+                // A nested group adds its files to the enclosing group as well
+                "<fileGrp USE=\"nested\">" + file("f5", "10622/N5") + "</fileGrp>" +
+                "</fileGrp>" +
+                // A group without pointed to files is left out
+                "<fileGrp USE=\"unused\">" + file("f6", "10622/U6") + "</fileGrp>" +
+                "</fileSec>" +
+                // The pages of other than physical structure maps are ignored
+                "<structMap TYPE=\"logical\">" + page(0, "f6") + "</structMap>" +
+                "<structMap TYPE=\"physical\"><div TYPE=\"book\">" +
+                page(3, "f4") + page(1, "f1") + page(2, "f2") + page(4, "f3") + page(5, "f5") + page(6, "unknown") +
+                "</div></structMap>" +
+                footer();
+
+        Map<String, List<String>> expected = new HashMap<>();
+        expected.put("archive image", Arrays.asList("10622/A1", "10622/T2", "10622/A4", null));
+        expected.put("thumbnail", Arrays.asList("10622/A1", "10622/T2", "10622/N5"));
+        expected.put("nested", Collections.singletonList("10622/N5"));
+
+        assertEquals(expected, parse(mets));
+        assertEquals(resolveWithDom(mets, HashSet::new), parse(mets));
+    }
+
+    @Test
+    public void pointersWithinPageKeepDocumentOrder() throws Exception {
+        // The DOM resolver collected the pointers of a page in a HashSet, so their order within a page was undefined;
+        // the parser keeps their order in the document. Otherwise the results are the same: collecting the pointers
+        // of a page in the order of the document, the DOM resolver gives the same result, and without that the same
+        // files per group.
+        String mets = createMets(30, USES, 3, new Random(2));
+        Map<String, List<String>> result = parse(mets);
+
+        assertEquals(resolveWithDom(mets, LinkedHashSet::new), result);
+
+        Map<String, List<String>> domResult = resolveWithDom(mets, HashSet::new);
+        assertEquals(domResult.keySet(), result.keySet());
+        for (String use : result.keySet())
+            assertEquals(sorted(domResult.get(use)), sorted(result.get(use)), "files of group " + use);
+
+        String page = header() +
+                "<fileSec><fileGrp USE=\"archive image\">" +
+                file("z", "10622/Z") + file("a", "10622/A") + file("m", "10622/M") +
+                "</fileGrp></fileSec>" +
+                "<structMap TYPE=\"physical\">" + page(1, "m", "z", "a") + "</structMap>" +
+                footer();
+
+        assertEquals(Collections.singletonMap("archive image", Arrays.asList("10622/M", "10622/Z", "10622/A")),
+                parse(page));
+    }
+
+    @Test
+    public void parseTimeIsLinear() throws Exception {
+        // The DOM resolver searched all files for every pointer and did not finish 2,000 pages within 10 minutes
+        String small = createMets(2_500, USES, 1, new Random(3));
+        String large = createMets(10_000, USES, 1, new Random(4));
+
+        Map<String, List<String>> result = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> parse(large));
+        for (String use : USES)
+            assertEquals(10_000, result.get(use).size(), "files of group " + use);
+
+        // Four times as many pages; a quadratic parser would take sixteen times as long
+        long smallTime = bestTimeOf(small);
+        long largeTime = bestTimeOf(large);
+        assertTrue(largeTime < 10 * smallTime,
+                String.format("parse time of 2,500 pages: %d ms, of 10,000 pages: %d ms",
+                        smallTime / 1_000_000, largeTime / 1_000_000));
+    }
+
+    private static Map<String, List<String>> parse(String mets) throws Exception {
+        try (InputStream inputStream = new ByteArrayInputStream(mets.getBytes(StandardCharsets.UTF_8))) {
+            return METSStreamParser.parse(inputStream);
+        }
+    }
+
+    private static long bestTimeOf(String mets) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            parse(mets);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static List<String> sorted(List<String> pids) {
+        List<String> sorted = new ArrayList<>(pids);
+        sorted.sort(Comparator.nullsFirst(Comparator.naturalOrder()));
+        return sorted;
+    }
+
+    /**
+     * Creates a METS document in which every page points to the given number of files of every group.
+     */
+    private static String createMets(int pages, String[] uses, int filesPerPage, Random random) {
+        StringBuilder sb = new StringBuilder(header()).append("<fileSec>");
+        for (String use : uses) {
+            sb.append("<fileGrp USE=\"").append(use).append("\">");
+            for (int page = 1; page <= pages; page++) {
+                for (int i = 0; i < filesPerPage; i++) {
+                    String id = fileId(use, page, i);
+                    sb.append(file(id, "10622/" + id));
+                }
+            }
+            sb.append("</fileGrp>");
+        }
+        sb.append("</fileSec>");
+
+        List<Integer> order = new ArrayList<>();
+        for (int page = 1; page <= pages; page++)
+            order.add(page);
+        Collections.shuffle(order, random);
+
+        sb.append("<structMap TYPE=\"physical\"><div TYPE=\"book\">");
+        for (int page : order) {
+            List<String> fileIds = new ArrayList<>();
+            for (String use : uses) {
+                for (int i = 0; i < filesPerPage; i++)
+                    fileIds.add(fileId(use, page, i));
+            }
+            Collections.shuffle(fileIds, random);
+            sb.append(page(page, fileIds.toArray(new String[0])));
+        }
+        return sb.append("</div></structMap>").append(footer()).toString();
+    }
+
+    private static String fileId(String use, int page, int i) {
+        return use.replace(' ', '-') + "-" + page + "-" + i;
+    }
+
+    private static String header() {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<mets xmlns=\"http://www.loc.gov/METS/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">";
+    }
+
+    private static String footer() {
+        return "</mets>";
+    }
+
+    private static String file(String id, String pid) {
+        return "<file ID=\"" + id + "\" MIMETYPE=\"image/jpeg\">" + location(pid) + "</file>";
+    }
+
+    private static String location(String pid) {
+        return "<FLocat LOCTYPE=\"HANDLE\" xlink:href=\"http://hdl.handle.net/" + pid + "?locatt=view:level1\"/>";
+    }
+
+    private static String page(int order, String... fileIds) {
+        StringBuilder sb = new StringBuilder("<div TYPE=\"page\" ORDER=\"" + order + "\">");
+        for (String fileId : fileIds)
+            sb.append("<fptr FILEID=\"").append(fileId).append("\"/>");
+        return sb.append("</div>").toString();
+    }
+
+    /**
+     * The DOM resolver as used before the streaming parser, parsing as SharedObjectRepositoryService did.
+     * The file pointers of a page are collected in the given type of set; the resolver used a HashSet.
+     */
+    private static Map<String, List<String>> resolveWithDom(String mets, Supplier<Set<String>> pageFptrs)
+            throws Exception {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setIgnoringComments(true);
+        Document document = dbf.newDocumentBuilder()
+                .parse(new ByteArrayInputStream(mets.getBytes(StandardCharsets.UTF_8)));
+
+        Map<String, List<String>> filePids = new HashMap<>();
+
+        Map<String, Set<String>> fptrsPerGroup = new TreeMap<>();
+        for (Element fileGrpElement : getElements(document.getElementsByTagName("fileGrp"))) {
+            Set<String> fptrs = new HashSet<>();
+            for (Element fptrElement : getElements(fileGrpElement.getElementsByTagName("file")))
+                fptrs.add(fptrElement.getAttribute("ID"));
+            fptrsPerGroup.put(fileGrpElement.getAttribute("USE"), fptrs);
+        }
+
+        Map<Integer, Set<String>> fptrsOrdered = new TreeMap<>();
+        for (Element structMapElement : getElements(document.getElementsByTagName("structMap"))) {
+            if (structMapElement.getAttribute("TYPE").equals("physical")) {
+                for (Element divElement : getElements(structMapElement.getElementsByTagName("div"))) {
+                    if (divElement.getAttribute("TYPE").equals("page")) {
+                        Set<String> fptrs = pageFptrs.get();
+                        for (Element fptrElement : getElements(divElement.getElementsByTagName("fptr")))
+                            fptrs.add(fptrElement.getAttribute("FILEID"));
+                        fptrsOrdered.put(Integer.parseInt(divElement.getAttribute("ORDER")), fptrs);
+                    }
+                }
+            }
+        }
+
+        for (String fileGrp : fptrsPerGroup.keySet()) {
+            List<String> files = new ArrayList<>();
+            for (Integer order : fptrsOrdered.keySet()) {
+                for (String fptr : fptrsOrdered.get(order)) {
+                    if (fptrsPerGroup.get(fileGrp).contains(fptr))
+                        files.add(getFilePidFromFptr(document, fptr));
+                }
+            }
+            if (!files.isEmpty())
+                filePids.put(fileGrp, files);
+        }
+
+        return filePids;
+    }
+
+    private static String getFilePidFromFptr(Document document, String id) {
+        Pattern handlePidPattern = Pattern.compile("^http://hdl.handle.net/10622/(.*?)\\?locatt=.*$");
+        for (Element fileElement : getElements(document.getElementsByTagName("file"))) {
+            if (fileElement.getAttribute("ID").equals(id)) {
+                NodeList fLocatElements = fileElement.getElementsByTagName("FLocat");
+                List<Element> elements = getElements(fLocatElements);
+                if (!elements.isEmpty()) {
+                    String url = elements.get(0).getAttribute("xlink:href");
+                    Matcher matcher = handlePidPattern.matcher(url);
+                    if (matcher.find())
+                        return "10622/" + matcher.group(1);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static List<Element> getElements(NodeList nodeList) {
+        List<Element> elements = new ArrayList<>();
+        for (int i = 0; i < nodeList.getLength(); i++) {
+            if (nodeList.item(i).getNodeType() == Node.ELEMENT_NODE)
+                elements.add((Element) nodeList.item(i));
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,39 @@
+package org.socialhistoryservices.delivery.api;
+
+import org.socialhistoryservices.delivery.record.entity.ArchiveHoldingInfo;
+import org.socialhistoryservices.delivery.record.entity.ExternalHoldingInfo;
+import org.socialhistoryservices.delivery.record.entity.ExternalRecordInfo;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Helpers for tests of the record metadata extractors.
+ */
+final class MetadataRecordExtractors {
+    private MetadataRecordExtractors() {
+    }
+
+    /**
+     * Describes the metadata of a record, so the results of different lookups can be compared.
+     *
+     * @param extractor The metadata extractor of the record.
+     * @return The description of the metadata.
+     */
+    static String describe(MetadataRecordExtractor extractor) {
+        ExternalRecordInfo recordInfo = extractor.getRecordMetadata();
+        StringBuilder sb = new StringBuilder(recordInfo.getTitle())
+                .append('|').append(recordInfo.getAuthor())
+                .append('|').append(recordInfo.getDisplayYear())
+                .append('|').append(recordInfo.getMaterialType());
+
+        for (Map.Entry<String, ExternalHoldingInfo> entry : new TreeMap<>(extractor.getHoldingMetadata()).entrySet())
+            sb.append('|').append(entry.getKey()).append('=').append(entry.getValue().getBarcode());
+
+        for (ArchiveHoldingInfo archiveHoldingInfo : extractor.getArchiveHoldingInfo())
+            sb.append('|').append(archiveHoldingInfo.getShelvingLocation())
+                    .append(':').append(archiveHoldingInfo.getNumbers());
+
+        return sb.toString();
+    }
+}
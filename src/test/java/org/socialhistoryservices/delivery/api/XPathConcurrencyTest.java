@@ -0,0 +1,144 @@
+package org.socialhistoryservices.delivery.api;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathExpression;
+import java.io.StringReader;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.socialhistoryservices.delivery.api.MetadataRecordExtractors.describe;
+
+/**
+ * Stress tests the compiled XPath expressions shared between threads, directly and through the record lookups
+ * against the SRW API and EAD documents of the stand-in server.
+ */
+@SpringBootTest
+@ActiveProfiles({"test", "standin"})
+public class XPathConcurrencyTest {
+    private static final int THREADS = 16;
+    private static final int ROUNDS = 2;
+
+    @Autowired
+    private IISHRecordLookupService lookupService;
+
+    @Test
+    public void sharedExpressionsEvaluateConcurrently() throws Exception {
+        XPathExpression title = XmlUtils.getXPathForMarc("245", 'a', "//");
+        XPathExpression id = XmlUtils.getXPathForMarc("852", 'j', "//");
+
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            documents.add(parse("<marc:record xmlns:marc=\"http://www.loc.gov/MARC21/slim\">" +
+                    dataField("245", 'a', "Title " + i) + dataField("852", 'j', "N " + i) + "</marc:record>"));
+
+        runConcurrently(thread -> {
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < documents.size(); i++) {
+                    int index = (i + thread) % documents.size();
+                    assertEquals("Title " + index, XmlUtils.evaluate(title, documents.get(index)));
+                    assertEquals("N " + index, XmlUtils.evaluate(id, documents.get(index)));
+                }
+            }
+        });
+    }
+
+    @Test
+    public void lookupsByPidAreConsistent() throws Exception {
+        List<String> pids = new ArrayList<>();
+        for (int i = 0; i < 30; i++)
+            pids.add("10622/XPB" + i);
+        for (int i = 0; i < 10; i++)
+            pids.add("10622/ARCHXP" + i);
+        for (int i = 0; i < 10; i++)
+            pids.add("10622/ARCHXP" + i + "." + (i + 1));
+
+        // The lookups of a single thread are the reference for the concurrent lookups
+        Map<String, String> expected = new HashMap<>();
+        for (String pid : pids)
+            expected.put(pid, describe(lookupService.getRecordExtractorByPid(pid)));
+        assertTrue(expected.get("10622/XPB0").startsWith("Stand-in title XPB0|"), expected.get("10622/XPB0"));
+        assertTrue(expected.get("10622/ARCHXP0").startsWith("Stand-in archive ARCHXP0|"),
+                expected.get("10622/ARCHXP0"));
+
+        runConcurrently(thread -> {
+            List<String> shuffled = new ArrayList<>(pids);
+            Collections.shuffle(shuffled, new Random(thread));
+            for (int round = 0; round < ROUNDS; round++) {
+                for (String pid : shuffled)
+                    assertEquals(expected.get(pid), describe(lookupService.getRecordExtractorByPid(pid)), pid);
+            }
+        });
+    }
+
+    @Test
+    public void searchesByTitleAreConsistent() throws Exception {
+        runConcurrently(thread -> {
+            for (int round = 0; round < ROUNDS; round++) {
+                String title = "Thread " + thread + " round " + round;
+                RecordLookupService.PageChunk pc = lookupService.getRecordsByTitle(title, 20, 1);
+
+                assertEquals(20, pc.getResults().size(), title);
+                for (int i = 1; i <= 20; i++)
+                    assertEquals(title + " " + i, pc.getResults().get("10622/T" + i).trim(), title);
+            }
+        });
+    }
+
+    /**
+     * Runs the task in the given number of threads at once, and fails if it fails in any of the threads.
+     */
+    private static void runConcurrently(ThreadTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                int thread = i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run(thread);
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (Future<?> future : futures) {
+                try {
+                    future.get(2, TimeUnit.MINUTES);
+                }
+                catch (ExecutionException ee) {
+                    if (ee.getCause() instanceof Error)
+                        throw (Error) ee.getCause();
+                    throw ee;
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @FunctionalInterface
+    private interface ThreadTask {
+        void run(int thread) throws Exception;
+    }
+
+    private static Document parse(String xml) throws Exception {
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        return dbf.newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+    }
+
+    private static String dataField(String tag, char code, String value) {
+        return "<marc:datafield tag=\"" + tag + "\"><marc:subfield code=\"" + code + "\">" + value +
+                "</marc:subfield></marc:datafield>";
+    }
+}
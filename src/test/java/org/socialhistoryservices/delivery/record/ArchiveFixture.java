@@ -0,0 +1,85 @@
+package org.socialhistoryservices.delivery.record;
+
+import org.socialhistoryservices.delivery.record.entity.ExternalRecordInfo;
+import org.socialhistoryservices.delivery.record.entity.Holding;
+import org.socialhistoryservices.delivery.record.entity.Record;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Creates archives for the tests: a parent record with child records in one or more containers,
+ * each record with a single available holding.
+ */
+public final class ArchiveFixture {
+    private ArchiveFixture() {
+    }
+
+    /**
+     * Creates an archive in the given transaction.
+     *
+     * @param entityManager     The entity manager of the transaction.
+     * @param containers        The number of containers.
+     * @param itemsPerContainer The number of child records in every container.
+     * @return The ids of the holdings, by container.
+     */
+    public static List<List<Integer>> createArchive(EntityManager entityManager, int containers,
+                                                    int itemsPerContainer) {
+        String pid = "10622/ARCH" + UUID.randomUUID();
+
+        Record parent = createRecord(pid, null);
+        parent.addHolding(createHolding(parent, "ARCH"));
+        entityManager.persist(parent);
+
+        List<List<Holding>> holdings = new ArrayList<>();
+        for (int c = 0; c < containers; c++) {
+            List<Holding> inContainer = new ArrayList<>();
+            for (int i = 0; i < itemsPerContainer; i++) {
+                Record child = createRecord(pid + "." + c + "." + i, parent);
+                child.getExternalInfo().setContainer(String.valueOf(c + 1));
+
+                Holding holding = createHolding(child, "ARCH." + c + "." + i);
+                child.addHolding(holding);
+
+                entityManager.persist(child);
+                inContainer.add(holding);
+            }
+            holdings.add(inContainer);
+        }
+        entityManager.flush();
+
+        List<List<Integer>> ids = new ArrayList<>();
+        for (List<Holding> inContainer : holdings) {
+            List<Integer> idsInContainer = new ArrayList<>();
+            inContainer.forEach(holding -> idsInContainer.add(holding.getId()));
+            ids.add(idsInContainer);
+        }
+        return ids;
+    }
+
+    private static Holding createHolding(Record record, String signature) {
+        Holding holding = new Holding();
+        holding.setSignature(signature);
+        holding.setStatus(Holding.Status.AVAILABLE);
+        holding.setUsageRestriction(Holding.UsageRestriction.OPEN);
+        holding.setRecord(record);
+        return holding;
+    }
+
+    private static Record createRecord(String pid, Record parent) {
+        ExternalRecordInfo info = new ExternalRecordInfo();
+        info.setTitle(pid);
+        info.setMaterialType(ExternalRecordInfo.MaterialType.ARCHIVE);
+        info.setPublicationStatus(ExternalRecordInfo.PublicationStatus.OPEN);
+        info.setRestriction(ExternalRecordInfo.Restriction.OPEN);
+
+        Record record = new Record();
+        record.setPid(pid);
+        record.setParent(parent);
+        record.setExternalInfo(info);
+        record.setHoldings(new ArrayList<>());
+        return record;
+    }
+}
@@ -0,0 +1,65 @@
+package org.socialhistoryservices.delivery.record;
+
+import org.junit.jupiter.api.Test;
+import org.socialhistoryservices.delivery.record.entity.Holding;
+import org.socialhistoryservices.delivery.record.entity.Record;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the ids of records and holdings are allocated from the sequence in blocks.
+ */
+@SpringBootTest
+@ActiveProfiles({"test", "standin"})
+public class RecordIdAllocationTest {
+    private static final int ALLOCATION_SIZE = 50;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Test
+    public void idsAreAllocatedInBlocks() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+        long before = transactionTemplate.execute(status -> getSequenceValue());
+        List<Integer> holdingIds = transactionTemplate.execute(status ->
+                ArchiveFixture.createArchive(entityManager, 1, 200).get(0));
+        long calls = (transactionTemplate.execute(status -> getSequenceValue()) - before) / ALLOCATION_SIZE;
+
+        // The parent and 200 children, each with external info and a holding
+        int ids = 3 * 201;
+        assertTrue(calls * ALLOCATION_SIZE >= ids - ALLOCATION_SIZE, "sequence calls: " + calls);
+        // Each type of entity starts its own block, which may be (nearly) unused
+        assertTrue(calls <= (ids / ALLOCATION_SIZE) + 10, "sequence calls: " + calls);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            Set<Integer> recordIds = new HashSet<>();
+            for (int holdingId : holdingIds) {
+                Holding holding = entityManager.find(Holding.class, holdingId);
+                Record record = holding.getRecord();
+                assertTrue(recordIds.add(record.getId()), "record id " + record.getId());
+            }
+        });
+        assertEquals(200, new HashSet<>(holdingIds).size());
+    }
+
+    private long getSequenceValue() {
+        return ((Number) entityManager.createNativeQuery(
+                "SELECT CURRENT_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = 'RECORD_SEQUENCE'")
+                .getSingleResult()).longValue();
+    }
+}
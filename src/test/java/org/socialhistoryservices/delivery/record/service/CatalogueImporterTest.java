@@ -0,0 +1,256 @@
+package org.socialhistoryservices.delivery.record.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.socialhistoryservices.delivery.config.DeliveryProperties;
+import org.socialhistoryservices.delivery.record.entity.ExternalRecordInfo;
+import org.socialhistoryservices.delivery.record.entity.Record;
+import org.socialhistoryservices.delivery.util.InvalidRequestException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the import of catalogue snapshots: books are taken from the snapshot, archives are looked up
+ * in the stand-in, records without a PID fail, and an interrupted import resumes where it left off.
+ */
+@SpringBootTest
+@ActiveProfiles({"test", "standin"})
+public class CatalogueImporterTest {
+    private static final int BATCH_SIZE = 3;
+    private static final int RECORDS = 12;
+    private static final Set<Integer> ARCHIVES = new HashSet<>(Arrays.asList(2, 7, 10));
+    private static final Set<Integer> WITHOUT_PID = new HashSet<>(Arrays.asList(4, 9));
+
+    @Autowired
+    private CatalogueImporter catalogueImporter;
+
+    @Autowired
+    private RecordService records;
+
+    @Autowired
+    private DeliveryProperties deliveryProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @TempDir
+    Path tempDirectory;
+
+    private Path importDirectory;
+    private String catalogueImportDirectory;
+    private int catalogueImportBatchSize;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        catalogueImportDirectory = deliveryProperties.getCatalogueImportDirectory();
+        catalogueImportBatchSize = deliveryProperties.getCatalogueImportBatchSize();
+        deliveryProperties.setCatalogueImportBatchSize(BATCH_SIZE);
+        importDirectory = Files.createDirectory(tempDirectory.resolve("import"));
+        deliveryProperties.setCatalogueImportDirectory(importDirectory.toString());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        deliveryProperties.setCatalogueImportDirectory(catalogueImportDirectory);
+        deliveryProperties.setCatalogueImportBatchSize(catalogueImportBatchSize);
+    }
+
+    @Test
+    public void interruptedImportResumes() throws Exception {
+        List<String> pids = createPids();
+        String snapshot = createSnapshot(pids);
+        Path file = importDirectory.resolve("snapshot.xml");
+        Path progressFile = importDirectory.resolve("snapshot.xml.progress");
+
+        // The snapshot breaks off in the third batch, so only the first two batches are imported
+        Files.write(file, snapshot.substring(0, snapshot.indexOf(pids.get(7))).getBytes(StandardCharsets.UTF_8));
+        Map<String, Double> counts = importSnapshot(file, false);
+        assertTrue(catalogueImporter.getStatus().startsWith("Failed to import"), catalogueImporter.getStatus());
+        assertEquals("6", readProgress(progressFile));
+        assertEquals(expectedCounts(0, 6, false), counts);
+        assertImported(pids, 6);
+
+        // Once the snapshot is complete, the import resumes after the records already processed
+        Files.write(file, snapshot.getBytes(StandardCharsets.UTF_8));
+        counts = importSnapshot(file, false);
+        assertTrue(catalogueImporter.getStatus().startsWith("Imported"), catalogueImporter.getStatus());
+        assertEquals(String.valueOf(RECORDS), readProgress(progressFile));
+        assertEquals(expectedCounts(6, RECORDS, false), counts);
+        assertImported(pids, RECORDS);
+
+        // Restarting the import processes all records again, updating those imported
+        counts = importSnapshot(file, true);
+        assertEquals(String.valueOf(RECORDS), readProgress(progressFile));
+        assertEquals(expectedCounts(0, RECORDS, true), counts);
+    }
+
+    @Test
+    public void onlyOneImportRuns() throws Exception {
+        List<String> pids = createPids();
+        Path file = Files.write(importDirectory.resolve("snapshot.xml"),
+                createSnapshot(pids).getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(catalogueImporter.start(file, false));
+        assertFalse(catalogueImporter.start(file, false), "an import is already running");
+        awaitImport();
+        assertImported(pids, RECORDS);
+    }
+
+    @Test
+    public void snapshotsAreOnlyResolvedInTheImportDirectory() throws Exception {
+        Path snapshot = Files.write(importDirectory.resolve("snapshot.xml"), new byte[0]);
+        Files.write(tempDirectory.resolve("outside.xml"), new byte[0]);
+        Files.createDirectory(importDirectory.resolve("sub"));
+        Files.write(importDirectory.resolve("sub").resolve("nested.xml"), new byte[0]);
+
+        assertEquals(snapshot.toAbsolutePath(), catalogueImporter.resolveInImportDirectory("snapshot.xml"));
+
+        for (String fileName : new String[]{"../outside.xml", tempDirectory.resolve("outside.xml").toString(),
+                "sub/nested.xml", "sub/../../outside.xml", "..", ".", "", "sub", "missing.xml", "/etc/passwd"}) {
+            assertThrows(InvalidRequestException.class,
+                    () -> catalogueImporter.resolveInImportDirectory(fileName), fileName);
+        }
+    }
+
+    @Test
+    public void snapshotsAreNotResolvedWithoutAnImportDirectory() throws Exception {
+        Files.write(importDirectory.resolve("snapshot.xml"), new byte[0]);
+        deliveryProperties.setCatalogueImportDirectory(null);
+
+        assertThrows(InvalidRequestException.class, () -> catalogueImporter.resolveInImportDirectory("snapshot.xml"));
+    }
+
+    /**
+     * Imports the snapshot and returns the number of records created, updated and failed by the import.
+     */
+    private Map<String, Double> importSnapshot(Path file, boolean restart) throws InterruptedException {
+        Map<String, Double> before = getCounts();
+        assertTrue(catalogueImporter.start(file, restart), "import started");
+        awaitImport();
+
+        Map<String, Double> counts = getCounts();
+        counts.replaceAll((result, count) -> count - before.get(result));
+        return counts;
+    }
+
+    private void awaitImport() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (catalogueImporter.isRunning()) {
+            assertTrue(System.nanoTime() < deadline, "import finished in time");
+            Thread.sleep(50);
+        }
+    }
+
+    private Map<String, Double> getCounts() {
+        Map<String, Double> counts = new TreeMap<>();
+        for (String result : new String[]{"created", "updated", "failed"}) {
+            Counter counter = meterRegistry.find("delivery.records.import").tag("result", result).counter();
+            counts.put(result, (counter != null) ? counter.count() : 0);
+        }
+        return counts;
+    }
+
+    /**
+     * The counts of the import of the records from the given index up to the given index:
+     * the records with a PID are created, or updated if they were imported before.
+     */
+    private static Map<String, Double> expectedCounts(int from, int to, boolean importedBefore) {
+        int failed = (int) WITHOUT_PID.stream().filter(i -> (i >= from) && (i < to)).count();
+        int withPid = (to - from) - failed;
+
+        Map<String, Double> counts = new TreeMap<>();
+        counts.put("created", importedBefore ? 0.0 : withPid);
+        counts.put("updated", importedBefore ? withPid : 0.0);
+        counts.put("failed", (double) failed);
+        return counts;
+    }
+
+    /**
+     * Asserts that the records with a PID before the given index were imported, and the others not.
+     */
+    private void assertImported(List<String> pids, int processed) {
+        for (int i = 0; i < RECORDS; i++) {
+            if (WITHOUT_PID.contains(i))
+                continue;
+
+            Record record = records.getRecordByPid(pids.get(i));
+            if (i < processed) {
+                assertNotNull(record, "record " + i + " imported");
+                assertEquals(ARCHIVES.contains(i) ? ExternalRecordInfo.MaterialType.ARCHIVE
+                        : ExternalRecordInfo.MaterialType.BOOK, record.getExternalInfo().getMaterialType());
+            }
+            else {
+                assertNull(record, "record " + i + " not yet imported");
+            }
+        }
+    }
+
+    private static String readProgress(Path progressFile) throws IOException {
+        return new String(Files.readAllBytes(progressFile), StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Creates unique PIDs, of books and of archives, so that the records do not exist yet.
+     */
+    private static List<String> createPids() {
+        String id = UUID.randomUUID().toString();
+        List<String> pids = new ArrayList<>();
+        for (int i = 0; i < RECORDS; i++)
+            pids.add(ARCHIVES.contains(i) ? "10622/ARCHIMP" + id + "-" + i : "10622/IMP" + id + "-" + i);
+        return pids;
+    }
+
+    /**
+     * Creates a MARCXML collection of the records, with the PIDs in 902$a.
+     */
+    private static String createSnapshot(List<String> pids) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        sb.append("<marc:collection xmlns:marc=\"http://www.loc.gov/MARC21/slim\">");
+        for (int i = 0; i < pids.size(); i++) {
+            String pid = pids.get(i);
+            String id = pid.substring(pid.indexOf('/') + 1);
+            sb.append("<marc:record>");
+            if (ARCHIVES.contains(i)) {
+                sb.append("<marc:leader>00000npc a22</marc:leader>");
+                appendDataField(sb, "245", 'a', "Imported archive " + i);
+                appendDataField(sb, "852", 'c', "IISG", 'j', id);
+                appendDataField(sb, "856", 'u', "http://localhost/ead/" + id + "?locatt=view:ead");
+            }
+            else {
+                sb.append("<marc:leader>00000nam a22</marc:leader>");
+                appendDataField(sb, "245", 'a', "Imported book " + i);
+                appendDataField(sb, "852", 'c', "IISG", 'j', "N " + id,
+                        'p', String.format("3006%08d", Math.floorMod(pid.hashCode(), 100000000)));
+            }
+            if (!WITHOUT_PID.contains(i))
+                appendDataField(sb, "902", 'a', pid);
+            sb.append("</marc:record>");
+        }
+        sb.append("</marc:collection>");
+        return sb.toString();
+    }
+
+    private static void appendDataField(StringBuilder sb, String tag, Object... subfields) {
+        sb.append("<marc:datafield tag=\"").append(tag).append("\" ind1=\" \" ind2=\" \">");
+        for (int i = 0; i < subfields.length; i += 2) {
+            sb.append("<marc:subfield code=\"").append(subfields[i]).append("\">")
+                    .append(subfields[i + 1]).append("</marc:subfield>");
+        }
+        sb.append("</marc:datafield>");
+    }
+}
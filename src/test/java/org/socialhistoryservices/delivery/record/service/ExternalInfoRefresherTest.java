@@ -0,0 +1,90 @@
+package org.socialhistoryservices.delivery.record.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.socialhistoryservices.delivery.record.ArchiveFixture;
+import org.socialhistoryservices.delivery.record.entity.Holding;
+import org.socialhistoryservices.delivery.record.entity.Record;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the selection of the records of which the external info is to be refreshed in the background.
+ */
+@SpringBootTest
+@ActiveProfiles({"test", "standin"})
+public class ExternalInfoRefresherTest {
+    private static final Date UPDATED_BEFORE = Timestamp.valueOf("1990-01-01 00:00:00");
+
+    @Autowired
+    private RecordService records;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    public void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Test
+    public void recordsNeverUpdatedAreListedFirst() {
+        // Three records never updated, three updated long ago and one updated recently
+        List<Integer> recordIds = transactionTemplate.execute(status -> {
+            List<Integer> ids = new ArrayList<>();
+            for (int holdingId : ArchiveFixture.createArchive(entityManager, 1, 7).get(0)) {
+                Record record = entityManager.find(Holding.class, holdingId).getRecord();
+                ids.add(record.getId());
+                record.setExternalInfoUpdated((ids.size() <= 3) ? null
+                        : Timestamp.valueOf("1980-01-0" + (ids.size() - 3) + " 00:00:00"));
+            }
+            entityManager.find(Record.class, ids.get(6)).setExternalInfoUpdated(new Date());
+            return ids;
+        });
+
+        // Walk all pages, as the refresher does
+        List<Record> listed = new ArrayList<>();
+        Record last = null;
+        List<Record> page;
+        while (!(page = records.listByExternalInfoUpdatedBefore(UPDATED_BEFORE, last, 2)).isEmpty()) {
+            listed.addAll(page);
+            last = page.get(page.size() - 1);
+        }
+
+        Set<Integer> listedIds = new HashSet<>();
+        listed.forEach(record -> assertTrue(listedIds.add(record.getId()), "record listed twice: " + record.getId()));
+        assertEquals(records.countByExternalInfoUpdatedBefore(UPDATED_BEFORE), listed.size());
+        assertTrue(listedIds.containsAll(recordIds.subList(0, 6)), "records never updated or updated long ago");
+        assertFalse(listedIds.contains(recordIds.get(6)), "record updated recently");
+
+        // All records never updated come first, the others in the order of their update
+        int firstUpdated = 0;
+        while ((firstUpdated < listed.size()) && (listed.get(firstUpdated).getExternalInfoUpdated() == null))
+            firstUpdated++;
+        for (int i = firstUpdated; i < listed.size(); i++) {
+            assertNotNull(listed.get(i).getExternalInfoUpdated(), "record never updated after an updated record");
+            if (i > firstUpdated)
+                assertFalse(listed.get(i).getExternalInfoUpdated().before(listed.get(i - 1).getExternalInfoUpdated()));
+        }
+        Set<Integer> neverUpdatedIds = listed.subList(0, firstUpdated).stream()
+                .map(Record::getId)
+                .collect(Collectors.toSet());
+        assertTrue(neverUpdatedIds.containsAll(recordIds.subList(0, 3)), "records never updated");
+    }
+}
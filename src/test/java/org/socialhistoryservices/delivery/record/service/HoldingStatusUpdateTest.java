@@ -0,0 +1,220 @@
+package org.socialhistoryservices.delivery.record.service;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.socialhistoryservices.delivery.record.ArchiveFixture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socialhistoryservices.delivery.record.entity.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the update of the status of a holding and of the holdings of the other records in the same container,
+ * counting the statements with the Hibernate statistics.
+ */
+@SpringBootTest
+@ActiveProfiles({"test", "standin"})
+public class HoldingStatusUpdateTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HoldingStatusUpdateTest.class);
+    private static final int BENCHMARK_CONTAINER_SIZE = 300;
+    private static final int BENCHMARK_CHANGES = 20;
+
+    @Autowired
+    private RecordService records;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private TransactionTemplate transactionTemplate;
+    private Statistics statistics;
+
+    @BeforeEach
+    public void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+    }
+
+    @Test
+    public void statementCountDoesNotDependOnContainerSize() {
+        long small = countStatementsOfUpdate(createContainer(10));
+        long large = countStatementsOfUpdate(createContainer(200));
+
+        // The lock of the container, the update of the holding, the selection of its siblings
+        // and the bulk update of the siblings
+        assertEquals(4, small, "statements of a container of 10 holdings");
+        assertEquals(small, large, "statements of a container of 10 and of 200 holdings");
+    }
+
+    @Test
+    public void siblingsAreUpdatedAndVersioned() {
+        List<Integer> holdingIds = createContainer(20);
+        List<Integer> versions = getVersions(holdingIds);
+
+        transactionTemplate.executeWithoutResult(status ->
+                records.updateHoldingStatus(records.getHoldingById(holdingIds.get(0)), Holding.Status.IN_USE));
+
+        for (int i = 0; i < holdingIds.size(); i++) {
+            Holding holding = getHolding(holdingIds.get(i));
+            assertEquals(Holding.Status.IN_USE, holding.getStatus());
+            assertEquals(versions.get(i) + 1, holding.getVersion(), "version of holding " + i);
+        }
+    }
+
+    @Test
+    public void loadedSiblingsAreRefreshed() {
+        List<Integer> holdingIds = createContainer(5);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            Holding sibling = records.getHoldingById(holdingIds.get(3));
+            int version = sibling.getVersion();
+
+            records.updateHoldingStatus(records.getHoldingById(holdingIds.get(0)), Holding.Status.IN_USE);
+
+            assertEquals(Holding.Status.IN_USE, sibling.getStatus());
+            assertEquals(version + 1, sibling.getVersion());
+        });
+
+        assertEquals(Holding.Status.IN_USE, getHolding(holdingIds.get(3)).getStatus());
+    }
+
+    @Test
+    public void onlyUpdatedSiblingsAreEvicted() {
+        List<Integer> holdingIds = createContainer(5);
+        int unrelatedId = createContainer(1).get(0);
+        Cache cache = entityManagerFactory.getCache();
+
+        getHolding(unrelatedId);
+        getHolding(holdingIds.get(3));
+        assertTrue(cache.contains(Holding.class, unrelatedId), "unrelated holding is cached");
+        assertTrue(cache.contains(Holding.class, holdingIds.get(3)), "sibling is cached");
+
+        transactionTemplate.executeWithoutResult(status ->
+                records.updateHoldingStatus(records.getHoldingById(holdingIds.get(0)), Holding.Status.IN_USE));
+
+        assertTrue(cache.contains(Holding.class, unrelatedId), "unrelated holding is still cached");
+        assertFalse(cache.contains(Holding.class, holdingIds.get(3)), "sibling is evicted");
+        assertEquals(Holding.Status.IN_USE, getHolding(holdingIds.get(3)).getStatus());
+    }
+
+    @Test
+    public void bulkUpdateOutperformsEntityUpdates() {
+        List<Integer> entityContainer = createContainer(BENCHMARK_CONTAINER_SIZE);
+        List<Integer> bulkContainer = createContainer(BENCHMARK_CONTAINER_SIZE);
+
+        // Warm up both, then measure them in turns
+        benchmark(entityContainer, this::updateHoldingStatusByEntities, 5);
+        benchmark(bulkContainer, records::updateHoldingStatus, 5);
+        long entityNanos = 0, bulkNanos = 0;
+        for (int round = 0; round < 4; round++) {
+            entityNanos += benchmark(entityContainer, this::updateHoldingStatusByEntities, BENCHMARK_CHANGES);
+            bulkNanos += benchmark(bulkContainer, records::updateHoldingStatus, BENCHMARK_CHANGES);
+        }
+
+        double entityPerSecond = 4 * BENCHMARK_CHANGES * 1e9 / entityNanos;
+        double bulkPerSecond = 4 * BENCHMARK_CHANGES * 1e9 / bulkNanos;
+        String result = String.format("status changes of a container of %d holdings: " +
+                        "%.1f/s updating the loaded siblings, %.1f/s with the bulk update",
+                BENCHMARK_CONTAINER_SIZE, entityPerSecond, bulkPerSecond);
+        LOGGER.info(result);
+
+        assertEquals(Holding.Status.IN_USE, getHolding(entityContainer.get(1)).getStatus());
+        assertEquals(Holding.Status.IN_USE, getHolding(bulkContainer.get(1)).getStatus());
+        assertTrue(bulkPerSecond > entityPerSecond, result);
+    }
+
+    /**
+     * Changes the status of the first holding of a container back and forth, each change in its own
+     * transaction, and returns the time taken. Ends with the status IN_USE.
+     */
+    private long benchmark(List<Integer> holdingIds, BiConsumer<Holding, Holding.Status> updateHoldingStatus,
+                           int changes) {
+        long start = System.nanoTime();
+        for (int i = 0; i < changes; i++) {
+            Holding.Status status = (i % 2 == 0) ? Holding.Status.AVAILABLE : Holding.Status.IN_USE;
+            transactionTemplate.executeWithoutResult(tx ->
+                    updateHoldingStatus.accept(records.getHoldingById(holdingIds.get(0)), status));
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The update of the status of a holding before the bulk update: every sibling in the same container
+     * is loaded and its holdings are changed.
+     */
+    private void updateHoldingStatusByEntities(Holding holding, Holding.Status status) {
+        holding.setStatus(status);
+
+        Record record = holding.getRecord();
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Record> query = builder.createQuery(Record.class);
+        Root<Record> recRoot = query.from(Record.class);
+        Join<Record, ExternalRecordInfo> eriRoot = recRoot.join(Record_.externalInfo);
+        query.select(recRoot);
+        query.where(builder.and(
+                builder.equal(recRoot.get(Record_.parent), record.getParent()),
+                builder.isNotNull(eriRoot.get(ExternalRecordInfo_.container)),
+                builder.equal(eriRoot.get(ExternalRecordInfo_.container), record.getExternalInfo().getContainer()),
+                builder.notEqual(recRoot.get(Record_.id), record.getId())
+        ));
+
+        for (Record sibling : entityManager.createQuery(query).getResultList()) {
+            for (Holding siblingHolding : sibling.getHoldings())
+                siblingHolding.setStatus(status);
+        }
+    }
+
+    /**
+     * Updates the status of the first holding and returns the number of statements prepared
+     * in the transaction, after the holding is loaded.
+     */
+    private long countStatementsOfUpdate(List<Integer> holdingIds) {
+        return transactionTemplate.execute(status -> {
+            Holding holding = records.getHoldingById(holdingIds.get(0));
+            statistics.clear();
+            records.updateHoldingStatus(holding, Holding.Status.IN_USE);
+            entityManager.flush();
+            return statistics.getPrepareStatementCount();
+        });
+    }
+
+    private List<Integer> createContainer(int size) {
+        return transactionTemplate.execute(status -> ArchiveFixture.createArchive(entityManager, 1, size).get(0));
+    }
+
+    private Holding getHolding(int id) {
+        return transactionTemplate.execute(status -> records.getHoldingById(id));
+    }
+
+    private List<Integer> getVersions(List<Integer> holdingIds) {
+        List<Integer> versions = new ArrayList<>();
+        holdingIds.forEach(id -> versions.add(getHolding(id).getVersion()));
+        return versions;
+    }
+}
@@ -0,0 +1,179 @@
+package org.socialhistoryservices.delivery.reproduction.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.socialhistoryservices.delivery.api.PayWayMessage;
+import org.socialhistoryservices.delivery.api.PayWayService;
+import org.socialhistoryservices.delivery.config.DeliveryProperties;
+import org.socialhistoryservices.delivery.reproduction.entity.Order;
+import org.socialhistoryservices.delivery.reproduction.entity.PayWayOutboxMessage;
+import org.socialhistoryservices.delivery.reproduction.entity.Reproduction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Date;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that a refund of the PayWay outbox is not sent again once the order is refunded,
+ * also not when an earlier attempt reached the stand-in PayWay without us knowing.
+ * Each test claims its message in a transaction which is rolled back, so the outbox worker never sees it.
+ */
+@SpringBootTest
+@ActiveProfiles({"test", "standin"})
+public class PayWayRefundTest {
+    private static final long AMOUNT = 1250;
+
+    @Autowired
+    private ReproductionService reproductions;
+
+    @Autowired
+    private PayWayService payWayService;
+
+    @Autowired
+    private DeliveryProperties deliveryProperties;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    public void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Test
+    public void refundIsSentOnFirstAttempt() throws Exception {
+        long orderId = createPayedOrder();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            int id = addRefund(orderId, 0);
+            assertNotNull(reproductions.claimPayWayMessage(id, lease()), "refund to send");
+            status.setRollbackOnly();
+        });
+    }
+
+    @Test
+    public void refundOfRefundedOrderIsNotSent() throws Exception {
+        long orderId = createPayedOrder();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            int id = addRefund(orderId, 0);
+            Order order = entityManager.find(Order.class, orderId);
+            order.setRefundedAmount(AMOUNT);
+            order.setPayed(Order.ORDER_REFUND_OGONE);
+            entityManager.flush();
+            entityManager.clear();
+
+            assertNull(reproductions.claimPayWayMessage(id, lease()), "order refunded already");
+            assertEquals(PayWayOutboxMessage.Status.SENT, entityManager.find(PayWayOutboxMessage.class, id).getStatus());
+            status.setRollbackOnly();
+        });
+    }
+
+    @Test
+    public void refundWhichReachedPayWayIsNotSentAgain() throws Exception {
+        long orderId = createPayedOrder();
+
+        // The first attempt was processed by PayWay, but its response was lost
+        PayWayMessage refund = payWayService.getMessageForOrderId(orderId);
+        refund.put("amount", AMOUNT);
+        payWayService.send("refundPayment", refund);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            int id = addRefund(orderId, 1);
+            assertEquals(Order.ORDER_PAYED, entityManager.find(Order.class, orderId).getPayed(), "order not refreshed");
+            entityManager.clear();
+
+            assertNull(reproductions.claimPayWayMessage(id, lease()), "order refunded by the earlier attempt");
+            assertEquals(PayWayOutboxMessage.Status.SENT, entityManager.find(PayWayOutboxMessage.class, id).getStatus());
+            assertEquals(AMOUNT, entityManager.find(Order.class, orderId).getRefundedAmount());
+            status.setRollbackOnly();
+        });
+    }
+
+    @Test
+    public void refundIsPostponedIfTheOrderCannotBeRefreshed() {
+        // An order unknown to PayWay, so it cannot be refreshed
+        long orderId = Long.MAX_VALUE - Math.abs(UUID.randomUUID().getMostSignificantBits() % 1000000);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            int id = addRefund(orderId, 1);
+            entityManager.clear();
+
+            assertNull(reproductions.claimPayWayMessage(id, lease()), "refund postponed");
+            PayWayOutboxMessage message = entityManager.find(PayWayOutboxMessage.class, id);
+            assertEquals(PayWayOutboxMessage.Status.PENDING, message.getStatus());
+            assertNotNull(message.getLastError());
+            status.setRollbackOnly();
+        });
+    }
+
+    /**
+     * Creates an order in the stand-in PayWay and pays it, as the customer would.
+     */
+    private long createPayedOrder() throws Exception {
+        PayWayMessage message = new PayWayMessage();
+        message.put("amount", AMOUNT);
+        message.put("currency", "EUR");
+        message.put("paymentmethod", PayWayMessage.ORDER_OGONE_PAYMENT);
+        message.put("com", "Refund test");
+        long orderId = payWayService.send("createOrder", message).getLong("orderid");
+
+        try (InputStream in = new URL(deliveryProperties.getPayWayAddress() + "/payment?orderid=" + orderId)
+                .openStream()) {
+            in.readAllBytes();
+        }
+        return orderId;
+    }
+
+    /**
+     * Adds a reproduction with the payed order and a refund of it in the outbox, which is due,
+     * as if it was claimed the given number of times before.
+     */
+    private int addRefund(long orderId, int attempts) {
+        Order order = new Order();
+        order.setId(orderId);
+        order.setAmount(AMOUNT);
+        order.setPayed(Order.ORDER_PAYED);
+
+        Reproduction reproduction = new Reproduction();
+        reproduction.setCustomerName("Refund test");
+        reproduction.setCustomerEmail("refund@example.org");
+        reproduction.setOrder(order);
+        entityManager.persist(reproduction);
+
+        PayWayMessage refund = payWayService.getMessageForOrderId(orderId);
+        refund.put("amount", AMOUNT);
+
+        PayWayOutboxMessage message = new PayWayOutboxMessage();
+        message.setReproduction(reproduction);
+        message.setOperation(PayWayOutboxMessage.Operation.REFUND_PAYMENT);
+        message.setIdempotencyKey("refundPayment:order:" + orderId);
+        message.setMessage(refund);
+        message.setStatus(PayWayOutboxMessage.Status.PENDING);
+        message.setAttempts(attempts);
+        message.setNextAttempt(new Date(System.currentTimeMillis() - 1000));
+        message.setCreationDate(new Date());
+        entityManager.persist(message);
+        entityManager.flush();
+        return message.getId();
+    }
+
+    private static Date lease() {
+        return new Date(System.currentTimeMillis() + 60000);
+    }
+}
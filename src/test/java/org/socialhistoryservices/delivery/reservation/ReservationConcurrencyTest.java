@@ -0,0 +1,327 @@
+package org.socialhistoryservices.delivery.reservation;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.socialhistoryservices.delivery.record.ArchiveFixture;
+import org.socialhistoryservices.delivery.record.entity.Holding;
+import org.socialhistoryservices.delivery.record.service.RecordService;
+import org.socialhistoryservices.delivery.reservation.entity.Reservation;
+import org.socialhistoryservices.delivery.reservation.service.ReservationService;
+import org.socialhistoryservices.delivery.standin.StandInConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.WebApplicationContext;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Tests concurrent reservations of holdings through the visitors create form:
+ * a holding, or the items of a container, are never reserved twice, reservations of other containers
+ * are not held up, and the concurrent status changes of the holdings do not make a reservation fail.
+ */
+@SpringBootTest
+@ActiveProfiles({"test", "standin"})
+public class ReservationConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final String SUCCESS = "reservation_success";
+
+    @Autowired
+    private WebApplicationContext context;
+
+    @Autowired
+    private RecordService records;
+
+    @Autowired
+    private ReservationService reservations;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private MockMvc mockMvc;
+    private TransactionTemplate transactionTemplate;
+    private TransactionTemplate newTransactionTemplate;
+    private ExecutorService executor;
+    private String date;
+
+    @BeforeEach
+    public void setUp() {
+        mockMvc = MockMvcBuilders.webAppContextSetup(context).build();
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        newTransactionTemplate = new TransactionTemplate(transactionManager);
+        newTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        executor = Executors.newFixedThreadPool(THREADS + 2);
+        date = new SimpleDateFormat("yyyy-MM-dd").format(reservations.getFirstValidReservationDate(new Date()));
+    }
+
+    @Test
+    public void holdingIsReservedOnce() throws Exception {
+        int holdingId = createArchive(1, 1).get(0).get(0);
+
+        List<String> views = reserveConcurrently(Collections.nCopies(THREADS, holdingId));
+
+        assertEquals(1, Collections.frequency(views, SUCCESS), "successful reservations of " + views);
+        assertEquals(1, countOpenHoldingReservations(Collections.singletonList(holdingId)));
+        assertEquals(Holding.Status.RESERVED, getHolding(holdingId).getStatus());
+    }
+
+    @Test
+    public void containerIsReservedOnce() throws Exception {
+        List<Integer> holdingIds = createArchive(1, THREADS).get(0);
+
+        List<String> views = reserveConcurrently(holdingIds);
+
+        assertEquals(1, Collections.frequency(views, SUCCESS), "successful reservations of " + views);
+        assertEquals(1, countOpenHoldingReservations(holdingIds));
+        for (int holdingId : holdingIds)
+            assertEquals(Holding.Status.RESERVED, getHolding(holdingId).getStatus());
+    }
+
+    @Test
+    public void holdingsOfDifferentContainersAreReservedConcurrently() throws Exception {
+        List<List<Integer>> holdingIds = createArchive(THREADS, 1);
+        List<Integer> firstOfContainers = new ArrayList<>();
+        holdingIds.forEach(inContainer -> firstOfContainers.add(inContainer.get(0)));
+
+        List<String> views = reserveConcurrently(firstOfContainers);
+
+        assertEquals(THREADS, Collections.frequency(views, SUCCESS), "successful reservations of " + views);
+        assertEquals(THREADS, countOpenHoldingReservations(firstOfContainers));
+    }
+
+    @Test
+    public void lockedContainerDoesNotHoldUpOtherContainers() throws Exception {
+        List<List<Integer>> holdingIds = createArchive(2, 2);
+        int locked = holdingIds.get(0).get(0);
+        int sibling = holdingIds.get(0).get(1);
+        int other = holdingIds.get(1).get(0);
+
+        // Keep the first container locked in a transaction, as by a reservation in progress
+        CountDownLatch isLocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> lock = executor.submit(() -> transactionTemplate.executeWithoutResult(status -> {
+            records.lockHoldings(Collections.singletonList(records.getHoldingById(locked)), true);
+            isLocked.countDown();
+            await(release);
+        }));
+        assertTrue(isLocked.await(30, TimeUnit.SECONDS));
+
+        try {
+            // A reservation in another container of the same archive completes while the lock is held
+            Future<String> reserveOther = executor.submit(() -> reserve(other));
+            assertEquals(SUCCESS, reserveOther.get(30, TimeUnit.SECONDS));
+
+            // A reservation in the locked container waits for the lock
+            Future<String> reserveSibling = executor.submit(() -> reserve(sibling));
+            assertThrows(TimeoutException.class, () -> reserveSibling.get(1, TimeUnit.SECONDS));
+
+            release.countDown();
+            assertEquals(SUCCESS, reserveSibling.get(30, TimeUnit.SECONDS));
+        }
+        finally {
+            release.countDown();
+            lock.get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void conflictingEditOfHoldingFails() {
+        int holdingId = createArchive(1, 1).get(0).get(0);
+
+        assertThrows(ObjectOptimisticLockingFailureException.class, () ->
+                transactionTemplate.executeWithoutResult(status -> {
+                    Holding holding = records.getHoldingById(holdingId);
+
+                    newTransactionTemplate.executeWithoutResult(concurrent ->
+                            records.updateHoldingStatus(records.getHoldingById(holdingId), Holding.Status.IN_USE));
+
+                    records.updateHoldingStatus(holding, Holding.Status.RETURNED);
+                    entityManager.flush();
+                }));
+
+        assertEquals(Holding.Status.IN_USE, getHolding(holdingId).getStatus());
+    }
+
+    @Test
+    public void conflictingEditOfReservationFails() throws Exception {
+        int holdingId = createArchive(1, 1).get(0).get(0);
+        assertEquals(SUCCESS, reserve(holdingId));
+        int reservationId = getOpenReservationId(holdingId);
+
+        assertThrows(ObjectOptimisticLockingFailureException.class, () ->
+                transactionTemplate.executeWithoutResult(status -> {
+                    Reservation reservation = reservations.getReservationById(reservationId);
+
+                    newTransactionTemplate.executeWithoutResult(concurrent ->
+                            reservations.getReservationById(reservationId).setVisitorName("Concurrent visitor"));
+
+                    reservation.setVisitorName("Stale visitor");
+                }));
+
+        assertEquals("Concurrent visitor", transactionTemplate.execute(status ->
+                reservations.getReservationById(reservationId).getVisitorName()));
+    }
+
+    @Test
+    public void concurrentStatusChangesDoNotFailReservations() throws Exception {
+        List<List<Integer>> holdingIds = createArchive(2, THREADS);
+        List<Integer> all = new ArrayList<>();
+        holdingIds.forEach(all::addAll);
+
+        AtomicInteger conflicts = new AtomicInteger();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        // Scans and batch status changes of the holdings, which also change the status of the other items
+        List<Callable<Void>> writers = new ArrayList<>();
+        writers.add(() -> {
+            Random random = new Random(1);
+            while (System.nanoTime() < deadline)
+                changeStatus(Collections.singletonList(all.get(random.nextInt(all.size()))), random, conflicts);
+            return null;
+        });
+        writers.add(() -> {
+            Random random = new Random(2);
+            while (System.nanoTime() < deadline) {
+                List<Integer> batch = new ArrayList<>(all);
+                Collections.shuffle(batch, random);
+                changeStatus(batch.subList(0, 4), random, conflicts);
+            }
+            return null;
+        });
+
+        List<Callable<List<String>>> reservers = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Random random = new Random(100 + i);
+            reservers.add(() -> {
+                List<String> views = new ArrayList<>();
+                while (System.nanoTime() < deadline)
+                    views.add(reserve(all.get(random.nextInt(all.size()))));
+                return views;
+            });
+        }
+
+        List<Future<Void>> writerFutures = new ArrayList<>();
+        writers.forEach(writer -> writerFutures.add(executor.submit(writer)));
+        List<Future<List<String>>> reserverFutures = new ArrayList<>();
+        reservers.forEach(reserver -> reserverFutures.add(executor.submit(reserver)));
+
+        // A failed reservation fails its future
+        int reserved = 0;
+        for (Future<List<String>> future : reserverFutures)
+            reserved += future.get(60, TimeUnit.SECONDS).size();
+        for (Future<Void> future : writerFutures)
+            future.get(60, TimeUnit.SECONDS);
+
+        assertTrue(reserved > 0);
+    }
+
+    /**
+     * Changes the status of the given holdings in a transaction, as a scan or a batch status change.
+     * These transactions may conflict with a reservation, and then fail instead of the reservation.
+     */
+    private void changeStatus(List<Integer> holdingIds, Random random, AtomicInteger conflicts) {
+        Holding.Status[] statuses = Holding.Status.values();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                List<Holding> holdings = records.getHoldingsById(holdingIds);
+                records.lockHoldings(holdings, true);
+                for (Holding holding : holdings)
+                    records.updateHoldingStatus(holding, statuses[random.nextInt(statuses.length)]);
+            });
+        }
+        catch (ObjectOptimisticLockingFailureException e) {
+            conflicts.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reserves the given holdings concurrently, one reservation per holding.
+     *
+     * @return The views resolved, in the order of the holdings.
+     */
+    private List<String> reserveConcurrently(List<Integer> holdingIds) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(holdingIds.size());
+        List<Future<String>> futures = new ArrayList<>();
+        for (int holdingId : holdingIds) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return reserve(holdingId);
+            }));
+        }
+
+        List<String> views = new ArrayList<>();
+        for (Future<String> future : futures)
+            views.add(future.get(60, TimeUnit.SECONDS));
+        return views;
+    }
+
+    /**
+     * Submits the visitors create form for the given holding.
+     *
+     * @return The view resolved.
+     */
+    private String reserve(int holdingId) throws Exception {
+        MvcResult result = mockMvc.perform(post("/reservation/createform/{path}", "test")
+                .param("holdingReservations[0].holding", String.valueOf(holdingId))
+                .param("visitorName", "Test visitor")
+                .param("visitorEmail", "visitor@example.org")
+                .param("date", date)
+                .param("captcha_response_field", StandInConfiguration.CAPTCHA_RESPONSE))
+                .andReturn();
+
+        assertEquals(200, result.getResponse().getStatus());
+        return Objects.requireNonNull(result.getModelAndView()).getViewName();
+    }
+
+    private List<List<Integer>> createArchive(int containers, int itemsPerContainer) {
+        return transactionTemplate.execute(status ->
+                ArchiveFixture.createArchive(entityManager, containers, itemsPerContainer));
+    }
+
+    private Holding getHolding(int id) {
+        return transactionTemplate.execute(status -> records.getHoldingById(id));
+    }
+
+    private long countOpenHoldingReservations(List<Integer> holdingIds) {
+        return transactionTemplate.execute(status -> entityManager
+                .createQuery("select count(hr) from HoldingReservation hr " +
+                        "where hr.holding.id in :ids and hr.completed = false", Long.class)
+                .setParameter("ids", holdingIds)
+                .getSingleResult());
+    }
+
+    private int getOpenReservationId(int holdingId) {
+        return transactionTemplate.execute(status -> entityManager
+                .createQuery("select hr.reservation.id from HoldingReservation hr " +
+                        "where hr.holding.id = :id and hr.completed = false", Integer.class)
+                .setParameter("id", holdingId)
+                .getSingleResult());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(60, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
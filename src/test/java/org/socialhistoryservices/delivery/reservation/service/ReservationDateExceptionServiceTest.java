@@ -0,0 +1,78 @@
+package org.socialhistoryservices.delivery.reservation.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.socialhistoryservices.delivery.config.DeliveryProperties;
+import org.socialhistoryservices.delivery.reservation.entity.ReservationDateException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.sql.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the calendar of closed days picks up the ReservationDateExceptions changed by other nodes.
+ */
+@SpringBootTest
+@ActiveProfiles({"test", "standin"})
+public class ReservationDateExceptionServiceTest {
+    private static final Date CLOSED_DAY = Date.valueOf("2100-01-04");
+
+    @Autowired
+    private ReservationDateExceptionService dateExceptions;
+
+    @Autowired
+    private DeliveryProperties deliveryProperties;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private TransactionTemplate transactionTemplate;
+    private int closedDayCalendarSeconds;
+    private Integer exceptionId;
+
+    @BeforeEach
+    public void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        closedDayCalendarSeconds = deliveryProperties.getClosedDayCalendarSeconds();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (exceptionId != null) {
+            transactionTemplate.executeWithoutResult(status ->
+                    entityManager.remove(entityManager.find(ReservationDateException.class, exceptionId)));
+        }
+        deliveryProperties.setClosedDayCalendarSeconds(closedDayCalendarSeconds);
+    }
+
+    @Test
+    public void calendarIsRebuiltOnceExpired() {
+        deliveryProperties.setClosedDayCalendarSeconds(3600);
+        assertFalse(dateExceptions.getClosedDayCalendar().isClosed(CLOSED_DAY));
+
+        // Added by another node, bypassing the service of this node
+        exceptionId = transactionTemplate.execute(status -> {
+            ReservationDateException exception = new ReservationDateException();
+            exception.setStartDate(CLOSED_DAY);
+            exception.setdescription("Closed by another node");
+            entityManager.persist(exception);
+            return exception.getId();
+        });
+
+        assertFalse(dateExceptions.getClosedDayCalendar().isClosed(CLOSED_DAY), "calendar is not yet expired");
+
+        deliveryProperties.setClosedDayCalendarSeconds(0);
+        assertTrue(dateExceptions.getClosedDayCalendar().isClosed(CLOSED_DAY), "calendar is expired");
+    }
+}
@@ -0,0 +1,107 @@
+package org.socialhistoryservices.delivery.reservation.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.socialhistoryservices.delivery.reservation.entity.ReservationDateException;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the calendar of closed days in time zones with and without daylight saving time.
+ */
+public class ClosedDayCalendarTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+
+    private TimeZone defaultTimeZone;
+
+    @BeforeEach
+    public void setUp() {
+        defaultTimeZone = TimeZone.getDefault();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"Europe/Amsterdam", "America/Sao_Paulo", "Pacific/Apia", "UTC"})
+    public void datesAreClosedOnTheirDay(String timeZone) {
+        TimeZone.setDefault(TimeZone.getTimeZone(timeZone));
+        ZoneId zone = ZoneId.of(timeZone);
+        ClosedDayCalendar calendar = ClosedDayCalendar.of(Arrays.asList(
+                exception(LocalDate.of(2011, 12, 28), LocalDate.of(2012, 1, 3), zone),
+                exception(LocalDate.of(2018, 3, 25), null, zone),
+                exception(LocalDate.of(2018, 10, 28), null, zone),
+                exception(LocalDate.of(2018, 11, 4), LocalDate.of(2018, 11, 5), zone)));
+
+        // Every hour of the years around the changes to and from daylight saving time and of the time zone
+        for (int year : new int[]{2011, 2018}) {
+            long start = LocalDate.of(year, 1, 1).atStartOfDay(zone).toInstant().toEpochMilli() - 7 * 24 * HOUR;
+            long end = LocalDate.of(year + 1, 1, 1).atStartOfDay(zone).toInstant().toEpochMilli() + 7 * 24 * HOUR;
+            for (long millis = start; millis < end; millis += HOUR) {
+                Date date = new Date(millis);
+                LocalDate day = ClosedDayCalendar.toLocalDate(date);
+                assertEquals(calendar.isClosed(day), calendar.isClosed(date), date.toString());
+                assertEquals(calendar.isClosed(day), calendar.isClosedDuring(date, null), date.toString());
+            }
+        }
+
+        assertTrue(calendar.isClosed(java.sql.Date.valueOf("2018-03-25")));
+        assertFalse(calendar.isClosed(java.sql.Date.valueOf("2018-03-26")));
+        assertTrue(calendar.isClosedDuring(java.sql.Date.valueOf("2018-10-29"), java.sql.Date.valueOf("2018-11-04")));
+        assertFalse(calendar.isClosedDuring(java.sql.Date.valueOf("2018-10-29"), java.sql.Date.valueOf("2018-11-03")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"Europe/Amsterdam", "America/Sao_Paulo"})
+    public void checkingDatesDoesNotAllocate(String timeZone) {
+        TimeZone.setDefault(TimeZone.getTimeZone(timeZone));
+        ZoneId zone = ZoneId.of(timeZone);
+        ClosedDayCalendar calendar = ClosedDayCalendar.of(Collections.singletonList(
+                exception(LocalDate.of(2020, 3, 1), LocalDate.of(2020, 3, 31), zone)));
+
+        Date[] dates = new Date[1000];
+        long start = LocalDate.of(2020, 1, 1).atStartOfDay(zone).toInstant().toEpochMilli();
+        for (int i = 0; i < dates.length; i++)
+            dates[i] = new Date(start + i * 7 * HOUR);
+
+        int closed = countClosed(calendar, dates);
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100; i++)
+            assertEquals(closed, countClosed(calendar, dates));
+        allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocated;
+
+        // Some bytes may be allocated by measuring itself, but not for each of the 100,000 checks
+        assertTrue(allocated < 10_000, "bytes allocated by checking 100,000 dates: " + allocated);
+    }
+
+    private static int countClosed(ClosedDayCalendar calendar, Date[] dates) {
+        int closed = 0;
+        for (Date date : dates) {
+            if (calendar.isClosed(date))
+                closed++;
+        }
+        return closed;
+    }
+
+    private static ReservationDateException exception(LocalDate start, LocalDate end, ZoneId zone) {
+        ReservationDateException exception = new ReservationDateException();
+        exception.setStartDate(Date.from(start.atStartOfDay(zone).toInstant()));
+        if (end != null)
+            exception.setEndDate(Date.from(end.atStartOfDay(zone).toInstant()));
+        exception.setdescription("Closed");
+        return exception;
+    }
+}
@@ -0,0 +1,33 @@
+package org.socialhistoryservices.delivery.standin;
+
+import com.octo.captcha.service.image.ImageCaptchaService;
+import org.socialhistoryservices.delivery.util.CaptchaEngine;
+import org.socialhistoryservices.delivery.util.DefaultImageCaptchaService;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Configuration of the 'standin' profile, in which the SRW API, the SOR and PayWay are replaced
+ * by the {@link StandInServer}, so the application can be load tested without the remote services.
+ */
+@Configuration
+@Profile("standin")
+public class StandInConfiguration {
+    /**
+     * The captcha response accepted in the 'standin' profile, so the load driver can submit the public forms.
+     */
+    public static final String CAPTCHA_RESPONSE = "standin";
+
+    @Bean
+    @Primary
+    public ImageCaptchaService standInCaptchaService(CaptchaEngine captchaEngine) {
+        return new DefaultImageCaptchaService(captchaEngine) {
+            @Override
+            public Boolean validateResponseForID(String id, Object response) {
+                return CAPTCHA_RESPONSE.equals(response);
+            }
+        };
+    }
+}
@@ -0,0 +1,333 @@
+package org.socialhistoryservices.delivery.standin;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.Header;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load driver for the application running with the 'standin' profile.
+ * Virtual users run the record API, reservation and reproduction flows on randomly chosen PIDs
+ * for a given duration, after which the number of flows and their latencies are reported per outcome.
+ * One in ten PIDs is an item of an archive, the others are books.
+ * <p>
+ * Usage: StandInLoadDriver [--url=http://localhost:8080] [--flows=record,reservation,reproduction]
+ * [--users=8] [--duration=60] [--pids=10000]
+ */
+public class StandInLoadDriver {
+    private static final Pattern INPUT = Pattern.compile("<input\\b[^>]*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile("([\\w-]+)=\"([^\"]*)\"");
+    private static final Pattern STANDARD_OPTION = Pattern.compile("holdingReproductions\\[(\\d+)]\\.standardOption");
+
+    private static final int ORDER_WAIT_MILLIS = 30000;
+    private static final int ORDER_POLL_MILLIS = 500;
+
+    private final String url;
+    private final List<String> flows;
+    private final int pids;
+    private final CloseableHttpClient httpClient;
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private StandInLoadDriver(String url, List<String> flows, int users, int pids) {
+        this.url = url;
+        this.flows = flows;
+        this.pids = pids;
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(users * 2);
+        connectionManager.setDefaultMaxPerRoute(users * 2);
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .disableRedirectHandling()
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                System.err.println("Usage: StandInLoadDriver [--url=http://localhost:8080] " +
+                        "[--flows=record,reservation,reproduction] [--users=8] [--duration=60] [--pids=10000]");
+                System.exit(1);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+
+        String url = options.getOrDefault("url", "http://localhost:8080");
+        List<String> flows = Arrays.asList(options.getOrDefault("flows", "record,reservation,reproduction").split(","));
+        int users = Integer.parseInt(options.getOrDefault("users", "8"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "60"));
+        int pids = Integer.parseInt(options.getOrDefault("pids", "10000"));
+
+        StandInLoadDriver driver = new StandInLoadDriver(url, flows, users, pids);
+        try {
+            driver.run(users, duration);
+            driver.report(duration);
+        }
+        finally {
+            driver.httpClient.close();
+        }
+    }
+
+    /**
+     * Runs the virtual users until the duration has passed.
+     *
+     * @param users    The number of virtual users.
+     * @param duration The duration in seconds.
+     */
+    private void run(int users, int duration) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+        ExecutorService executor = Executors.newFixedThreadPool(users);
+        for (int i = 0; i < users; i++) {
+            executor.execute(() -> {
+                // Every virtual user has its own session
+                HttpClientContext context = HttpClientContext.create();
+                context.setCookieStore(new BasicCookieStore());
+
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline) {
+                    String flow = flows.get(random.nextInt(flows.size()));
+                    runFlow(flow, getRandomPid(random), context);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(duration + 120, TimeUnit.SECONDS);
+    }
+
+    private void runFlow(String flow, String pid, HttpClientContext context) {
+        long start = System.nanoTime();
+        String result;
+        try {
+            switch (flow) {
+                case "record":
+                    result = runRecordFlow(pid, context);
+                    break;
+                case "reservation":
+                    result = runReservationFlow(pid, context);
+                    break;
+                case "reproduction":
+                    result = runReproductionFlow(pid, context);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown flow: " + flow);
+            }
+        }
+        catch (IOException ioe) {
+            result = "error";
+        }
+
+        Timer.builder("flow")
+                .tag("flow", flow)
+                .tag("result", result)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private String runRecordFlow(String pid, HttpClientContext context) throws IOException {
+        Page page = execute(new HttpGet(url + "/record/" + encode(pid)), context);
+        return (page.status == 200) ? "ok" : "error";
+    }
+
+    private String runReservationFlow(String pid, HttpClientContext context) throws IOException {
+        String formUrl = url + "/reservation/createform/" + encode(pid);
+        Page form = execute(new HttpGet(formUrl), context);
+        if (!form.isForm())
+            return (form.status == 200) ? "rejected" : "error";
+
+        Map<String, String> fields = getFormFields(form.body);
+        fields.put("visitorName", "Stand-in visitor");
+        fields.put("visitorEmail", "visitor@example.org");
+        fields.put("captcha_response_field", StandInConfiguration.CAPTCHA_RESPONSE);
+
+        Page result = execute(post(formUrl, fields), context);
+        if (result.status != 200)
+            return "error";
+        return result.isForm() ? "rejected" : "ok";
+    }
+
+    private String runReproductionFlow(String pid, HttpClientContext context) throws IOException {
+        String formUrl = url + "/reproduction/createform/" + encode(pid);
+        Page form = execute(new HttpGet(formUrl), context);
+        if (!form.isForm())
+            return (form.status == 200) ? "rejected" : "error";
+
+        Map<String, String> fields = getFormFields(form.body);
+        for (Map.Entry<String, String> field : new ArrayList<>(fields.entrySet())) {
+            Matcher matcher = STANDARD_OPTION.matcher(field.getKey());
+            if (matcher.matches() && field.getValue().equals("0"))
+                fields.put("holdingReproductions[" + matcher.group(1) + "].customReproductionCustomer",
+                        "Stand-in load test");
+        }
+        fields.put("customerName", "Stand-in customer");
+        fields.put("customerEmail", "customer@example.org");
+        fields.put("captcha_response_field", StandInConfiguration.CAPTCHA_RESPONSE);
+
+        Page created = execute(post(formUrl, fields), context);
+        if (created.status == 200)
+            return created.isForm() ? "rejected" : "pending";
+        if ((created.location == null) || !created.location.contains("/confirm/"))
+            return "error";
+
+        // The reproduction has a price; confirm it and wait for the order to be registered with PayWay
+        Page confirmed = execute(post(created.location,
+                Collections.singletonMap("accept_terms_conditions", "accept")), context);
+        if (confirmed.location == null)
+            return "error";
+
+        long deadline = System.currentTimeMillis() + ORDER_WAIT_MILLIS;
+        String orderUrl = confirmed.location;
+        while (System.currentTimeMillis() < deadline) {
+            Page order = execute(new HttpGet(orderUrl), context);
+            if ((order.location != null) && !order.location.startsWith(url)) {
+                // Redirected to the payment page of PayWay
+                Page payment = execute(new HttpGet(order.location), context);
+                return (payment.status == 200) ? "payed" : "error";
+            }
+            if (order.location != null)
+                return "ordered";
+            if (order.status != 200)
+                return "error";
+
+            try {
+                Thread.sleep(ORDER_POLL_MILLIS);
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return "order_timeout";
+    }
+
+    private Page execute(HttpUriRequest request, HttpClientContext context) throws IOException {
+        try (CloseableHttpResponse response = httpClient.execute(request, context)) {
+            Header location = response.getFirstHeader("Location");
+            String body = (response.getEntity() != null) ? EntityUtils.toString(response.getEntity()) : "";
+            return new Page(response.getStatusLine().getStatusCode(),
+                    (location != null) ? request.getURI().resolve(location.getValue()).toString() : null, body);
+        }
+    }
+
+    private static HttpPost post(String url, Map<String, String> fields) {
+        List<NameValuePair> pairs = new ArrayList<>();
+        fields.forEach((name, value) -> pairs.add(new BasicNameValuePair(name, value)));
+
+        HttpPost post = new HttpPost(URI.create(url));
+        post.setEntity(new UrlEncodedFormEntity(pairs, StandardCharsets.UTF_8));
+        return post;
+    }
+
+    /**
+     * Returns the fields of the form as the browser would submit them:
+     * the (hidden and text) inputs with their values, and the checked radio buttons.
+     *
+     * @param html The HTML with the form.
+     * @return The fields.
+     */
+    private static Map<String, String> getFormFields(String html) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        Matcher inputMatcher = INPUT.matcher(html);
+        while (inputMatcher.find()) {
+            String input = inputMatcher.group();
+            Map<String, String> attributes = new HashMap<>();
+            Matcher attributeMatcher = ATTRIBUTE.matcher(input);
+            while (attributeMatcher.find())
+                attributes.put(attributeMatcher.group(1).toLowerCase(), unescape(attributeMatcher.group(2)));
+
+            String name = attributes.get("name");
+            String type = attributes.getOrDefault("type", "text").toLowerCase();
+            boolean submitted = type.equals("hidden") || type.equals("text")
+                    || (type.equals("radio") && input.contains("checked"));
+            if ((name != null) && submitted && !input.contains("disabled"))
+                fields.put(name, attributes.getOrDefault("value", ""));
+        }
+        return fields;
+    }
+
+    private String getRandomPid(ThreadLocalRandom random) {
+        int n = 1 + random.nextInt(pids);
+        if ((n % 10) == 0)
+            return "10622/ARCH" + n + "." + (1 + random.nextInt(50));
+        return "10622/N" + n;
+    }
+
+    /**
+     * Prints the number of flows, the throughput and the latencies per flow and outcome.
+     *
+     * @param duration The duration of the run in seconds.
+     */
+    private void report(int duration) {
+        System.out.printf("%-14s %-14s %8s %8s %9s %9s %9s %9s %9s%n",
+                "flow", "result", "count", "per sec", "mean ms", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        registry.getMeters().stream()
+                .filter(meter -> meter instanceof Timer)
+                .map(meter -> (Timer) meter)
+                .sorted(Comparator.comparing((Timer timer) -> timer.getId().getTag("flow"))
+                        .thenComparing(timer -> timer.getId().getTag("result")))
+                .forEach(timer -> {
+                    HistogramSnapshot snapshot = timer.takeSnapshot();
+                    Map<Double, Double> percentiles = new HashMap<>();
+                    for (ValueAtPercentile percentile : snapshot.percentileValues())
+                        percentiles.put(percentile.percentile(), percentile.value(TimeUnit.MILLISECONDS));
+
+                    System.out.printf("%-14s %-14s %8d %8.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n",
+                            timer.getId().getTag("flow"), timer.getId().getTag("result"), snapshot.count(),
+                            snapshot.count() / (double) duration, snapshot.mean(TimeUnit.MILLISECONDS),
+                            percentiles.getOrDefault(0.5, 0.0), percentiles.getOrDefault(0.95, 0.0),
+                            percentiles.getOrDefault(0.99, 0.0), snapshot.max(TimeUnit.MILLISECONDS));
+                });
+    }
+
+    private static String encode(String pid) {
+        return URLEncoder.encode(pid, StandardCharsets.UTF_8);
+    }
+
+    private static String unescape(String value) {
+        return value.replace("&quot;", "\"").replace("&lt;", "<").replace("&gt;", ">")
+                .replace("&#39;", "'").replace("&amp;", "&");
+    }
+
+    private static final class Page {
+        private final int status;
+        private final String location;
+        private final String body;
+
+        private Page(int status, String location, String body) {
+            this.status = status;
+            this.location = location;
+            this.body = body;
+        }
+
+        /**
+         * Whether the page is the (re-rendered) create form, which has the captcha.
+         */
+        private boolean isForm() {
+            return (status == 200) && body.contains("captcha_response_field");
+        }
+    }
+}
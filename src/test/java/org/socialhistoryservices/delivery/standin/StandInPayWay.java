@@ -0,0 +1,124 @@
+package org.socialhistoryservices.delivery.standin;
+
+import org.socialhistoryservices.delivery.api.PayWayMessage;
+import org.socialhistoryservices.delivery.api.PayWayService;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the orders of the stand-in PayWay in memory, and answers the messages of the application
+ * with messages signed the way PayWay signs them.
+ */
+final class StandInPayWay {
+    private final PayWayService signer;
+    private final AtomicLong orderIds = new AtomicLong(1000);
+    private final Map<Long, PayWayMessage> orders = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the stand-in PayWay.
+     *
+     * @param passPhraseIn  The pass phrase of the messages to PayWay.
+     * @param passPhraseOut The pass phrase of the messages from PayWay.
+     * @param projectName   The name of the project.
+     */
+    StandInPayWay(String passPhraseIn, String passPhraseOut, String projectName) {
+        // Seen from PayWay the pass phrases are reversed: it validates the incoming and signs the outgoing messages
+        this.signer = new PayWayService(null, passPhraseOut, passPhraseIn, projectName, null);
+    }
+
+    /**
+     * Answers a message sent to the given PayWay API.
+     *
+     * @param apiName The name of the API.
+     * @param message The message.
+     * @return The signed answer.
+     */
+    PayWayMessage handle(String apiName, PayWayMessage message) {
+        if ((message.get("shasign") == null) || !signer.isValid(message))
+            return failure();
+
+        Long orderId = message.getLong("orderid");
+        PayWayMessage order = (orderId != null) ? orders.get(orderId) : null;
+        switch (apiName) {
+            case "createOrder":
+                return createOrder(message);
+            case "orderDetails":
+                return (order != null) ? success(order) : failure();
+            case "refundPayment":
+                return (order != null) ? refundPayment(order, message) : failure();
+            default:
+                return failure();
+        }
+    }
+
+    /**
+     * Pays the order with the given id, as if the customer completed the payment page.
+     *
+     * @param orderId The id of the order.
+     * @return Whether the order exists.
+     */
+    boolean pay(long orderId) {
+        PayWayMessage order = orders.get(orderId);
+        if (order == null)
+            return false;
+
+        synchronized (order) {
+            order.put("payed", PayWayMessage.ORDER_PAYED);
+            order.put("updatedat", new Date());
+        }
+        return true;
+    }
+
+    private PayWayMessage createOrder(PayWayMessage message) {
+        long orderId = orderIds.incrementAndGet();
+        Date now = new Date();
+
+        PayWayMessage order = new PayWayMessage();
+        order.put("orderid", orderId);
+        order.put("ordercode", "STANDIN-" + orderId);
+        order.put("amount", message.getLong("amount"));
+        order.put("payed", PayWayMessage.ORDER_NOT_PAYED);
+        order.put("paymentmethod", message.getInteger("paymentmethod"));
+        order.put("createdat", now);
+        order.put("updatedat", now);
+        order.put("com", message.getString("com"));
+        orders.put(orderId, order);
+
+        PayWayMessage answer = new PayWayMessage();
+        answer.put("orderid", orderId);
+        return success(answer);
+    }
+
+    private PayWayMessage refundPayment(PayWayMessage order, PayWayMessage message) {
+        synchronized (order) {
+            Long amount = message.getLong("amount");
+            order.put("refundedamount", (amount != null) ? amount : order.getLong("amount"));
+            order.put("refundedat", new Date());
+            order.put("payed", PayWayMessage.ORDER_REFUND_OGONE);
+            order.put("updatedat", new Date());
+        }
+
+        PayWayMessage answer = new PayWayMessage();
+        answer.put("orderid", order.getLong("orderid"));
+        return success(answer);
+    }
+
+    private PayWayMessage success(PayWayMessage message) {
+        PayWayMessage answer;
+        synchronized (message) {
+            answer = new PayWayMessage(message);
+        }
+        answer.put("success", true);
+        signer.signTransaction(answer, true);
+        return answer;
+    }
+
+    private static PayWayMessage failure() {
+        PayWayMessage answer = new PayWayMessage();
+        answer.put("success", false);
+        return answer;
+    }
+}
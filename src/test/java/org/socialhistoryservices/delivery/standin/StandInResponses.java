@@ -0,0 +1,215 @@
+package org.socialhistoryservices.delivery.standin;
+
+import java.util.List;
+
+/**
+ * Generates the documents served by the stand-in server: SRW responses with MARCXML records,
+ * EAD documents, and the metadata and METS documents of the SOR.
+ * PIDs of which the local part starts with 'ARCH' are archives described by an EAD document,
+ * all other PIDs are books with a single holding.
+ */
+final class StandInResponses {
+    private static final String[] METS_USES =
+            {"archive image", "hires reference image", "reference image", "thumbnail image"};
+
+    private StandInResponses() {
+    }
+
+    /**
+     * Returns whether the PID (with or without naming authority) is of an archive.
+     *
+     * @param pid The PID.
+     * @return Whether the PID is of an archive.
+     */
+    static boolean isArchive(String pid) {
+        return getLocalPart(pid).startsWith("ARCH");
+    }
+
+    /**
+     * Returns an SRW response with the metadata records of the given PIDs.
+     *
+     * @param pids            The PIDs of the records.
+     * @param numberOfRecords The total number of records found.
+     * @param titles          The titles of the records, or null to generate them.
+     * @param baseUrl         The base URL of the stand-in server, to link the EAD documents to.
+     * @return The SRW response.
+     */
+    static String getSearchResponse(List<String> pids, int numberOfRecords, List<String> titles, String baseUrl) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        sb.append("<srw:searchRetrieveResponse xmlns:srw=\"http://www.loc.gov/zing/srw/\">");
+        sb.append("<srw:numberOfRecords>").append(numberOfRecords).append("</srw:numberOfRecords>");
+        sb.append("<srw:records>");
+        for (int i = 0; i < pids.size(); i++) {
+            String pid = pids.get(i);
+            sb.append("<srw:record><srw:recordData>");
+            appendMARCRecord(sb, pid, (titles != null) ? titles.get(i) : null, baseUrl);
+            sb.append("</srw:recordData><srw:extraRecordData>");
+            sb.append("<extraData:extraData xmlns:extraData=\"http://oclc.org/srw/extraData\">");
+            sb.append("<iisg:identifier xmlns:iisg=\"http://www.iisg.nl/api/sru/\">")
+                    .append(escape(pid)).append("</iisg:identifier>");
+            sb.append("</extraData:extraData></srw:extraRecordData></srw:record>");
+        }
+        sb.append("</srw:records></srw:searchRetrieveResponse>");
+        return sb.toString();
+    }
+
+    /**
+     * Returns an SRW response with the archival record (with the 931 fields) of the given archive.
+     *
+     * @param id    The local part of the PID of the archive.
+     * @param items The number of items in the archive.
+     * @return The SRW response.
+     */
+    static String getArchivalSearchResponse(String id, int items) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        sb.append("<srw:searchRetrieveResponse xmlns:srw=\"http://www.loc.gov/zing/srw/\">");
+        sb.append("<srw:numberOfRecords>1</srw:numberOfRecords><srw:records><srw:record><srw:recordData>");
+        sb.append("<marc:record xmlns:marc=\"http://www.loc.gov/MARC21/slim\">");
+        sb.append("<marc:leader>00000npc a22</marc:leader>");
+        appendDataField(sb, "852", 'c', "IISG", 'j', id);
+        appendDataField(sb, "931", 'a', "Stand-in depot", 'b', (items / 20.0) + " m",
+                'c', "1-" + items, 'e', "Boxes");
+        sb.append("</marc:record></srw:recordData></srw:record></srw:records></srw:searchRetrieveResponse>");
+        return sb.toString();
+    }
+
+    /**
+     * Returns an OAI-PMH response with the EAD document of the given archive.
+     * The items are grouped in series of ten, and are stored in boxes of five.
+     *
+     * @param id    The local part of the PID of the archive.
+     * @param items The number of items in the archive.
+     * @return The OAI-PMH response.
+     */
+    static String getEADResponse(String id, int items) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        sb.append("<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\"><GetRecord><record><metadata>");
+        sb.append("<ead xmlns=\"urn:isbn:1-931666-22-9\"><archdesc level=\"fonds\"><did>");
+        sb.append("<unittitle>Stand-in archive ").append(escape(id)).append("</unittitle>");
+        sb.append("<unitid>").append(escape(id)).append("</unitid>");
+        sb.append("<origination label=\"Creator\"><persname>Stand-in creator</persname></origination>");
+        sb.append("<physdesc label=\"Physical Description\"><extent>").append(items / 20.0)
+                .append(" m</extent></physdesc>");
+        sb.append("</did><descgrp><accessrestrict type=\"open\"><p>Open</p></accessrestrict></descgrp><dsc>");
+        for (int item = 1; item <= items; item++) {
+            if ((item % 10) == 1)
+                sb.append("<c01 level=\"series\"><did><unittitle>Series ").append((item / 10) + 1)
+                        .append("</unittitle></did>");
+
+            sb.append("<c02 level=\"file\"><did>");
+            sb.append("<unittitle>Item ").append(item).append("</unittitle>");
+            sb.append("<unitid>").append(item).append("</unitid>");
+            sb.append("<container type=\"box\">").append(((item - 1) / 5) + 1).append("</container>");
+            sb.append("</did></c02>");
+
+            if (((item % 10) == 0) || (item == items))
+                sb.append("</c01>");
+        }
+        sb.append("</dsc></archdesc></ead></metadata></record></GetRecord></OAI-PMH>");
+        return sb.toString();
+    }
+
+    /**
+     * Returns the SOR metadata of the given PID; one in four PIDs is described by a METS document.
+     *
+     * @param pid The PID.
+     * @return The SOR metadata.
+     */
+    static String getSorMetadataResponse(String pid) {
+        String contentType = isMETS(pid) ? "text/xml" : "image/tiff";
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?><orfiles><orfile>" +
+                "<pid>" + escape(pid) + "</pid>" +
+                "<master><contentType>" + contentType + "</contentType>" +
+                "<content x-resolution=\"300\" y-resolution=\"300\" width=\"2480\" height=\"3508\"/></master>" +
+                "<level1><contentType>image/jpeg</contentType>" +
+                "<content x-resolution=\"150\" y-resolution=\"150\" width=\"1240\" height=\"1754\"/></level1>" +
+                "</orfile></orfiles>";
+    }
+
+    /**
+     * Returns the METS document of the given PID.
+     *
+     * @param pid   The PID.
+     * @param pages The number of pages.
+     * @return The METS document.
+     */
+    static String getMETSResponse(String pid, int pages) {
+        String local = getLocalPart(pid);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        sb.append("<mets xmlns=\"http://www.loc.gov/METS/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">");
+        sb.append("<fileSec>");
+        for (int group = 0; group < METS_USES.length; group++) {
+            sb.append("<fileGrp ID=\"g").append(group).append("\" USE=\"").append(METS_USES[group]).append("\">");
+            for (int page = 1; page <= pages; page++) {
+                sb.append("<file ID=\"f").append(group).append('_').append(page)
+                        .append("\" MIMETYPE=\"image/jpeg\"><FLocat LOCTYPE=\"HANDLE\" xlink:href=\"")
+                        .append("http://hdl.handle.net/10622/").append(escape(local)).append('-')
+                        .append(group).append('-').append(page).append("?locatt=view:level").append(group)
+                        .append("\"/></file>");
+            }
+            sb.append("</fileGrp>");
+        }
+        sb.append("</fileSec><structMap TYPE=\"physical\"><div>");
+        for (int page = 1; page <= pages; page++) {
+            sb.append("<div TYPE=\"page\" ORDER=\"").append(page).append("\">");
+            for (int group = 0; group < METS_USES.length; group++)
+                sb.append("<fptr FILEID=\"f").append(group).append('_').append(page).append("\"/>");
+            sb.append("</div>");
+        }
+        sb.append("</div></structMap></mets>");
+        return sb.toString();
+    }
+
+    private static void appendMARCRecord(StringBuilder sb, String pid, String title, String baseUrl) {
+        String id = getLocalPart(pid);
+        int hash = Math.floorMod(pid.hashCode(), 100000000);
+
+        sb.append("<marc:record xmlns:marc=\"http://www.loc.gov/MARC21/slim\">");
+        if (isArchive(pid)) {
+            sb.append("<marc:leader>00000npc a22</marc:leader>");
+            appendDataField(sb, "100", 'a', "Stand-in creator");
+            appendDataField(sb, "245", 'a', (title != null) ? title : "Stand-in archive " + id);
+            appendDataField(sb, "852", 'c', "IISG", 'j', id);
+            appendDataField(sb, "856", 'u', baseUrl + "/ead/" + id + "?locatt=view:ead");
+        }
+        else {
+            sb.append("<marc:leader>00000nam a22</marc:leader>");
+            appendDataField(sb, "100", 'a', "Author " + (hash % 1000));
+            appendDataField(sb, "245", 'a', (title != null) ? title : "Stand-in title " + id);
+            appendDataField(sb, "260", 'c', String.valueOf(1900 + (hash % 120)));
+            appendDataField(sb, "300", 'a', (50 + (hash % 450)) + " p.");
+            appendDataField(sb, "852", 'c', "IISG", 'j', "N " + id, 'p', String.format("3005%08d", hash));
+        }
+        sb.append("</marc:record>");
+    }
+
+    /**
+     * Appends a MARC datafield with the given pairs of subfield codes and values.
+     */
+    private static void appendDataField(StringBuilder sb, String tag, Object... subfields) {
+        sb.append("<marc:datafield tag=\"").append(tag).append("\" ind1=\" \" ind2=\" \">");
+        for (int i = 0; i < subfields.length; i += 2) {
+            sb.append("<marc:subfield code=\"").append(subfields[i]).append("\">")
+                    .append(escape(subfields[i + 1].toString())).append("</marc:subfield>");
+        }
+        sb.append("</marc:datafield>");
+    }
+
+    private static boolean isMETS(String pid) {
+        return Math.floorMod(pid.hashCode(), 4) == 0;
+    }
+
+    private static String getLocalPart(String pid) {
+        int idx = pid.indexOf('/');
+        return (idx >= 0) ? pid.substring(idx + 1) : pid;
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
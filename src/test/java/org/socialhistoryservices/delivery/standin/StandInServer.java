@@ -0,0 +1,320 @@
+package org.socialhistoryservices.delivery.standin;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.socialhistoryservices.delivery.api.PayWayMessage;
+import org.socialhistoryservices.delivery.config.DeliveryProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Embedded stand-in for the SRW API, the SOR and PayWay, started in the 'standin' profile.
+ * Serves canned documents from a directory if available, and generated documents otherwise,
+ * after a configurable latency and with a configurable rate of failures (503 responses).
+ * <ul>
+ * <li>/srw: SRW searches by PID, by multiple PIDs, for archival records and by title.</li>
+ * <li>/ead/{id}: EAD documents of the archives.</li>
+ * <li>/sor/metadata/{pid} and /sor/file/master/{pid}: SOR metadata and METS documents.</li>
+ * <li>/payway/{api}: the PayWay API, with the orders kept in memory;
+ * /payway/payment pays an order, as if the customer completed the payment page.</li>
+ * </ul>
+ */
+@Component
+@Profile("standin")
+public class StandInServer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StandInServer.class);
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final Pattern PID_QUERY = Pattern.compile("dc\\.identifier\\s*=\\s*\"([^\"]+)\"");
+    private static final Pattern PIDS_QUERY = Pattern.compile("dc\\.identifier\\s+any\\s+\"([^\"]+)\"");
+    private static final Pattern ARCHIVAL_QUERY = Pattern.compile("marc\\.852\\$j\\s*=\\s*\"([^\"]+)\"");
+    private static final Pattern TITLE_QUERY = Pattern.compile("marc\\.245\\s+all\\s+\"([^\"]*)\"");
+
+    private static final String XML = "text/xml; charset=utf-8";
+
+    @Autowired
+    private DeliveryProperties deliveryProperties;
+
+    private final MeterRegistry meterRegistry;
+    private ExecutorService executor;
+    private HttpServer server;
+    private StandInPayWay payWay;
+    private String baseUrl;
+
+    @Autowired
+    public StandInServer(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    private void start() throws IOException {
+        // Requests queue up rather than being rejected, as they would at a saturated remote service
+        int threads = deliveryProperties.getStandInThreads();
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new CustomizableThreadFactory("standin-"));
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        executor = ExecutorServiceMetrics.monitor(meterRegistry, threadPoolExecutor, "standIn");
+
+        payWay = new StandInPayWay(deliveryProperties.getPayWayPassPhraseIn(),
+                deliveryProperties.getPayWayPassPhraseOut(), deliveryProperties.getPayWayProjectName());
+
+        int port = deliveryProperties.getStandInPort();
+        baseUrl = "http://localhost:" + port;
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(executor);
+        server.createContext("/srw", exchange -> handle(exchange, "srw", this::handleSearch));
+        server.createContext("/ead/", exchange -> handle(exchange, "ead", this::handleEAD));
+        server.createContext("/sor/metadata/", exchange -> handle(exchange, "sor", this::handleSorMetadata));
+        server.createContext("/sor/file/master/", exchange -> handle(exchange, "mets", this::handleMETS));
+        server.createContext("/payway/", exchange -> handle(exchange, "payway", this::handlePayWay));
+        server.start();
+
+        LOGGER.info(String.format("start(): Stand-in server listening on %s", baseUrl));
+    }
+
+    @PreDestroy
+    private void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Handles a request: waits for the configured latency, possibly fails it,
+     * and otherwise answers it with the given handler.
+     *
+     * @param exchange The exchange.
+     * @param service  The name of the service, for the metrics.
+     * @param handler  The handler of the service.
+     */
+    private void handle(HttpExchange exchange, String service, Handler handler) throws IOException {
+        String result = "ok";
+        try {
+            int latency = deliveryProperties.getStandInLatencyMillis();
+            int jitter = deliveryProperties.getStandInLatencyJitterMillis();
+            if (jitter > 0)
+                latency += ThreadLocalRandom.current().nextInt(jitter + 1);
+            if (latency > 0)
+                Thread.sleep(latency);
+
+            Response response;
+            if (ThreadLocalRandom.current().nextDouble() < deliveryProperties.getStandInFailureRate()) {
+                result = "failed";
+                response = new Response(503, "text/plain", "Service unavailable");
+            }
+            else {
+                response = handler.handle(exchange);
+                if (response.status >= 400)
+                    result = String.valueOf(response.status);
+            }
+
+            byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", response.contentType);
+            exchange.sendResponseHeaders(response.status, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            result = "interrupted";
+        }
+        catch (RuntimeException re) {
+            LOGGER.error(String.format("handle(): Failed to handle %s", exchange.getRequestURI()), re);
+            result = "error";
+            exchange.sendResponseHeaders(500, -1);
+        }
+        finally {
+            exchange.close();
+            meterRegistry.counter("delivery.standin.requests", "service", service, "result", result).increment();
+        }
+    }
+
+    private Response handleSearch(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = getParameters(exchange.getRequestURI().getRawQuery());
+        String query = parameters.getOrDefault("query", "");
+        int maximumRecords = getInt(parameters, "maximumRecords", 1);
+        int startRecord = getInt(parameters, "startRecord", 1);
+
+        Matcher matcher = ARCHIVAL_QUERY.matcher(query);
+        if (matcher.find()) {
+            String id = decode(matcher.group(1));
+            String canned = getCanned("srw", "archival-" + id);
+            if (canned != null)
+                return new Response(200, XML, canned);
+            if (!StandInResponses.isArchive(id))
+                return search(Collections.emptyList(), 0, null);
+            return new Response(200, XML,
+                    StandInResponses.getArchivalSearchResponse(id, deliveryProperties.getStandInArchiveItems()));
+        }
+
+        matcher = PIDS_QUERY.matcher(query);
+        if (matcher.find()) {
+            List<String> pids = new ArrayList<>();
+            for (String pid : matcher.group(1).split("[\\s+]+")) {
+                if (!pid.isEmpty())
+                    pids.add(decode(pid));
+            }
+            return search(pids, pids.size(), null);
+        }
+
+        matcher = PID_QUERY.matcher(query);
+        if (matcher.find()) {
+            String pid = decode(matcher.group(1));
+            String canned = getCanned("srw", pid);
+            return (canned != null)
+                    ? new Response(200, XML, canned) : search(Collections.singletonList(pid), 1, null);
+        }
+
+        matcher = TITLE_QUERY.matcher(query);
+        if (matcher.find()) {
+            String title = decode(matcher.group(1)).trim();
+            int total = deliveryProperties.getStandInSearchResults();
+            List<String> pids = new ArrayList<>();
+            List<String> titles = new ArrayList<>();
+            for (int i = startRecord; (i <= total) && (i < startRecord + maximumRecords); i++) {
+                pids.add("10622/T" + i);
+                titles.add(title + " " + i);
+            }
+            return search(pids, total, titles);
+        }
+
+        return new Response(400, "text/plain", "Unsupported query: " + query);
+    }
+
+    private Response search(List<String> pids, int numberOfRecords, List<String> titles) {
+        return new Response(200, XML, StandInResponses.getSearchResponse(pids, numberOfRecords, titles, baseUrl));
+    }
+
+    private Response handleEAD(HttpExchange exchange) throws IOException {
+        String id = getPathRemainder(exchange);
+        if (!StandInResponses.isArchive(id))
+            return new Response(404, "text/plain", "No such archive: " + id);
+
+        String canned = getCanned("ead", id);
+        return new Response(200, XML, (canned != null) ? canned
+                : StandInResponses.getEADResponse(id, deliveryProperties.getStandInArchiveItems()));
+    }
+
+    private Response handleSorMetadata(HttpExchange exchange) throws IOException {
+        String pid = getPathRemainder(exchange);
+        String canned = getCanned("sor", pid);
+        return new Response(200, XML, (canned != null) ? canned : StandInResponses.getSorMetadataResponse(pid));
+    }
+
+    private Response handleMETS(HttpExchange exchange) throws IOException {
+        String pid = getPathRemainder(exchange);
+        String canned = getCanned("mets", pid);
+        return new Response(200, XML, (canned != null) ? canned
+                : StandInResponses.getMETSResponse(pid, deliveryProperties.getStandInMetsPages()));
+    }
+
+    private Response handlePayWay(HttpExchange exchange) throws IOException {
+        String apiName = getPathRemainder(exchange);
+        if (apiName.equals("payment")) {
+            Map<String, String> parameters = getParameters(exchange.getRequestURI().getRawQuery());
+            PayWayMessage message = new PayWayMessage(parameters);
+            Long orderId = message.getLong("orderid");
+            if ((orderId == null) || !payWay.pay(orderId))
+                return new Response(404, "text/plain", "No such order");
+            return new Response(200, "text/html; charset=utf-8",
+                    "<html><body><p>Order " + orderId + " is payed.</p></body></html>");
+        }
+
+        String body;
+        try (InputStream inputStream = exchange.getRequestBody()) {
+            body = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        PayWayMessage answer = payWay.handle(apiName, new PayWayMessage(getParameters(body)));
+        return new Response(200, "application/json", OBJECT_MAPPER.writeValueAsString(answer));
+    }
+
+    /**
+     * Returns the canned document of the given type and key, if the directory with canned documents
+     * is configured and contains it as {type}/{key}.xml, with the characters of the key other than
+     * letters, digits, dots, dashes and underscores replaced by underscores.
+     *
+     * @param type The type of the document.
+     * @param key  The key of the document.
+     * @return The document, or null if there is none.
+     */
+    private String getCanned(String type, String key) throws IOException {
+        String directory = deliveryProperties.getStandInCannedDirectory();
+        if (directory == null)
+            return null;
+
+        Path path = Paths.get(directory, type, key.replaceAll("[^A-Za-z0-9._-]", "_") + ".xml");
+        return Files.isRegularFile(path) ? Files.readString(path) : null;
+    }
+
+    private static String getPathRemainder(HttpExchange exchange) {
+        String contextPath = exchange.getHttpContext().getPath();
+        return exchange.getRequestURI().getPath().substring(contextPath.length());
+    }
+
+    private static Map<String, String> getParameters(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null)
+            return parameters;
+
+        for (String parameter : query.split("&")) {
+            String[] nameAndValue = parameter.split("=", 2);
+            if (!nameAndValue[0].isEmpty())
+                parameters.put(decode(nameAndValue[0]), (nameAndValue.length > 1) ? decode(nameAndValue[1]) : "");
+        }
+        return parameters;
+    }
+
+    private static int getInt(Map<String, String> parameters, String name, int defaultValue) {
+        try {
+            return parameters.containsKey(name) ? Integer.parseInt(parameters.get(name)) : defaultValue;
+        }
+        catch (NumberFormatException nfe) {
+            return defaultValue;
+        }
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+    private interface Handler {
+        Response handle(HttpExchange exchange) throws IOException;
+    }
+
+    private static final class Response {
+        private final int status;
+        private final String contentType;
+        private final String body;
+
+        private Response(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+}